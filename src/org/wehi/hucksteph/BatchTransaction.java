@@ -0,0 +1,132 @@
+package org.wehi.hucksteph;
+
+import org.neo4j.graphdb.*;
+
+/**
+ * A write transaction that commits every batchSize operations instead of holding the whole change set on the heap.
+ * Because earlier batches are already committed when a later one fails, the first batch committed before the last
+ * one marks a node of the store, and the mark is only removed once the last batch has committed. A store still
+ * holding the mark was left half written and is refused by checkComplete. The mark is a label rather than a node of
+ * its own, which would take a node id and shift the ids of every node written after it
+ *
+ * Only call tick() or commit() where no node or relationship iterators are open, they don't survive a commit
+ */
+public class BatchTransaction implements AutoCloseable {
+
+    public static final Integer DEFAULT_BATCH_SIZE = 10000;
+    public static final String MARKER_LABEL = "WRITE_IN_PROGRESS";
+    private static final String OPERATION = "Operation";
+
+    private final GraphDatabaseService graphDb;
+    private final Integer batchSize;
+    private final String operation;
+    private Long markerId = null;
+    private Transaction tx;
+    private Integer ops = 0;
+    private Integer commits = 0;
+    private Boolean success = false;
+
+    /**
+     * Starts the first batch
+     * @param graphDb
+     * @param operation the name of the write (CreateDB, IntegratePSP, ...) recorded on the marker
+     * @param batchSize the number of operations per commit
+     */
+    public BatchTransaction(GraphDatabaseService graphDb, String operation, Integer batchSize) {
+        if(batchSize < 1){
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.graphDb = graphDb;
+        this.batchSize = batchSize;
+        this.operation = operation;
+        tx = graphDb.beginTx();
+    }
+
+    public BatchTransaction(GraphDatabaseService graphDb, String operation) {
+        this(graphDb, operation, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Counts one operation and commits the current batch once it is full
+     */
+    public void tick(){
+        ops ++;
+        if(ops % batchSize == 0){
+            commit();
+        }
+    }
+
+    /**
+     * Commits the current batch early, at the end of a stage of the write
+     */
+    public void commit(){
+        if(markerId == null){
+            // the species node, which no write removes, or any node of a store without one
+            ResourceIterator<Node> nodes = graphDb.findNodes(Label.label("SPECIES"));
+            if(!nodes.hasNext()){
+                nodes.close();
+                nodes = graphDb.getAllNodes().iterator();
+            }
+            if(nodes.hasNext()){
+                Node marker = nodes.next();
+                marker.addLabel(Label.label(MARKER_LABEL));
+                marker.setProperty(OPERATION, operation);
+                markerId = marker.getId();
+            }
+            nodes.close();
+        }
+        tx.success();
+        tx.close();
+        commits ++;
+        tx = graphDb.beginTx();
+    }
+
+    /**
+     * Marks the whole write as successful, the last batch is committed and the marker removed on close
+     */
+    public void success(){
+        success = true;
+    }
+
+    public Integer getOps() {
+        return ops;
+    }
+
+    public Integer getCommits() {
+        return commits;
+    }
+
+    /**
+     * Commits the last batch and removes the mark if success() was called, otherwise rolls it back and leaves the
+     * mark in place
+     */
+    @Override
+    public void close(){
+        if(success){
+            if(markerId != null){
+                Node marker = graphDb.getNodeById(markerId);
+                marker.removeLabel(Label.label(MARKER_LABEL));
+                marker.removeProperty(OPERATION);
+            }
+            tx.success();
+            commits ++;
+        }
+        tx.close();
+    }
+
+    /**
+     * Throws if a previous batched write to this database never finished
+     * @param graphDb
+     */
+    public static void checkComplete(GraphDatabaseService graphDb){
+        try (Transaction tx = graphDb.beginTx()) {
+            ResourceIterator<Node> markers = graphDb.findNodes(Label.label(MARKER_LABEL));
+            if(markers.hasNext()){
+                String operation = markers.next().getProperty(OPERATION).toString();
+                throw new IllegalStateException("Database was left incomplete by a failed " + operation +
+                        ", rebuild it from the original files before using it");
+            }
+            tx.success();
+        }
+    }
+}
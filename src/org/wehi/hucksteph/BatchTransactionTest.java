@@ -0,0 +1,88 @@
+package org.wehi.hucksteph;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchTransactionTest {
+
+    File DATABASE_ACTUAL_PATH = new File("test/actual");
+
+    @Test
+    void testBatchesCommitAndMarkerRemoved() {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/");
+        File tempGraph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/GRAPH/");
+
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(tempGraph);
+        Integer commits;
+        try(BatchTransaction tx = new BatchTransaction(graphDb, "Test", 3)){
+            for (int i = 0; i < 10; i++) {
+                graphDb.createNode(Label.label("BATCH_TEST"));
+                tx.tick();
+            }
+            tx.success();
+            commits = tx.getCommits();
+        }
+        BatchTransaction.checkComplete(graphDb);
+
+        Long numTestNodes = 0L;
+        Long numMarkers = 0L;
+        try(Transaction tx = graphDb.beginTx()){
+            numTestNodes = graphDb.findNodes(Label.label("BATCH_TEST")).stream().count();
+            numMarkers = graphDb.findNodes(Label.label(BatchTransaction.MARKER_LABEL)).stream().count();
+            tx.success();
+        }
+        graphDb.shutdown();
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        assertEquals(3, (int) commits);
+        assertEquals(10L, (long) numTestNodes);
+        assertEquals(0L, (long) numMarkers);
+    }
+
+    @Test
+    void testFailedWriteLeavesMarker() {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/");
+        File tempGraph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/GRAPH/");
+
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(tempGraph);
+        try(BatchTransaction tx = new BatchTransaction(graphDb, "Test", 3)){
+            for (int i = 0; i < 10; i++) {
+                graphDb.createNode(Label.label("BATCH_TEST"));
+                tx.tick();
+            }
+            // no success, the last batch is rolled back
+        }
+
+        Long numTestNodes = 0L;
+        try(Transaction tx = graphDb.beginTx()){
+            numTestNodes = graphDb.findNodes(Label.label("BATCH_TEST")).stream().count();
+            tx.success();
+        }
+        IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> BatchTransaction.checkComplete(graphDb));
+        graphDb.shutdown();
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        // the first 3 batches were already committed
+        assertEquals(9L, (long) numTestNodes);
+        assertTrue(thrown.getMessage().contains("failed Test"));
+    }
+}
@@ -0,0 +1,138 @@
+package org.wehi.hucksteph;
+
+import org.apache.commons.math3.special.Gamma;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Upper tails of the binomial distribution, P(X >= successes), the p-value commons-math's BinomialTest gives with
+ * AlternativeHypothesis.GREATER_THAN. Built once for a database with a log factorial table up to its number of
+ * measured entities, the tail is summed directly from its largest term with the ratio between terms, so only one log
+ * space term is worked out per tail. Neighbourhoods of the same size and number measured share a p-value, so each
+ * (trials, successes, probability) is worked out once and kept. Safe to use from several threads.
+ *
+ * Agrees with BinomialTest to within ABSOLUTE_TOLERANCE, and RELATIVE_TOLERANCE for tails above 1e-6, up to 20000
+ * trials. The log factorials are good to about n log(n) ulps so the error grows slowly with the number of trials.
+ * BinomialTest takes the tail as one minus the lower tail, so tails below about 1e-16 come out of it as rounding
+ * error or 0, these are worked out here in full
+ */
+class BinomialTail {
+
+    static final double ABSOLUTE_TOLERANCE = 1.0E-10;
+    static final double RELATIVE_TOLERANCE = 1.0E-9;
+    // the terms left once a term is this much smaller than the sum don't change it
+    private static final double EPSILON = 1.0E-17;
+
+    private final double[] logFactorials;
+    private final ConcurrentHashMap<Key, Double> tails = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxTrials the largest number of trials tails will be asked for, the number of entities measured in
+     *                  the database
+     */
+    BinomialTail(int maxTrials) {
+        if (maxTrials < 0) {
+            throw new IllegalArgumentException("The number of trials must not be negative: " + maxTrials);
+        }
+        logFactorials = new double[maxTrials + 1];
+        for (int i = 2; i <= maxTrials; i++) {
+            logFactorials[i] = Gamma.logGamma(i + 1.0);
+        }
+    }
+
+    /**
+     * @param trials
+     * @param successes
+     * @param probability the probability of a success
+     * @return the probability of at least successes successes in trials trials
+     */
+    double upperTail(int trials, int successes, double probability) {
+        if (trials < 0 || trials >= logFactorials.length) {
+            throw new IllegalArgumentException("The number of trials must be between 0 and " +
+                    (logFactorials.length - 1) + ": " + trials);
+        }
+        if (successes < 0 || successes > trials) {
+            throw new IllegalArgumentException("The number of successes must be between 0 and the number of trials (" +
+                    trials + "): " + successes);
+        }
+        if (!(probability >= 0 && probability <= 1)) {
+            throw new IllegalArgumentException("The probability must be between 0 and 1: " + probability);
+        }
+        if (successes == 0 || probability == 1) {
+            return 1.0;
+        }
+        if (probability == 0) {
+            return 0.0;
+        }
+        return tails.computeIfAbsent(new Key(trials, successes, probability), this::sum);
+    }
+
+    /**
+     * @return the number of tails worked out so far
+     */
+    int size() {
+        return tails.size();
+    }
+
+    private double sum(Key key) {
+        int n = key.trials;
+        int k = key.successes;
+        double p = key.probability;
+        double ratio = p / (1 - p);
+
+        if (k > n * p) {
+            // above the mean the terms only get smaller from k
+            double term = Math.exp(logTerm(n, k, p));
+            double sum = term;
+            for (int i = k; i < n && term > sum * EPSILON; i++) {
+                term *= (double) (n - i) / (i + 1) * ratio;
+                sum += term;
+            }
+            return Math.min(sum, 1.0);
+        }
+        // at or below the mean the tail is close to 1, the terms below k only get smaller from k - 1
+        int i = k - 1;
+        double term = Math.exp(logTerm(n, i, p));
+        double sum = term;
+        for (; i > 0 && term > sum * EPSILON; i--) {
+            term *= i / ((n - i + 1) * ratio);
+            sum += term;
+        }
+        return Math.max(1.0 - sum, 0.0);
+    }
+
+    /**
+     * @return the log of the probability of exactly k successes
+     */
+    private double logTerm(int n, int k, double p) {
+        return logFactorials[n] - logFactorials[k] - logFactorials[n - k] + k * Math.log(p) + (n - k) * Math.log1p(-p);
+    }
+
+    private static final class Key {
+        private final int trials;
+        private final int successes;
+        private final double probability;
+
+        Key(int trials, int successes, double probability) {
+            this.trials = trials;
+            this.successes = successes;
+            this.probability = probability;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return trials == key.trials && successes == key.successes &&
+                    Double.compare(probability, key.probability) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(trials, successes, probability);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.wehi.hucksteph;
+
+import org.apache.commons.math3.stat.inference.AlternativeHypothesis;
+import org.apache.commons.math3.stat.inference.BinomialTest;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinomialTailTest {
+
+    @Test
+    void testMatchesBinomialTest() {
+        BinomialTail tails = new BinomialTail(20000);
+        BinomialTest bn = new BinomialTest();
+        Random random = new Random(7);
+        int[] trials = {1, 2, 10, 100, 1000, 5000, 20000};
+        for (int n : trials) {
+            for (int i = 0; i < 200; i++) {
+                int k = 1 + random.nextInt(Math.min(n, 200));
+                double p = random.nextDouble() * (i % 2 == 0 ? 0.01 : 1.0);
+                double expected = bn.binomialTest(n, k, p, AlternativeHypothesis.GREATER_THAN);
+                double actual = tails.upperTail(n, k, p);
+                double tolerance = BinomialTail.ABSOLUTE_TOLERANCE;
+                if (expected > 1e-6) {
+                    tolerance = Math.min(tolerance, expected * BinomialTail.RELATIVE_TOLERANCE);
+                }
+                assertEquals(expected, actual, tolerance, n + " " + k + " " + p);
+            }
+        }
+    }
+
+    @Test
+    void testEdgeCases() {
+        BinomialTail tails = new BinomialTail(10);
+        assertEquals(1.0, tails.upperTail(10, 0, 0.3));
+        assertEquals(0.0, tails.upperTail(10, 3, 0.0));
+        assertEquals(1.0, tails.upperTail(10, 3, 1.0));
+        assertEquals(Math.pow(0.3, 10), tails.upperTail(10, 10, 0.3), 1e-15);
+        assertEquals(1.0, tails.upperTail(0, 0, 0.3));
+        // only the tail that had to be summed is kept
+        assertEquals(1, tails.size());
+
+        assertThrows(IllegalArgumentException.class, () -> tails.upperTail(11, 1, 0.3));
+        assertThrows(IllegalArgumentException.class, () -> tails.upperTail(10, 11, 0.3));
+        assertThrows(IllegalArgumentException.class, () -> tails.upperTail(10, -1, 0.3));
+        assertThrows(IllegalArgumentException.class, () -> tails.upperTail(10, 1, 1.5));
+        assertThrows(IllegalArgumentException.class, () -> tails.upperTail(10, 1, Double.NaN));
+        assertThrows(IllegalArgumentException.class, () -> new BinomialTail(-1));
+    }
+
+    @Test
+    void testTailsAreKept() {
+        BinomialTail tails = new BinomialTail(100);
+        double first = tails.upperTail(100, 4, 0.02);
+        assertEquals(1, tails.size());
+        assertEquals(first, tails.upperTail(100, 4, 0.02));
+        assertEquals(1, tails.size());
+        tails.upperTail(100, 5, 0.02);
+        tails.upperTail(100, 4, 0.03);
+        assertEquals(3, tails.size());
+    }
+
+    @Test
+    void testBenchmarkAgainstBinomialTest() {
+        // neighbourhoods as the analysis sees them: a few thousand measured in the database, small neighbourhoods
+        // of which only some sizes and numbers measured come up
+        int dbMeasured = 3000;
+        double numInDb = 10000;
+        int neighbourhoods = 20000;
+        Random random = new Random(11);
+        int[] sizes = new int[neighbourhoods];
+        int[] measured = new int[neighbourhoods];
+        for (int i = 0; i < neighbourhoods; i++) {
+            sizes[i] = 1 + random.nextInt(60);
+            measured[i] = 1 + random.nextInt(sizes[i]);
+        }
+
+        double commonsSum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < neighbourhoods; i++) {
+            BinomialTest bn = new BinomialTest();
+            commonsSum += bn.binomialTest(dbMeasured, measured[i], sizes[i] / numInDb, AlternativeHypothesis.GREATER_THAN);
+        }
+        long commons = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        BinomialTail tails = new BinomialTail(dbMeasured);
+        double coldSum = 0;
+        for (int i = 0; i < neighbourhoods; i++) {
+            coldSum += tails.upperTail(dbMeasured, measured[i], sizes[i] / numInDb);
+        }
+        long cold = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        double warmSum = 0;
+        for (int i = 0; i < neighbourhoods; i++) {
+            warmSum += tails.upperTail(dbMeasured, measured[i], sizes[i] / numInDb);
+        }
+        long warm = System.nanoTime() - start;
+
+        System.out.println(neighbourhoods + " neighbourhoods, " + tails.size() + " distinct tails");
+        System.out.println("BinomialTest: " + commons / 1000000 + " ms");
+        System.out.println("BinomialTail, new: " + cold / 1000000 + " ms (" + (double) commons / cold + "x)");
+        System.out.println("BinomialTail, kept: " + warm / 1000000 + " ms (" + (double) commons / warm + "x)");
+
+        assertEquals(coldSum, warmSum);
+        assertEquals(commonsSum, coldSum, neighbourhoods * BinomialTail.ABSOLUTE_TOLERANCE);
+    }
+}
@@ -0,0 +1,79 @@
+package org.wehi.hucksteph;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Writes which traversals reached each node as a Cytoscape table, a column per traversal holding its start node id
+ * if it reached the node. Nodes are numbered as they are first reached and each traversal keeps a bitset over those
+ * numbers, so a row costs one bit test per traversal and nothing is rebuilt per column
+ */
+class CytoscapeMembershipWriter {
+
+    private final long[] sources;
+    private final String[] sourceNames;
+    private final BitSet[] reached;
+    private final HashMap<Long, Integer> index = new HashMap<>();
+    private long[] nodes = new long[1024];
+
+    /**
+     * @param sources the start node id of each traversal, in column order
+     */
+    CytoscapeMembershipWriter(long[] sources) {
+        this.sources = sources;
+        sourceNames = new String[sources.length];
+        reached = new BitSet[sources.length];
+        for (int s = 0; s < sources.length; s++) {
+            sourceNames[s] = String.valueOf(sources[s]);
+            reached[s] = new BitSet();
+        }
+    }
+
+    /**
+     * Records that a traversal reached a node
+     * @param source the traversal's column
+     * @param nodeId
+     */
+    void reached(int source, long nodeId) {
+        Integer i = index.get(nodeId);
+        if (i == null) {
+            i = index.size();
+            index.put(nodeId, i);
+            if (i == nodes.length) {
+                nodes = Arrays.copyOf(nodes, nodes.length * 2);
+            }
+            nodes[i] = nodeId;
+        }
+        reached[source].set(i);
+    }
+
+    /**
+     * Writes the header and a row per node, in the order the nodes were first reached
+     * @param out
+     * @param firstColumn the header of the node id column
+     * @throws IOException
+     */
+    void write(BufferedWriter out, String firstColumn) throws IOException {
+        out.write(firstColumn + "\t");
+        for (long source : sources) {
+            out.write(source + "_stream\t");
+        }
+        out.write("\n");
+
+        int size = index.size();
+        for (int i = 0; i < size; i++) {
+            out.write(Long.toString(nodes[i]));
+            out.write('\t');
+            for (int s = 0; s < sources.length; s++) {
+                if (reached[s].get(i)) {
+                    out.write(sourceNames[s]);
+                }
+                out.write('\t');
+            }
+            out.write('\n');
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.wehi.hucksteph;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CytoscapeMembershipWriterTest {
+
+    @Test
+    void testRowsInFirstReachedOrder() throws IOException {
+        // two proteoforms whose traversals overlap on nodes 5 and 9
+        CytoscapeMembershipWriter membership = new CytoscapeMembershipWriter(new long[]{12, 30});
+        for (long nodeId : new long[]{12, 5, 9, 7}) {
+            membership.reached(0, nodeId);
+        }
+        for (long nodeId : new long[]{30, 9, 41, 5}) {
+            membership.reached(1, nodeId);
+        }
+        // reaching a node again changes nothing
+        membership.reached(0, 5);
+
+        StringWriter table = new StringWriter();
+        BufferedWriter out = new BufferedWriter(table);
+        membership.write(out, "ID_3");
+        out.close();
+
+        assertEquals("ID_3\t12_stream\t30_stream\t\n" +
+                "12\t12\t\t\n" +
+                "5\t12\t30\t\n" +
+                "9\t12\t30\t\n" +
+                "7\t12\t\t\n" +
+                "30\t\t30\t\n" +
+                "41\t\t30\t\n", table.toString());
+    }
+
+    @Test
+    void testManyNodes() throws IOException {
+        CytoscapeMembershipWriter membership = new CytoscapeMembershipWriter(new long[]{0, 1});
+        for (long nodeId = 5000; nodeId > 0; nodeId--) {
+            membership.reached((int) (nodeId % 2), nodeId);
+        }
+
+        StringWriter table = new StringWriter();
+        BufferedWriter out = new BufferedWriter(table);
+        membership.write(out, "ID");
+        out.close();
+
+        String[] rows = table.toString().split("\n");
+        assertEquals(5001, rows.length);
+        assertEquals("5000\t0\t\t", rows[1]);
+        assertEquals("4999\t\t1\t", rows[2]);
+        assertEquals("1\t\t1\t", rows[5000]);
+    }
+}
@@ -14,14 +14,23 @@ import org.biopax.paxtools.model.level3.Entity;
 import org.biopax.paxtools.model.level3.Process;
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+import org.neo4j.unsafe.batchinsert.BatchRelationship;
 import org.neo4j.unsafe.impl.batchimport.input.InputException;
 
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 public class DatabaseFactory {
     private File owlFile;
@@ -34,6 +43,28 @@ public class DatabaseFactory {
     private GraphDatabaseService graphDb;
     private String xmlBase;
 
+    private Integer batchSize = BatchTransaction.DEFAULT_BATCH_SIZE;
+
+    // stage one descriptors of every physical entity and interaction, by BioPAX RDF id
+    private ConcurrentHashMap<String, NodeDescriptor> descriptors = new ConcurrentHashMap<>();
+    private Integer threads = Runtime.getRuntime().availableProcessors();
+
+    // leaf components of every complex and entity set, by BioPAX RDF id
+    private ConcurrentHashMap<String, FutureTask<Set<PhysicalEntity>>> flattenedComponents = new ConcurrentHashMap<>();
+    private AtomicInteger complexesExpanded = new AtomicInteger();
+    private AtomicInteger complexesReused = new AtomicInteger();
+
+    // BioPAX RDF id -> node id of every physical entity and interaction node made by createDBfromOWL
+    private HashMap<String, Long> nodeCache = new HashMap<>();
+    private Integer cacheHits = 0;
+    private Integer cacheMisses = 0;
+
+    // bulk import state
+    private BatchInserter inserter;
+    private HashMap<String, Long> bulkNodeIds;
+    private HashMap<String, Long> bulkUIDIds;
+    private LinkedHashMap<Long, String> bulkComplexes;
+
     private final String secondaryAccessionFile = "ftp://ftp.uniprot.org/pub/databases/uniprot/current_release/knowledgebase/complete/docs/sec_ac.txt";
     private final String humanUniProtNames = "https://www.uniprot.org/uniprot/?query=*&format=tab&columns=id,genes(PREFERRED)&fil=organism:%22Homo%20sapiens%20(Human)%20[9606]%22%20AND%20reviewed:yes";
     private final String humanUIDs = "https://www.uniprot.org/uniprot/?query=organism:9606&format=tab&columns=id";
@@ -111,6 +142,22 @@ public class DatabaseFactory {
     public DatabaseFactory() {
     }
 
+    /**
+     * Sets the number of conversions, proteins, reactions, pathways and complexes written per commit in createDBfromOWL
+     * @param batchSize
+     */
+    public void setBatchSize(Integer batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the number of threads used to describe the model before it is written
+     * @param threads
+     */
+    public void setThreads(Integer threads) {
+        this.threads = threads;
+    }
+
     /**
      *  createDBfromOWL creates a neo4j embedded graph database
      *  updates uniprot id's automatically using the latest version of uniprot if updates parameter set to true
@@ -120,21 +167,7 @@ public class DatabaseFactory {
         databaseDir.mkdir();
 
         // Create Model to get all conversions
-        FileInputStream fin = null;
-        try {
-            fin = new FileInputStream(owlFile);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            System.exit(1);
-        }
-        BioPAXIOHandler handler = new SimpleIOHandler();
-        Model model = handler.convertFromOWL(fin);
-        xmlBase = model.getXmlBase();
-
-        if(update){
-            model = updateBiopaxModel(model);
-            xmlBase = model.getXmlBase();
-        }
+        Model model = readModel();
 
         Set<Conversion> conversionSet = model.getObjects(Conversion.class);
         Set<TemplateReaction> templateReactionSet = model.getObjects(TemplateReaction.class);
@@ -142,6 +175,13 @@ public class DatabaseFactory {
         Set<Protein> proteinSet = model.getObjects(Protein.class);
         Set<Pathway> pathwaySet = model.getObjects(Pathway.class);
 
+        // index lookup keys before any nodes are made so createNode's findNode calls don't scan labels
+        DatabaseSchema.createIndexes(graphDb, getClassLabels(model));
+
+        // stage one, work out every node and conversion edge in parallel before writing anything
+        List<Conversion> conversions = new ArrayList<>(conversionSet);
+        List<List<EdgeDescriptor>> conversionEdges = describeModel(model, conversions);
+
         try (Transaction tx = graphDb.beginTx()) {
             // set species node
             if(species.equalsIgnoreCase("h") | species.equalsIgnoreCase("human") | species.equals("9606")){
@@ -158,119 +198,61 @@ public class DatabaseFactory {
             tx.success();
         }
 
-
-        try (Transaction tx = graphDb.beginTx()) {
-            for (Conversion conversion : conversionSet) {
-                // current reaction we are looking at
-                Node rxn = createNode(conversion);
-
-                //get all input, outputs and controls
-                Set<PhysicalEntity> LeftSet = conversion.getLeft();
-                Set<PhysicalEntity> RightSet = conversion.getRight();
-                Set<Control> controllerSet = conversion.getControlledOf();
-
-                // create all nodes if they don't already exist
-                // create separate edge type for small molecules for traversals
-                for (PhysicalEntity left : LeftSet) {
-                    Node input = createNode(left);
-                    if(input.getProperty(PropertyType.TYPE.toString()).toString().equals("SmallMolecule")){
-                        //input.createRelationshipTo(rxn, RelTypes.SMALL_MOL_EDGE);
-                        Relationship relationship = input.createRelationshipTo(rxn, RelTypes.SMALL_MOL_EDGE);
-                        relationship.setProperty(PropertyType.SMALL_MOL_EDGE.toString(), "Input");
-                    }else{
-                        input.createRelationshipTo(rxn, RelTypes.INPUT);
-                    }
-                }
-                for (PhysicalEntity right : RightSet) {
-                    Node output = createNode(right);
-                    if(output.getProperty(PropertyType.TYPE.toString()).toString().equals("SmallMolecule")){
-                        //rxn.createRelationshipTo(output, RelTypes.SMALL_MOL_EDGE);
-                        Relationship relationship = rxn.createRelationshipTo(output, RelTypes.SMALL_MOL_EDGE);
-                        relationship.setProperty(PropertyType.SMALL_MOL_EDGE.toString(), "Output");
-                    }else {
-                        rxn.createRelationshipTo(output, RelTypes.OUTPUT);
-                    }
-                }
-                for (Control controlRXN : controllerSet) {
-                    Node control = createNode(controlRXN);
-                    if (controlRXN.getControlType() == null){
-                        control.createRelationshipTo(rxn, RelTypes.CATALYSIS);
-                    }else {
-                        control.createRelationshipTo(rxn, RelationshipType.withName(controlRXN.getControlType().toString()));
-                    }
-                    Set<Controller> controllersOfControl = controlRXN.getController();
-                    for (Controller controllers : controllersOfControl) {
-                        Node controller = createNode(controllers);
-                        controller.createRelationshipTo(control, RelTypes.CONTROLS);
-
-                    }
+        // commits every batchSize conversions, proteins, reactions, pathways and complexes, and at the end of each stage
+        try (BatchTransaction tx = new BatchTransaction(graphDb, "CreateDB", batchSize)) {
+            for (int i = 0; i < conversions.size(); i++) {
+                // current reaction we are looking at, then its inputs, outputs, controls and controllers
+                createNode(conversions.get(i));
+                for (EdgeDescriptor edge : conversionEdges.get(i)) {
+                    createEdge(edge);
                 }
+                tx.tick();
             }
-            tx.success();
-        }
-
+            tx.commit();
 
-        try (Transaction tx = graphDb.beginTx()) {
             // add all proteins not in a reaction
             for(Protein protein: proteinSet) {
                 Node protNode = graphDb.findNode(Label.label("Protein"), PropertyType.DB_ID.toString(), " ");
                 if(protNode == null){
                     createNode(protein);
                 }
+                tx.tick();
             }
             // add template reactions and their controllers
 
             //controller -- ctrls --> templateReactionRegulation -- ACTIVATES --> template Reaction -- OUTPUT --> product
             for(TemplateReaction tr: templateReactionSet){
-                Node trNode = graphDb.createNode(Label.label(LabelTypes.INTERACTION.toString()));
-                trNode.addLabel(Label.label(classToString(tr.getClass().toString())));
-                trNode.setProperty(PropertyType.DB_ID.toString(), entityToString(tr));
-                if (tr.getName().isEmpty()) {
-                    trNode.setProperty(PropertyType.DISPLAY_NAME.toString(), "NA");
-                } else {
-                    trNode.setProperty(PropertyType.DISPLAY_NAME.toString(), tr.getName().toString());
-                }
-                trNode.setProperty(PropertyType.TYPE.toString(), classToString(tr.getClass().toString()));
-                trNode.setProperty(PropertyType.DB_CONNECTION.toString(), databaseLink(tr));
+                Node trNode = createDescribedNode(descriptor(tr));
 
                 Set<PhysicalEntity> products = tr.getProduct();
                 for (PhysicalEntity product: products) {
-                    Node productNode = graphDb.findNode(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()), PropertyType.DB_ID.toString(), entityToString(product));
+                    Node productNode = findEntityNode(product);
                     trNode.createRelationshipTo(productNode, RelTypes.OUTPUT);
                 }
-
+                tx.tick();
             }
 
             for(TemplateReactionRegulation trr: templateReactionRegulationSet){
-                Node trrNode = graphDb.createNode(Label.label(LabelTypes.INTERACTION.toString()));
-                trrNode.addLabel(Label.label(classToString(trr.getClass().toString())));
-                trrNode.setProperty(PropertyType.DB_ID.toString(), entityToString(trr));
-                if (trr.getName().isEmpty()) {
-                    trrNode.setProperty(PropertyType.DISPLAY_NAME.toString(), "NA");
-                } else {
-                    trrNode.setProperty(PropertyType.DISPLAY_NAME.toString(), trr.getName().toString());
-                }
-                trrNode.setProperty(PropertyType.TYPE.toString(), classToString(trr.getClass().toString()));
-                trrNode.setProperty(PropertyType.DB_CONNECTION.toString(), databaseLink(trr));
+                Node trrNode = createDescribedNode(descriptor(trr));
 
                 Set<Controller> controllerSet = trr.getController();
                 for (Controller controller: controllerSet) {
                     Node ctrlNode = createNode(controller);
-                    ctrlNode.createRelationshipTo(trrNode, RelTypes.CONTROLS);
+                    if(ctrlNode != null){
+                        ctrlNode.createRelationshipTo(trrNode, RelTypes.CONTROLS);
+                    }
                 }
                 Set<Process> controlledSet = trr.getControlled();
                 ControlType controlType = trr.getControlType();
                 for (Process rxn: controlledSet) {
-                    Node rxnNode = graphDb.findNode(Label.label(LabelTypes.INTERACTION.toString()), PropertyType.DB_ID.toString(), entityToString(rxn));
+                    Node rxnNode = findEntityNode(rxn);
                     trrNode.createRelationshipTo(rxnNode, RelationshipType.withName(controlType.toString()));
                 }
+                tx.tick();
             }
-            tx.success();
-        }
+            tx.commit();
 
 
-        try (Transaction tx = graphDb.beginTx()) {
-
             // make a node for each pathway
             for (Pathway pathway : pathwaySet) {
                 Set<Xref> xrefs = pathway.getXref();
@@ -291,6 +273,7 @@ public class DatabaseFactory {
                 pth.setProperty(PropertyType.DB_ID.toString(), id);
                 pth.setProperty(PropertyType.DB_CONNECTION.toString(), databaseLink(pathway));
                 pth.setProperty(PropertyType.TYPE.toString(), "Pathway");
+                tx.tick();
             }
 
             // then go through and add attachments and components
@@ -317,8 +300,7 @@ public class DatabaseFactory {
                 // get interactions that are a part of each pathway
                 for (Process process : pathwayComponent) {
                     if(process instanceof Interaction){
-                        Node intraction = graphDb.findNode(Label.label(LabelTypes.INTERACTION.toString()),
-                                PropertyType.DB_ID.toString(), entityToString(process));
+                        Node intraction = findEntityNode(process);
 
                         // if the interaction node exists
                         if(!(intraction == null)){
@@ -374,29 +356,374 @@ public class DatabaseFactory {
                         pth.createRelationshipTo(componentPth, RelTypes.SUB_PATHWAY);
                     }
                 }
+                tx.tick();
             }
+            tx.commit();
+
+            // adds physical entity components not directly involved in interactions
+            addComponents( model, tx);
+            addUniProtAnnotations();
             tx.success();
         }
+        printCacheStats();
 
+        graphDb.shutdown();
+        EmbeddedNeo4jDatabase.topologyChanged(databaseDir);
+    }
 
-        // adds physical entity components not directly involved in interactions
-        try (Transaction tx = graphDb.beginTx()) {
-            addComponents( model);
-            if(species.equalsIgnoreCase("Human") || species.equalsIgnoreCase("h")){
-                addLabelsToDB("KINASE", KINASES);
-                addLabelsToDB("TRANSCRIPTION_FACTOR", TRANSCRIPTION_FACTORS);
-                addLabelsToDB("CELL_SURFACE_RECEPTOR", CELL_SURFACE_RECEPTORS);
-            }else if(species.equalsIgnoreCase("Mouse") | species.equalsIgnoreCase("m")){
-                addLabelsToDB("KINASE", KINASES_MOUSE);
-                addLabelsToDB("TRANSCRIPTION_FACTOR", TRANSCRIPTION_FACTORS_MOUSE);
-                addLabelsToDB("CELL_SURFACE_RECEPTOR", CELL_SURFACE_RECEPTORS_MOUSE);
+    /**
+     * Reads in the OWL file and updates its UniProt ids if the update parameter is set to true
+     * @return the biopax model
+     */
+    private Model readModel(){
+        FileInputStream fin = null;
+        try {
+            fin = new FileInputStream(owlFile);
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        BioPAXIOHandler handler = new SimpleIOHandler();
+        Model model = handler.convertFromOWL(fin);
+        xmlBase = model.getXmlBase();
+
+        if(update){
+            model = updateBiopaxModel(model);
+            xmlBase = model.getXmlBase();
+        }
+        return model;
+    }
+
+    /**
+     * Adds the KINASE, TRANSCRIPTION_FACTOR and CELL_SURFACE_RECEPTOR properties and UniProt gene names for the species
+     */
+    private void addUniProtAnnotations(){
+        if(species.equalsIgnoreCase("Human") || species.equalsIgnoreCase("h")){
+            addLabelsToDB("KINASE", KINASES);
+            addLabelsToDB("TRANSCRIPTION_FACTOR", TRANSCRIPTION_FACTORS);
+            addLabelsToDB("CELL_SURFACE_RECEPTOR", CELL_SURFACE_RECEPTORS);
+        }else if(species.equalsIgnoreCase("Mouse") | species.equalsIgnoreCase("m")){
+            addLabelsToDB("KINASE", KINASES_MOUSE);
+            addLabelsToDB("TRANSCRIPTION_FACTOR", TRANSCRIPTION_FACTORS_MOUSE);
+            addLabelsToDB("CELL_SURFACE_RECEPTOR", CELL_SURFACE_RECEPTORS_MOUSE);
+        }
+        addUniProtGeneNames();
+    }
+
+    /**
+     *  createDBfromOWLBulk builds the same graph as createDBfromOWL offline through the batch inserter.
+     *  The model is walked once and DB_ID's are resolved from an in memory map rather than from the store,
+     *  indexes, labels and gene names are added through the embedded database once the inserter has finished
+     */
+    public void createDBfromOWLBulk(){
+
+        databaseDir.mkdir();
+
+        Model model = readModel();
+
+        Set<Conversion> conversionSet = model.getObjects(Conversion.class);
+        Set<TemplateReaction> templateReactionSet = model.getObjects(TemplateReaction.class);
+        Set<TemplateReactionRegulation> templateReactionRegulationSet = model.getObjects(TemplateReactionRegulation.class);
+        Set<Protein> proteinSet = model.getObjects(Protein.class);
+        Set<Pathway> pathwaySet = model.getObjects(Pathway.class);
+
+        List<Conversion> conversions = new ArrayList<>(conversionSet);
+        List<List<EdgeDescriptor>> conversionEdges = describeModel(model, conversions);
+
+        Map<String, Object> speciesProperties = new HashMap<>();
+        if(species.equalsIgnoreCase("h") | species.equalsIgnoreCase("human") | species.equals("9606")){
+            speciesProperties.put("Species", "Human");
+        }else if(species.equalsIgnoreCase("m") | species.equalsIgnoreCase("mouse") | species.equals("10090")){
+            speciesProperties.put("Species", "Mouse");
+        }
+        else{
+            throw new InputException("Species must be either Human (\"h\", \"human\", \"9606\"), or Mouse (\"m\", \"mouse\", \"10090\")");
+        }
+
+        // the batch inserter needs the store to itself
+        graphDb.shutdown();
+        try {
+            inserter = BatchInserters.inserter(databaseDir);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        bulkNodeIds = new HashMap<>();
+        bulkUIDIds = new HashMap<>();
+        bulkComplexes = new LinkedHashMap<>();
+
+        try {
+            inserter.createNode(speciesProperties, Label.label("SPECIES"));
+
+            for (int i = 0; i < conversions.size(); i++) {
+                bulkNode(conversions.get(i));
+                for (EdgeDescriptor edge : conversionEdges.get(i)) {
+                    bulkEdge(edge);
+                }
             }
-            addUniProtGeneNames();
-            tx.success();
+
+            // add all proteins not in a reaction
+            for(Protein protein: proteinSet) {
+                bulkNode(protein);
+            }
+
+            //controller -- ctrls --> templateReactionRegulation -- ACTIVATES --> template Reaction -- OUTPUT --> product
+            for(TemplateReaction tr: templateReactionSet){
+                long trNode = bulkCreateNode(descriptor(tr));
+                for (PhysicalEntity product: tr.getProduct()) {
+                    inserter.createRelationship(trNode, bulkNode(product), RelTypes.OUTPUT, null);
+                }
+            }
+            for(TemplateReactionRegulation trr: templateReactionRegulationSet){
+                long trrNode = bulkCreateNode(descriptor(trr));
+                for (Controller controller: trr.getController()) {
+                    Long ctrlNode = bulkNode(controller);
+                    if(ctrlNode != null){
+                        inserter.createRelationship(ctrlNode, trrNode, RelTypes.CONTROLS, null);
+                    }
+                }
+                for (Process rxn: trr.getControlled()) {
+                    inserter.createRelationship(trrNode, bulkNodeIds.get(entityToString(rxn)),
+                            RelationshipType.withName(trr.getControlType().toString()), null);
+                }
+            }
+
+            // make a node for each pathway
+            HashMap<Pathway, Long> pathwayNodes = new HashMap<>();
+            for (Pathway pathway : pathwaySet) {
+                Map<String, Object> pathwayProperties = new LinkedHashMap<>();
+                pathwayProperties.put(PropertyType.DISPLAY_NAME.toString(), pathway.getDisplayName());
+                pathwayProperties.put(PropertyType.DB_ID.toString(), pathwayId(pathway));
+                pathwayProperties.put(PropertyType.DB_CONNECTION.toString(), databaseLink(pathway));
+                pathwayProperties.put(PropertyType.TYPE.toString(), "Pathway");
+                pathwayNodes.put(pathway, inserter.createNode(pathwayProperties, Label.label(LabelTypes.PATHWAY.toString())));
+            }
+
+            // then attach each pathway's interactions and their inputs, outputs and controllers
+            for (Pathway pathway : pathwaySet) {
+                long pth = pathwayNodes.get(pathway);
+                HashSet<Long> attached = new HashSet<>();
+                for (Process process : pathway.getPathwayComponent()) {
+                    if(process instanceof Interaction){
+                        Long intraction = bulkNodeIds.get(entityToString(process));
+                        if(intraction != null){
+                            bulkAttach(pth, intraction, attached);
+                            for(BatchRelationship relationship: inserter.getRelationships(intraction)){
+                                String type = relationship.getType().name();
+                                if(type.equals(RelTypes.INPUT.name())){
+                                    bulkAttach(pth, relationship.getStartNode(), attached);
+                                }else if(type.equals(RelTypes.OUTPUT.name())){
+                                    bulkAttach(pth, relationship.getEndNode(), attached);
+                                }else if(type.equals("ACTIVATION") || type.equals("INHIBITION")){
+                                    long ctrlStartNode = relationship.getStartNode();
+                                    for(BatchRelationship relationship1: inserter.getRelationships(ctrlStartNode)){
+                                        if(relationship1.getEndNode() == ctrlStartNode & relationship1.getType().name().equals(RelTypes.CONTROLS.name())){
+                                            bulkAttach(pth, relationship1.getStartNode(), attached);
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    if(process instanceof Pathway){
+                        inserter.createRelationship(pth, pathwayNodes.get(process), RelTypes.SUB_PATHWAY, null);
+                    }
+                }
+            }
+
+            // adds physical entity components not directly involved in interactions
+            for (Map.Entry<Long, String> complex: new ArrayList<>(bulkComplexes.entrySet())) {
+                Complex complexRXM = (Complex) model.getByID(complex.getValue());
+                for(PhysicalEntity physicalEntity: complexRXM.getComponent()){
+                    Long component = bulkNodeIds.get(entityToString(physicalEntity));
+                    if(component == null){
+                        component = bulkCreateNode(descriptor(physicalEntity));
+                        inserter.createRelationship(component, complex.getKey(), RelTypes.COMPONENT, null);
+                        if(physicalEntity instanceof Complex){
+                            bulkRecurseComponents((Complex) physicalEntity, component);
+                        }
+                    }else{
+                        inserter.createRelationship(component, complex.getKey(), RelTypes.COMPONENT, null);
+                    }
+                }
+                for(PhysicalEntity physicalEntity: complexRXM.getMemberPhysicalEntity()){
+                    Long member = bulkNodeIds.get(entityToString(physicalEntity));
+                    if(member == null){
+                        member = bulkCreateNode(descriptor(physicalEntity));
+                    }
+                    inserter.createRelationship(member, complex.getKey(), RelTypes.COMPONENT, null);
+                }
+            }
+        } finally {
+            inserter.shutdown();
+            inserter = null;
+            bulkNodeIds = null;
+            bulkUIDIds = null;
+            bulkComplexes = null;
         }
 
+        graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        registerShutdownHook(graphDb);
+        DatabaseSchema.createIndexes(graphDb, getClassLabels(model));
+        addUniProtAnnotations();
         graphDb.shutdown();
+        EmbeddedNeo4jDatabase.topologyChanged(databaseDir);
+    }
+
+    /**
+     * updateDB brings an existing database up to date with the OWL file without rebuilding it
+     * the OWL file is bulk built into this factory's database directory, only the interactions, physical entities,
+     * phosphorylations and pathways that differ are then changed in the existing database, so mapped scores and
+     * integrated PSP data on everything else are kept.
+     * Neo4j locks the parent folder of a database, so this factory's database can't sit in the same folder as the existing one
+     * @param existingDb the database to update
+     */
+    public void updateDB(File existingDb){
+        if(!existingDb.exists()){
+            throw new IllegalArgumentException("Database to update does not exist: " + existingDb);
+        }else if(existingDb.getAbsoluteFile().getParentFile().equals(databaseDir.getAbsoluteFile().getParentFile())){
+            throw new IllegalArgumentException("The updated database must be built in a different folder to " + existingDb.getAbsoluteFile().getParentFile());
+        }
+        createDBfromOWLBulk();
+
+        GraphDatabaseService updatedDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        registerShutdownHook(updatedDb);
+        GraphDatabaseService existingGraphDb = new GraphDatabaseFactory().newEmbeddedDatabase(existingDb);
+        registerShutdownHook(existingGraphDb);
+        try {
+            new DatabaseUpdater(existingGraphDb, updatedDb, batchSize).update();
+            DatabaseSchema.createIndexes(existingGraphDb, DatabaseSchema.getClassLabels(existingGraphDb));
+        } finally {
+            updatedDb.shutdown();
+            existingGraphDb.shutdown();
+        }
+        EmbeddedNeo4jDatabase.topologyChanged(existingDb);
+    }
+
+    /**
+     * bulk import version of createNode, finds the node id for an entity or creates it
+     * @param entity
+     * @return the node id, or null if the entity isn't a physical entity or interaction
+     */
+    private Long bulkNode(Entity entity){
+        return bulkNode(descriptor(entity));
+    }
+
+    private Long bulkNode(NodeDescriptor descriptor){
+        if(descriptor == null){
+            return null;
+        }
+        Long node = bulkNodeIds.get(descriptor.getDbId());
+        if(node != null){
+            return node;
+        }
+        return bulkCreateNode(descriptor);
+    }
+
+    /**
+     * bulk import version of createDescribedNode, also makes a protein's UID, phosphorylation and modification nodes
+     * @param descriptor
+     * @return the new node id
+     */
+    private long bulkCreateNode(NodeDescriptor descriptor){
+        long node = inserter.createNode(descriptor.getProperties(), descriptor.getNeo4jLabels());
+        bulkNodeIds.put(descriptor.getDbId(), node);
+        if (descriptor.getClassLabel().equals("Complex")) {
+            bulkComplexes.put(node, descriptor.getId());
+        }
+
+        bulkUIDNodes(descriptor.getUids(), node);
+        for (NodeDescriptor modification : descriptor.getModifications()) {
+            long modNode = inserter.createNode(modification.getProperties(), modification.getNeo4jLabels());
+            inserter.createRelationship(modNode, node, RelTypes.valueOf(modification.getClassLabel()), null);
+        }
+        return node;
+    }
+
+    /**
+     * bulk import version of createEdge
+     */
+    private void bulkEdge(EdgeDescriptor edge){
+        Long start = bulkNode(descriptors.get(edge.getStartId()));
+        Long end = bulkNode(descriptors.get(edge.getEndId()));
+        // pathways controlling a reaction don't have a node of their own
+        if(start != null && end != null){
+            inserter.createRelationship(start, end, edge.getType(), edge.getProperties());
+        }
+    }
+
+    /**
+     * bulk import version of creatUIDNode
+     */
+    private void bulkUIDNodes(List<Map<String, Object>> uids, long protein){
+        for (Map<String, Object> uidProperties : uids) {
+            String uniprotID = uidProperties.get(PropertyType.UNIPROT_ID.toString()).toString();
+            Long uidNode = bulkUIDIds.get(uniprotID);
+            if (uidNode == null) {
+                uidNode = inserter.createNode(uidProperties, Label.label(LabelTypes.UNIPROT_ID.toString()));
+                bulkUIDIds.put(uniprotID, uidNode);
+            }
+            inserter.createRelationship(uidNode, protein, RelTypes.ID_BELONGS_TO, null);
+        }
+    }
+
+    /**
+     * bulk import version of recurseRXMComponents
+     */
+    private void bulkRecurseComponents(Complex complex, long complexNode){
+        for (PhysicalEntity component: complex.getComponent()) {
+            Long componentNode = bulkNodeIds.get(entityToString(component));
+            if (componentNode == null) {
+                componentNode = bulkCreateNode(descriptor(component));
+                inserter.createRelationship(componentNode, complexNode, RelTypes.COMPONENT, null);
+                if (component instanceof Complex) {
+                    bulkRecurseComponents((Complex) component, componentNode);
+                }
+            }else{
+                inserter.createRelationship(componentNode, complexNode, RelTypes.COMPONENT, null);
+            }
+        }
+    }
+
+    /**
+     * attaches a node to a pathway with a PATHWAY_COMPONENT relationship unless it already is
+     */
+    private void bulkAttach(long pathway, long node, HashSet<Long> attached){
+        if(attached.add(node)){
+            inserter.createRelationship(pathway, node, RelTypes.PATHWAY_COMPONENT, null);
+        }
+    }
 
+    /**
+     * gets the Reactome stable id of a pathway from its xrefs
+     * @param pathway
+     * @return
+     */
+    private String pathwayId(Entity pathway){
+        String id= "";
+        for(Xref xref: pathway.getXref()){
+            String db = xref.getDb();
+            if(db != null){
+                if (db.equals("Reactome")){
+                    id = xref.getId();
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Gets the class label of every entity in the model, these are the labels createNode looks DB_ID's up by
+     * @param model
+     * the current biopax file
+     * @return
+     */
+    private HashSet<String> getClassLabels(Model model){
+        HashSet<String> classLabels = new HashSet<>();
+        for (Entity entity: model.getObjects(Entity.class)) {
+            classLabels.add(classToString(entity.getClass().toString()));
+        }
+        return classLabels;
     }
 
     /**
@@ -406,54 +733,224 @@ public class DatabaseFactory {
      * is the biopax entity object to be made into a node
      */
     private  Node createNode(Entity entity) {
+        return createNode(descriptor(entity));
+    }
 
-        // if its a physical entity
-        if (entity instanceof PhysicalEntity) {
-            // if it's a protein make the node and a node for its uniprot ID & its phosphorylations
-            if (entity instanceof Protein) {
-                if (graphDb.findNode(Label.label(classToString(classToString(entity.getClass().toString()))), PropertyType.DB_ID.toString(), entityToString(entity)) == null) {
-                    createdNode = createProtein(entity);
-                } else {
-                    createdNode = graphDb.findNode(Label.label(classToString(entity.getClass().toString())), PropertyType.DB_ID.toString(), entityToString(entity));
-                }
-            } else {
-                if (graphDb.findNode(Label.label(classToString(entity.getClass().toString())), PropertyType.DB_ID.toString(), entityToString(entity)) == null) {
-                    createdNode = createPENode(entity);
-                } else {
-                    createdNode = graphDb.findNode(Label.label(classToString(entity.getClass().toString())), PropertyType.DB_ID.toString(), entityToString(entity));
+    /**
+     * Finds the node for a descriptor or creates it, along with its UniProt id and modification nodes
+     * @param descriptor
+     * @return the node, or null for entities that aren't a physical entity or interaction
+     */
+    private Node createNode(NodeDescriptor descriptor){
+        if (descriptor == null) {
+            return null;
+        }
+        createdNode = findEntityNode(descriptor);
+        if (createdNode == null) {
+            createdNode = createDescribedNode(descriptor);
+        }
+        return createdNode;
+    }
+
+    /**
+     * Creates the relationship an edge descriptor describes, making the nodes at either end if needed
+     * @param edge
+     */
+    private void createEdge(EdgeDescriptor edge){
+        Node start = createNode(descriptors.get(edge.getStartId()));
+        Node end = createNode(descriptors.get(edge.getEndId()));
+        // pathways controlling a reaction don't have a node of their own
+        if (start != null && end != null) {
+            Relationship relationship = start.createRelationshipTo(end, edge.getType());
+            setProperties(relationship, edge.getProperties());
+        }
+    }
+
+    /**
+     * Finds the node made for a physical entity or interaction, checking the node cache before the store
+     * @param entity
+     * @return the node or null if it hasn't been made yet
+     */
+    private Node findEntityNode(Entity entity){
+        return findEntityNode(descriptor(entity));
+    }
+
+    private Node findEntityNode(NodeDescriptor descriptor){
+        if (descriptor == null) {
+            return null;
+        }
+        Long nodeId = nodeCache.get(descriptor.getId());
+        if (nodeId != null) {
+            cacheHits++;
+            return graphDb.getNodeById(nodeId);
+        }
+        cacheMisses++;
+        Node node = graphDb.findNode(Label.label(descriptor.getClassLabel()), PropertyType.DB_ID.toString(), descriptor.getDbId());
+        if (node != null) {
+            nodeCache.put(descriptor.getId(), node.getId());
+        }
+        return node;
+    }
+
+    /**
+     * Prints how often createNode and the component lookups were answered from the node cache
+     */
+    private void printCacheStats(){
+        Integer lookups = cacheHits + cacheMisses;
+        Double hitRate = lookups == 0 ? 0.0 : 100.0 * cacheHits / lookups;
+        System.out.println("Node cache: " + cacheHits + " hits, " + cacheMisses + " misses of " + lookups +
+                " lookups (" + String.format("%.1f", hitRate) + "% hit rate), " + nodeCache.size() + " entities cached");
+    }
+
+    /**
+     * Stage one of the import, describes every physical entity and interaction and the edges of every conversion
+     * in parallel on a ForkJoin pool. Only reads the model, the single writer in stage two does all the writes
+     * @param model
+     * @param conversions the conversions in the order they will be written
+     * @return the edges of each conversion, in the same order as conversions
+     */
+    private List<List<EdgeDescriptor>> describeModel(Model model, List<Conversion> conversions){
+        StopWatch stopwatch = new StopWatch();
+        stopwatch.start();
+
+        List<Entity> entities = new ArrayList<>();
+        entities.addAll(model.getObjects(PhysicalEntity.class));
+        entities.addAll(model.getObjects(Interaction.class));
+
+        List<List<EdgeDescriptor>> conversionEdges = null;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> entities.parallelStream().forEach(entity -> {
+                NodeDescriptor descriptor = describe(entity);
+                if (descriptor != null) {
+                    descriptors.put(entity.getUri(), descriptor);
                 }
+            })).get();
+            conversionEdges = pool.submit(() -> conversions.parallelStream()
+                    .map(this::describeEdges)
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            pool.shutdown();
+        }
+
+        stopwatch.stop();
+        System.out.println("Described " + descriptors.size() + " entities and " + conversions.size() +
+                " conversions on " + threads + " threads in " + stopwatch.toString());
+        System.out.println("Complex flattening: " + complexesExpanded.get() + " expanded, " + complexesReused.get() + " reused");
+        return conversionEdges;
+    }
+
+    /**
+     * Gets the descriptor worked out in stage one, describing the entity now if it wasn't
+     * @param entity
+     * @return null if the entity isn't a physical entity or interaction
+     */
+    private NodeDescriptor descriptor(Entity entity){
+        NodeDescriptor descriptor = descriptors.get(entity.getUri());
+        if (descriptor == null) {
+            descriptor = describe(entity);
+            if (descriptor != null) {
+                descriptors.put(entity.getUri(), descriptor);
             }
         }
+        return descriptor;
+    }
 
-        // If it's an interaction
-        else if (entity instanceof Interaction) {
+    /**
+     * Works out the labels and properties of an entity's node, and for proteins their UniProt id and modification nodes.
+     * Only reads the model so is safe to call from several threads
+     * @param entity
+     * @return null if the entity isn't a physical entity or interaction
+     */
+    private NodeDescriptor describe(Entity entity){
+        String classLabel = classToString(entity.getClass().toString());
+        if (entity instanceof PhysicalEntity) {
+            Set<String> componentUIDs = getComponentStrings((PhysicalEntity) entity);
+            List<Map<String, Object>> uids = new ArrayList<>();
+            List<NodeDescriptor> modifications = new ArrayList<>();
 
-            if (graphDb.findNode(Label.label(classToString(entity.getClass().toString())), PropertyType.DB_ID.toString(), entityToString(entity) ) == null) {
-                current = graphDb.createNode(Label.label(classToString(entity.getClass().toString())));
-                current.addLabel(Label.label(LabelTypes.INTERACTION.toString()));
-                current.setProperty(PropertyType.DB_ID.toString(), entityToString(entity));
-                if (entity instanceof Catalysis) {
-                    current.setProperty(PropertyType.DISPLAY_NAME.toString(), "Catalysis");
-                } else if (entity.getName().isEmpty()) {
-                    current.setProperty(PropertyType.DISPLAY_NAME.toString(), "NA");
+            if (entity instanceof Protein) {
+                // if it is a protein and not a PE
+                if (((Protein) entity).getMemberPhysicalEntity().isEmpty()) {
+                    uids = uidDescriptors(getUniprotID((Protein) entity));
+
+                    // get mods will check for mods on it's entity ref and add them to this prot
+                    for (String mod : getMod((Protein) entity)) {
+                        Map<String, Object> modProperties = modificationProperties(entityToString(entity), mod);
+                        String modLabel = isPhosphorylation(mod) ? LabelTypes.PHOSPHORYLATION.toString() : LabelTypes.MODIFICATION.toString();
+                        modifications.add(new NodeDescriptor(modProperties.get(PropertyType.DB_ID.toString()).toString(),
+                                Collections.singletonList(modLabel), modProperties));
+                    }
                 } else {
-                    current.setProperty(PropertyType.DISPLAY_NAME.toString(), entity.getName().toString());
+                    // it is a protein-PE, attach its members uids
+                    uids = uidDescriptors(componentUIDs);
                 }
-                String typeString = classToString(entity.getClass().toString());
-                current.setProperty(PropertyType.TYPE.toString(), typeString);
-
-                String dbconnecton1 = databaseLink(entity);
-                current.setProperty(PropertyType.DB_CONNECTION.toString(), dbconnecton1);
-
-                createdNode = current;
-            } else {
-                createdNode = graphDb.findNode(Label.label(classToString(entity.getClass().toString())), PropertyType.DB_ID.toString(), entityToString(entity));
             }
+            return new NodeDescriptor(entity.getUri(), Arrays.asList(classLabel, LabelTypes.PHYSICAL_ENTITY.toString()),
+                    physicalEntityProperties(entity, componentUIDs), uids, modifications);
 
+        } else if (entity instanceof Interaction) {
+            return new NodeDescriptor(entity.getUri(), Arrays.asList(classLabel, LabelTypes.INTERACTION.toString()),
+                    interactionProperties(entity));
         }
+        return null;
+    }
 
-        return createdNode;
+    /**
+     * the properties of each UNIPROT_ID node for a set of uids, skipping ones without a recognisable UniProt ID
+     */
+    private List<Map<String, Object>> uidDescriptors(Set<String> uids){
+        List<Map<String, Object>> uidDescriptors = new ArrayList<>();
+        for (String uid : uids) {
+            Map<String, Object> uidProperties = uidProperties(uid);
+            if (uidProperties != null) {
+                uidDescriptors.add(uidProperties);
+            }
+        }
+        return uidDescriptors;
+    }
 
+    /**
+     * Describes the input, output, control and controller relationships of a conversion.
+     * Only reads the model so is safe to call from several threads
+     * @param conversion
+     * @return
+     */
+    private List<EdgeDescriptor> describeEdges(Conversion conversion){
+        List<EdgeDescriptor> edges = new ArrayList<>();
+        String rxn = conversion.getUri();
+
+        // create separate edge type for small molecules for traversals
+        for (PhysicalEntity left : conversion.getLeft()) {
+            if(classToString(left.getClass().toString()).equals("SmallMolecule")){
+                edges.add(new EdgeDescriptor(left.getUri(), rxn, RelTypes.SMALL_MOL_EDGE,
+                        Collections.singletonMap(PropertyType.SMALL_MOL_EDGE.toString(), "Input")));
+            }else{
+                edges.add(new EdgeDescriptor(left.getUri(), rxn, RelTypes.INPUT));
+            }
+        }
+        for (PhysicalEntity right : conversion.getRight()) {
+            if(classToString(right.getClass().toString()).equals("SmallMolecule")){
+                edges.add(new EdgeDescriptor(rxn, right.getUri(), RelTypes.SMALL_MOL_EDGE,
+                        Collections.singletonMap(PropertyType.SMALL_MOL_EDGE.toString(), "Output")));
+            }else{
+                edges.add(new EdgeDescriptor(rxn, right.getUri(), RelTypes.OUTPUT));
+            }
+        }
+        for (Control controlRXN : conversion.getControlledOf()) {
+            if (controlRXN.getControlType() == null){
+                edges.add(new EdgeDescriptor(controlRXN.getUri(), rxn, RelTypes.CATALYSIS));
+            }else {
+                edges.add(new EdgeDescriptor(controlRXN.getUri(), rxn, RelationshipType.withName(controlRXN.getControlType().toString())));
+            }
+            for (Controller controller : controlRXN.getController()) {
+                edges.add(new EdgeDescriptor(controller.getUri(), controlRXN.getUri(), RelTypes.CONTROLS));
+            }
+        }
+        return edges;
     }
 
     /**
@@ -461,80 +958,80 @@ public class DatabaseFactory {
      * Called at the end of createDB (b/c createDB only adds objects involved in an interaction to the database)
      * @param model
      * the current biopax file
+     * @param tx
+     * the batched transaction of the build, ticked once per complex
      */
-    private  void addComponents( Model model) {
-
-        try (Transaction tx = graphDb.beginTx()) {
-
-            // get all complexes in graphDb
-            ResourceIterator<Node> complexes = graphDb.findNodes(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()), PropertyType.TYPE.toString(), "Complex");
-
-            // traverse them
-            while (complexes.hasNext()) {
-
-                Node complexDB = complexes.next();
-                //System.out.println("Current Complex: "+ complexDB.getProperty(PropertyType.DB_ID.toString()));
-
-                // get the corresponding complex in Reactome via the unique Reactome ID
-                String dbid = model.getXmlBase() + complexDB.getProperty(PropertyType.DB_ID.toString()).toString();
-                BioPAXElement complexRXMmodel = model.getByID(dbid);
-                Complex complexRXM = (Complex) complexRXMmodel;
-
-                // get all of the Complex's components
-                Set<PhysicalEntity> componentSet = complexRXM.getComponent();
-                for(PhysicalEntity physicalEntity: componentSet){
-                    // if that component doesnt exist
-                    if (graphDb.findNode(Label.label(classToString(physicalEntity.getClass().toString())), PropertyType.DB_ID.toString(), entityToString(physicalEntity)) == null) {
-                        if(physicalEntity instanceof Protein){
-                            Node protComp = createProtein(physicalEntity);
-                            //System.out.println("Component: " + protComp.getProperty(PropertyType.DISPLAY_NAME.toString()));
-                            protComp.createRelationshipTo(complexDB, RelTypes.COMPONENT);
-
-                        }else if(physicalEntity instanceof Complex){
-                            Node complexComp = createPENode(physicalEntity);
-                            //System.out.println("Component being made: " + complexComp.getProperty(PropertyType.DB_ID.toString()));
-                            complexComp.createRelationshipTo(complexDB, RelTypes.COMPONENT);
-                            if(!((Complex) physicalEntity).getComponent().isEmpty()){
-                                recurseRXMComponents((Complex) physicalEntity);
-                            }
-                        } else{
-                            Node peComp = createPENode(physicalEntity);
-                            //System.out.println("Component: " + peComp.getProperty(PropertyType.DISPLAY_NAME.toString()));
-                            peComp.createRelationshipTo(complexDB, RelTypes.COMPONENT);
+    private  void addComponents( Model model, BatchTransaction tx) {
+
+        // get all complexes in graphDb, collected first as the iterator doesn't survive a batch commit
+        List<Node> complexes = new ArrayList<>();
+        graphDb.findNodes(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()), PropertyType.TYPE.toString(), "Complex")
+                .forEachRemaining(complexes::add);
+
+        // traverse them
+        for (Node complexDB : complexes) {
+
+            //System.out.println("Current Complex: "+ complexDB.getProperty(PropertyType.DB_ID.toString()));
+
+            // get the corresponding complex in Reactome via the unique Reactome ID
+            String dbid = model.getXmlBase() + complexDB.getProperty(PropertyType.DB_ID.toString()).toString();
+            BioPAXElement complexRXMmodel = model.getByID(dbid);
+            Complex complexRXM = (Complex) complexRXMmodel;
+
+            // get all of the Complex's components
+            Set<PhysicalEntity> componentSet = complexRXM.getComponent();
+            for(PhysicalEntity physicalEntity: componentSet){
+                // if that component doesnt exist
+                Node component = findEntityNode(physicalEntity);
+                if (component == null) {
+                    if(physicalEntity instanceof Protein){
+                        Node protComp = createDescribedNode(descriptor(physicalEntity));
+                        //System.out.println("Component: " + protComp.getProperty(PropertyType.DISPLAY_NAME.toString()));
+                        protComp.createRelationshipTo(complexDB, RelTypes.COMPONENT);
+
+                    }else if(physicalEntity instanceof Complex){
+                        Node complexComp = createDescribedNode(descriptor(physicalEntity));
+                        //System.out.println("Component being made: " + complexComp.getProperty(PropertyType.DB_ID.toString()));
+                        complexComp.createRelationshipTo(complexDB, RelTypes.COMPONENT);
+                        if(!((Complex) physicalEntity).getComponent().isEmpty()){
+                            recurseRXMComponents((Complex) physicalEntity);
                         }
-
-                    }else{
-                        Node component = graphDb.findNode(Label.label(classToString(physicalEntity.getClass().toString())), PropertyType.DB_ID.toString(), entityToString(physicalEntity));
-                        //System.out.println("Component exists: " + component.getProperty(PropertyType.DB_ID.toString()));
-                        component.createRelationshipTo(complexDB, RelTypes.COMPONENT);
+                    } else{
+                        Node peComp = createDescribedNode(descriptor(physicalEntity));
+                        //System.out.println("Component: " + peComp.getProperty(PropertyType.DISPLAY_NAME.toString()));
+                        peComp.createRelationshipTo(complexDB, RelTypes.COMPONENT);
                     }
+
+                }else{
+                    //System.out.println("Component exists: " + component.getProperty(PropertyType.DB_ID.toString()));
+                    component.createRelationshipTo(complexDB, RelTypes.COMPONENT);
                 }
-                // get all members
-                Set<PhysicalEntity> memberPhysicalEntitySet = complexRXM.getMemberPhysicalEntity();
-                for(PhysicalEntity physicalEntity: memberPhysicalEntitySet){
-                    if (graphDb.findNode(Label.label(classToString(physicalEntity.getClass().toString())), PropertyType.DB_ID.toString(), entityToString(physicalEntity)) == null) {
-                        if(physicalEntity instanceof Protein){
-                            Node protComp = createProtein(physicalEntity);
-                            //System.out.println("MemPhysEnt: " + protComp.getProperty(PropertyType.DISPLAY_NAME.toString()));
-                            protComp.createRelationshipTo(complexDB, RelTypes.COMPONENT);
+            }
+            // get all members
+            Set<PhysicalEntity> memberPhysicalEntitySet = complexRXM.getMemberPhysicalEntity();
+            for(PhysicalEntity physicalEntity: memberPhysicalEntitySet){
+                Node component = findEntityNode(physicalEntity);
+                if (component == null) {
+                    if(physicalEntity instanceof Protein){
+                        Node protComp = createDescribedNode(descriptor(physicalEntity));
+                        //System.out.println("MemPhysEnt: " + protComp.getProperty(PropertyType.DISPLAY_NAME.toString()));
+                        protComp.createRelationshipTo(complexDB, RelTypes.COMPONENT);
 
-                        }else {
-                            Node peComp = createPENode(physicalEntity);
-                            //System.out.println("MemPhysEnt: " + peComp.getProperty(PropertyType.DISPLAY_NAME.toString()));
-                            peComp.createRelationshipTo(complexDB, RelTypes.COMPONENT);
+                    }else {
+                        Node peComp = createDescribedNode(descriptor(physicalEntity));
+                        //System.out.println("MemPhysEnt: " + peComp.getProperty(PropertyType.DISPLAY_NAME.toString()));
+                        peComp.createRelationshipTo(complexDB, RelTypes.COMPONENT);
 
-                        }
-                    }else{
-                        Node component = graphDb.findNode(Label.label(classToString(physicalEntity.getClass().toString())), PropertyType.DB_ID.toString(), entityToString(physicalEntity));
-                        //System.out.println("MemPhysEnt: " + component.getProperty(PropertyType.DISPLAY_NAME.toString()));
-                        component.createRelationshipTo(complexDB, RelTypes.COMPONENT);
                     }
+                }else{
+                    //System.out.println("MemPhysEnt: " + component.getProperty(PropertyType.DISPLAY_NAME.toString()));
+                    component.createRelationshipTo(complexDB, RelTypes.COMPONENT);
                 }
             }
-
-            //TODO get all PE's and traverse and add members
-            tx.success();
+            tx.tick();
         }
+
+        //TODO get all PE's and traverse and add members
     }
 
     /**
@@ -545,7 +1042,7 @@ public class DatabaseFactory {
     private  void recurseRXMComponents(Complex complex){
 
         // get the current complex node
-        Node currentComplex = graphDb.findNode(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()), PropertyType.DB_ID.toString(), entityToString(complex));
+        Node currentComplex = findEntityNode(complex);
         //System.out.println("\tCurrent Recurse Complex: " + currentComplex.getProperty(PropertyType.DB_ID.toString()));
         // get the list of components
         Set<PhysicalEntity> componentList = complex.getComponent();
@@ -553,30 +1050,30 @@ public class DatabaseFactory {
         // for each one
         for (PhysicalEntity component: componentList) {
             // if the node doesn't exist make it
-            if (graphDb.findNode(Label.label(classToString(component.getClass().toString())), PropertyType.DB_ID.toString(), entityToString(component)) == null) {
+            Node inDBNode = findEntityNode(component);
+            if (inDBNode == null) {
 
                 if (component instanceof Protein) {
-                    Node protComp = createProtein(component);
+                    Node protComp = createDescribedNode(descriptor(component));
                     //System.out.println("\tRecuse making Component: " + protComp.getProperty(PropertyType.DB_ID.toString()));
                     protComp.createRelationshipTo(currentComplex, RelTypes.COMPONENT);
 
                     // if the component is a complex itself recurse down the list of sub-components and attach them all to their super-complex
                 } else if (component instanceof Complex ) {
-                    Node complexComp = createPENode(component);
+                    Node complexComp = createDescribedNode(descriptor(component));
                     //System.out.println("\tRecurse making Component: " + complexComp.getProperty(PropertyType.DB_ID.toString()));
                     complexComp.createRelationshipTo(currentComplex, RelTypes.COMPONENT);
                     if (!((Complex) component).getComponent().isEmpty()){
                         recurseRXMComponents((Complex) component);
                     }
                 } else {
-                    Node peComp = createPENode(component);
+                    Node peComp = createDescribedNode(descriptor(component));
                     //System.out.println("\tRecurse Component: " + peComp.getProperty(PropertyType.DB_ID.toString()));
                     peComp.createRelationshipTo(currentComplex, RelTypes.COMPONENT);
 
                 }
                 // the node does already exist
             }else{
-                Node inDBNode = graphDb.findNode(Label.label(classToString(component.getClass().toString())), PropertyType.DB_ID.toString(), entityToString(component));
                 //System.out.println("\tRecurse existing Component: " + inDBNode.getProperty(PropertyType.DB_ID.toString()));
                 inDBNode.createRelationshipTo(currentComplex, RelTypes.COMPONENT);
             }
@@ -584,289 +1081,206 @@ public class DatabaseFactory {
     }
 
     /**
-     * Creates a protein node in the database
-     * @param entity
-     * the model entity to be created
-     * @return Node - the node to add to the database
+     * Creates the node for a descriptor with its UniProt id nodes and phosphorylation/modification nodes
+     * @param descriptor
+     * @return the new node
      */
-    private Node createProtein( Entity entity){
-
-        current = graphDb.createNode(Label.label(classToString(entity.getClass().toString())));
-
-        current.addLabel(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
-        // unique ID
-        current.setProperty(PropertyType.DB_ID.toString(), entityToString(entity));
-        if (entity.getDisplayName() == null) {
-            current.setProperty(PropertyType.DISPLAY_NAME.toString(), "NA");
-        } else {
-            current.setProperty(PropertyType.DISPLAY_NAME.toString(), entity.getDisplayName());
+    private Node createDescribedNode(NodeDescriptor descriptor){
+        current = graphDb.createNode(descriptor.getNeo4jLabels());
+        setProperties(current, descriptor.getProperties());
+        nodeCache.put(descriptor.getId(), current.getId());
+
+        creatUIDNode(descriptor.getUids(), current);
+        for (NodeDescriptor modification : descriptor.getModifications()) {
+            Node node = graphDb.createNode(modification.getNeo4jLabels());
+            setProperties(node, modification.getProperties());
+            node.createRelationshipTo(current, RelTypes.valueOf(modification.getClassLabel()));
         }
+        return current;
+    }
 
-        String typeString = classToString(entity.getClass().toString());
-        current.setProperty(PropertyType.TYPE.toString(), typeString);
-
-        if (((PhysicalEntity) entity).getCellularLocation() == null) {
-            current.setProperty(PropertyType.LOCATION.toString(), "NA");
-        } else {
-            current.setProperty(PropertyType.LOCATION.toString(), entityCellularLocation(entity));
-        }
-
-        String dbconnecton1 = databaseLink(entity);
-        current.setProperty(PropertyType.DB_CONNECTION.toString(), dbconnecton1);
-
-
-        // if it is a protein and not a PE
-        if (((Protein) entity).getMemberPhysicalEntity().isEmpty()) {
-            // get UID(s)
-            Set<String> uids = getUniprotID((Protein) entity);
-            // if a there are UIDs
-            creatUIDNode(uids);
-
-
-            // get all modifications for a protein
-            // get mods will check for mods on it's entity ref and add them to this prot
-            ArrayList<String> mods = getMod((Protein) entity);
-            if (!mods.isEmpty()) {
-                // iterate through them
-                for (String mod : mods) {
-                    Pattern pattern = Pattern.compile("(?<=\\_).*$");
-                    Matcher matcher = pattern.matcher(mod);
-                    matcher.find();
-                    // Location
-                    if (mod.contains("p-S")) {
-                        Node node = graphDb.createNode(Label.label(LabelTypes.PHOSPHORYLATION.toString()));
-                        node.setProperty(PropertyType.DB_ID.toString(), entityToString(entity) + "_" + mod);
-                        node.setProperty(PropertyType.LOCATION.toString(), matcher.group(0));
-                        node.setProperty(PropertyType.TYPE.toString(), "p_S");
-                        node.setProperty(PropertyType.DISPLAY_NAME.toString(),  "p-S_"+ matcher.group(0));
-                        node.createRelationshipTo(current, RelTypes.PHOSPHORYLATION);
-                    } else if (mod.contains("p-T")) {
-                        Node node = graphDb.createNode(Label.label(LabelTypes.PHOSPHORYLATION.toString()));
-                        node.setProperty(PropertyType.DB_ID.toString(), entityToString(entity) + "_" + mod);
-                        node.setProperty(PropertyType.LOCATION.toString(), matcher.group(0));
-                        node.setProperty(PropertyType.TYPE.toString(), "p_T");
-                        node.setProperty(PropertyType.DISPLAY_NAME.toString(),  "p-T_"+ matcher.group(0));
-                        node.createRelationshipTo(current, RelTypes.PHOSPHORYLATION);
-                    } else if (mod.contains("p-Y")) {
-                        Node node = graphDb.createNode(Label.label(LabelTypes.PHOSPHORYLATION.toString()));
-                        node.setProperty(PropertyType.DB_ID.toString(), entityToString(entity) + "_" + mod);
-                        node.setProperty(PropertyType.LOCATION.toString(), matcher.group(0));
-                        node.setProperty(PropertyType.TYPE.toString(), "p_Y");
-                        node.setProperty(PropertyType.DISPLAY_NAME.toString(),  "p-Y_"+ matcher.group(0));
-                        node.createRelationshipTo(current, RelTypes.PHOSPHORYLATION);
-                    } else if (mod.contains("p-STY")) {
-                        Node node = graphDb.createNode(Label.label(LabelTypes.PHOSPHORYLATION.toString()));
-                        node.setProperty(PropertyType.DB_ID.toString(), entityToString(entity) + "_" + mod);
-                        node.setProperty(PropertyType.LOCATION.toString(), matcher.group(0));
-                        node.setProperty(PropertyType.TYPE.toString(), "p_STY");
-                        node.setProperty(PropertyType.DISPLAY_NAME.toString(),  "p-STY_"+ matcher.group(0));
-                        node.createRelationshipTo(current, RelTypes.PHOSPHORYLATION);
-                    }else{
-                        Node node = graphDb.createNode(Label.label(LabelTypes.MODIFICATION.toString()));
-                        Pattern p = Pattern.compile("\\[.*\\]");
-                        Matcher m = p.matcher(mod);
-                        m.find();
-                        node.setProperty(PropertyType.DB_ID.toString(), entityToString(entity) + "_" + m.group(0));
-                        node.setProperty(PropertyType.LOCATION.toString(), matcher.group(0));
-                        node.setProperty(PropertyType.TYPE.toString(), m.group(0));
-                        node.setProperty(PropertyType.DISPLAY_NAME.toString(),  m.group()+"_"+ matcher.group(0));
-                        node.createRelationshipTo(current, RelTypes.MODIFICATION);
-                    }
-                }
-            }
-        } else {
-            Pattern p = Pattern.compile(UID_PATTERN);
-            // it is a protein-PE
-            // get its members uids
-            Set<String> comments = entity.getComment();
-            Set<String> uids = getComponentStrings((PhysicalEntity) entity);
-            if (!(uids.isEmpty())) {
-                HashSet<String> newUIDs = new HashSet<>();
-                for (String uid : uids) {
-                    String newUID = "";
-                    if (uid.contains("#")) {
-                        Pattern entPattern = Pattern.compile("(?<=#).*");
-                        Matcher entMatcher = entPattern.matcher(uid);
-                        entMatcher.find();
-                        newUID = entMatcher.group(0);
-                        newUIDs.add(newUID);
-                    }
-                    Matcher m = p.matcher(uid);
-                    if (m.find() ) {
-                        String theGroup = m.group(0);
-                        newUIDs.add(theGroup);
-                    }
-                    else{
-                        newUIDs.add(uid);
-                    }
-                }
-                for(String comment: comments) {
-                    if(comment.contains("Converted from EntitySet")){
-                        String uidList = String.join(", ", newUIDs);
-                        current.setProperty(PropertyType.SET.toString(), uidList);
-                    }else{
-                        String uidList = String.join(", ", newUIDs);
-                        current.setProperty(PropertyType.UNIPROT_ID.toString(), uidList);
-                    }
-                }
+    private  void creatUIDNode(List<Map<String, Object>> uids, Node protein){
+        // iterate through (should usually only be one)
+        for (Map<String, Object> uidProperties : uids) {
+            // if the UID node doesnt exist make it, then attach it to the Protein node
+            Node node = graphDb.findNode(Label.label(LabelTypes.UNIPROT_ID.toString()), PropertyType.UNIPROT_ID.toString(), uidProperties.get(PropertyType.UNIPROT_ID.toString()));
+            if (node == null) {
+                node = graphDb.createNode(Label.label(LabelTypes.UNIPROT_ID.toString()));
+                setProperties(node, uidProperties);
             }
-            // if a there are UIDs
-            creatUIDNode(uids);
+            node.createRelationshipTo(protein, RelTypes.ID_BELONGS_TO);
         }
-        return current;
     }
 
-
-    private  void creatUIDNode(Set<String> uids){
-        Pattern p = Pattern.compile(UID_PATTERN);
-
-        if (!(uids.isEmpty())) {
-            // iterate through (should usually only be one but comes in a set)
-            for (String uid : uids) {
-                // if updated
-                if(uid.contains("_u")){
-                    // get the base uid
-                    Matcher m = p.matcher(uid);
-                    if (m.find() ) {
-                        String theGroup = m.group(0);
-                        // if the UID node doesnt exist
-                        if (graphDb.findNode(Label.label(LabelTypes.UNIPROT_ID.toString()), PropertyType.UNIPROT_ID.toString(), theGroup) == null) {
-                            // make it and attach it to the Protein node
-                            Node node = graphDb.createNode(Label.label(LabelTypes.UNIPROT_ID.toString()));
-                            node.setProperty(PropertyType.UNIPROT_ID.toString(), theGroup);
-                            node.setProperty(PropertyType.DB_ID.toString(), theGroup);
-                            node.setProperty(PropertyType.DISPLAY_NAME.toString(), theGroup);
-                            node.setProperty(PropertyType.TYPE.toString(), "ProteinID");
-                            node.setProperty(PropertyType.STATUS.toString(), "Updated");
-                            node.setProperty(PropertyType.DB_CONNECTION.toString(), ("https://www.uniprot.org/uniprot/" + theGroup));
-                            node.createRelationshipTo(current, RelTypes.ID_BELONGS_TO);
-
-                        } else {
-                            graphDb.findNode(Label.label(LabelTypes.UNIPROT_ID.toString()), PropertyType.UNIPROT_ID.toString(), theGroup).createRelationshipTo(current, RelTypes.ID_BELONGS_TO);
-                        }
-                    }
-                }else if(uid.contains("_d")){
-                    // get the base uid
-                    Matcher m = p.matcher(uid);
-                    if (m.find() ) {
-                        String theGroup = m.group(0);
-                        // if the UID node doesnt exist
-                        if (graphDb.findNode(Label.label(LabelTypes.UNIPROT_ID.toString()), PropertyType.UNIPROT_ID.toString(), theGroup) == null) {
-                            // make it and attach it to the Protein node
-                            Node node = graphDb.createNode(Label.label(LabelTypes.UNIPROT_ID.toString()));
-                            node.setProperty(PropertyType.UNIPROT_ID.toString(), theGroup);
-                            node.setProperty(PropertyType.DB_ID.toString(), theGroup);
-                            node.setProperty(PropertyType.DISPLAY_NAME.toString(), theGroup);
-                            node.setProperty(PropertyType.TYPE.toString(), "ProteinID");
-                            node.setProperty(PropertyType.STATUS.toString(), "Deleted?");
-                            node.createRelationshipTo(current, RelTypes.ID_BELONGS_TO);
-
-                        } else {
-                            graphDb.findNode(Label.label(LabelTypes.UNIPROT_ID.toString()), PropertyType.UNIPROT_ID.toString(), theGroup).createRelationshipTo(current, RelTypes.ID_BELONGS_TO);
-                        }
-                    }
-                }else if(uid.contains("_c")){
-                    Matcher m = p.matcher(uid);
-                    if (m.find() ) {
-                        String theGroup = m.group(0);
-                        // if the UID node doesnt exist
-                        if (graphDb.findNode(Label.label(LabelTypes.UNIPROT_ID.toString()), PropertyType.UNIPROT_ID.toString(), theGroup) == null) {
-                            // make it and attach it to the Protein node
-                            Node node = graphDb.createNode(Label.label(LabelTypes.UNIPROT_ID.toString()));
-                            node.setProperty(PropertyType.UNIPROT_ID.toString(), theGroup);
-                            node.setProperty(PropertyType.DB_ID.toString(), theGroup);
-                            node.setProperty(PropertyType.DISPLAY_NAME.toString(), theGroup);
-                            node.setProperty(PropertyType.TYPE.toString(), "ProteinID");
-                            node.setProperty(PropertyType.STATUS.toString(), "Current");
-                            node.setProperty(PropertyType.DB_CONNECTION.toString(), ("https://www.uniprot.org/uniprot/" + theGroup));
-                            node.createRelationshipTo(current, RelTypes.ID_BELONGS_TO);
-                        } else {
-                            graphDb.findNode(Label.label(LabelTypes.UNIPROT_ID.toString()), PropertyType.UNIPROT_ID.toString(), theGroup).createRelationshipTo(current, RelTypes.ID_BELONGS_TO);
-                        }
-                    }
-                }else{
-                    if (graphDb.findNode(Label.label(LabelTypes.UNIPROT_ID.toString()), PropertyType.UNIPROT_ID.toString(), uid) == null) {
-                        // make it and attach it to the Protein node
-                        Node node = graphDb.createNode(Label.label(LabelTypes.UNIPROT_ID.toString()));
-                        node.setProperty(PropertyType.UNIPROT_ID.toString(), uid);
-                        node.setProperty(PropertyType.DB_ID.toString(), uid);
-                        node.setProperty(PropertyType.DISPLAY_NAME.toString(), uid);
-                        node.setProperty(PropertyType.TYPE.toString(), "ProteinID");
-                        node.setProperty(PropertyType.DB_CONNECTION.toString(), ("https://www.uniprot.org/uniprot/" + uid));
-                        node.createRelationshipTo(current, RelTypes.ID_BELONGS_TO);
-
-
-                    } else {
-                        graphDb.findNode(Label.label(LabelTypes.UNIPROT_ID.toString()), PropertyType.UNIPROT_ID.toString(), uid).createRelationshipTo(current, RelTypes.ID_BELONGS_TO);
-                    }
-
-                }
-            }
+    private void setProperties(PropertyContainer container, Map<String, Object> properties){
+        for (Map.Entry<String, Object> property : properties.entrySet()) {
+            container.setProperty(property.getKey(), property.getValue());
         }
     }
 
     /**
-     * creates a physical entity node in the database
+     * the properties of a physical entity node, shared by the transactional and bulk imports
+     * @param entity
+     * @param componentUIDs the flattened member/component UIDs from getComponentStrings
+     * @return
      */
-    private   Node createPENode(Entity entity){
-        Pattern p = Pattern.compile(UID_PATTERN);
-        // else if its  a PE thats not a prot just make the node INCLUDING COMPLEX
-        current = graphDb.createNode(Label.label(classToString(entity.getClass().toString())));
-        current.addLabel(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
+    private Map<String, Object> physicalEntityProperties(Entity entity, Set<String> componentUIDs){
+        Map<String, Object> properties = new LinkedHashMap<>();
         // UniqueID
         //take everything after the hashtag
-        current.setProperty(PropertyType.DB_ID.toString(), entityToString(entity));
+        properties.put(PropertyType.DB_ID.toString(), entityToString(entity));
         if (entity.getDisplayName() == null) {
-            current.setProperty(PropertyType.DISPLAY_NAME.toString(), "NA");
+            properties.put(PropertyType.DISPLAY_NAME.toString(), "NA");
         } else {
-            current.setProperty(PropertyType.DISPLAY_NAME.toString(), entity.getDisplayName());
+            properties.put(PropertyType.DISPLAY_NAME.toString(), entity.getDisplayName());
         }
-        String typeString = classToString(entity.getClass().toString());
-        current.setProperty(PropertyType.TYPE.toString(), typeString);
+        properties.put(PropertyType.TYPE.toString(), classToString(entity.getClass().toString()));
         if (((PhysicalEntity) entity).getCellularLocation() == null) {
-            current.setProperty(PropertyType.LOCATION.toString(), "NA");
+            properties.put(PropertyType.LOCATION.toString(), "NA");
         } else {
-            current.setProperty(PropertyType.LOCATION.toString(), entityCellularLocation(entity));
+            properties.put(PropertyType.LOCATION.toString(), entityCellularLocation(entity));
         }
 
-        Set<String> comments = entity.getComment();
-        Set<String> uids = getComponentStrings((PhysicalEntity) entity);
-        if (!(uids.isEmpty())) {
+        if (!(componentUIDs.isEmpty())) {
+            Pattern p = Pattern.compile(UID_PATTERN);
             HashSet<String> newUIDs = new HashSet<>();
-            for (String uid : uids) {
-                String newUID = "";
+            for (String uid : componentUIDs) {
                 if (uid.contains("#")) {
                     Pattern entPattern = Pattern.compile("(?<=#).*");
                     Matcher entMatcher = entPattern.matcher(uid);
                     entMatcher.find();
-                    newUID = entMatcher.group(0);
-                    newUIDs.add(newUID);
+                    newUIDs.add(entMatcher.group(0));
                 }
                 Matcher m = p.matcher(uid);
                 if (m.find() ) {
-                    String theGroup = m.group(0);
-                    newUIDs.add(theGroup);
+                    newUIDs.add(m.group(0));
                 }
                 else{
                     newUIDs.add(uid);
                 }
             }
-            for(String comment: comments) {
+            for(String comment: entity.getComment()) {
+                String uidList = String.join(", ", newUIDs);
                 if(comment.contains("Converted from EntitySet")){
-                    String uidList = String.join(", ", newUIDs);
-                    current.setProperty(PropertyType.SET.toString(), uidList);
+                    properties.put(PropertyType.SET.toString(), uidList);
                 }else{
-                    String uidList = String.join(", ", newUIDs);
-                    current.setProperty(PropertyType.UNIPROT_ID.toString(), uidList);
+                    properties.put(PropertyType.UNIPROT_ID.toString(), uidList);
                 }
             }
         }
 
+        properties.put(PropertyType.DB_CONNECTION.toString(), databaseLink(entity));
+        return properties;
+    }
+
+    /**
+     * the properties of an interaction node, shared by the transactional and bulk imports
+     * @param entity
+     * @return
+     */
+    private Map<String, Object> interactionProperties(Entity entity){
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put(PropertyType.DB_ID.toString(), entityToString(entity));
+        if (entity instanceof Catalysis) {
+            properties.put(PropertyType.DISPLAY_NAME.toString(), "Catalysis");
+        } else if (entity.getName().isEmpty()) {
+            properties.put(PropertyType.DISPLAY_NAME.toString(), "NA");
+        } else {
+            properties.put(PropertyType.DISPLAY_NAME.toString(), entity.getName().toString());
+        }
+        properties.put(PropertyType.TYPE.toString(), classToString(entity.getClass().toString()));
+        properties.put(PropertyType.DB_CONNECTION.toString(), databaseLink(entity));
+        return properties;
+    }
+
+    /**
+     * the properties of a UNIPROT_ID node
+     * @param uid a uid from getUniprotID or getComponentStrings, possibly with an _u, _d or _c status suffix
+     * @return null if the uid has a status suffix but no recognisable UniProt ID
+     */
+    private Map<String, Object> uidProperties(String uid){
+        String status = null;
+        Boolean linked = true;
+        if(uid.contains("_u")){
+            status = "Updated";
+        }else if(uid.contains("_d")){
+            status = "Deleted?";
+            linked = false;
+        }else if(uid.contains("_c")){
+            status = "Current";
+        }
+        String theGroup = uid;
+        if(status != null){
+            // get the base uid
+            Matcher m = Pattern.compile(UID_PATTERN).matcher(uid);
+            if (!m.find()) {
+                return null;
+            }
+            theGroup = m.group(0);
+        }
 
-        String dbconnection = databaseLink(entity);
-        current.setProperty(PropertyType.DB_CONNECTION.toString(), dbconnection);
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put(PropertyType.UNIPROT_ID.toString(), theGroup);
+        properties.put(PropertyType.DB_ID.toString(), theGroup);
+        properties.put(PropertyType.DISPLAY_NAME.toString(), theGroup);
+        properties.put(PropertyType.TYPE.toString(), "ProteinID");
+        if(status != null){
+            properties.put(PropertyType.STATUS.toString(), status);
+        }
+        if(linked){
+            properties.put(PropertyType.DB_CONNECTION.toString(), ("https://www.uniprot.org/uniprot/" + theGroup));
+        }
+        return properties;
+    }
 
-        return current;
+    private static Boolean isPhosphorylation(String mod){
+        return mod.contains("p-S") | mod.contains("p-T") | mod.contains("p-Y") | mod.contains("p-STY");
+    }
+
+    /**
+     * the properties of a PHOSPHORYLATION or MODIFICATION node
+     * @param proteinDbId the DB_ID of the protein the modification is on
+     * @param mod a modification string from getMod
+     * @return
+     */
+    private static Map<String, Object> modificationProperties(String proteinDbId, String mod){
+        Pattern pattern = Pattern.compile("(?<=\\_).*$");
+        Matcher matcher = pattern.matcher(mod);
+        matcher.find();
+        String location = matcher.group(0);
+
+        Map<String, Object> properties = new LinkedHashMap<>();
+        // Location
+        if (mod.contains("p-S")) {
+            properties.put(PropertyType.DB_ID.toString(), proteinDbId + "_" + mod);
+            properties.put(PropertyType.LOCATION.toString(), location);
+            properties.put(PropertyType.TYPE.toString(), "p_S");
+            properties.put(PropertyType.DISPLAY_NAME.toString(),  "p-S_"+ location);
+        } else if (mod.contains("p-T")) {
+            properties.put(PropertyType.DB_ID.toString(), proteinDbId + "_" + mod);
+            properties.put(PropertyType.LOCATION.toString(), location);
+            properties.put(PropertyType.TYPE.toString(), "p_T");
+            properties.put(PropertyType.DISPLAY_NAME.toString(),  "p-T_"+ location);
+        } else if (mod.contains("p-Y")) {
+            properties.put(PropertyType.DB_ID.toString(), proteinDbId + "_" + mod);
+            properties.put(PropertyType.LOCATION.toString(), location);
+            properties.put(PropertyType.TYPE.toString(), "p_Y");
+            properties.put(PropertyType.DISPLAY_NAME.toString(),  "p-Y_"+ location);
+        } else if (mod.contains("p-STY")) {
+            properties.put(PropertyType.DB_ID.toString(), proteinDbId + "_" + mod);
+            properties.put(PropertyType.LOCATION.toString(), location);
+            properties.put(PropertyType.TYPE.toString(), "p_STY");
+            properties.put(PropertyType.DISPLAY_NAME.toString(),  "p-STY_"+ location);
+        }else{
+            Pattern p = Pattern.compile("\\[.*\\]");
+            Matcher m = p.matcher(mod);
+            m.find();
+            properties.put(PropertyType.DB_ID.toString(), proteinDbId + "_" + m.group(0));
+            properties.put(PropertyType.LOCATION.toString(), location);
+            properties.put(PropertyType.TYPE.toString(), m.group(0));
+            properties.put(PropertyType.DISPLAY_NAME.toString(),  m.group()+"_"+ location);
+        }
+        return properties;
     }
 
     /**
@@ -910,37 +1324,48 @@ public class DatabaseFactory {
         return UID;
     }
 
-    private  Set<PhysicalEntity> getComponents(PhysicalEntity entity, Set<PhysicalEntity> components){
+    /**
+     * Flattens a complex or an entity with members into its leaf components, recursing into
+     * sub-complexes and members. Each entity is only expanded once, later calls reuse the memo
+     * @param entity
+     * @return the leaf physical entities
+     */
+    private  Set<PhysicalEntity> getComponents(PhysicalEntity entity){
+        FutureTask<Set<PhysicalEntity>> expansion = new FutureTask<>(() -> expandComponents(entity));
+        FutureTask<Set<PhysicalEntity>> memo = flattenedComponents.putIfAbsent(entity.getUri(), expansion);
+        if (memo == null) {
+            complexesExpanded.incrementAndGet();
+            expansion.run();
+            memo = expansion;
+        } else {
+            complexesReused.incrementAndGet();
+        }
+        try {
+            return memo.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Could not flatten the components of " + entity.getUri(), e);
+        }
+    }
+
+    private  Set<PhysicalEntity> expandComponents(PhysicalEntity entity){
+        Set<PhysicalEntity> components = new HashSet<>();
         // Components -> if the components are complexes or have members themselves then recurse
         if (entity instanceof Complex){
-            //System.out.println("complex: " + entity + " components " + ((Complex) entity).getComponent());
-            Set<PhysicalEntity> entityComponentSet = ((Complex) entity).getComponent();
-            //components.addAll(entityComponentSet);
-            for(PhysicalEntity physicalEntity: entityComponentSet){
-                if(physicalEntity instanceof Complex){
-                    getComponents(physicalEntity,components);
-                }else if(!(physicalEntity.getMemberPhysicalEntity().isEmpty())){
-                    getComponents(physicalEntity, components);
-                }else{
-                    components.add(physicalEntity);
-                }
-            }
+            addLeaves(((Complex) entity).getComponent(), components);
         }
         // Members -> if the members are complexes or have members themselves then recurse
-        if(!(entity.getMemberPhysicalEntity().isEmpty())){
-            //System.out.println("complex: " + entity + " members " + entity.getMemberPhysicalEntity());
-            Set<PhysicalEntity> entityMemberSet = entity.getMemberPhysicalEntity();
-            for(PhysicalEntity physicalEntity: entityMemberSet){
-                if(physicalEntity instanceof Complex){
-                    getComponents(physicalEntity,components);
-                }else if(!(physicalEntity.getMemberPhysicalEntity().isEmpty())){
-                    getComponents(physicalEntity, components);
-                }else{
-                    components.add(physicalEntity);
-                }
+        addLeaves(entity.getMemberPhysicalEntity(), components);
+        return Collections.unmodifiableSet(components);
+    }
+
+    private  void addLeaves(Set<PhysicalEntity> physicalEntities, Set<PhysicalEntity> components){
+        for(PhysicalEntity physicalEntity: physicalEntities){
+            if(physicalEntity instanceof Complex || !(physicalEntity.getMemberPhysicalEntity().isEmpty())){
+                components.addAll(getComponents(physicalEntity));
+            }else{
+                components.add(physicalEntity);
             }
         }
-        return components;
     }
 
     /**
@@ -949,10 +1374,11 @@ public class DatabaseFactory {
      * @return
      */
     private  Set<String > getComponentStrings(PhysicalEntity physicalEntity){
-        // empty component set
-        Set<PhysicalEntity> physicalEntities = new HashSet<PhysicalEntity>();
-        // full component set for complex
-        Set<PhysicalEntity> components =  getComponents(physicalEntity, physicalEntities); // recursive
+        // full component set for complex, nothing to flatten otherwise
+        Set<PhysicalEntity> components = Collections.emptySet();
+        if (physicalEntity instanceof Complex || !(physicalEntity.getMemberPhysicalEntity().isEmpty())) {
+            components = getComponents(physicalEntity); // recursive
+        }
         // string list of components to add to
         Set<String> componentString = new HashSet<>();
 
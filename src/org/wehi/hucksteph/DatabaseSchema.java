@@ -0,0 +1,148 @@
+package org.wehi.hucksteph;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.schema.ConstraintDefinition;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the schema indexes and uniqueness constraints for every property the code looks nodes up by
+ * (DB_ID per label, UNIPROT_ID on UNIPROT_ID nodes and UNIPROT_NAME)
+ */
+public class DatabaseSchema {
+
+    // labels that are never a biopax class label
+    private static final Set<String> NON_CLASS_LABELS = new HashSet<>(Arrays.asList(
+            "SPECIES",
+            LabelTypes.UNIPROT_ID.toString(),
+            LabelTypes.PHYSICAL_ENTITY.toString(),
+            LabelTypes.INTERACTION.toString(),
+            LabelTypes.PHOSPHORYLATION.toString(),
+            LabelTypes.MODIFICATION.toString(),
+            LabelTypes.PATHWAY.toString()
+    ));
+
+    /**
+     * Creates all indexes and constraints that don't already exist and waits for them to come online.
+     * Uniqueness is only enforced where nodes are always found before they are created
+     * (UNIPROT_ID nodes and physical entities), everything else gets a plain index
+     * @param graphDb
+     * @param classLabels the biopax class labels (Protein, Complex, BiochemicalReaction, ...) to index DB_ID on
+     * @return the number of indexes and constraints created
+     */
+    public static Integer createIndexes(GraphDatabaseService graphDb, Collection<String> classLabels){
+        Integer created = 0;
+
+        if(uniqueOrIndex(graphDb, LabelTypes.UNIPROT_ID.toString(), PropertyType.UNIPROT_ID.toString())){
+            created++;
+        }
+        if(uniqueOrIndex(graphDb, LabelTypes.PHYSICAL_ENTITY.toString(), PropertyType.DB_ID.toString())){
+            created++;
+        }
+
+        List<String> indexLabels = new ArrayList<>();
+        indexLabels.add(LabelTypes.INTERACTION.toString());
+        indexLabels.add(LabelTypes.PATHWAY.toString());
+        indexLabels.add(LabelTypes.PHOSPHORYLATION.toString());
+        indexLabels.add(LabelTypes.MODIFICATION.toString());
+        for (String classLabel: classLabels) {
+            if(!NON_CLASS_LABELS.contains(classLabel)){
+                indexLabels.add(classLabel);
+            }
+        }
+        for (String label: indexLabels) {
+            if(index(graphDb, label, PropertyType.DB_ID.toString())){
+                created++;
+            }
+        }
+
+        if(index(graphDb, LabelTypes.UNIPROT_ID.toString(), PropertyType.UNIPROT_NAME.toString())){
+            created++;
+        }
+        if(index(graphDb, "Protein", PropertyType.UNIPROT_NAME.toString())){
+            created++;
+        }
+
+        try (Transaction tx = graphDb.beginTx()) {
+            graphDb.schema().awaitIndexesOnline(1, TimeUnit.HOURS);
+            tx.success();
+        }
+        return created;
+    }
+
+    /**
+     * Gets every label in use in a database that could be a biopax class label
+     * @param graphDb
+     * @return
+     */
+    public static HashSet<String> getClassLabels(GraphDatabaseService graphDb){
+        HashSet<String> classLabels = new HashSet<>();
+        try (Transaction tx = graphDb.beginTx()) {
+            for (Label label: graphDb.getAllLabelsInUse()) {
+                if(!NON_CLASS_LABELS.contains(label.name())){
+                    classLabels.add(label.name());
+                }
+            }
+            tx.success();
+        }
+        return classLabels;
+    }
+
+    /**
+     * Tries to make a uniqueness constraint, if existing data breaks it, falls back to a plain index
+     * @return true if anything was created
+     */
+    private static Boolean uniqueOrIndex(GraphDatabaseService graphDb, String label, String property){
+        if(exists(graphDb, label, property)){
+            return false;
+        }
+        try (Transaction tx = graphDb.beginTx()) {
+            graphDb.schema().constraintFor(Label.label(label)).assertPropertyIsUnique(property).create();
+            tx.success();
+        } catch (ConstraintViolationException e) {
+            System.out.println("Duplicate " + property + " values on " + label + " nodes, creating an index instead of a uniqueness constraint");
+            return index(graphDb, label, property);
+        }
+        return true;
+    }
+
+    /**
+     * Makes an index if there isn't one already
+     * @return true if an index was created
+     */
+    private static Boolean index(GraphDatabaseService graphDb, String label, String property){
+        if(exists(graphDb, label, property)){
+            return false;
+        }
+        try (Transaction tx = graphDb.beginTx()) {
+            graphDb.schema().indexFor(Label.label(label)).on(property).create();
+            tx.success();
+        }
+        return true;
+    }
+
+    private static Boolean exists(GraphDatabaseService graphDb, String label, String property){
+        try (Transaction tx = graphDb.beginTx()) {
+            Schema schema = graphDb.schema();
+            for (IndexDefinition index: schema.getIndexes(Label.label(label))) {
+                for (String key: index.getPropertyKeys()) {
+                    if(key.equals(property)){
+                        return true;
+                    }
+                }
+            }
+            for (ConstraintDefinition constraint: schema.getConstraints(Label.label(label))) {
+                for (String key: constraint.getPropertyKeys()) {
+                    if(key.equals(property)){
+                        return true;
+                    }
+                }
+            }
+            tx.success();
+        }
+        return false;
+    }
+}
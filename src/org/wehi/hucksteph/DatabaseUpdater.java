@@ -0,0 +1,436 @@
+package org.wehi.hucksteph;
+
+import org.biopax.paxtools.model.BioPAXLevel;
+import org.biopax.paxtools.util.IllegalBioPAXArgumentException;
+import org.neo4j.graphdb.*;
+
+import java.util.*;
+
+/**
+ * Brings an existing database in line with a freshly built one, matching nodes by DB_ID (UNIPROT_ID for UniProt id nodes).
+ * Only changed interactions, physical entities, UniProt ids, phosphorylations, modifications and pathways are touched.
+ * Properties and labels that aren't made by CreateDB (SUPPORT_SCORE_*, ABUNDANCE_SCORE_*, SCORED_BY_*, MAPPED_*, edge weights,
+ * INPUT/OUTPUT labels) and everything added by IntegratePSP are kept on every node and relationship that survives the update.
+ * Integrated nodes are only removed once nothing made by CreateDB is left for them to attach to
+ */
+public class DatabaseUpdater {
+
+    // the properties CreateDB and its UniProt annotations set, anything else on a node is data to keep
+    private static final Set<String> BUILD_PROPERTIES = new HashSet<>(Arrays.asList(
+            PropertyType.DB_ID.toString(),
+            PropertyType.UNIPROT_ID.toString(),
+            PropertyType.DISPLAY_NAME.toString(),
+            PropertyType.LOCATION.toString(),
+            PropertyType.TYPE.toString(),
+            PropertyType.STATUS.toString(),
+            PropertyType.DB_CONNECTION.toString(),
+            PropertyType.SET.toString(),
+            PropertyType.KINASE.toString(),
+            PropertyType.TRANSCRIPTION_FACTOR.toString(),
+            PropertyType.CELL_SURFACE_RECEPTOR.toString(),
+            PropertyType.UNIPROT_NAME.toString()
+    ));
+
+    private final GraphDatabaseService graphDb;
+    private final GraphDatabaseService updatedDb;
+    private final Integer batchSize;
+
+    private Integer nodesAdded = 0;
+    private Integer nodesRemoved = 0;
+    private Integer nodesModified = 0;
+    private Integer modifiedWithData = 0;
+    private Integer relationshipsAdded = 0;
+    private Integer relationshipsRemoved = 0;
+    private Integer integratedRemoved = 0;
+    // keys shared by nodes that can't be told apart, these nodes are left alone
+    private final Set<String> ambiguousKeys = new TreeSet<>();
+
+    /**
+     * @param graphDb the database to update
+     * @param updatedDb a database freshly built from the new OWL file, only read from
+     * @param batchSize the number of changes per commit
+     */
+    public DatabaseUpdater(GraphDatabaseService graphDb, GraphDatabaseService updatedDb, Integer batchSize) {
+        this.graphDb = graphDb;
+        this.updatedDb = updatedDb;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Works out and applies the differences between the two databases
+     */
+    public void update(){
+        BatchTransaction.checkComplete(graphDb);
+        String species = getSpecies(graphDb);
+        if(!species.equals(getSpecies(updatedDb))){
+            throw new IllegalArgumentException("Species in the database (" + species + ") is not equal to the species specified");
+        }
+
+        // node id -> key, keys that more than one node has in either database are told apart by their neighbours
+        Map<Long, String> currentKeys = readNodes(graphDb);
+        Map<Long, String> updatedKeys = readNodes(updatedDb);
+        Set<String> duplicated = duplicates(currentKeys);
+        duplicated.addAll(duplicates(updatedKeys));
+        currentKeys = distinguish(graphDb, currentKeys, duplicated);
+        updatedKeys = distinguish(updatedDb, updatedKeys, duplicated);
+
+        // key -> node id
+        LinkedHashMap<String, Long> currentNodes = matchable(currentKeys);
+        LinkedHashMap<String, Long> updatedNodes = matchable(updatedKeys);
+        // relationship key -> relationship ids
+        HashMap<String, List<Long>> currentRelationships = new HashMap<>();
+        LinkedHashMap<String, List<Long>> updatedRelationships = new LinkedHashMap<>();
+        readRelationships(graphDb, currentKeys, currentRelationships);
+        readRelationships(updatedDb, updatedKeys, updatedRelationships);
+
+        try (BatchTransaction tx = new BatchTransaction(graphDb, "UpdateDB", batchSize);
+             Transaction readTx = updatedDb.beginTx()) {
+
+            // remove relationships that are no longer made, before their nodes go
+            for (Map.Entry<String, List<Long>> relationships : currentRelationships.entrySet()) {
+                List<Long> ids = relationships.getValue();
+                Integer keep = updatedRelationships.containsKey(relationships.getKey()) ? updatedRelationships.get(relationships.getKey()).size() : 0;
+                for (int i = keep; i < ids.size(); i++) {
+                    graphDb.getRelationshipById(ids.get(i)).delete();
+                    relationshipsRemoved ++;
+                    tx.tick();
+                }
+            }
+
+            // remove nodes that are gone, along with anything mapped onto them
+            Set<Long> integrated = new LinkedHashSet<>();
+            for (Map.Entry<String, Long> node : currentNodes.entrySet()) {
+                if(!updatedNodes.containsKey(node.getKey())){
+                    Node gone = graphDb.getNodeById(node.getValue());
+                    for (Relationship relationship : gone.getRelationships()) {
+                        Node other = relationship.getOtherNode(gone);
+                        if(other.hasProperty(PropertyType.INTEGRATED.toString())){
+                            integrated.add(other.getId());
+                        }
+                        relationship.delete();
+                    }
+                    gone.delete();
+                    nodesRemoved ++;
+                    tx.tick();
+                }
+            }
+
+            // remove the integrated nodes that were attached to them and now have nothing made by CreateDB to attach to
+            Set<Long> seen = new HashSet<>();
+            for (Long id : integrated) {
+                if(seen.add(id)){
+                    List<Node> component = integratedComponent(graphDb.getNodeById(id), seen);
+                    if(component != null){
+                        for (Node node : component) {
+                            for (Relationship relationship : node.getRelationships()) {
+                                relationship.delete();
+                            }
+                            node.delete();
+                            integratedRemoved ++;
+                            tx.tick();
+                        }
+                    }
+                }
+            }
+
+            // add new nodes and bring the build properties and labels of existing ones up to date
+            for (Map.Entry<String, Long> node : updatedNodes.entrySet()) {
+                Node updated = updatedDb.getNodeById(node.getValue());
+                if(currentNodes.containsKey(node.getKey())){
+                    Node current = graphDb.getNodeById(currentNodes.get(node.getKey()));
+                    if(updateNode(current, updated)){
+                        nodesModified ++;
+                        if(hasData(current)){
+                            modifiedWithData ++;
+                        }
+                        tx.tick();
+                    }
+                }else{
+                    Node current = graphDb.createNode();
+                    updateNode(current, updated);
+                    currentNodes.put(node.getKey(), current.getId());
+                    nodesAdded ++;
+                    tx.tick();
+                }
+            }
+
+            // add relationships that are new
+            for (Map.Entry<String, List<Long>> relationships : updatedRelationships.entrySet()) {
+                Integer have = currentRelationships.containsKey(relationships.getKey()) ? currentRelationships.get(relationships.getKey()).size() : 0;
+                List<Long> ids = relationships.getValue();
+                for (int i = have; i < ids.size(); i++) {
+                    Relationship updated = updatedDb.getRelationshipById(ids.get(i));
+                    Node start = graphDb.getNodeById(currentNodes.get(updatedKeys.get(updated.getStartNodeId())));
+                    Node end = graphDb.getNodeById(currentNodes.get(updatedKeys.get(updated.getEndNodeId())));
+                    Relationship relationship = start.createRelationshipTo(end, updated.getType());
+                    for (Map.Entry<String, Object> property : updated.getAllProperties().entrySet()) {
+                        relationship.setProperty(property.getKey(), property.getValue());
+                    }
+                    relationshipsAdded ++;
+                    tx.tick();
+                }
+            }
+            readTx.success();
+            tx.success();
+        }
+
+        System.out.println("Nodes added: " + nodesAdded + ", removed: " + nodesRemoved + ", modified: " + nodesModified +
+                " (" + modifiedWithData + " of which had mapped data that may need remapping)");
+        System.out.println("Relationships added: " + relationshipsAdded + ", removed: " + relationshipsRemoved);
+        System.out.println("Integrated nodes removed: " + integratedRemoved);
+        if(!ambiguousKeys.isEmpty()){
+            System.out.println(ambiguousKeys.size() + " keys are shared by nodes that can't be told apart, these nodes were left alone:");
+            for (String key : ambiguousKeys) {
+                System.out.println(key);
+            }
+        }
+    }
+
+    public Integer getNodesAdded() {
+        return nodesAdded;
+    }
+
+    public Integer getNodesRemoved() {
+        return nodesRemoved;
+    }
+
+    public Integer getNodesModified() {
+        return nodesModified;
+    }
+
+    public Integer getRelationshipsAdded() {
+        return relationshipsAdded;
+    }
+
+    public Integer getRelationshipsRemoved() {
+        return relationshipsRemoved;
+    }
+
+    public Integer getIntegratedRemoved() {
+        return integratedRemoved;
+    }
+
+    public Set<String> getAmbiguousKeys() {
+        return ambiguousKeys;
+    }
+
+    /**
+     * Keys every node CreateDB makes, integrated nodes are left out so they are never matched, added or removed
+     * @return the key of each node id, in the order they're found in
+     */
+    private static Map<Long, String> readNodes(GraphDatabaseService db){
+        LinkedHashMap<Long, String> keys = new LinkedHashMap<>();
+        try (Transaction tx = db.beginTx()) {
+            for (Node node : db.getAllNodes()) {
+                String key = nodeKey(node);
+                if(key != null){
+                    keys.put(node.getId(), key);
+                }
+            }
+            tx.success();
+        }
+        return keys;
+    }
+
+    private static Set<String> duplicates(Map<Long, String> keys){
+        Set<String> found = new HashSet<>();
+        Set<String> duplicates = new HashSet<>();
+        for (String key : keys.values()) {
+            if(!found.add(key)){
+                duplicates.add(key);
+            }
+        }
+        return duplicates;
+    }
+
+    /**
+     * Tells apart nodes with a duplicated key (e.g. the same site twice on a protein) by the keys of their neighbours,
+     * which both builds share, rather than by the order they're stored in.
+     * Nodes that still can't be told apart are recorded as ambiguous
+     * @param duplicated the keys that more than one node has in either database
+     * @return the key of each node id
+     */
+    private Map<Long, String> distinguish(GraphDatabaseService db, Map<Long, String> keys, Set<String> duplicated){
+        LinkedHashMap<Long, String> uniqueKeys = new LinkedHashMap<>();
+        Set<String> found = new HashSet<>();
+        try (Transaction tx = db.beginTx()) {
+            for (Map.Entry<Long, String> node : keys.entrySet()) {
+                String key = node.getValue();
+                if(duplicated.contains(key)){
+                    List<String> neighbours = new ArrayList<>();
+                    Node current = db.getNodeById(node.getKey());
+                    for (Relationship relationship : current.getRelationships()) {
+                        String other = keys.get(relationship.getOtherNodeId(current.getId()));
+                        if(other != null && !relationship.hasProperty(PropertyType.INTEGRATED.toString())){
+                            String direction = relationship.getStartNodeId() == current.getId() ? "->" : "<-";
+                            neighbours.add(direction + relationship.getType().name() + relationship.getProperty(PropertyType.SMALL_MOL_EDGE.toString(), "") + " " + other);
+                        }
+                    }
+                    Collections.sort(neighbours);
+                    key = key + " " + neighbours;
+                    if(!found.add(key)){
+                        ambiguousKeys.add(key);
+                    }
+                }
+                uniqueKeys.put(node.getKey(), key);
+            }
+            tx.success();
+        }
+        return uniqueKeys;
+    }
+
+    /**
+     * Drops the nodes with an ambiguous key from both the keys and the returned map
+     * @return node id of each key
+     */
+    private LinkedHashMap<String, Long> matchable(Map<Long, String> keys){
+        keys.values().removeIf(ambiguousKeys::contains);
+        LinkedHashMap<String, Long> nodes = new LinkedHashMap<>();
+        for (Map.Entry<Long, String> node : keys.entrySet()) {
+            nodes.put(node.getValue(), node.getKey());
+        }
+        return nodes;
+    }
+
+    /**
+     * Keys every relationship between two keyed nodes, leaving out integrated ones
+     */
+    private static void readRelationships(GraphDatabaseService db, Map<Long, String> keys, Map<String, List<Long>> relationships){
+        try (Transaction tx = db.beginTx()) {
+            for (Relationship relationship : db.getAllRelationships()) {
+                if(relationship.hasProperty(PropertyType.INTEGRATED.toString())){
+                    continue;
+                }
+                String start = keys.get(relationship.getStartNodeId());
+                String end = keys.get(relationship.getEndNodeId());
+                if(start != null && end != null){
+                    String key = start + " -" + relationship.getType().name() + relationship.getProperty(PropertyType.SMALL_MOL_EDGE.toString(), "") + "-> " + end;
+                    relationships.computeIfAbsent(key, k -> new ArrayList<>()).add(relationship.getId());
+                }
+            }
+            tx.success();
+        }
+    }
+
+    /**
+     * Finds the integrated nodes connected to an integrated node through other integrated nodes
+     * @param seen the ids of nodes already looked at, added to
+     * @return the nodes, or null if any of them is still attached to a node that isn't integrated
+     */
+    private static List<Node> integratedComponent(Node start, Set<Long> seen){
+        List<Node> component = new ArrayList<>();
+        Boolean attached = false;
+        Deque<Node> toVisit = new ArrayDeque<>();
+        toVisit.push(start);
+        while(!toVisit.isEmpty()){
+            Node node = toVisit.pop();
+            component.add(node);
+            for (Relationship relationship : node.getRelationships()) {
+                Node other = relationship.getOtherNode(node);
+                if(!other.hasProperty(PropertyType.INTEGRATED.toString())){
+                    attached = true;
+                }else if(seen.add(other.getId())){
+                    toVisit.push(other);
+                }
+            }
+        }
+        return attached ? null : component;
+    }
+
+    /**
+     * @return the key a node is matched on, or null if it isn't made by CreateDB
+     */
+    private static String nodeKey(Node node){
+        if(node.hasProperty(PropertyType.INTEGRATED.toString())){
+            return null;
+        }
+        String dbId = node.getProperty(PropertyType.DB_ID.toString(), "").toString();
+        if(node.hasLabel(Label.label(LabelTypes.UNIPROT_ID.toString()))){
+            return LabelTypes.UNIPROT_ID + ":" + node.getProperty(PropertyType.UNIPROT_ID.toString(), dbId);
+        }else if(node.hasLabel(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()))){
+            return LabelTypes.PHYSICAL_ENTITY + ":" + dbId;
+        }else if(node.hasLabel(Label.label(LabelTypes.INTERACTION.toString()))){
+            return LabelTypes.INTERACTION + ":" + dbId;
+        }else if(node.hasLabel(Label.label(LabelTypes.PHOSPHORYLATION.toString()))){
+            return LabelTypes.PHOSPHORYLATION + ":" + dbId;
+        }else if(node.hasLabel(Label.label(LabelTypes.MODIFICATION.toString()))){
+            return LabelTypes.MODIFICATION + ":" + dbId;
+        }else if(node.hasLabel(Label.label(LabelTypes.PATHWAY.toString()))){
+            // not every pathway has a Reactome id
+            return LabelTypes.PATHWAY + ":" + dbId + "|" + node.getProperty(PropertyType.DISPLAY_NAME.toString(), "");
+        }
+        return null;
+    }
+
+    /**
+     * Copies the labels and build properties of the updated node onto the current one, leaving any other properties alone
+     * @return true if anything changed
+     */
+    private static Boolean updateNode(Node current, Node updated){
+        Boolean changed = false;
+        for (Label label : updated.getLabels()) {
+            if(!current.hasLabel(label)){
+                current.addLabel(label);
+                changed = true;
+            }
+        }
+        for (Label label : current.getLabels()) {
+            if(isBuildLabel(label) && !updated.hasLabel(label)){
+                current.removeLabel(label);
+                changed = true;
+            }
+        }
+        Map<String, Object> updatedProperties = updated.getAllProperties();
+        for (Map.Entry<String, Object> property : updatedProperties.entrySet()) {
+            if(!current.hasProperty(property.getKey()) || !Objects.deepEquals(current.getProperty(property.getKey()), property.getValue())){
+                current.setProperty(property.getKey(), property.getValue());
+                changed = true;
+            }
+        }
+        for (String key : current.getPropertyKeys()) {
+            if(BUILD_PROPERTIES.contains(key) && !updatedProperties.containsKey(key)){
+                current.removeProperty(key);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return true if CreateDB makes the label, one of the LabelTypes or a biopax class label
+     */
+    private static Boolean isBuildLabel(Label label){
+        for (LabelTypes labelType : LabelTypes.values()) {
+            if(labelType.toString().equals(label.name())){
+                return true;
+            }
+        }
+        try {
+            BioPAXLevel.L3.getInterfaceForName(label.name());
+            return true;
+        } catch (IllegalBioPAXArgumentException e) {
+            return false;
+        }
+    }
+
+    private static Boolean hasData(Node node){
+        for (String key : node.getPropertyKeys()) {
+            if(!BUILD_PROPERTIES.contains(key)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getSpecies(GraphDatabaseService db){
+        String species = "";
+        try (Transaction tx = db.beginTx()) {
+            ResourceIterator<Node> speciesNodes = db.findNodes(Label.label("SPECIES"));
+            while(speciesNodes.hasNext()){
+                species = speciesNodes.next().getProperty("Species").toString();
+            }
+            tx.success();
+        }
+        return species;
+    }
+}
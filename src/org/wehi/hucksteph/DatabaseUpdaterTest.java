@@ -0,0 +1,297 @@
+package org.wehi.hucksteph;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseUpdaterTest {
+
+    File DATABASE_ACTUAL_PATH = new File("test/actual");
+
+    private Node protein(GraphDatabaseService graphDb, String dbId, String name){
+        Node node = graphDb.createNode(Label.label("Protein"), Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
+        node.setProperty(PropertyType.DB_ID.toString(), dbId);
+        node.setProperty(PropertyType.DISPLAY_NAME.toString(), name);
+        return node;
+    }
+
+    private Node reaction(GraphDatabaseService graphDb, String dbId){
+        Node node = graphDb.createNode(Label.label("BiochemicalReaction"), Label.label(LabelTypes.INTERACTION.toString()));
+        node.setProperty(PropertyType.DB_ID.toString(), dbId);
+        return node;
+    }
+
+    private Node phosphorylation(GraphDatabaseService graphDb, String dbId, Node protein){
+        Node node = graphDb.createNode(Label.label(LabelTypes.PHOSPHORYLATION.toString()));
+        node.setProperty(PropertyType.DB_ID.toString(), dbId);
+        node.createRelationshipTo(protein, RelTypes.PHOSPHORYLATION);
+        return node;
+    }
+
+    private Node integrated(GraphDatabaseService graphDb, String name, Node anchor){
+        Node node = graphDb.createNode(Label.label("Protein"), Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
+        node.setProperty(PropertyType.DISPLAY_NAME.toString(), name);
+        node.setProperty(PropertyType.INTEGRATED.toString(), "true");
+        anchor.createRelationshipTo(node, RelTypes.INPUT).setProperty(PropertyType.INTEGRATED.toString(), "true");
+        return node;
+    }
+
+    @Test
+    void testUpdateOnlyChangesDifferences() {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/");
+        // two folders as neo4j locks the parent folder of each database
+        File currentGraph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/CURRENT/GRAPH/");
+        File updatedGraph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/UPDATED/GRAPH/");
+
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(currentGraph);
+        GraphDatabaseService updatedDb = new GraphDatabaseFactory().newEmbeddedDatabase(updatedGraph);
+        try(Transaction tx = graphDb.beginTx()){
+            graphDb.createNode(Label.label("SPECIES")).setProperty("Species", "Human");
+            Node a = protein(graphDb, "Protein1", "A");
+            a.setProperty("SUPPORT_SCORE_test", 1.5);
+            Node b = protein(graphDb, "Protein2", "B");
+            b.setProperty("SUPPORT_SCORE_test", 2.5);
+            Node r = reaction(graphDb, "BiochemicalReaction1");
+            r.setProperty("SUPPORT_SCORE_test", 3.5);
+            a.createRelationshipTo(r, RelTypes.INPUT);
+            b.createRelationshipTo(r, RelTypes.INPUT);
+            // integrated data should be left alone
+            Node psp = protein(graphDb, "", "PSP");
+            psp.removeProperty(PropertyType.DB_ID.toString());
+            psp.setProperty(PropertyType.INTEGRATED.toString(), "true");
+            psp.createRelationshipTo(r, RelTypes.INPUT).setProperty(PropertyType.INTEGRATED.toString(), "true");
+            tx.success();
+        }
+        try(Transaction tx = updatedDb.beginTx()){
+            updatedDb.createNode(Label.label("SPECIES")).setProperty("Species", "Human");
+            Node a = protein(updatedDb, "Protein1", "A renamed");
+            protein(updatedDb, "Protein2", "B");
+            Node c = protein(updatedDb, "Protein3", "C");
+            Node r = reaction(updatedDb, "BiochemicalReaction1");
+            a.createRelationshipTo(r, RelTypes.INPUT);
+            c.createRelationshipTo(r, RelTypes.INPUT);
+            tx.success();
+        }
+
+        DatabaseUpdater updater = new DatabaseUpdater(graphDb, updatedDb, 2);
+        updater.update();
+
+        String aName;
+        Object aScore;
+        Object bScore;
+        Object rScore;
+        Long numNodes;
+        Long rInputs;
+        try(Transaction tx = graphDb.beginTx()){
+            Node a = graphDb.findNode(Label.label("Protein"), PropertyType.DB_ID.toString(), "Protein1");
+            aName = a.getProperty(PropertyType.DISPLAY_NAME.toString()).toString();
+            aScore = a.getProperty("SUPPORT_SCORE_test", null);
+            bScore = graphDb.findNode(Label.label("Protein"), PropertyType.DB_ID.toString(), "Protein2").getProperty("SUPPORT_SCORE_test", null);
+            Node r = graphDb.findNode(Label.label("BiochemicalReaction"), PropertyType.DB_ID.toString(), "BiochemicalReaction1");
+            rScore = r.getProperty("SUPPORT_SCORE_test", null);
+            rInputs = r.getDegree(RelTypes.INPUT, Direction.INCOMING) + 0L;
+            numNodes = graphDb.getAllNodes().stream().count();
+            tx.success();
+        }
+        graphDb.shutdown();
+        updatedDb.shutdown();
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        assertEquals(1, (int) updater.getNodesAdded());
+        assertEquals(0, (int) updater.getNodesRemoved());
+        assertEquals(1, (int) updater.getNodesModified());
+        assertEquals(1, (int) updater.getRelationshipsAdded());
+        assertEquals(1, (int) updater.getRelationshipsRemoved());
+        assertEquals("A renamed", aName);
+        assertEquals(1.5, aScore);
+        assertEquals(2.5, bScore);
+        assertEquals(3.5, rScore);
+        // A, C and the integrated input
+        assertEquals(3L, (long) rInputs);
+        // species, A, B, C, the reaction and the integrated protein
+        assertEquals(6L, (long) numNodes);
+    }
+
+    @Test
+    void testLabelsNotMadeByCreateDBAreKept() {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/");
+        File currentGraph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/CURRENT/GRAPH/");
+        File updatedGraph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/UPDATED/GRAPH/");
+
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(currentGraph);
+        GraphDatabaseService updatedDb = new GraphDatabaseFactory().newEmbeddedDatabase(updatedGraph);
+        try(Transaction tx = graphDb.beginTx()){
+            graphDb.createNode(Label.label("SPECIES")).setProperty("Species", "Human");
+            // labelled as getIOs does
+            protein(graphDb, "Protein1", "A").addLabel(Label.label("OUTPUT"));
+            // a class label the new release no longer uses
+            Node b = protein(graphDb, "Protein2", "B");
+            b.addLabel(Label.label("Complex"));
+            tx.success();
+        }
+        try(Transaction tx = updatedDb.beginTx()){
+            updatedDb.createNode(Label.label("SPECIES")).setProperty("Species", "Human");
+            protein(updatedDb, "Protein1", "A renamed");
+            protein(updatedDb, "Protein2", "B");
+            tx.success();
+        }
+
+        DatabaseUpdater updater = new DatabaseUpdater(graphDb, updatedDb, 2);
+        updater.update();
+
+        Boolean aOutput;
+        Boolean bComplex;
+        try(Transaction tx = graphDb.beginTx()){
+            aOutput = graphDb.findNode(Label.label("Protein"), PropertyType.DB_ID.toString(), "Protein1").hasLabel(Label.label("OUTPUT"));
+            bComplex = graphDb.findNode(Label.label("Protein"), PropertyType.DB_ID.toString(), "Protein2").hasLabel(Label.label("Complex"));
+            tx.success();
+        }
+        graphDb.shutdown();
+        updatedDb.shutdown();
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        assertEquals(2, (int) updater.getNodesModified());
+        assertTrue(aOutput);
+        assertFalse(bComplex);
+    }
+
+    @Test
+    void testIntegratedNodesGoWithTheirAnchor() {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/");
+        File currentGraph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/CURRENT/GRAPH/");
+        File updatedGraph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/UPDATED/GRAPH/");
+
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(currentGraph);
+        GraphDatabaseService updatedDb = new GraphDatabaseFactory().newEmbeddedDatabase(updatedGraph);
+        try(Transaction tx = graphDb.beginTx()){
+            graphDb.createNode(Label.label("SPECIES")).setProperty("Species", "Human");
+            Node a = protein(graphDb, "Protein1", "A");
+            Node b = protein(graphDb, "Protein2", "B");
+            // only attached to A, through another integrated node
+            Node before = integrated(graphDb, "before", a);
+            integrated(graphDb, "after", before);
+            // attached to A and B
+            Node shared = integrated(graphDb, "shared", a);
+            b.createRelationshipTo(shared, RelTypes.INPUT).setProperty(PropertyType.INTEGRATED.toString(), "true");
+            tx.success();
+        }
+        try(Transaction tx = updatedDb.beginTx()){
+            updatedDb.createNode(Label.label("SPECIES")).setProperty("Species", "Human");
+            protein(updatedDb, "Protein2", "B");
+            tx.success();
+        }
+
+        DatabaseUpdater updater = new DatabaseUpdater(graphDb, updatedDb, 2);
+        updater.update();
+
+        Boolean sharedKept;
+        Long numNodes;
+        try(Transaction tx = graphDb.beginTx()){
+            sharedKept = graphDb.findNode(Label.label("Protein"), PropertyType.DISPLAY_NAME.toString(), "shared") != null;
+            numNodes = graphDb.getAllNodes().stream().count();
+            tx.success();
+        }
+        graphDb.shutdown();
+        updatedDb.shutdown();
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        assertEquals(1, (int) updater.getNodesRemoved());
+        assertEquals(2, (int) updater.getIntegratedRemoved());
+        assertTrue(sharedKept);
+        // species, B and the shared integrated node
+        assertEquals(3L, (long) numNodes);
+    }
+
+    @Test
+    void testDuplicatesMatchedByNeighbours() {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/");
+        File currentGraph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/CURRENT/GRAPH/");
+        File updatedGraph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/UPDATED/GRAPH/");
+
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(currentGraph);
+        GraphDatabaseService updatedDb = new GraphDatabaseFactory().newEmbeddedDatabase(updatedGraph);
+        try(Transaction tx = graphDb.beginTx()){
+            graphDb.createNode(Label.label("SPECIES")).setProperty("Species", "Human");
+            Node a = protein(graphDb, "Protein1", "A");
+            Node b = protein(graphDb, "Protein2", "B");
+            // stored in the opposite order to the new build
+            phosphorylation(graphDb, "Phos1", b).setProperty("SUPPORT_SCORE_test", 2.5);
+            phosphorylation(graphDb, "Phos1", a).setProperty("SUPPORT_SCORE_test", 1.5);
+            // the same site twice on the same protein
+            phosphorylation(graphDb, "Phos2", a);
+            phosphorylation(graphDb, "Phos2", a);
+            tx.success();
+        }
+        try(Transaction tx = updatedDb.beginTx()){
+            updatedDb.createNode(Label.label("SPECIES")).setProperty("Species", "Human");
+            Node a = protein(updatedDb, "Protein1", "A");
+            Node b = protein(updatedDb, "Protein2", "B");
+            phosphorylation(updatedDb, "Phos1", a).setProperty(PropertyType.DISPLAY_NAME.toString(), "on A");
+            phosphorylation(updatedDb, "Phos1", b).setProperty(PropertyType.DISPLAY_NAME.toString(), "on B");
+            phosphorylation(updatedDb, "Phos2", a);
+            tx.success();
+        }
+
+        DatabaseUpdater updater = new DatabaseUpdater(graphDb, updatedDb, 2);
+        updater.update();
+
+        Object onAScore = null;
+        Object onBScore = null;
+        Long numNodes;
+        try(Transaction tx = graphDb.beginTx()){
+            ResourceIterator<Node> phosphorylations = graphDb.findNodes(Label.label(LabelTypes.PHOSPHORYLATION.toString()), PropertyType.DB_ID.toString(), "Phos1");
+            while(phosphorylations.hasNext()){
+                Node phosphorylation = phosphorylations.next();
+                if(phosphorylation.getProperty(PropertyType.DISPLAY_NAME.toString()).equals("on A")){
+                    onAScore = phosphorylation.getProperty("SUPPORT_SCORE_test", null);
+                }else{
+                    onBScore = phosphorylation.getProperty("SUPPORT_SCORE_test", null);
+                }
+            }
+            numNodes = graphDb.getAllNodes().stream().count();
+            tx.success();
+        }
+        graphDb.shutdown();
+        updatedDb.shutdown();
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        assertEquals(1.5, onAScore);
+        assertEquals(2.5, onBScore);
+        assertEquals(0, (int) updater.getNodesAdded());
+        assertEquals(0, (int) updater.getNodesRemoved());
+        assertEquals(2, (int) updater.getNodesModified());
+        assertEquals(0, (int) updater.getRelationshipsAdded());
+        assertEquals(0, (int) updater.getRelationshipsRemoved());
+        // both Phos2 copies are left alone
+        assertEquals(1, updater.getAmbiguousKeys().size());
+        assertTrue(updater.getAmbiguousKeys().iterator().next().startsWith(LabelTypes.PHOSPHORYLATION + ":Phos2"));
+        // species, A, B and both copies of each site
+        assertEquals(7L, (long) numNodes);
+    }
+}
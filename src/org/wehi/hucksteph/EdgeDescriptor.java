@@ -0,0 +1,45 @@
+package org.wehi.hucksteph;
+
+import org.neo4j.graphdb.RelationshipType;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An immutable description of a relationship between two entities, referenced by their biopax RDF ids
+ */
+public class EdgeDescriptor {
+
+    private final String startId;
+    private final String endId;
+    private final RelationshipType type;
+    private final Map<String, Object> properties;
+
+    public EdgeDescriptor(String startId, String endId, RelationshipType type, Map<String, Object> properties) {
+        this.startId = startId;
+        this.endId = endId;
+        this.type = type;
+        this.properties = Collections.unmodifiableMap(new LinkedHashMap<>(properties));
+    }
+
+    public EdgeDescriptor(String startId, String endId, RelationshipType type) {
+        this(startId, endId, type, Collections.emptyMap());
+    }
+
+    public String getStartId() {
+        return startId;
+    }
+
+    public String getEndId() {
+        return endId;
+    }
+
+    public RelationshipType getType() {
+        return type;
+    }
+
+    public Map<String, Object> getProperties() {
+        return properties;
+    }
+}
@@ -4,7 +4,10 @@ import org.biopax.paxtools.model.level2.complex;
 import org.biopax.paxtools.model.level2.protein;
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 import org.neo4j.graphdb.traversal.*;
+import org.neo4j.kernel.impl.transaction.log.TransactionIdStore;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
 import org.neo4j.unsafe.impl.batchimport.input.InputException;
 import scala.Int;
 
@@ -44,11 +47,190 @@ public class EmbeddedNeo4jDatabase {
         this.databaseDir = databaseDir;
     }
 
+    // page cache for read only databases, sized to the store when it isn't set
+    private static String pageCache = null;
+
+    /**
+     * @param pageCache the page cache read only databases are opened with (e.g. "512m"), null to size it to the store
+     */
+    public static void setPageCache(String pageCache){
+        EmbeddedNeo4jDatabase.pageCache = pageCache;
+    }
+
+    // a database held open between method calls, by Serve or while a method runs over a file of ids
+    private static File sessionDir = null;
+    private static GraphDatabaseService sessionDb = null;
+
+    // the topology version of each database asked for, with the transaction it was read at
+    private static final HashMap<File, long[]> topologies = new HashMap<>();
+
+    /**
+     * Opens a database that every method run on it shares until closeSession is called
+     * @param databaseDir
+     * @return false if a session was already open on this database
+     */
+    public static boolean openSession(File databaseDir){
+        File dir = databaseDir.getAbsoluteFile().toPath().normalize().toFile();
+        if(sessionDb != null){
+            if(sessionDir.equals(dir)){
+                return false;
+            }
+            throw new IllegalStateException("A session is already open on " + sessionDir);
+        }
+        sessionDb = new GraphDatabaseFactory().newEmbeddedDatabase(dir);
+        sessionDir = dir;
+        return true;
+    }
+
+    /**
+     * Shuts down the database opened by openSession
+     */
+    public static void closeSession(){
+        if(sessionDb != null){
+            sessionDb.shutdown();
+            sessionDb = null;
+            sessionDir = null;
+        }
+    }
+
+    /**
+     * @return the session database if one is open on this database, otherwise a newly opened database
+     */
+    protected GraphDatabaseService openDatabase(){
+        if(sessionDb != null && sessionDir.equals(databaseDir.getAbsoluteFile().toPath().normalize().toFile())){
+            return sessionDb;
+        }
+        return new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+    }
+
+    /**
+     * Opens the database read only for the modes that only read it, falls back to opening it for writing if the
+     * store has to be recovered first. Neo4j still locks the store, use a snapshot to run analyses side by side
+     * @return the session database if one is open on this database, otherwise a newly opened read only database
+     */
+    protected GraphDatabaseService openReadOnlyDatabase(){
+        if(sessionDb != null && sessionDir.equals(databaseDir.getAbsoluteFile().toPath().normalize().toFile())){
+            return sessionDb;
+        }
+        try {
+            return new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(databaseDir)
+                    .setConfig(GraphDatabaseSettings.read_only, "true")
+                    .setConfig(GraphDatabaseSettings.pagecache_memory, pageCache != null ? pageCache : storePageCache(databaseDir))
+                    .newGraphDatabase();
+        } catch (RuntimeException e) {
+            if (!recoveryRequired(e)) {
+                throw e;
+            }
+            System.out.println(databaseDir + " has to be recovered, opening it for writing");
+            return new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        }
+    }
+
+    private static boolean recoveryRequired(Throwable e){
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("recover")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param databaseDir
+     * @return a page cache a quarter bigger than the store files, so the whole graph stays in memory once read
+     */
+    static String storePageCache(File databaseDir){
+        long storeSize = 0;
+        File[] files = databaseDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && file.getName().startsWith("neostore") && !file.getName().contains("transaction")) {
+                    storeSize += file.length();
+                }
+            }
+        }
+        long pageCache = Math.max(storeSize + storeSize / 4, 8L * 1024 * 1024);
+        return pageCache / 1024 + "k";
+    }
+
+    /**
+     * Shuts down a database from openDatabase, unless it belongs to the open session
+     * @param graphDb
+     */
+    protected void shutdownDatabase(GraphDatabaseService graphDb){
+        if(graphDb != sessionDb){
+            graphDb.shutdown();
+        }
+    }
+
+    /**
+     * @param graphDb
+     * @return the id of the last transaction committed to the database, it changes whenever the graph is written to
+     */
+    static long fingerprint(GraphDatabaseService graphDb){
+        return ((GraphDatabaseAPI) graphDb).getDependencyResolver()
+                .resolveDependency(TransactionIdStore.class, DependencyResolver.SelectionStrategy.ONLY)
+                .getLastCommittedTransactionId();
+    }
+
+    /**
+     * The topology version of a database, kept in [database].topology next to it. CreateDB, UpdateDB and IntegratePSP
+     * change it, mapping or resetting an experiment doesn't, so what is kept for a topology outlives them. A database
+     * without one is given one, one that can't be written falls back to the last committed transaction
+     * @param graphDb
+     * @return
+     */
+    static synchronized long topology(GraphDatabaseService graphDb){
+        File databaseDir = ((GraphDatabaseAPI) graphDb).databaseLayout().databaseDirectory();
+        File file = topologyFile(databaseDir);
+        // read again only after the database is written to
+        long fingerprint = fingerprint(graphDb);
+        long[] known = topologies.get(file);
+        if (known != null && known[0] == fingerprint) {
+            return known[1];
+        }
+
+        if (!file.exists()) {
+            topologyChanged(databaseDir);
+        }
+        long topology;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            topology = in.readLong();
+        } catch (IOException e) {
+            topology = fingerprint;
+        }
+        topologies.put(file, new long[]{fingerprint, topology});
+        return topology;
+    }
+
+    /**
+     * Gives a database a new topology version, and deletes the traversals kept for the old one
+     * @param databaseDir
+     */
+    static synchronized void topologyChanged(File databaseDir) {
+        File file = topologyFile(databaseDir);
+        topologies.remove(file);
+        TraversalCache.clear(databaseDir);
+        // without a version the next one asked for is written again
+        file.delete();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeLong(new Random().nextLong());
+        } catch (IOException e) {
+            file.delete();
+            System.out.println("Could not write the topology version " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static File topologyFile(File databaseDir){
+        File dir = databaseDir.getAbsoluteFile().toPath().normalize().toFile();
+        return new File(dir.getParentFile(), dir.getName() + ".topology");
+    }
+
     /**
      * Prints all nodes and all relationships in a database
      */
     public void printDatabase() {
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
         try(Transaction tx = graphDb.beginTx()){
             ResourceIterable<Node> nodeIterable = graphDb.getAllNodes();
             System.out.println("\nNodes:\n");
@@ -82,7 +264,19 @@ public class EmbeddedNeo4jDatabase {
             }
             tx.success();
         }
-        graphDb.shutdown();
+        shutdownDatabase(graphDb);
+    }
+
+    /**
+     * Adds the lookup indexes and uniqueness constraints to a database that was built without them
+     */
+    public void indexDatabase() {
+        GraphDatabaseService graphDb = openDatabase();
+        BatchTransaction.checkComplete(graphDb);
+        HashSet<String> classLabels = DatabaseSchema.getClassLabels(graphDb);
+        Integer created = DatabaseSchema.createIndexes(graphDb, classLabels);
+        System.out.println("Created " + created + " indexes and constraints in database: " + databaseDir);
+        shutdownDatabase(graphDb);
     }
 
     /**
@@ -113,7 +307,7 @@ public class EmbeddedNeo4jDatabase {
      * Prints the species node to console
      */
     public void printSpecies(){
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
         try(Transaction tx = graphDb.beginTx()){
             ResourceIterator<Node> speciesNodes = graphDb.findNodes(Label.label("SPECIES"));
 
@@ -128,19 +322,21 @@ public class EmbeddedNeo4jDatabase {
             }
             tx.success();
         }
+        shutdownDatabase(graphDb);
     }
 
     /**
      * Prints the species node to console
      */
     public void printProperties(){
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
         try(Transaction tx = graphDb.beginTx()){
             for (String allPropertyKey : graphDb.getAllPropertyKeys()) {
                 System.out.println(allPropertyKey);
             }
             tx.success();
         }
+        shutdownDatabase(graphDb);
     }
 
     /**
@@ -148,7 +344,7 @@ public class EmbeddedNeo4jDatabase {
      * @throws IOException
      */
     public void printAllUniProtIDs() throws IOException {
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
         File uniprotFile = new File(outputFile + "/UniProtIDs.tsv");
         uniprotFile.createNewFile();
         FileWriter fstream = new FileWriter(uniprotFile);
@@ -163,7 +359,7 @@ public class EmbeddedNeo4jDatabase {
             out.close();
             tx.success();
         }
-        graphDb.shutdown();
+        shutdownDatabase(graphDb);
     }
 
     /**
@@ -171,7 +367,7 @@ public class EmbeddedNeo4jDatabase {
      * @throws IOException
      */
     public void printAllPhosphorylations() throws IOException {
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
         File uniprotFile = new File(outputFile + "/Phosphorylations.tsv");
         uniprotFile.createNewFile();
 
@@ -208,7 +404,7 @@ public class EmbeddedNeo4jDatabase {
             out.close();
             tx.success();
         }
-        graphDb.shutdown();
+        shutdownDatabase(graphDb);
     }
 
     /**
@@ -216,7 +412,7 @@ public class EmbeddedNeo4jDatabase {
      * @param label
      */
     public void printLabelNumber(String label){
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
         try(Transaction tx = graphDb.beginTx()){
             ResourceIterator<Node> nodes = graphDb.findNodes(Label.label(label));
             Integer count = 0;
@@ -237,7 +433,20 @@ public class EmbeddedNeo4jDatabase {
                 System.out.println("There are " +count+" "+label+"'s in this database: " + databaseDir);
             }
         }
+        shutdownDatabase(graphDb);
+    }
 
+    /**
+     * Writes the graph to a snapshot file the traversal analyses can be run off without opening the database
+     * @throws IOException
+     */
+    public void exportSnapshot() throws IOException {
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
+        try {
+            GraphSnapshot.export(graphDb, outputFile);
+        } finally {
+            shutdownDatabase(graphDb);
+        }
     }
 
     /**
@@ -246,7 +455,7 @@ public class EmbeddedNeo4jDatabase {
      * @throws IOException
      */
     public void writeSIF() throws IOException {
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
         File SIF_FILE = new File(outputFile, "/SIF.sif");
         //File ATTR = new File(outputFile, "/attribute.tsv");
 
@@ -500,7 +709,7 @@ public class EmbeddedNeo4jDatabase {
             ATTR.close();
             writer.close();
         }
-        graphDb.shutdown();
+        shutdownDatabase(graphDb);
     }
 
     /**
@@ -510,7 +719,8 @@ public class EmbeddedNeo4jDatabase {
      */
     public void mapMQPhosphopeps( File path2phosPeps, String mappingOption ) throws IOException{
 
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openDatabase();
+        BatchTransaction.checkComplete(graphDb);
 
         // read in uids from data
             // Ask for Leading Razor Protein Column
@@ -986,7 +1196,7 @@ Protein_ID modified_peptide log2Int Time
         }// expr for loop
         System.out.println("\n\nTo generate diagnostic plots, move the proportionPlots.Rmd (from the R directory in the cloned repo) into this directory and enter the following line into your console:");
         System.out.println("Rscript -e \"rmarkdown::render('proportionPlots.Rmd')\"\n"); //TODO WRONG NEED TO INPUT QPHOS
-        graphDb.shutdown();
+        shutdownDatabase(graphDb);
     }
 
     HashMap<String, Double> abundanceScoreAvgHighestSupport(GraphDatabaseService graphDb,
@@ -1725,8 +1935,7 @@ Protein_ID modified_peptide log2Int Time
         try {
             fasta_url = new URL(url);
         } catch (MalformedURLException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new IllegalArgumentException("Not a valid URL: " + url, e);
         }
 
         try  {
@@ -1756,9 +1965,7 @@ Protein_ID modified_peptide log2Int Time
                 }
             }
         }catch (IOException e){
-            e.printStackTrace();
-            System.err.println("Could not load file: " + url);
-            System.exit(1);
+            throw new UncheckedIOException("Could not load file: " + url, e);
         }
 
         return fasta;
@@ -1963,7 +2170,7 @@ Protein_ID modified_peptide log2Int Time
      * @throws IOException
      */
     public void printScoreDistributions() throws IOException{
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
 
         //Create File to write outputs to
         FileWriter fstream  = new FileWriter(outputFile + "/scoreDistributions.tsv");
@@ -2041,7 +2248,7 @@ Protein_ID modified_peptide log2Int Time
             tx.success();
         }
         out.close();
-        graphDb.shutdown();
+        shutdownDatabase(graphDb);
     }
 
 
@@ -5,6 +5,8 @@ import org.biopax.paxtools.model.level2.complex;
 import org.junit.jupiter.api.Test;
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.schema.ConstraintDefinition;
+import org.neo4j.graphdb.schema.IndexDefinition;
 
 import java.io.*;
 import java.util.HashSet;
@@ -157,6 +159,59 @@ class EmbeddedNeo4jDatabaseTest {
 
     }
 
+    @Test
+    void testIndexDatabase() {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/");
+        File tempGraph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/GRAPH/");
+
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(tempGraph);
+        try(Transaction tx = graphDb.beginTx()){
+            Node p1 = graphDb.createNode(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
+            p1.addLabel(Label.label("Protein"));
+            p1.setProperty(PropertyType.DB_ID.toString(), "Protein1");
+            Node uid1 = graphDb.createNode(Label.label(LabelTypes.UNIPROT_ID.toString()));
+            uid1.setProperty(PropertyType.UNIPROT_ID.toString(), "P04637");
+            Node rxn1 = graphDb.createNode(Label.label(LabelTypes.INTERACTION.toString()));
+            rxn1.addLabel(Label.label("BiochemicalReaction"));
+            rxn1.setProperty(PropertyType.DB_ID.toString(), "BiochemicalReaction1");
+            tx.success();
+        }
+        graphDb.shutdown();
+
+        EmbeddedNeo4jDatabase edb = new EmbeddedNeo4jDatabase(tempGraph, tempDir);
+        edb.indexDatabase();
+        // running it again shouldn't make anything new
+        edb.indexDatabase();
+
+        HashSet<String> indexed = new HashSet<>();
+        Integer numConstraints = 0;
+        graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(tempGraph);
+        try(Transaction tx = graphDb.beginTx()){
+            for (IndexDefinition index: graphDb.schema().getIndexes()) {
+                indexed.add(index.getLabels().iterator().next().name() + "." + index.getPropertyKeys().iterator().next());
+            }
+            for (ConstraintDefinition constraint: graphDb.schema().getConstraints()) {
+                numConstraints++;
+            }
+            tx.success();
+        }
+        graphDb.shutdown();
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        assertTrue(indexed.contains("UNIPROT_ID.UNIPROT_ID"));
+        assertTrue(indexed.contains("PHYSICAL_ENTITY.DB_ID"));
+        assertTrue(indexed.contains("Protein.DB_ID"));
+        assertTrue(indexed.contains("BiochemicalReaction.DB_ID"));
+        assertTrue(indexed.contains("INTERACTION.DB_ID"));
+        assertTrue(indexed.contains("UNIPROT_ID.UNIPROT_NAME"));
+        assertEquals(Integer.valueOf(2), numConstraints);
+    }
+
     @Test
     void testMapMQPhosphopeps_HighestSupport_abundance() {
 
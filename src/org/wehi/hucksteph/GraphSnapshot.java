@@ -0,0 +1,783 @@
+package org.wehi.hucksteph;
+
+import org.neo4j.graphdb.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A read only compressed sparse row copy of a database for the analyses that only walk the graph.
+ * Nodes get dense int ids (in Neo4j node id order), every relationship type has its own outgoing and incoming adjacency,
+ * and the labels and properties the analyses test on every step are stored as class codes, flag bitsets and columns.
+ * Every node also keeps its relationships in the order Neo4j returns them, so searches can visit nodes in the same
+ * order a Neo4j traversal does.
+ *
+ * The file is a list of sections, each a long byte length followed by its contents, and is memory mapped a section at a time
+ */
+public class GraphSnapshot {
+
+    private static final int MAGIC = 0x52535053;
+    private static final int VERSION = 2;
+
+    // direction bits of a relationship in a node's relationship order
+    public static final int OUTGOING = 1;
+    public static final int INCOMING = 2;
+
+    // node class codes
+    public static final byte CLASS_OTHER = 0;
+    public static final byte CLASS_PROTEIN = 1;
+    public static final byte CLASS_COMPLEX = 2;
+    public static final byte CLASS_PHOSPHORYLATION = 3;
+    public static final byte CLASS_UNIPROT_ID = 4;
+    public static final byte CLASS_BIOCHEMICAL_REACTION = 5;
+    public static final byte CLASS_SMALL_MOLECULE = 6;
+
+    // node flags
+    public static final int FLAG_KINASE = 0;
+    public static final int FLAG_TRANSCRIPTION_FACTOR = 1;
+    public static final int FLAG_CELL_SURFACE_RECEPTOR = 2;
+    public static final int FLAG_INTEGRATED = 3;
+    public static final int FLAG_PHYSICAL_ENTITY = 4;
+    public static final int FLAG_INTERACTION = 5;
+    private static final int FLAG_COUNT = 6;
+    // the node has a PHOSPHORYLATION relationship, kept by NodeClasses but not written to a snapshot
+    public static final int FLAG_PHOSPHORYLATED = 6;
+
+    // node properties kept as strings
+    private static final PropertyType[] STRING_COLUMNS = {
+            PropertyType.DISPLAY_NAME,
+            PropertyType.UNIPROT_ID,
+            PropertyType.LOCATION,
+            PropertyType.UNIPROT_NAME
+    };
+
+    private int nodeCount;
+    private int edgeCount;
+    private List<String> relTypes;
+    private List<String> experiments;
+
+    private LongBuffer nodeIds;
+    private ByteBuffer classCodes;
+    private LongBuffer flags;
+    private int words;
+
+    private int[] edgeBase;
+    private IntBuffer[] outOffsets;
+    private IntBuffer[] outTargets;
+    private IntBuffer[] inOffsets;
+    private IntBuffer[] inSources;
+    private IntBuffer[] inEdges;
+    private LongBuffer relationshipIds;
+    private IntBuffer relOffsets;
+    private IntBuffer relEdges;
+    private IntBuffer relOthers;
+    private IntBuffer relTypeDirections;
+
+    private StringColumn[] strings;
+    private DoubleBuffer[] supportScores;
+    private DoubleBuffer[] abundanceScores;
+    private StringColumn[] scoredBy;
+    private StringColumn[] mapped;
+    private DoubleBuffer[] supportWeights;
+    private DoubleBuffer[] abundanceWeights;
+
+    private HashMap<String, Integer> uniProtNodes;
+
+    private GraphSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of the whole database, including every experiment mapped onto it
+     * @param graphDb
+     * @param snapshotFile the file to write
+     * @throws IOException
+     */
+    public static void export(GraphDatabaseService graphDb, File snapshotFile) throws IOException {
+        BatchTransaction.checkComplete(graphDb);
+
+        try (Transaction tx = graphDb.beginTx();
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(snapshotFile), 1 << 16))) {
+
+            // dense ids
+            List<Long> ids = new ArrayList<>();
+            for (Node node : graphDb.getAllNodes()) {
+                ids.add(node.getId());
+            }
+            Collections.sort(ids);
+            int n = ids.size();
+            long[] nodeIds = new long[n];
+            HashMap<Long, Integer> dense = new HashMap<>(n * 2);
+            for (int i = 0; i < n; i++) {
+                nodeIds[i] = ids.get(i);
+                dense.put(nodeIds[i], i);
+            }
+
+            // experiments in the order the analyses find them
+            List<String> experiments = new ArrayList<>();
+            for (String property : graphDb.getAllPropertyKeys()) {
+                if(property.startsWith("SUPPORT_SCORE_")){
+                    experiments.add(property.replace("SUPPORT_SCORE_", ""));
+                }
+            }
+
+            // nodes
+            int words = (n + 63) >>> 6;
+            byte[] classCodes = new byte[n];
+            long[] flags = new long[FLAG_COUNT * words];
+            String[][] strings = new String[STRING_COLUMNS.length][n];
+            double[][] supportScores = new double[experiments.size()][n];
+            double[][] abundanceScores = new double[experiments.size()][n];
+            String[][] scoredBy = new String[experiments.size()][n];
+            String[][] mapped = new String[experiments.size()][n];
+            for (int e = 0; e < experiments.size(); e++) {
+                Arrays.fill(supportScores[e], Double.NaN);
+                Arrays.fill(abundanceScores[e], Double.NaN);
+            }
+            for (int i = 0; i < n; i++) {
+                Node node = graphDb.getNodeById(nodeIds[i]);
+                classCodes[i] = classCode(node);
+                int nodeFlags = NodeClasses.flagsOf(node);
+                for (int f = 0; f < FLAG_COUNT; f++) {
+                    setFlag(flags, words, f, i, (nodeFlags & (1 << f)) != 0);
+                }
+                for (int c = 0; c < STRING_COLUMNS.length; c++) {
+                    if(node.hasProperty(STRING_COLUMNS[c].toString())){
+                        strings[c][i] = node.getProperty(STRING_COLUMNS[c].toString()).toString();
+                    }
+                }
+                for (int e = 0; e < experiments.size(); e++) {
+                    String experiment = experiments.get(e);
+                    if(node.hasProperty("SUPPORT_SCORE_" + experiment)){
+                        supportScores[e][i] = Double.parseDouble(node.getProperty("SUPPORT_SCORE_" + experiment).toString());
+                    }
+                    if(node.hasProperty("ABUNDANCE_SCORE_" + experiment)){
+                        abundanceScores[e][i] = Double.parseDouble(node.getProperty("ABUNDANCE_SCORE_" + experiment).toString());
+                    }
+                    if(node.hasProperty("SCORED_BY_" + experiment)){
+                        scoredBy[e][i] = node.getProperty("SCORED_BY_" + experiment).toString();
+                    }
+                    if(node.hasProperty("MAPPED_" + experiment)){
+                        mapped[e][i] = node.getProperty("MAPPED_" + experiment).toString();
+                    }
+                }
+            }
+
+            // relationships, grouped by type and then by start node
+            List<String> relTypes = new ArrayList<>();
+            HashMap<String, Integer> relTypeIndex = new HashMap<>();
+            for (RelationshipType type : graphDb.getAllRelationshipTypes()) {
+                relTypeIndex.put(type.name(), relTypes.size());
+                relTypes.add(type.name());
+            }
+            int types = relTypes.size();
+            List<Long> relIdList = new ArrayList<>();
+            for (Relationship relationship : graphDb.getAllRelationships()) {
+                relIdList.add(relationship.getId());
+            }
+            int m = relIdList.size();
+            int[] relType = new int[m];
+            int[] relStart = new int[m];
+            int[] relEnd = new int[m];
+            int[][] outDegree = new int[types][n + 1];
+            int[][] inDegree = new int[types][n + 1];
+            for (int r = 0; r < m; r++) {
+                Relationship relationship = graphDb.getRelationshipById(relIdList.get(r));
+                relType[r] = relTypeIndex.get(relationship.getType().name());
+                relStart[r] = dense.get(relationship.getStartNodeId());
+                relEnd[r] = dense.get(relationship.getEndNodeId());
+                outDegree[relType[r]][relStart[r] + 1]++;
+                inDegree[relType[r]][relEnd[r] + 1]++;
+            }
+            int[] typeSize = new int[types];
+            int[] edgeBase = new int[types];
+            for (int t = 0; t < types; t++) {
+                for (int i = 0; i < n; i++) {
+                    outDegree[t][i + 1] += outDegree[t][i];
+                    inDegree[t][i + 1] += inDegree[t][i];
+                }
+                typeSize[t] = outDegree[t][n];
+                if(t > 0){
+                    edgeBase[t] = edgeBase[t - 1] + typeSize[t - 1];
+                }
+            }
+            // global edge index of every relationship, in its type's outgoing order
+            int[] edgeOf = new int[m];
+            int[][] outFill = new int[types][];
+            for (int t = 0; t < types; t++) {
+                outFill[t] = Arrays.copyOf(outDegree[t], n);
+            }
+            for (int r = 0; r < m; r++) {
+                edgeOf[r] = edgeBase[relType[r]] + outFill[relType[r]][relStart[r]]++;
+            }
+            int[][] outTargets = new int[types][];
+            int[][] inSources = new int[types][];
+            int[][] inEdges = new int[types][];
+            int[][] inFill = new int[types][];
+            for (int t = 0; t < types; t++) {
+                outTargets[t] = new int[typeSize[t]];
+                inSources[t] = new int[typeSize[t]];
+                inEdges[t] = new int[typeSize[t]];
+                inFill[t] = Arrays.copyOf(inDegree[t], n);
+            }
+            HashMap<Long, Integer> edgeOfRelationship = new HashMap<>(m * 2);
+            for (int r = 0; r < m; r++) {
+                edgeOfRelationship.put(relIdList.get(r), edgeOf[r]);
+            }
+            // every node's relationships in the order Neo4j returns them, a relationship to itself only once
+            int[] relOffsets = new int[n + 1];
+            int[] relEdges = new int[2 * m];
+            int[] relOthers = new int[2 * m];
+            int[] relTypeDirections = new int[2 * m];
+            int rels = 0;
+            for (int i = 0; i < n; i++) {
+                for (Relationship relationship : graphDb.getNodeById(nodeIds[i]).getRelationships()) {
+                    int directions = 0;
+                    if(relationship.getStartNodeId() == nodeIds[i]){
+                        directions |= OUTGOING;
+                    }
+                    if(relationship.getEndNodeId() == nodeIds[i]){
+                        directions |= INCOMING;
+                    }
+                    relEdges[rels] = edgeOfRelationship.get(relationship.getId());
+                    relOthers[rels] = dense.get(relationship.getOtherNodeId(nodeIds[i]));
+                    relTypeDirections[rels] = relTypeIndex.get(relationship.getType().name()) << 2 | directions;
+                    rels++;
+                }
+                relOffsets[i + 1] = rels;
+            }
+            relEdges = Arrays.copyOf(relEdges, rels);
+            relOthers = Arrays.copyOf(relOthers, rels);
+            relTypeDirections = Arrays.copyOf(relTypeDirections, rels);
+
+            long[] relationshipIds = new long[m];
+            double[][] supportWeights = new double[experiments.size()][m];
+            double[][] abundanceWeights = new double[experiments.size()][m];
+            for (int r = 0; r < m; r++) {
+                int t = relType[r];
+                int edge = edgeOf[r];
+                outTargets[t][edge - edgeBase[t]] = relEnd[r];
+                int in = inFill[t][relEnd[r]]++;
+                inSources[t][in] = relStart[r];
+                inEdges[t][in] = edge;
+                relationshipIds[edge] = relIdList.get(r);
+                Relationship relationship = graphDb.getRelationshipById(relIdList.get(r));
+                for (int e = 0; e < experiments.size(); e++) {
+                    supportWeights[e][edge] = doubleProperty(relationship, "WEIGHT_SUPPORT_" + experiments.get(e));
+                    abundanceWeights[e][edge] = doubleProperty(relationship, "WEIGHT_ABUNDANCE_" + experiments.get(e));
+                }
+            }
+
+            // header
+            out.writeLong(6 * 4);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(m);
+            out.writeInt(types);
+            out.writeInt(experiments.size());
+            ByteArrayOutputStream names = new ByteArrayOutputStream();
+            DataOutputStream namesOut = new DataOutputStream(names);
+            for (String type : relTypes) {
+                namesOut.writeUTF(type);
+            }
+            for (String experiment : experiments) {
+                namesOut.writeUTF(experiment);
+            }
+            out.writeLong(names.size());
+            names.writeTo(out);
+
+            writeLongs(out, nodeIds);
+            out.writeLong(n);
+            out.write(classCodes);
+            writeLongs(out, flags);
+            for (int t = 0; t < types; t++) {
+                writeInts(out, outDegree[t]);
+                writeInts(out, outTargets[t]);
+                writeInts(out, inDegree[t]);
+                writeInts(out, inSources[t]);
+                writeInts(out, inEdges[t]);
+            }
+            writeLongs(out, relationshipIds);
+            writeInts(out, relOffsets);
+            writeInts(out, relEdges);
+            writeInts(out, relOthers);
+            writeInts(out, relTypeDirections);
+            for (int c = 0; c < STRING_COLUMNS.length; c++) {
+                writeStrings(out, strings[c]);
+            }
+            for (int e = 0; e < experiments.size(); e++) {
+                writeDoubles(out, supportScores[e]);
+                writeDoubles(out, abundanceScores[e]);
+                writeStrings(out, scoredBy[e]);
+                writeStrings(out, mapped[e]);
+                writeDoubles(out, supportWeights[e]);
+                writeDoubles(out, abundanceWeights[e]);
+            }
+
+            tx.success();
+            System.out.println("Wrote snapshot of " + n + " nodes, " + m + " relationships and " +
+                    experiments.size() + " experiments to " + snapshotFile);
+        }
+    }
+
+    /**
+     * Maps a snapshot written by export
+     * @param snapshotFile
+     * @return
+     * @throws IOException
+     */
+    public static GraphSnapshot open(File snapshotFile) throws IOException {
+        if(!snapshotFile.exists()){
+            throw new FileNotFoundException("Snapshot does not exist: " + snapshotFile);
+        }
+        GraphSnapshot snapshot = new GraphSnapshot();
+        try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "r");
+             FileChannel channel = file.getChannel()) {
+            SectionReader reader = new SectionReader(channel);
+
+            ByteBuffer header = reader.next();
+            if(header.getInt() != MAGIC){
+                throw new IOException(snapshotFile + " is not a snapshot");
+            } else if(header.getInt() != VERSION){
+                throw new IOException(snapshotFile + " was written by a different version, export it again");
+            }
+            snapshot.nodeCount = header.getInt();
+            snapshot.edgeCount = header.getInt();
+            int types = header.getInt();
+            int experimentCount = header.getInt();
+
+            ByteBuffer namesBuffer = reader.next();
+            byte[] namesBytes = new byte[namesBuffer.remaining()];
+            namesBuffer.get(namesBytes);
+            DataInputStream names = new DataInputStream(new ByteArrayInputStream(namesBytes));
+            snapshot.relTypes = new ArrayList<>();
+            for (int t = 0; t < types; t++) {
+                snapshot.relTypes.add(names.readUTF());
+            }
+            snapshot.experiments = new ArrayList<>();
+            for (int e = 0; e < experimentCount; e++) {
+                snapshot.experiments.add(names.readUTF());
+            }
+
+            snapshot.nodeIds = reader.next().asLongBuffer();
+            snapshot.classCodes = reader.next();
+            snapshot.flags = reader.next().asLongBuffer();
+            snapshot.words = (snapshot.nodeCount + 63) >>> 6;
+
+            snapshot.edgeBase = new int[types];
+            snapshot.outOffsets = new IntBuffer[types];
+            snapshot.outTargets = new IntBuffer[types];
+            snapshot.inOffsets = new IntBuffer[types];
+            snapshot.inSources = new IntBuffer[types];
+            snapshot.inEdges = new IntBuffer[types];
+            for (int t = 0; t < types; t++) {
+                snapshot.outOffsets[t] = reader.next().asIntBuffer();
+                snapshot.outTargets[t] = reader.next().asIntBuffer();
+                snapshot.inOffsets[t] = reader.next().asIntBuffer();
+                snapshot.inSources[t] = reader.next().asIntBuffer();
+                snapshot.inEdges[t] = reader.next().asIntBuffer();
+                if(t > 0){
+                    snapshot.edgeBase[t] = snapshot.edgeBase[t - 1] + snapshot.outTargets[t - 1].capacity();
+                }
+            }
+            snapshot.relationshipIds = reader.next().asLongBuffer();
+            snapshot.relOffsets = reader.next().asIntBuffer();
+            snapshot.relEdges = reader.next().asIntBuffer();
+            snapshot.relOthers = reader.next().asIntBuffer();
+            snapshot.relTypeDirections = reader.next().asIntBuffer();
+
+            snapshot.strings = new StringColumn[STRING_COLUMNS.length];
+            for (int c = 0; c < STRING_COLUMNS.length; c++) {
+                snapshot.strings[c] = new StringColumn(reader);
+            }
+            snapshot.supportScores = new DoubleBuffer[experimentCount];
+            snapshot.abundanceScores = new DoubleBuffer[experimentCount];
+            snapshot.scoredBy = new StringColumn[experimentCount];
+            snapshot.mapped = new StringColumn[experimentCount];
+            snapshot.supportWeights = new DoubleBuffer[experimentCount];
+            snapshot.abundanceWeights = new DoubleBuffer[experimentCount];
+            for (int e = 0; e < experimentCount; e++) {
+                snapshot.supportScores[e] = reader.next().asDoubleBuffer();
+                snapshot.abundanceScores[e] = reader.next().asDoubleBuffer();
+                snapshot.scoredBy[e] = new StringColumn(reader);
+                snapshot.mapped[e] = new StringColumn(reader);
+                snapshot.supportWeights[e] = reader.next().asDoubleBuffer();
+                snapshot.abundanceWeights[e] = reader.next().asDoubleBuffer();
+            }
+        }
+        return snapshot;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * @param node dense id
+     * @return the Neo4j node id
+     */
+    public long getNodeId(int node){
+        return nodeIds.get(node);
+    }
+
+    /**
+     * @param nodeId Neo4j node id
+     * @return the dense id, or -1 if the node isn't in the snapshot
+     */
+    public int getNode(long nodeId){
+        int low = 0;
+        int high = nodeCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = nodeIds.get(mid);
+            if (midId < nodeId) {
+                low = mid + 1;
+            } else if (midId > nodeId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param uid a UniProt id
+     * @return the dense id of its UNIPROT_ID node, or -1 if there isn't one
+     */
+    public synchronized int findUniProt(String uid){
+        if(uniProtNodes == null){
+            uniProtNodes = new HashMap<>();
+            for (int node = 0; node < nodeCount; node++) {
+                if(getClassCode(node) == CLASS_UNIPROT_ID){
+                    uniProtNodes.put(getString(PropertyType.UNIPROT_ID, node), node);
+                }
+            }
+        }
+        return uniProtNodes.getOrDefault(uid, -1);
+    }
+
+    public byte getClassCode(int node){
+        return classCodes.get(node);
+    }
+
+    /**
+     * @param flag one of the FLAG_ constants, other than FLAG_PHOSPHORYLATED
+     * @param node dense id
+     * @return
+     */
+    public boolean hasFlag(int flag, int node){
+        return (flags.get(flag * words + (node >>> 6)) & (1L << node)) != 0;
+    }
+
+    /**
+     * @param type relationship type name
+     * @return the type index, or -1 if no relationship has this type
+     */
+    public int getRelType(String type){
+        return relTypes.indexOf(type);
+    }
+
+    public int getRelType(RelationshipType type){
+        return getRelType(type.name());
+    }
+
+    public int getRelTypeCount() {
+        return relTypes.size();
+    }
+
+    public String getRelTypeName(int type){
+        return relTypes.get(type);
+    }
+
+    public int outBegin(int type, int node){
+        return outOffsets[type].get(node);
+    }
+
+    public int outEnd(int type, int node){
+        return outOffsets[type].get(node + 1);
+    }
+
+    public int outTarget(int type, int i){
+        return outTargets[type].get(i);
+    }
+
+    /**
+     * @return the global edge index of the i-th outgoing relationship of this type
+     */
+    public int outEdge(int type, int i){
+        return edgeBase[type] + i;
+    }
+
+    public int inBegin(int type, int node){
+        return inOffsets[type].get(node);
+    }
+
+    public int inEnd(int type, int node){
+        return inOffsets[type].get(node + 1);
+    }
+
+    public int inSource(int type, int i){
+        return inSources[type].get(i);
+    }
+
+    /**
+     * @return the global edge index of the i-th incoming relationship of this type
+     */
+    public int inEdge(int type, int i){
+        return inEdges[type].get(i);
+    }
+
+    /**
+     * @return the number of relationships of this type on the node in either direction
+     */
+    public int degree(int type, int node){
+        if(type < 0){
+            return 0;
+        }
+        return outEnd(type, node) - outBegin(type, node) + inEnd(type, node) - inBegin(type, node);
+    }
+
+    /**
+     * @return the index of the node's first relationship in the order Neo4j returns them
+     */
+    public int relBegin(int node){
+        return relOffsets.get(node);
+    }
+
+    public int relEnd(int node){
+        return relOffsets.get(node + 1);
+    }
+
+    /**
+     * @return the global edge index of the i-th relationship in a node's relationship order
+     */
+    public int relEdge(int i){
+        return relEdges.get(i);
+    }
+
+    /**
+     * @return the node at the other end of the i-th relationship in a node's relationship order
+     */
+    public int relOther(int i){
+        return relOthers.get(i);
+    }
+
+    public int relType(int i){
+        return relTypeDirections.get(i) >>> 2;
+    }
+
+    /**
+     * @return OUTGOING, INCOMING, or both for a relationship from the node to itself
+     */
+    public int relDirections(int i){
+        return relTypeDirections.get(i) & (OUTGOING | INCOMING);
+    }
+
+    public long getRelationshipId(int edge){
+        return relationshipIds.get(edge);
+    }
+
+    /**
+     * @param property DISPLAY_NAME, UNIPROT_ID, LOCATION or UNIPROT_NAME
+     * @param node dense id
+     * @return the property, or null if the node doesn't have it
+     */
+    public String getString(PropertyType property, int node){
+        for (int c = 0; c < STRING_COLUMNS.length; c++) {
+            if(STRING_COLUMNS[c] == property){
+                return strings[c].get(node);
+            }
+        }
+        throw new IllegalArgumentException(property + " is not kept in snapshots");
+    }
+
+    public List<String> getExperiments() {
+        return Collections.unmodifiableList(experiments);
+    }
+
+    /**
+     * @param experiment experiment name, ignoring case
+     * @return the experiment index, or -1 if it isn't in the snapshot
+     */
+    public int getExperiment(String experiment){
+        for (int e = 0; e < experiments.size(); e++) {
+            if(experiments.get(e).equalsIgnoreCase(experiment)){
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    public boolean hasSupportScore(int experiment, int node){
+        return !Double.isNaN(supportScores[experiment].get(node));
+    }
+
+    /**
+     * @return the support score, NaN if the node isn't measured
+     */
+    public double getSupportScore(int experiment, int node){
+        return supportScores[experiment].get(node);
+    }
+
+    /**
+     * @return the abundance score, NaN if the node isn't measured
+     */
+    public double getAbundanceScore(int experiment, int node){
+        return abundanceScores[experiment].get(node);
+    }
+
+    public String getScoredBy(int experiment, int node){
+        return scoredBy[experiment].get(node);
+    }
+
+    public String getMapped(int experiment, int node){
+        return mapped[experiment].get(node);
+    }
+
+    /**
+     * @return the support weight of a relationship, NaN if it has none
+     */
+    public double getSupportWeight(int experiment, int edge){
+        return supportWeights[experiment].get(edge);
+    }
+
+    /**
+     * @return the abundance weight of a relationship, NaN if it has none
+     */
+    public double getAbundanceWeight(int experiment, int edge){
+        return abundanceWeights[experiment].get(edge);
+    }
+
+    static byte classCode(Node node){
+        if(node.hasLabel(Label.label(LabelTypes.PHOSPHORYLATION.toString()))){
+            return CLASS_PHOSPHORYLATION;
+        }else if(node.hasLabel(Label.label(LabelTypes.UNIPROT_ID.toString()))){
+            return CLASS_UNIPROT_ID;
+        }else if(node.hasLabel(Label.label("Protein"))){
+            return CLASS_PROTEIN;
+        }else if(node.hasLabel(Label.label("Complex"))){
+            return CLASS_COMPLEX;
+        }else if(node.hasLabel(Label.label("BiochemicalReaction"))){
+            return CLASS_BIOCHEMICAL_REACTION;
+        }else if(node.getProperty(PropertyType.TYPE.toString(), "").equals("SmallMolecule")){
+            return CLASS_SMALL_MOLECULE;
+        }
+        return CLASS_OTHER;
+    }
+
+    private static void setFlag(long[] flags, int words, int flag, int node, boolean set){
+        if(set){
+            flags[flag * words + (node >>> 6)] |= 1L << node;
+        }
+    }
+
+    private static double doubleProperty(Relationship relationship, String property){
+        if(relationship.hasProperty(property)){
+            return Double.parseDouble(relationship.getProperty(property).toString());
+        }
+        return Double.NaN;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeLong(values.length * 4L);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        out.writeLong(values.length * 8L);
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        out.writeLong(values.length * 8L);
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    /**
+     * writes a presence bitset, offsets and the UTF-8 bytes of a string per node
+     */
+    private static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+        long[] present = new long[(values.length + 63) >>> 6];
+        int[] offsets = new int[values.length + 1];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < values.length; i++) {
+            if(values[i] != null){
+                present[i >>> 6] |= 1L << i;
+                byte[] encoded = values[i].getBytes(StandardCharsets.UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+            }
+            offsets[i + 1] = bytes.size();
+        }
+        writeLongs(out, present);
+        writeInts(out, offsets);
+        out.writeLong(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    /**
+     * maps each section of the file in turn
+     */
+    private static class SectionReader {
+        private final FileChannel channel;
+        private long position = 0;
+
+        SectionReader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        ByteBuffer next() throws IOException {
+            ByteBuffer length = ByteBuffer.allocate(8);
+            while (length.hasRemaining()) {
+                if(channel.read(length, position + length.position()) < 0){
+                    throw new EOFException("Snapshot is truncated");
+                }
+            }
+            length.flip();
+            long size = length.getLong();
+            ByteBuffer section = channel.map(FileChannel.MapMode.READ_ONLY, position + 8, size);
+            position += 8 + size;
+            return section;
+        }
+    }
+
+    private static class StringColumn {
+        private final LongBuffer present;
+        private final IntBuffer offsets;
+        private final ByteBuffer bytes;
+
+        StringColumn(SectionReader reader) throws IOException {
+            present = reader.next().asLongBuffer();
+            offsets = reader.next().asIntBuffer();
+            bytes = reader.next();
+        }
+
+        String get(int node){
+            if((present.get(node >>> 6) & (1L << node)) == 0){
+                return null;
+            }
+            int start = offsets.get(node);
+            byte[] value = new byte[offsets.get(node + 1) - start];
+            for (int i = 0; i < value.length; i++) {
+                value[i] = bytes.get(start + i);
+            }
+            return new String(value, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.wehi.hucksteph;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GraphSnapshotTest {
+
+    File DATABASE_ACTUAL_PATH = new File("test/actual");
+
+    @Test
+    void testExportAndOpen() throws IOException {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOT/");
+        File graph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOT/GRAPH/");
+        File snapshotFile = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOT/graph.snap");
+
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(graph);
+        long aId;
+        long rId;
+        long uId;
+        try(Transaction tx = graphDb.beginTx()){
+            Node a = graphDb.createNode(Label.label("Protein"), Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
+            a.setProperty(PropertyType.DISPLAY_NAME.toString(), "A");
+            a.setProperty(PropertyType.KINASE.toString(), "true");
+            a.setProperty("SUPPORT_SCORE_test", 1.5);
+            a.setProperty("ABUNDANCE_SCORE_test", 0.5);
+            Node r = graphDb.createNode(Label.label("BiochemicalReaction"), Label.label(LabelTypes.INTERACTION.toString()));
+            Node u = graphDb.createNode(Label.label(LabelTypes.UNIPROT_ID.toString()));
+            u.setProperty(PropertyType.UNIPROT_ID.toString(), "P04637");
+            u.createRelationshipTo(a, RelTypes.ID_BELONGS_TO);
+            Relationship input = a.createRelationshipTo(r, RelTypes.INPUT);
+            input.setProperty("WEIGHT_SUPPORT_test", 2.0);
+            aId = a.getId();
+            rId = r.getId();
+            uId = u.getId();
+            tx.success();
+        }
+        GraphSnapshot.export(graphDb, snapshotFile);
+        graphDb.shutdown();
+
+        GraphSnapshot snapshot = GraphSnapshot.open(snapshotFile);
+        int a = snapshot.getNode(aId);
+        int r = snapshot.getNode(rId);
+        int u = snapshot.findUniProt("P04637");
+        int input = snapshot.getRelType(RelTypes.INPUT);
+        int test = snapshot.getExperiment("TEST");
+
+        int numNodes = snapshot.getNodeCount();
+        int numEdges = snapshot.getEdgeCount();
+        int aClass = snapshot.getClassCode(a);
+        int rClass = snapshot.getClassCode(r);
+        boolean aKinase = snapshot.hasFlag(GraphSnapshot.FLAG_KINASE, a);
+        boolean rKinase = snapshot.hasFlag(GraphSnapshot.FLAG_KINASE, r);
+        int aOutputs = snapshot.outEnd(input, a) - snapshot.outBegin(input, a);
+        int aTarget = snapshot.outTarget(input, snapshot.outBegin(input, a));
+        int rSource = snapshot.inSource(input, snapshot.inBegin(input, r));
+        double weight = snapshot.getSupportWeight(test, snapshot.outEdge(input, snapshot.outBegin(input, a)));
+        double aScore = snapshot.getSupportScore(test, a);
+        boolean rScored = snapshot.hasSupportScore(test, r);
+        String aName = snapshot.getString(PropertyType.DISPLAY_NAME, a);
+        String rName = snapshot.getString(PropertyType.DISPLAY_NAME, r);
+        int missingType = snapshot.getRelType(RelTypes.CATALYSIS);
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        assertEquals(3, numNodes);
+        assertEquals(2, numEdges);
+        assertEquals(uId, snapshot.getNodeId(u));
+        assertEquals(GraphSnapshot.CLASS_PROTEIN, aClass);
+        assertEquals(GraphSnapshot.CLASS_BIOCHEMICAL_REACTION, rClass);
+        assertTrue(aKinase);
+        assertFalse(rKinase);
+        assertEquals(1, aOutputs);
+        assertEquals(r, aTarget);
+        assertEquals(a, rSource);
+        assertEquals(2.0, weight);
+        assertEquals(1.5, aScore);
+        assertFalse(rScored);
+        assertEquals("A", aName);
+        assertNull(rName);
+        assertEquals(-1, missingType);
+        assertEquals(-1, snapshot.findUniProt("Q99943"));
+    }
+}
@@ -1,9 +1,11 @@
 package org.wehi.hucksteph;
 
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.Namespace;
+import org.apache.commons.io.FileUtils;
 import org.neo4j.unsafe.impl.batchimport.input.InputException;
 import scala.Int;
 
@@ -11,15 +13,30 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class Main {
 
+    // set while Serve reads commands, so a bad command doesn't end the process
+    private static boolean serving = false;
+
     public static void main(String[] args) throws IOException {
+        run(newParser(), args);
+    }
+
+    private static ArgumentParser newParser() {
 
 
 
@@ -34,19 +51,25 @@ public class Main {
                                 "\"PrintDatabase\", takes in input database [-idb]\n" +
                                 "\"PrintSpecies\", takes in input database [-idb]\n" +
                                 "\"PrintProperties\", takes in input database [-idb]\n" +
+                                "\"IndexExistingDB\", takes in input database [-idb]\n" +
                                 "\"AmountWithLabel\", takes in input database [-idb] and the name of the label of interest [-l]\n" +
                                 "\"WriteAllUIDs\", takes an input database [-idb] and an output path [-op]\n" +
                                 "\"WritePhos\", takes an input database [-idb] and an output path [-op]\n" +
                                 "\"WriteDBtoSIF\", takes an input database [-idb] and an output path [-op]\n" +
-                                "\"IntegratePSP\", takes in input Reactome database [-idb], takes the PSP database [-psp], an output path [-op], and a species [-s]\n" +
-                                "\"BinomialNeighbourhoodAnalysis\", takes in a measured input database [-idb], an output path [-op], and the depth of the traversal [-d]\n"+
+                                "\"ExportSnapshot\", takes an input database [-idb] and the snapshot file to write [-op]\n" +
+                                "\"IntegratePSP\", takes in input Reactome database [-idb], takes the PSP database [-psp], an output path [-op], a species [-s], and optionally the UIDs integrated per commit [-bs]\n" +
+                                "\"BinomialNeighbourhoodAnalysis\", takes in a measured input database [-idb] or snapshot [-snap], an output path [-op], the depth of the traversal or a range of depths such as 1-4 [-d], and optionally the threads [-t]\n"+
+                                "\"BuildNeighbourhoodIndex\", takes in input database [-idb], the depth of the neighbourhoods [-d], and optionally the threads [-t]\n"+
                                 "\"MapPeptides\", takes an input database [-idb] and an output path [-op], a file to map onto the database [-idf], and the optional Abundance Score mapping method preferred [-as] (\"HighestSupport\" is defalut)\n" +
-                                "\"CreateDB\", takes an OWL file [-iof], an output path [-op], an optional update boolean [-u] (can be T or F, default is T), and the species of graph you'd like to make [-s] (can be human (h) or mouse(m))\n" +
+                                "\"CreateDB\", takes an OWL file [-iof], an output path [-op], an optional update boolean [-u] (can be T or F, default is T), and the species of graph you'd like to make [-s] (can be human (h) or mouse(m)), use [--bulk] to build it with the batch inserter, [-bs] to set the entities per commit, or [-t] to set the threads\n" +
+                                "\"Serve\", takes in input database [-idb] and optionally a local port [-port], then runs commands (one per line, a mode and its arguments without [-idb]) on it until \"quit\", with [-port] it serves one client at a time and sends that client everything the process prints\n" +
+                                "\"UpdateDB\", takes an existing database [-idb], the new OWL file [-iof], an optional update boolean [-u] (can be T or F, default is T), the species of the database [-s], and optionally the changes per commit [-bs] or the threads [-t]\n" +
                                 "\"NeighbourhoodAnalysis\", takes in a measured input database [-idb], an output path [-op], the depth of the traversal [-d], the experiment name of interest [-en], and the file containing the pre-calculated empirical distribution per neighbourhood [-idf]\n"+
-                                "\"ShortestPath\", takes in a measured input database [-idb], an output path [-op], a starting node id [-sid], a ending node id [-eid], and the weight type to be traversed [-ew] (can be either \"Abundance\" (a) or \"Support\" (s))\n"+
-                                "\"MinimalConnectionNetwork\", takes in a measured input database [-idb], an output path [-op], and the experiment name of interest [-en]\n"+
+                                "\"ShortestPath\", takes in a measured input database [-idb] or snapshot [-snap], an output path [-op], a starting node id [-sid], a ending node id [-eid], and the weight type to be traversed [-ew] (can be either \"Abundance\" (a) or \"Support\" (s))\n"+
+                                "\"Reachable\", takes in input database [-idb], a starting UniProt ID or node id [-sid], the UniProt IDs or node ids to check are downstream of it [-eid] (separated by commas, or a file of them), and optionally an output path [-op] (prints the answers otherwise)\n"+
+                                "\"MinimalConnectionNetwork\", takes in a measured input database [-idb] or snapshot [-snap], an output path [-op], and the experiment name of interest [-en]\n"+
                                 "\"RemoveScores\", takes in a measured input database [-idb], and the mapped experiment name [-en]\n"+
-                                "\"TraversalAnalysis\", takes in a measured input database [-idb], an output path [-op], a UniProt ID or database ID to look downstream of [-p], the direction of the traversal [-dir], and the experiment name of interest [-en]\n" +
+                                "\"TraversalAnalysis\", takes in a measured input database [-idb] or snapshot [-snap], an output path [-op], a UniProt ID, database ID or file of ids (one per line) to look downstream of [-p], the direction of the traversal (upstream, downstream or both) [-dir], the experiment name of interest [-en], and for a file optionally the threads [-t], optionally list the pathways traversed [--list_pathways]\n" +
                                 "\nqPhosDs"+
                                 "\nqPhosMapALL\t [idb][op][idf]" +
                                 "\nqPhosMap \t [idb][op][idf][en]" +
@@ -59,21 +82,27 @@ public class Main {
                         )
                 .type(String.class)
                 .choices("CreateDB", //done
+                        "UpdateDB",
+                        "Serve",
                         "PrintDatabase", //done
                         "PrintSpecies", //done
                         "WriteAllUIDs", //done
                         "WritePhos", //done
                         "WriteDBtoSIF", //done
+                        "ExportSnapshot",
                         "MapPeptides", //done
                         "IntegratePSP", //done
                         "BinomialNeighbourhoodAnalysis", //done
+                        "BuildNeighbourhoodIndex",
                         "NeighbourhoodAnalysis",
                         "TraversalAnalysis", //done
                         "ShortestPath", //done
+                        "Reachable",
                         "MinimalConnectionNetwork", //done
                         "RemoveScores", //done
                         "AmountWithLabel", //done
                         "PrintProperties",
+                        "IndexExistingDB",
                         "qPhosDs",
                         "qPhosMap",
                         "qPhosNbhd",
@@ -100,10 +129,32 @@ public class Main {
                 .dest("species")
                 .nargs("?")
                 .help("The Species of netowrk to build -human (h) or mouse (m)");
+        parser.addArgument("--bulk")
+                .dest("bulk")
+                .action(Arguments.storeTrue())
+                .help("For CreateDB use flag to build the database offline with the batch inserter");
+        parser.addArgument("--list_pathways")
+                .dest("list_pathways")
+                .action(Arguments.storeTrue())
+                .help("For TraversalAnalysis of a database use flag to list the pathways traversed in the report");
+        parser.addArgument("--batch_size", "-bs")
+                .dest("batch_size")
+                .type(Integer.class)
+                .setDefault(BatchTransaction.DEFAULT_BATCH_SIZE)
+                .help("For CreateDB, UpdateDB and IntegratePSP the number of entities written per commit");
+        parser.addArgument("--threads", "-t")
+                .dest("threads")
+                .type(Integer.class)
+                .setDefault(Runtime.getRuntime().availableProcessors())
+                .help("For CreateDB and UpdateDB the number of threads used to read the OWL file before writing, for TraversalAnalysis of a file the number of ids traversed at once, for BuildNeighbourhoodIndex, BinomialNeighbourhoodAnalysis and qPhosNbhd the number of neighbourhoods found at once (default is all cores)");
         parser.addArgument("--input_db", "-idb")
                 .dest("input_db")
                 .nargs("?")
                 .help("The graph database directory");
+        parser.addArgument("--snapshot", "-snap")
+                .dest("snapshot")
+                .nargs("?")
+                .help("For TraversalAnalysis, BinomialNeighbourhoodAnalysis, ShortestPath and MinimalConnectionNetwork a snapshot file written by ExportSnapshot to use instead of the database");
         parser.addArgument("--input_data_file", "-idf")
                 .dest("input_data_file")
                 .nargs("?")
@@ -127,23 +178,23 @@ public class Main {
         parser.addArgument("--depth", "-d" )
                 .dest("depth")
                 .nargs("?")
-                .help("The depth of the neighbourhood traversal");
+                .help("The depth of the neighbourhood traversal, for BinomialNeighbourhoodAnalysis a range such as 1-4 analyses every depth in it from one traversal, each written to depth[depth] in the output path");
         parser.addArgument("--direction", "-dir" )
                 .dest("direction")
                 .nargs("?")
-                .help("The direction of the traversal");
+                .help("The direction of the traversal, \"upstream\", \"downstream\" or for TraversalAnalysis of a database \"both\" to also write the nodes found in both directions");
         parser.addArgument("--protein", "-p" )
                 .dest("protein")
                 .nargs("?")
-                .help("The protein to start the traversal");
+                .help("The protein to start the traversal, or a file of them");
         parser.addArgument("--startID", "-sid" )
                 .dest("startID")
                 .nargs("?")
-                .help("The id of the starting node to get the shortest path");
+                .help("The id of the starting node to get the shortest path, or to check reachability from");
         parser.addArgument("--endID", "-eid" )
                 .dest("endID")
                 .nargs("?")
-                .help("The id of the ending node to get the shortest path");
+                .help("The id of the ending node to get the shortest path, or the ids to check are reachable");
         parser.addArgument("--label", "-l" )
                 .dest("label")
                 .nargs("?")
@@ -160,41 +211,100 @@ public class Main {
                 .dest("repetition_num")
                 .nargs("?")
                 .help("The number of times the experiment should be repeated");
+        parser.addArgument("--page_cache", "-pc")
+                .dest("page_cache")
+                .nargs("?")
+                .help("For the modes that only read the database the page cache size (e.g. 512m), default is a quarter more than the store files");
+        parser.addArgument("--port", "-port")
+                .dest("port")
+                .nargs("?")
+                .type(Integer.class)
+                .help("For Serve the local port to read commands from (default is standard input)");
+
+        return parser;
+    }
 
+    private static void run(ArgumentParser parser, String[] args) throws IOException {
         try{
 
             Namespace ns = parser.parseArgs(args);
             String mode = ns.get("mode");
+            EmbeddedNeo4jDatabase.setPageCache(ns.getString("page_cache"));
 
             if(mode.equalsIgnoreCase("CreateDB")){
+                if(serving){
+                    throw new IllegalArgumentException("CreateDB can't be run from inside Serve");
+                }
                 if(ns.getAttrs().get("input_owl_file") == null){
                     throw new NullPointerException("Missing the input OWL file");
                 } else if(ns.getAttrs().get("output_path") == null){
                     throw new NullPointerException("Missing output path to write to");
                 } else if(ns.getAttrs().get("species") == null){
                     throw new NullPointerException("Missing species specified");
-                    // if update param is missing default is true
-                }else if(ns.getAttrs().get("update") == null){
-                    File input_owl_file = new File(ns.get("input_owl_file").toString());
-                    File output_graph_directory = new File(ns.get("output_path").toString());
-                    DatabaseFactory db = new DatabaseFactory(input_owl_file,output_graph_directory);
-                    db.createDBfromOWL();
-
+                }
+                File input_owl_file = new File(ns.get("input_owl_file").toString());
+                File output_graph_directory = new File(ns.get("output_path").toString());
+                DatabaseFactory db;
+                // if update param is missing default is true
+                if(ns.getAttrs().get("update") == null){
+                    db = new DatabaseFactory(input_owl_file,output_graph_directory);
                 }else{
-                    File input_owl_file = new File(ns.get("input_owl_file").toString());
-                    File output_graph_directory = new File(ns.get("output_path").toString());
                     String update = ns.get("update");
                     String species = ns.get("species");
                     if (update.equalsIgnoreCase("True") | update.equalsIgnoreCase("T")){
-                        DatabaseFactory db = new DatabaseFactory(input_owl_file, output_graph_directory, true, species);
-                        db.createDBfromOWL();
+                        db = new DatabaseFactory(input_owl_file, output_graph_directory, true, species);
                     }else if (update.equalsIgnoreCase("false") | update.equalsIgnoreCase("F")){
-                        DatabaseFactory db = new DatabaseFactory(input_owl_file, output_graph_directory, false, species);
-                        db.createDBfromOWL();
+                        db = new DatabaseFactory(input_owl_file, output_graph_directory, false, species);
                     }else{
                         throw new IllegalArgumentException("Update parameter must be True or False");
                     }
                 }
+                db.setThreads(ns.getInt("threads"));
+                if(ns.getBoolean("bulk")){
+                    db.createDBfromOWLBulk();
+                }else{
+                    db.setBatchSize(ns.getInt("batch_size"));
+                    db.createDBfromOWL();
+                }
+            }
+            else if(mode.equalsIgnoreCase("Serve")){
+                if (ns.getAttrs().get("input_db") == null) {
+                    throw new NullPointerException("Missing the input: database directory");
+                }
+                File input_db = new File(ns.get("input_db").toString());
+                serve(parser, input_db, ns.getInt("port"));
+            }
+            else if(mode.equalsIgnoreCase("UpdateDB")){
+                if(serving){
+                    throw new IllegalArgumentException("UpdateDB can't be run from inside Serve");
+                }
+                if (ns.getAttrs().get("input_db") == null) {
+                    throw new NullPointerException("Missing the input: database directory");
+                } else if(ns.getAttrs().get("input_owl_file") == null){
+                    throw new NullPointerException("Missing the input OWL file");
+                } else if(ns.getAttrs().get("species") == null){
+                    throw new NullPointerException("Missing species specified");
+                }
+                File input_db = new File(ns.get("input_db").toString());
+                File input_owl_file = new File(ns.get("input_owl_file").toString());
+                // the new release is built in its own folder next to the database being updated, and removed afterwards
+                File update_directory = new File(input_db.getAbsolutePath() + "_update");
+                File update_graph_directory = new File(update_directory, input_db.getName());
+                String species = ns.get("species");
+                boolean update = true;
+                if(ns.getAttrs().get("update") != null){
+                    String updateStr = ns.get("update");
+                    if (updateStr.equalsIgnoreCase("false") | updateStr.equalsIgnoreCase("F")){
+                        update = false;
+                    }else if (!(updateStr.equalsIgnoreCase("True") | updateStr.equalsIgnoreCase("T"))){
+                        throw new IllegalArgumentException("Update parameter must be True or False");
+                    }
+                }
+                DatabaseFactory db = new DatabaseFactory(input_owl_file, update_graph_directory, update, species);
+                db.setThreads(ns.getInt("threads"));
+                db.setBatchSize(ns.getInt("batch_size"));
+                db.updateDB(input_db);
+                FileUtils.deleteDirectory(update_directory);
             }
             else if(mode.equalsIgnoreCase("AmountWithLabel")) {
                 if (ns.getAttrs().get("input_db") == null) {
@@ -226,6 +336,15 @@ public class Main {
                     edb.printProperties();
                 }
             }
+            else if(mode.equalsIgnoreCase("IndexExistingDB")) {
+                if (ns.getAttrs().get("input_db") == null) {
+                    throw new NullPointerException("Missing the input: database directory");
+                }else{
+                    File input_db = new File(ns.get("input_db").toString());
+                    EmbeddedNeo4jDatabase edb = new EmbeddedNeo4jDatabase(input_db);
+                    edb.indexDatabase();
+                }
+            }
             else if(mode.equalsIgnoreCase("PrintDatabase")) {
                 if (ns.getAttrs().get("input_db") == null) {
                     throw new NullPointerException("Missing the input: database directory");
@@ -283,6 +402,18 @@ public class Main {
                     }
                 }
             }
+            else if(mode.equalsIgnoreCase("ExportSnapshot")) {
+                if (ns.getAttrs().get("input_db") == null) {
+                    throw new NullPointerException("Missing the input: database directory");
+                } else if(ns.getAttrs().get("output_path") == null){
+                    throw new NullPointerException("Missing snapshot file to write to");
+                }else{
+                    File input_db = new File(ns.get("input_db").toString());
+                    File snapshot_file = new File(ns.get("output_path").toString());
+                    EmbeddedNeo4jDatabase edb = new EmbeddedNeo4jDatabase(input_db, snapshot_file);
+                    edb.exportSnapshot();
+                }
+            }
             else if(mode.equalsIgnoreCase("IntegratePSP")) {
                 if (ns.getAttrs().get("input_db") == null) {
                     throw new NullPointerException("Missing the input: database directory");
@@ -298,6 +429,7 @@ public class Main {
                     File psp = new File(ns.get("psp").toString());
                     String species = ns.get("species");
                     ReactomeDatabase rxmdb = new ReactomeDatabase(input_db, output_path);
+                    rxmdb.setBatchSize(ns.getInt("batch_size"));
                     rxmdb.IntegratePSP(psp, species);
                 }
             }
@@ -324,25 +456,56 @@ public class Main {
                 }
             }
             else if(mode.equalsIgnoreCase("BinomialNeighbourhoodAnalysis")) {
-                if (ns.getAttrs().get("input_db") == null) {
-                    throw new NullPointerException("Missing the input: database directory");
+                if (ns.getAttrs().get("input_db") == null && ns.getAttrs().get("snapshot") == null) {
+                    throw new NullPointerException("Missing the input: database directory or snapshot");
                 } else if(ns.getAttrs().get("output_path") == null){
                     throw new NullPointerException("Missing output path to write to");
                 } else if(ns.getAttrs().get("depth") == null) {
                     throw new NullPointerException("Missing depth parameter for neighbourhood traversal");
                 }else{
-                    File input_db = new File(ns.get("input_db").toString());
                     File output_path = new File(ns.get("output_path").toString());
                     String depth = ns.getString("depth");
-                    Integer d = 0;
+                    // a single depth or a range of them, such as 1-4
+                    String[] depths = depth.split("-", 2);
+                    Integer minDepth;
+                    Integer maxDepth;
                     try{
-                         d = Integer.valueOf(depth);
+                         minDepth = Integer.valueOf(depths[0].trim());
+                         maxDepth = Integer.valueOf(depths[depths.length - 1].trim());
                     }catch (NumberFormatException e){
-                        System.out.println("Depth must be an integer");
+                        throw new InputException("Depth must be an integer or a range of them, such as 1-4");
+                    }
+                    if(minDepth > maxDepth){
+                        throw new InputException("The depth range must go from the smaller depth to the larger, such as 1-4");
                     }
 
-                    MeasuredDatabase mdb = new MeasuredDatabase(input_db, output_path);
-                    mdb.binomialNeighbourhood(d);
+                    if(ns.getAttrs().get("snapshot") != null){
+                        SnapshotDatabase sdb = new SnapshotDatabase(new File(ns.get("snapshot").toString()), output_path);
+                        sdb.setThreads(ns.getInt("threads"));
+                        sdb.binomialNeighbourhood(minDepth, maxDepth);
+                    }else{
+                        File input_db = new File(ns.get("input_db").toString());
+                        MeasuredDatabase mdb = new MeasuredDatabase(input_db, output_path);
+                        mdb.setThreads(ns.getInt("threads"));
+                        mdb.binomialNeighbourhood(minDepth, maxDepth);
+                    }
+                }
+            }
+            else if(mode.equalsIgnoreCase("BuildNeighbourhoodIndex")) {
+                if (ns.getAttrs().get("input_db") == null) {
+                    throw new NullPointerException("Missing the input: database directory");
+                } else if(ns.getAttrs().get("depth") == null) {
+                    throw new NullPointerException("Missing depth parameter for neighbourhood traversal");
+                }else{
+                    Integer d = 0;
+                    try{
+                        d = Integer.valueOf(ns.getString("depth"));
+                    }catch (NumberFormatException e){
+                        throw new InputException("Depth must be an integer");
+                    }
+                    MeasuredDatabase mdb = new MeasuredDatabase(new File(ns.get("input_db").toString()));
+                    mdb.setThreads(ns.getInt("threads"));
+                    mdb.buildNeighbourhoodIndex(d);
                 }
             }
             else if(mode.equalsIgnoreCase("RemoveScores")) {
@@ -380,8 +543,7 @@ public class Main {
                     try{
                         d = Integer.valueOf(depth);
                     }catch (NumberFormatException e){
-                        System.out.println("Depth must be an integer");
-                        System.exit(1);
+                        throw new InputException("Depth must be an integer");
                     }
                     if(ns.getAttrs().get("input_data_file2") == null){
                         MeasuredDatabase mdb = new MeasuredDatabase(input_db, output_path);
@@ -395,8 +557,8 @@ public class Main {
                 }
             }
             else if(mode.equalsIgnoreCase("TraversalAnalysis") ) {
-                if (ns.getAttrs().get("input_db") == null) {
-                    throw new NullPointerException("Missing the input: database directory");
+                if (ns.getAttrs().get("input_db") == null && ns.getAttrs().get("snapshot") == null) {
+                    throw new NullPointerException("Missing the input: database directory or snapshot");
                 } else if(ns.getAttrs().get("output_path") == null){
                     throw new NullPointerException("Missing output path to write to");
                 } else if(ns.getAttrs().get("direction") == null) {
@@ -406,21 +568,42 @@ public class Main {
                 } else if(ns.getAttrs().get("experiment") == null) {
                     throw new NullPointerException("Missing experiment parameter for network traversal");
                 }else{
-                    File input_db = new File(ns.get("input_db").toString());
                     File output_path = new File(ns.get("output_path").toString());
                     String direction = ns.getString("direction");
                     String protein = ns.getString("protein");
                     String experiment = ns.getString("experiment");
-                    if(!direction.equalsIgnoreCase("upstream") & !direction.equalsIgnoreCase("downstream")) {
-                        throw new InputException("Direction must be either \"upstream\" or \"downstream\" ");
+                    if(!direction.equalsIgnoreCase("upstream") & !direction.equalsIgnoreCase("downstream") & !direction.equalsIgnoreCase("both")) {
+                        throw new InputException("Direction must be either \"upstream\", \"downstream\" or \"both\" ");
+                    }
+                    if(direction.equalsIgnoreCase("both") && ns.getAttrs().get("snapshot") != null) {
+                        throw new InputException("Direction \"both\" needs the input database [-idb], not a snapshot");
+                    }
+                    // a file of ids is traversed as one batch
+                    File proteinFile = new File(protein);
+                    if(ns.getAttrs().get("snapshot") != null){
+                        SnapshotDatabase sdb = new SnapshotDatabase(new File(ns.get("snapshot").toString()), output_path);
+                        if(proteinFile.isFile()){
+                            sdb.setThreads(ns.getInt("threads"));
+                            sdb.traversal(proteinFile, direction, experiment);
+                        }else{
+                            sdb.traversal(protein, direction, experiment);
+                        }
+                    }else{
+                        File input_db = new File(ns.get("input_db").toString());
+                        MeasuredDatabase mdb = new MeasuredDatabase(input_db, output_path);
+                        mdb.setListPathways(ns.getBoolean("list_pathways"));
+                        if(proteinFile.isFile()){
+                            mdb.setThreads(ns.getInt("threads"));
+                            mdb.traversal(proteinFile, direction, experiment);
+                        }else{
+                            mdb.traversal(protein, direction, experiment);
+                        }
                     }
-                    MeasuredDatabase mdb = new MeasuredDatabase(input_db, output_path);
-                    mdb.traversal(protein, direction, experiment);
                 }
             }
             else if(mode.equalsIgnoreCase("ShortestPath")  ) {
-                if (ns.getAttrs().get("input_db") == null) {
-                    throw new NullPointerException("Missing the input: database directory");
+                if (ns.getAttrs().get("input_db") == null && ns.getAttrs().get("snapshot") == null) {
+                    throw new NullPointerException("Missing the input: database directory or snapshot");
                 } else if(ns.getAttrs().get("output_path") == null){
                     throw new NullPointerException("Missing output path to write to");
                 } else if(ns.getAttrs().get("startID") == null) {
@@ -430,23 +613,46 @@ public class Main {
                 } else if(ns.getAttrs().get("edge_weights") == null){
                     throw new NullPointerException("Missing the type of weights to be traversed");
                 }else{
-                    File input_db = new File(ns.get("input_db").toString());
                     File output_path = new File(ns.get("output_path").toString());
                     String s = ns.getString("startID");
                     String e = ns.getString("endID");
                     String weight = ns.get("edge_weights");
                     if(weight.equalsIgnoreCase("Abundance")| weight.equalsIgnoreCase("Support") | weight.equalsIgnoreCase("a")| weight.equalsIgnoreCase("s")){
-                        MeasuredDatabase mdb = new MeasuredDatabase(input_db, output_path);
-                        mdb.shortestPath(s,e, weight);
+                        if(ns.getAttrs().get("snapshot") != null){
+                            SnapshotDatabase sdb = new SnapshotDatabase(new File(ns.get("snapshot").toString()), output_path);
+                            sdb.shortestPath(s, e, weight);
+                        }else{
+                            File input_db = new File(ns.get("input_db").toString());
+                            MeasuredDatabase mdb = new MeasuredDatabase(input_db, output_path);
+                            mdb.shortestPath(s,e, weight);
+                        }
                     }else{
                         throw new InputException("Weights to be traversed can be either \"Abundance\" (\"a\")or \"Support\" (\"s\")");
                     }
 
                 }
             }
-            else if(mode.equalsIgnoreCase("MinimalConnectionNetwork")  ) {
+            else if(mode.equalsIgnoreCase("Reachable")  ) {
                 if (ns.getAttrs().get("input_db") == null) {
-                    throw new NullPointerException("Missing the input: database directory");
+                    throw new NullPointerException("Missing input database directory");
+                } else if(ns.getAttrs().get("startID") == null) {
+                    throw new NullPointerException("Missing the id to check reachability from");
+                } else if(ns.getAttrs().get("endID") == null) {
+                    throw new NullPointerException("Missing the ids to check are reachable");
+                }else{
+                    File input_db = new File(ns.get("input_db").toString());
+                    MeasuredDatabase mdb;
+                    if(ns.getAttrs().get("output_path") != null){
+                        mdb = new MeasuredDatabase(input_db, new File(ns.get("output_path").toString()));
+                    }else{
+                        mdb = new MeasuredDatabase(input_db);
+                    }
+                    mdb.reachable(ns.getString("startID"), ns.getString("endID"));
+                }
+            }
+            else if(mode.equalsIgnoreCase("MinimalConnectionNetwork")  ) {
+                if (ns.getAttrs().get("input_db") == null && ns.getAttrs().get("snapshot") == null) {
+                    throw new NullPointerException("Missing the input: database directory or snapshot");
                 } else if(ns.getAttrs().get("output_path") == null){
                     throw new NullPointerException("Missing output path to write to");
                 //} else if(ns.getAttrs().get("edge_weights") == null){
@@ -454,13 +660,18 @@ public class Main {
                 } else if(ns.getAttrs().get("experiment") == null) {
                     throw new NullPointerException("Missing experiment parameter for network traversal");
                 }else{
-                    File input_db = new File(ns.get("input_db").toString());
                     File output_path = new File(ns.get("output_path").toString());
                     String weight = ns.get("edge_weights");
                     String e = ns.get("experiment");
                     //if(weight.equalsIgnoreCase("Abundance")| weight.equalsIgnoreCase("Support") | weight.equalsIgnoreCase("a")| weight.equalsIgnoreCase("s")){
-                        MeasuredDatabase mdb = new MeasuredDatabase(input_db, output_path);
-                        mdb.minimalConnectionNetwork(e);
+                        if(ns.getAttrs().get("snapshot") != null){
+                            SnapshotDatabase sdb = new SnapshotDatabase(new File(ns.get("snapshot").toString()), output_path);
+                            sdb.minimalConnectionNetwork(e);
+                        }else{
+                            File input_db = new File(ns.get("input_db").toString());
+                            MeasuredDatabase mdb = new MeasuredDatabase(input_db, output_path);
+                            mdb.minimalConnectionNetwork(e);
+                        }
                     //}ese{
                     //    throw new InputException("Weights to be traversed can be either \"Abundance\" (\"a\")or \"Support\" (\"s\")");
                     //}
@@ -493,6 +704,7 @@ public class Main {
                 File input_db = new File(ns.get("input_db").toString());
                 File output_path = new File(ns.get("output_path").toString());
                 qPhosDatabase qPhos = new qPhosDatabase(input_db,output_path);
+                qPhos.setThreads(ns.getInt("threads"));
                 qPhos.allNbhds(4);
 
             }
@@ -545,30 +757,124 @@ public class Main {
             /////////////////////////////////////////////////////////////////////////////////
             else{
                 System.out.println("Mode \""+ mode+"\" not recognized, Options are:\n" +
-                        "                    \"CreateDB\", takes an OWL file [-iof], an output path [-op], an update boolean [-u] (can be T or F), and the species of graph you'd like to make [-s] (can be human (h) or mouse(m))\n" +
+                        "                    \"CreateDB\", takes an OWL file [-iof], an output path [-op], an update boolean [-u] (can be T or F), and the species of graph you'd like to make [-s] (can be human (h) or mouse(m)), use [--bulk] to build it with the batch inserter, [-bs] to set the entities per commit, or [-t] to set the threads\n" +
+                        "                    \"Serve\", takes in input database [-idb] and optionally a local port [-port], then runs commands (one per line, a mode and its arguments without [-idb]) on it until \"quit\", with [-port] it serves one client at a time and sends that client everything the process prints\n" +
+                        "                    \"UpdateDB\", takes an existing database [-idb], the new OWL file [-iof], an update boolean [-u] (can be T or F), the species of the database [-s], and optionally the changes per commit [-bs] or the threads [-t]\n" +
                         "                    \"PrintDatabase\", takes in input database [-idb]\n" +
                         "                    \"WriteAllUIDs\", takes an input database [-idb] and an output path [-op]\n" +
                         "                    \"WritePhos\", takes an input database [-idb] and an output path [-op]\n" +
                         "                    \"WriteDBtoSIF\", takes an input database [-idb] and an output path [-op]\n" +
+                        "                    \"ExportSnapshot\", takes an input database [-idb] and the snapshot file to write [-op]\n" +
                         "                    \"MapPeptides\", takes an input database [-idb] and an output path [-op], and a file to map onto the database [-idf]\n" +
-                        "                    \"IntegratePSP\", takes in input Reactome database [-idb], takes the PSP database [-psp], and an output path [-op]\n" +
-                        "                    \"BinomialNeighbourhoodAnalysis\", takes in a measured input database [-idb], an output path [-op], and the depth of the traversal [-d]\n"+
-                        "                    \"ShortestPath\", takes in a measured input database [-idb], an output path [-op], a starting node id [-sid], a ending node id [-eid], and the experiment name of interest [-en]\n"+
-                        "                    \"MinimalConnectionNetwork\", takes in a measured input database [-idb], an output path [-op]\n"+
-                        "                    \"TraversalAnalysis\", takes in a measured input database [-idb], an output path [-op], a UniProt ID or database ID to look downstream of [-p], the direction of the traversal [-dir], and the experiment name of interest [-en]\n"
+                        "                    \"IntegratePSP\", takes in input Reactome database [-idb], takes the PSP database [-psp], an output path [-op], and optionally the UIDs integrated per commit [-bs]\n" +
+                        "                    \"BinomialNeighbourhoodAnalysis\", takes in a measured input database [-idb] or snapshot [-snap], an output path [-op], the depth of the traversal or a range of depths such as 1-4 [-d], and optionally the threads [-t]\n"+
+                        "                    \"BuildNeighbourhoodIndex\", takes in input database [-idb], the depth of the neighbourhoods [-d], and optionally the threads [-t]\n"+
+                        "                    \"ShortestPath\", takes in a measured input database [-idb] or snapshot [-snap], an output path [-op], a starting node id [-sid], a ending node id [-eid], and the experiment name of interest [-en]\n"+
+                        "                    \"Reachable\", takes in input database [-idb], a starting UniProt ID or node id [-sid], the ids to check are downstream of it [-eid] (separated by commas, or a file of them), and optionally an output path [-op]\n"+
+                        "                    \"MinimalConnectionNetwork\", takes in a measured input database [-idb] or snapshot [-snap], an output path [-op]\n"+
+                        "                    \"TraversalAnalysis\", takes in a measured input database [-idb] or snapshot [-snap], an output path [-op], a UniProt ID, database ID or file of ids (one per line) to look downstream of [-p], the direction of the traversal (upstream, downstream or both) [-dir], the experiment name of interest [-en], and for a file optionally the threads [-t], optionally list the pathways traversed [--list_pathways]\n"
 
                 );
 
             }
         }catch (ArgumentParserException e){
+            if(serving){
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
             parser.handleError(e);
             System.exit(1);
         }
+    }
 
+    /**
+     * Opens a database once and runs commands on it, one per line, until "quit" or the end of the input.
+     * Commands are a mode followed by the same arguments as the command line, the database [-idb] can be left out.
+     * With a port, commands are read from connections to that port on this machine until "shutdown". Clients are
+     * served one at a time, and while one is connected standard output is redirected to it for the whole process,
+     * so Serve must be the only thing running in the process. Stack traces still go to standard error
+     * @param parser
+     * @param databaseDir
+     * @param port the port to listen on, or null to read standard input
+     * @throws IOException
+     */
+    private static void serve(ArgumentParser parser, File databaseDir, Integer port) throws IOException {
+        if(serving){
+            throw new IllegalArgumentException("Serve can't be run from inside Serve");
+        }
+        EmbeddedNeo4jDatabase.openSession(databaseDir);
+        serving = true;
+        try{
+            if(port == null){
+                serveCommands(parser, databaseDir, new BufferedReader(new InputStreamReader(System.in)), System.out);
+            }else{
+                try(ServerSocket server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())){
+                    System.out.println("Serving " + databaseDir + " on port " + server.getLocalPort());
+                    boolean open = true;
+                    while(open){
+                        try(Socket socket = server.accept()){
+                            PrintStream console = System.out;
+                            PrintStream out = new PrintStream(socket.getOutputStream(), true);
+                            // anything the methods print goes back to the client
+                            System.setOut(out);
+                            try{
+                                open = serveCommands(parser, databaseDir, new BufferedReader(new InputStreamReader(socket.getInputStream())), out);
+                            }finally {
+                                System.setOut(console);
+                            }
+                        }
+                    }
+                }
+            }
+        }finally {
+            serving = false;
+            EmbeddedNeo4jDatabase.closeSession();
+        }
+    }
 
-
-
-
+    /**
+     * Runs each line as a command, printing "OK" or "ERROR" and the message after each, followed by any causes
+     * @return false if the server should shut down
+     * @throws IOException
+     */
+    private static boolean serveCommands(ArgumentParser parser, File databaseDir, BufferedReader in, PrintStream out) throws IOException {
+        Pattern p = Pattern.compile("\"([^\"]*)\"|(\\S+)");
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if(line.isEmpty()){
+                continue;
+            }else if(line.equalsIgnoreCase("quit") | line.equalsIgnoreCase("exit")){
+                return true;
+            }else if(line.equalsIgnoreCase("shutdown")){
+                return false;
+            }
+            ArrayList<String> commandArgs = new ArrayList<>();
+            Matcher m = p.matcher(line);
+            while (m.find()){
+                commandArgs.add(m.group(1) != null ? m.group(1) : m.group(2));
+            }
+            // the mode can be given without [-m]
+            if(!commandArgs.get(0).startsWith("-")){
+                commandArgs.add(0, "-m");
+            }
+            if(!commandArgs.contains("-idb") & !commandArgs.contains("--input_db")){
+                commandArgs.add("-idb");
+                commandArgs.add(databaseDir.toString());
+            }
+            try{
+                run(parser, commandArgs.toArray(new String[0]));
+                out.println("OK");
+            }catch (Exception e){
+                out.println("ERROR " + (e.getMessage() == null ? e : e.getMessage()));
+                // the causes, as a stack trace would list them, so the client sees why and not only what
+                Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (Throwable cause = e.getCause(); cause != null && seen.add(cause); cause = cause.getCause()) {
+                    out.println("Caused by: " + cause);
+                }
+            }
+            out.flush();
+        }
+        return true;
     }
 
 }
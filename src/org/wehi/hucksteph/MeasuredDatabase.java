@@ -1,8 +1,6 @@
 package org.wehi.hucksteph;
 
 
-import org.apache.commons.math3.stat.inference.AlternativeHypothesis;
-import org.apache.commons.math3.stat.inference.BinomialTest;
 import org.neo4j.graphalgo.GraphAlgoFactory;
 import org.neo4j.graphalgo.PathFinder;
 import org.neo4j.graphalgo.WeightedPath;
@@ -13,6 +11,9 @@ import org.neo4j.unsafe.impl.batchimport.input.InputException;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -23,6 +24,17 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
     private final String UID_PATTERN = "[OPQ][0-9][A-Z0-9]{3}[0-9](\\-[0-9*]{1,2})?|[A-NR-Z][0-9]([A-Z][A-Z0-9]{2}[0-9]){1,2}(\\-[0-9*]{1,2})?";
     private final String humanUniProt = "https://www.uniprot.org/uniprot/?query=organism:9606&format=fasta&include=yes";
     private final String mouseUniProt = "https://www.uniprot.org/uniprot/?query=organism:10090&format=fasta&include=yes";
+    private Integer threads = Runtime.getRuntime().availableProcessors();
+    // proteins and complexes given to a worker at a time by the neighbourhood analysis
+    static final int NEIGHBOURHOOD_CHUNK = 256;
+    private Boolean listPathways = false;
+    private TraversalCache traversalCache = null;
+    private long traversalCacheTopology = -1;
+
+    // the reachability index last used, kept while serving
+    private static ReachabilityIndex reachabilityIndex = null;
+    private static File reachabilityIndexDir = null;
+    private static long reachabilityIndexTopology = -1;
 
 
     public MeasuredDatabase(File databaseDir, File outputFile) {
@@ -33,486 +45,681 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
         super(databaseDir);
     }
 
+    /**
+     * Sets the number of threads used to traverse a file of ids or find neighbourhoods
+     * @param threads
+     */
+    public void setThreads(Integer threads) {
+        this.threads = threads;
+    }
+
+    public Integer getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets whether traversal reports list the name of every pathway traversed, not just how many there were
+     * @param listPathways
+     */
+    public void setListPathways(Boolean listPathways) {
+        this.listPathways = listPathways;
+    }
+
     /**
      * @param node
      * @param graphDb
-     * @return
+     * @return the downstream traversal, read from the traversal cache if it was kept at this topology
      */
-    private Traverser getDownstream(Node node, GraphDatabaseService graphDb) {
-
-        TraversalDescription td = graphDb.traversalDescription().breadthFirst()
-                .evaluator(new Evaluator() {
-                    @Override
-                    public Evaluation evaluate(Path path) {
-                        if(path.endNode().getProperty(PropertyType.TYPE.toString())
-                                .equals("SmallMolecule")){
-                            return Evaluation.INCLUDE_AND_PRUNE;
-                        }
-                        return Evaluation.INCLUDE_AND_CONTINUE;
-                    }
-                })
-                .relationships(RelTypes.PHOSPHORYLATION, Direction.INCOMING)
-                .relationships(RelTypes.ID_BELONGS_TO, Direction.INCOMING)
-                .relationships(RelTypes.INPUT, Direction.OUTGOING)
-                .relationships(RelTypes.OUTPUT, Direction.OUTGOING)
-                .relationships(RelTypes.CONTROLS, Direction.OUTGOING)
-                .relationships(RelTypes.CATALYSIS, Direction.OUTGOING)
-                .relationships(RelTypes.COMPONENT, Direction.OUTGOING)
-                .relationships(RelTypes.SMALL_MOL_EDGE, Direction.OUTGOING)
-                .relationships(RelationshipType.withName("ACTIVATION"), Direction.OUTGOING)
-                .relationships(RelationshipType.withName("INHIBITION"), Direction.OUTGOING);
-        return td.traverse(node);
+    private TraversalResult getDownstream(Node node, GraphDatabaseService graphDb) {
+        return traversalCache(graphDb).get(node, TraversalProfile.DOWNSTREAM, graphDb);
     }
 
     /**
      * @param node
      * @param graphDb
-     * @return
+     * @return the upstream traversal, read from the traversal cache if it was kept at this topology
      */
-    private Traverser getUpstream(Node node, GraphDatabaseService graphDb) {
-        TraversalDescription td = graphDb.traversalDescription().breadthFirst()
-                .evaluator(new Evaluator() {
-                    @Override
-                    public Evaluation evaluate(Path path) {
-                        if(path.startNode().getProperty(PropertyType.TYPE.toString())
-                                .equals("SmallMolecule")){
-                            return Evaluation.INCLUDE_AND_PRUNE;
-                        }
-                        return Evaluation.INCLUDE_AND_CONTINUE;
-                    }
-                })
-                .relationships(RelTypes.INPUT, Direction.INCOMING)
-                .relationships(RelTypes.OUTPUT, Direction.INCOMING)
-                .relationships(RelTypes.CONTROLS, Direction.INCOMING)
-                .relationships(RelTypes.PHOSPHORYLATION, Direction.INCOMING)
-                .relationships(RelTypes.ID_BELONGS_TO, Direction.INCOMING)
-                .relationships(RelTypes.COMPONENT, Direction.INCOMING)
-                .relationships(RelTypes.SMALL_MOL_EDGE, Direction.INCOMING)
-                .relationships(RelationshipType.withName("ACTIVATION"), Direction.INCOMING)
-                .relationships(RelationshipType.withName("INHIBITION"), Direction.INCOMING);
-        return td.traverse(node);
+    private TraversalResult getUpstream(Node node, GraphDatabaseService graphDb) {
+        return traversalCache(graphDb).get(node, TraversalProfile.UPSTREAM, graphDb);
+    }
+
+    private synchronized TraversalCache traversalCache(GraphDatabaseService graphDb) {
+        long topology = topology(graphDb);
+        if (traversalCache == null || topology != traversalCacheTopology) {
+            traversalCache = new TraversalCache(getDatabaseDir(), topology);
+            traversalCacheTopology = topology;
+        }
+        return traversalCache;
     }
 
     /**
-     * Overloaded getRXNs mehtod that takes in a file as an input
+     * Overloaded getRXNs mehtod that takes in a file as an input. Opens the database once, looks every id up once
+     * and runs the traversals on [threads] workers, each in its own read transaction. Results are written in the
+     * order of the file to one set of outputs named after it: [name]_[direction]_traversal_cytoscape.tsv,
+     * TraversalReport_[direction]_[name].tsv and R_input_traversal_lengths_[name]_[direction].tsv, with "both" for
+     * each direction and [name]_both_intersection.tsv
      * @param pathToProts The path to a file containing a list of uniprot IDs or DB_ID's to be traversed
-     * @param direction The direction of the traversal ("Upstream" or "Downstream")
+     * @param direction The direction of the traversal ("Upstream", "Downstream" or "Both")
      * @throws IOException
      */
     public void traversal(File pathToProts, String direction, String experiment) throws IOException {
-        // get Proteins from File
-        BufferedReader BR = null;
+        File databaseDir = getDatabaseDir();
+        File OUTPUT_PATH = getOutputFile();
+
+        direction = direction.toLowerCase();
+        if (!direction.equals("downstream") && !direction.equals("upstream") && !direction.equals("both")) {
+            throw new IllegalArgumentException("direction must equal 'upstream', 'downstream' or 'both'");
+        }
+        List<String> directions = direction.equals("both") ? Arrays.asList("downstream", "upstream")
+                : Collections.singletonList(direction);
+
+        // get Proteins from File, in order and once each
+        BufferedReader BR = new BufferedReader(new FileReader(pathToProts));
         String line = "";
-        String csvSplitBy = ",";
-        BR = new BufferedReader(new FileReader(pathToProts));
-        Set<String> UIDList = new HashSet<>();
+        LinkedHashSet<String> UIDList = new LinkedHashSet<>();
         while ((line = BR.readLine()) != null) {
-            UIDList.add(line);
+            line = line.trim();
+            if (!line.isEmpty()) {
+                UIDList.add(line);
+            }
         }
+        BR.close();
 
-        for (String uid : UIDList) {
-            traversal(uid, direction, experiment);
+        String name = pathToProts.getName();
+        if (name.contains(".")) {
+            name = name.substring(0, name.lastIndexOf('.'));
+        }
+
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
+
+        // resolve the experiment and every start node once
+        String supportScoreString;
+        LinkedHashMap<String, List<Long>> startNodes = new LinkedHashMap<>();
+        try (Transaction tx = graphDb.beginTx()) {
+            supportScoreString = supportScoreProperty(graphDb, experiment);
+            Pattern p = Pattern.compile(UID_PATTERN);
+            for (String uid : UIDList) {
+                List<Long> prots = new ArrayList<>();
+                Matcher m = p.matcher(uid);
+                if (m.find()) {
+                    Node node = graphDb.findNode(Label.label(LabelTypes.UNIPROT_ID.toString()),
+                            PropertyType.UNIPROT_ID.toString(), m.group(0));
+                    if (node == null) {
+                        System.out.println(m.group(0) + " Does not exist in the databse");
+                        continue;
+                    }
+                    for (Relationship relationship : node.getRelationships(RelTypes.ID_BELONGS_TO)) {
+                        prots.add(relationship.getEndNode().getId());
+                    }
+                } else {
+                    try {
+                        prots.add(graphDb.getNodeById(Long.valueOf(uid)).getId());
+                    } catch (NumberFormatException | NotFoundException e) {
+                        System.out.println(uid + " Does not exist in the databse");
+                        continue;
+                    }
+                }
+                startNodes.put(uid, prots);
+            }
+            tx.success();
         }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (String dir : directions) {
+                FileWriter fstream = new FileWriter(OUTPUT_PATH + "/" + name + "_" + dir + "_traversal_cytoscape.tsv");
+                BufferedWriter out = new BufferedWriter(fstream);
+                out.write("NodeID\tUID\tstream\n");
+                FileWriter fstream1 = new FileWriter(OUTPUT_PATH + "/TraversalReport_" + dir + "_" + name + ".tsv");
+                BufferedWriter out1 = new BufferedWriter(fstream1);
+                FileWriter fstream3 = new FileWriter(OUTPUT_PATH + "/R_input_traversal_lengths_" + name + "_" + dir + ".tsv");
+                BufferedWriter out3 = new BufferedWriter(fstream3);
+                out3.write("NodeID\texperiment\tUID\tdispName\tUniProtName\tlocation\tmoleculesDS\tpf\tpfMapped\tphos\tphosMapped\tcplx\tcplxMapped\tkins\tkinsMapped\tUids\tUidsMapped\tbchmRxns\n");
+
+                List<ForkJoinTask<String[]>> tasks = new ArrayList<>();
+                for (Map.Entry<String, List<Long>> entry : startNodes.entrySet()) {
+                    tasks.add(pool.submit(() -> batchTraversal(graphDb, entry.getKey(), entry.getValue(), dir,
+                            experiment, supportScoreString)));
+                }
+                // write each id as soon as it and every id before it are done
+                for (ForkJoinTask<String[]> task : tasks) {
+                    String[] result = task.get();
+                    out.write(result[0]);
+                    out1.write(result[1]);
+                    out3.write(result[2]);
+                }
+                out.close();
+                out1.close();
+                out3.close();
+            }
+
+            if (direction.equals("both")) {
+                FileWriter fstream = new FileWriter(OUTPUT_PATH + "/" + name + "_both_intersection.tsv");
+                BufferedWriter out = new BufferedWriter(fstream);
+                out.write("NodeID\tUID\tstream\n");
+                List<ForkJoinTask<String>> tasks = new ArrayList<>();
+                for (Map.Entry<String, List<Long>> entry : startNodes.entrySet()) {
+                    tasks.add(pool.submit(() -> batchIntersection(graphDb, entry.getKey(), entry.getValue())));
+                }
+                for (ForkJoinTask<String> task : tasks) {
+                    out.write(task.get());
+                }
+                out.close();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException(e.getCause() == null ? e : e.getCause());
+        } finally {
+            pool.shutdown();
+            shutdownDatabase(graphDb);
+        }
+        System.out.println("Traversed " + startNodes.size() + " of " + UIDList.size() + " ids from " + databaseDir +
+                " on " + threads + " threads");
+    }
+
+    /**
+     * Finds the nodes both up and downstream of each proteoform of one id of a batch in its own transaction, the
+     * traversals are read from the traversal cache the directions were just run into
+     * @param graphDb
+     * @param uid the id as it was given
+     * @param prots the proteoforms (or node) it resolved to
+     * @return the intersection rows
+     * @throws IOException
+     */
+    private String batchIntersection(GraphDatabaseService graphDb, String uid, List<Long> prots) throws IOException {
+        StringWriter rows = new StringWriter();
+        BufferedWriter out = new BufferedWriter(rows);
+        try (Transaction tx = graphDb.beginTx()) {
+            List<Long> sorted = new ArrayList<>(prots);
+            Collections.sort(sorted);
+            for (Long id : sorted) {
+                Node prot = graphDb.getNodeById(id);
+                writeIntersection(out, uid, prot, getDownstream(prot, graphDb), getUpstream(prot, graphDb));
+            }
+            tx.success();
+        }
+        out.flush();
+        return rows.toString();
     }
 
     /**
-     * Finds everything up or downstream of a node of interest
+     * Runs the traversals of one id of a batch in its own transaction
+     * @param graphDb
+     * @param uid the id as it was given
+     * @param prots the proteoforms (or node) it resolved to
+     * @param direction "upstream" or "downstream"
+     * @param experiment
+     * @param supportScoreString the support score property of the experiment
+     * @return the cytoscape rows, the report and the lengths rows
+     * @throws IOException
+     */
+    private String[] batchTraversal(GraphDatabaseService graphDb, String uid, List<Long> prots, String direction,
+                                    String experiment, String supportScoreString) throws IOException {
+        StringWriter cytoscape = new StringWriter();
+        StringWriter report = new StringWriter();
+        StringWriter lengths = new StringWriter();
+        BufferedWriter reportStream = new BufferedWriter(report);
+        BufferedWriter travLenStream = new BufferedWriter(lengths);
+
+        try (Transaction tx = graphDb.beginTx()) {
+            List<Node> keys = new ArrayList<>();
+            HashMap<Node, TraversalResult> traverserMap = new HashMap<>();
+            for (Long id : prots) {
+                Node prot = graphDb.getNodeById(id);
+                keys.add(prot);
+                if (direction.equals("downstream")) {
+                    traverserMap.put(prot, getDownstream(prot, graphDb));
+                } else {
+                    traverserMap.put(prot, getUpstream(prot, graphDb));
+                }
+            }
+
+            for (Node key : keys) {
+                for (Node n : traverserMap.get(key).getNodes()) {
+                    cytoscape.write(n.getId() + "\t" + uid + "\t" + key.getId() + "\n");
+                }
+            }
+
+            // largest first, proteoforms with the same number of nodes share an order
+            keys.sort((a, b) -> traverserMap.get(b).size() - traverserMap.get(a).size());
+            Integer count = 0;
+            Integer last = -1;
+            for (Node key : keys) {
+                if (keys.size() > 1 && traverserMap.get(key).size() != last) {
+                    count++;
+                    last = traverserMap.get(key).size();
+                }
+                writeTraversalReport(count, traverserMap.get(key), uid, key, reportStream, experiment,
+                        supportScoreString, travLenStream);
+            }
+            tx.success();
+        }
+        reportStream.flush();
+        travLenStream.flush();
+        return new String[]{cytoscape.toString(), report.toString(), lengths.toString()};
+    }
+
+    /**
+     * Finds everything up or downstream of a node of interest, or with direction "both" everything up and downstream
+     * of it and the nodes in both, from one opening of the database
      * @param uid the starting UID or DB_ID to br traversed
-     * @param direction the direction of the traversal ("Upstream" or "Downstream")
+     * @param direction the direction of the traversal ("Upstream", "Downstream" or "Both")
      * @param experiment the name of the experiment the statistics will be reported on
      * @throws IOException
      */
     public void traversal(String uid, String direction, String experiment) throws IOException {
-        File databaseDir = getDatabaseDir();
-        File outputFile = getOutputFile();
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
-        File OUTPUT_PATH = outputFile;
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
 
         direction = direction.toLowerCase();
 
+        try (Transaction tx = graphDb.beginTx()) {
+            if (direction.equals("both")) {
+                HashMap<Node, TraversalResult> downstream = traversal(graphDb, uid, "downstream", experiment);
+                HashMap<Node, TraversalResult> upstream = traversal(graphDb, uid, "upstream", experiment);
+
+                FileWriter fstream = new FileWriter(getOutputFile() + "/" + uid + "_both_intersection.tsv");
+                BufferedWriter out = new BufferedWriter(fstream);
+                out.write("NodeID\tUID\tstream\n");
+                List<Node> prots = new ArrayList<>(downstream.keySet());
+                prots.sort(Comparator.comparingLong(Node::getId));
+                int count = 0;
+                for (Node prot : prots) {
+                    count += writeIntersection(out, uid, prot, downstream.get(prot), upstream.get(prot));
+                }
+                out.close();
+                System.out.println(count + " nodes are both upstream and downstream of " + uid);
+            } else {
+                traversal(graphDb, uid, direction, experiment);
+            }
+            tx.success();
+        }
+
+        shutdownDatabase(graphDb);
+    }
+
+    /**
+     * Writes the traversal files of one direction, must be called inside a transaction
+     * @param graphDb
+     * @param uid
+     * @param direction "upstream" or "downstream"
+     * @param experiment
+     * @return the traversal of each proteoform (or node) the id resolved to
+     * @throws IOException
+     */
+    private HashMap<Node, TraversalResult> traversal(GraphDatabaseService graphDb, String uid, String direction,
+                                                     String experiment) throws IOException {
+        File OUTPUT_PATH = getOutputFile();
+        HashMap<Node, TraversalResult> traversals = new HashMap<>();
+
         FileWriter fstream3 = new FileWriter(OUTPUT_PATH + "/R_input_traversal_lengths_"+uid+"_"+direction+".tsv");
         BufferedWriter out3 = new BufferedWriter(fstream3);
         out3.write("NodeID\texperiment\tUID\tdispName\tUniProtName\tlocation\tmoleculesDS\tpf\tpfMapped\tphos\tphosMapped\tcplx\tcplxMapped\tkins\tkinsMapped\tUids\tUidsMapped\tbchmRxns\n");
 
-        try (Transaction tx = graphDb.beginTx()) {
-            Pattern p = Pattern.compile(UID_PATTERN);
-            Matcher m = p.matcher(uid);
-            if (m.find()) { //////////////////////////// if its a uniprotid
-                String theGroup = m.group(0);
-                Node node = graphDb.findNode(Label.label(LabelTypes.UNIPROT_ID.toString()),
-                        PropertyType.UNIPROT_ID.toString(), theGroup);
-
-                // get all of its uid nodes
-                // if it doesnt exist continue
-                if (node == null) {
-                    System.out.println(theGroup + " Does not exist in the databse");
-                } else {
-                    FileWriter fstream = new FileWriter(OUTPUT_PATH + "/"+uid+"_"+direction+"_traversal_cytoscape.tsv");
-                    BufferedWriter out = new BufferedWriter(fstream);
-                    //out.write("ID_"+node.getId()+"\t" + uid + "_"+direction+"\n");
-                    out.write("ID_"+node.getId()+"\t");
+        Pattern p = Pattern.compile(UID_PATTERN);
+        Matcher m = p.matcher(uid);
+        if (m.find()) { //////////////////////////// if its a uniprotid
+            String theGroup = m.group(0);
+            Node node = graphDb.findNode(Label.label(LabelTypes.UNIPROT_ID.toString()),
+                    PropertyType.UNIPROT_ID.toString(), theGroup);
+
+            // get all of its uid nodes
+            // if it doesnt exist continue
+            if (node == null) {
+                System.out.println(theGroup + " Does not exist in the databse");
+            } else {
+                FileWriter fstream = new FileWriter(OUTPUT_PATH + "/"+uid+"_"+direction+"_traversal_cytoscape.tsv");
+                BufferedWriter out = new BufferedWriter(fstream);
+                //out.write("ID_"+node.getId()+"\t" + uid + "_"+direction+"\n");
 
-                    FileWriter fstream1 = new FileWriter(OUTPUT_PATH + "/TraversalReport_"+direction +"_"+uid+".tsv");
-                    BufferedWriter out1 = new BufferedWriter(fstream1);
+                FileWriter fstream1 = new FileWriter(OUTPUT_PATH + "/TraversalReport_"+direction +"_"+uid+".tsv");
+                BufferedWriter out1 = new BufferedWriter(fstream1);
 
-                    // store traversers to sort later
-                    HashMap<Node, Traverser> traverserMap = new HashMap<>();
-                    Iterable<Relationship> relationships = node.getRelationships(RelTypes.ID_BELONGS_TO);
-                    for (Relationship relationship : relationships) {
-                        Node prot = relationship.getEndNode();
-                        if (direction.equalsIgnoreCase("downstream")) {
+                // run each traversal once and store the results to sort later
+                HashMap<Node, TraversalResult> traverserMap = new HashMap<>();
+                Iterable<Relationship> relationships = node.getRelationships(RelTypes.ID_BELONGS_TO);
+                for (Relationship relationship : relationships) {
+                    Node prot = relationship.getEndNode();
+                    if (direction.equalsIgnoreCase("downstream")) {
 
-                            Traverser nodeTraverser = getDownstream(prot, graphDb);
-                            traverserMap.put(prot, nodeTraverser);
+                        traverserMap.put(prot, getDownstream(prot, graphDb));
 
-                        } else if (direction == "upstream") {
+                    } else if (direction.equalsIgnoreCase("upstream")) {
 
-                            Traverser nodeTraverser = getUpstream(prot, graphDb);
-                            traverserMap.put(prot, nodeTraverser);
+                        traverserMap.put(prot, getUpstream(prot, graphDb));
 
-                        } else {
-                            throw new IllegalArgumentException("direction must equal 'upstream' or 'downstream'");
-                        }
+                    } else {
+                        throw new IllegalArgumentException("direction must equal 'upstream' or 'downstream'");
                     }
+                }
+                traversals.putAll(traverserMap);
 
 
-                    // get lengths of each traverser
-                    HashMap<Node, Integer> traverserLen = new HashMap<>();
-                    HashSet<Integer> uniqueLens = new HashSet<>();
-                    for (Node key: traverserMap.keySet()) {
-                        Traverser paths = traverserMap.get(key);
-                        int len = getTraverserLen(paths);
-                        traverserLen.put(key, len);
-                        uniqueLens.add(len);
-                    }
-
-                    // now you have 2 maps Node:Traverser, Node:TraverserLen
-                    // write to stream
-
-                    // first get unique set of all things ds of all initial pf's
-                    // and make hashmap of all streams to their nodes -> Node:[dsNode1, dsNode2]
-                    HashMap<Node, HashSet<Node>> nodeMap = new HashMap<>();
-                    HashSet<Node> uniqueAll = new HashSet<>();
-                    for (Node key: traverserMap.keySet()) {
-                        Traverser paths = traverserMap.get(key);
-                        ResourceIterable<Node> alldsnodes = paths.nodes();
-                        HashSet<Node> alldsnodesSet = new HashSet<>();
-                        for (Node n: alldsnodes) {
-                            uniqueAll.add(n);
-                            alldsnodesSet.add(n);
-                        }
-                        nodeMap.put(key, alldsnodesSet);
-                    }
+                // get lengths of each traverser
+                HashMap<Node, Integer> traverserLen = new HashMap<>();
+                HashSet<Integer> uniqueLens = new HashSet<>();
+                for (Node key: traverserMap.keySet()) {
+                    int len = traverserMap.get(key).size();
+                    traverserLen.put(key, len);
+                    uniqueLens.add(len);
+                }
 
-                    for (Node key: nodeMap.keySet()) {
-                        out.write( key.getId() + "_stream\t");
-                    }
-                    out.write("\n");
+                // now you have 2 maps Node:Traverser, Node:TraverserLen
+                // write to stream
 
-                    for (Node n: uniqueAll) {
-                        String s = n.getId() + "\t";
-                        for (Node key: nodeMap.keySet()) {
-                            if (nodeMap.get(key).contains(n)){
-                                s = s.concat(String.valueOf(key.getId()));
-                            }else{
-                                s = s.concat("");
-                            }
-                            s = s.concat("\t");
-                        }
-                        s = s.concat("\n");
-                        out.write(s);
+                // a column per proteoform, a row per node any of them reached
+                List<Node> keys = new ArrayList<>(traverserMap.keySet());
+                long[] sources = new long[keys.size()];
+                for (int k = 0; k < keys.size(); k++) {
+                    sources[k] = keys.get(k).getId();
+                }
+                CytoscapeMembershipWriter membership = new CytoscapeMembershipWriter(sources);
+                for (int k = 0; k < keys.size(); k++) {
+                    for (Node n : traverserMap.get(keys.get(k)).getNodes()) {
+                        membership.reached(k, n.getId());
                     }
+                }
+                membership.write(out, "ID_" + node.getId());
 
 
-                    // print largest, delete largest from list
-                    Collection<Integer> values = traverserLen.values();
-                    List<Integer> lens = new ArrayList<>(values);
-                    Integer count =  0;
+                // print largest, delete largest from list
+                Collection<Integer> values = traverserLen.values();
+                List<Integer> lens = new ArrayList<>(values);
+                Integer count =  0;
 
-                    Integer max = Collections.max(lens);
-                    if(values.size() >1){
-                        for (int i = 0; i < uniqueLens.size(); i++) {
-                            count++;
-                            for (Node key: traverserLen.keySet()) {
-                                if (traverserLen.get(key).equals(max)){
-                                    traversalReport(count, traverserMap.get(key), graphDb,uid,key,out1, experiment, out3);
-                                }
-                            }
-                            lens.removeAll(Collections.singleton(max));
-                            if(!lens.isEmpty()){
-                                max = Collections.max(lens);
+                Integer max = Collections.max(lens);
+                if(values.size() >1){
+                    for (int i = 0; i < uniqueLens.size(); i++) {
+                        count++;
+                        for (Node key: traverserLen.keySet()) {
+                            if (traverserLen.get(key).equals(max)){
+                                traversalReport(count, traverserMap.get(key), graphDb,uid,key,out1, experiment, out3);
                             }
                         }
-                    }else{
-                        for (Node key: traverserLen.keySet()) {
-                            traversalReport(count, traverserMap.get(key), graphDb,uid,key,out1, experiment, out3);
+                        lens.removeAll(Collections.singleton(max));
+                        if(!lens.isEmpty()){
+                            max = Collections.max(lens);
                         }
-
+                    }
+                }else{
+                    for (Node key: traverserLen.keySet()) {
+                        traversalReport(count, traverserMap.get(key), graphDb,uid,key,out1, experiment, out3);
                     }
 
-                    out.close();
-                    out1.close();
-                }
-            } else { ///////////////// its a nodeID
-                try{
-                    Long.valueOf(uid);
-                }catch (InputException e){
-                    System.out.println("Input must be a UniProt id (ex. P04637), a node id (ex. 12), or a file of UniProt ids");
-                    e.printStackTrace();
-                    System.exit(1);
                 }
 
-                Node prot = graphDb.getNodeById(Long.valueOf(uid));
-                // get all of its uid nodes
-                // if it doesnt exist continue
+                out.close();
+                out1.close();
+            }
+        } else { ///////////////// its a nodeID
+            try{
+                Long.valueOf(uid);
+            }catch (NumberFormatException e){
+                throw new InputException("Input must be a UniProt id (ex. P04637), a node id (ex. 12), or a file of UniProt ids");
+            }
 
-                if (direction == "downstream") {
-                    FileWriter fstream = new FileWriter(OUTPUT_PATH + "/"+uid+"_Downstream.tsv");
-                    BufferedWriter out = new BufferedWriter(fstream);
-                    out.write("ID\t" + uid + "_downstream\n");
+            Node prot = graphDb.getNodeById(Long.valueOf(uid));
+            // get all of its uid nodes
+            // if it doesnt exist continue
 
-                    FileWriter fstream1 = new FileWriter(OUTPUT_PATH + "/TraversalReport_downstream_"+uid+".tsv");
-                    BufferedWriter out1 = new BufferedWriter(fstream1);
+            if (direction.equals("downstream")) {
+                FileWriter fstream = new FileWriter(OUTPUT_PATH + "/"+uid+"_Downstream.tsv");
+                BufferedWriter out = new BufferedWriter(fstream);
+                out.write("ID\t" + uid + "_downstream\n");
 
-                    Traverser nodeTraverser = getDownstream(prot, graphDb);
-                    traversalReport(0, nodeTraverser, graphDb, uid, prot, out1, experiment, out3);
+                FileWriter fstream1 = new FileWriter(OUTPUT_PATH + "/TraversalReport_downstream_"+uid+".tsv");
+                BufferedWriter out1 = new BufferedWriter(fstream1);
 
-                    ResourceIterable<Node> nodes = nodeTraverser.nodes();
-                    for (Node n: nodes) {
-                        out.write(n.getId() + "\t" + prot.getId() + "\n");
-                    }
+                TraversalResult nodeTraverser = getDownstream(prot, graphDb);
+                traversals.put(prot, nodeTraverser);
+                traversalReport(0, nodeTraverser, graphDb, uid, prot, out1, experiment, out3);
 
-                    out.close();
-                    out1.close();
+                for (Node n: nodeTraverser.getNodes()) {
+                    out.write(n.getId() + "\t" + prot.getId() + "\n");
+                }
 
-                } else if (direction == "upstream") {
+                out.close();
+                out1.close();
 
-                    FileWriter fstream2 =  new FileWriter(OUTPUT_PATH + "/"+uid+"_Upstream.tsv");
-                    BufferedWriter in  = new BufferedWriter(fstream2);
-                    in.write("ID\t" + uid + "_upstream\n");
+            } else if (direction.equals("upstream")) {
 
-                    FileWriter fstream1 = new FileWriter(OUTPUT_PATH + "/TraversalReport_upstream_"+uid+".tsv");
-                    BufferedWriter out1 = new BufferedWriter(fstream1);
+                FileWriter fstream2 =  new FileWriter(OUTPUT_PATH + "/"+uid+"_Upstream.tsv");
+                BufferedWriter in  = new BufferedWriter(fstream2);
+                in.write("ID\t" + uid + "_upstream\n");
 
-                    Traverser nodeTraverser = getUpstream(prot, graphDb);
-                    traversalReport(0,nodeTraverser, graphDb, uid, prot, out1, experiment,out3);
+                FileWriter fstream1 = new FileWriter(OUTPUT_PATH + "/TraversalReport_upstream_"+uid+".tsv");
+                BufferedWriter out1 = new BufferedWriter(fstream1);
 
-                    ResourceIterable<Node> nodes = nodeTraverser.nodes();
-                    for (Node n: nodes) {
-                        in.write(n.getId() + "\t" + prot.getId() + "\n");
-                    }
+                TraversalResult nodeTraverser = getUpstream(prot, graphDb);
+                traversals.put(prot, nodeTraverser);
+                traversalReport(0,nodeTraverser, graphDb, uid, prot, out1, experiment,out3);
 
-                    in.close();
-                    out1.close();
+                for (Node n: nodeTraverser.getNodes()) {
+                    in.write(n.getId() + "\t" + prot.getId() + "\n");
+                }
 
-                } else {
-                    throw new IllegalArgumentException("direction must equal 'upstream' or 'downstream'");
+                in.close();
+                out1.close();
 
-                }
-            }
+            } else {
+                throw new IllegalArgumentException("direction must equal 'upstream' or 'downstream'");
 
-            //}
-            tx.success();
-            out3.close();
+            }
         }
 
-        graphDb.shutdown();
+        out3.close();
+        return traversals;
     }
 
-    private Integer getTraverserLen(Traverser nodeTraverser){
-
-        Integer depth = 0;
-        for (Path path: nodeTraverser) {
-            depth++;
+    /**
+     * Writes the nodes a proteoform's downstream and upstream traversals both found, other than itself
+     * @param out
+     * @param uid
+     * @param prot
+     * @param downstream
+     * @param upstream
+     * @return the number of nodes written
+     * @throws IOException
+     */
+    private int writeIntersection(BufferedWriter out, String uid, Node prot, TraversalResult downstream,
+                                  TraversalResult upstream) throws IOException {
+        int count = 0;
+        for (Node n : downstream.getNodes()) {
+            if (n.getId() != prot.getId() && upstream.contains(n)) {
+                out.write(n.getId() + "\t" + uid + "\t" + prot.getId() + "\n");
+                count++;
+            }
         }
-        return depth;
+        return count;
     }
 
     private void traversalReport(Integer order,
-                                 Traverser nodeTraverser,
+                                 TraversalResult nodeTraverser,
                                  GraphDatabaseService graphDb,
                                  String uid,
                                  Node prot,
                                  BufferedWriter reportStream,
                                  String experiment,
-                                 BufferedWriter travLenStream) {
-
-        File databaseDir = getDatabaseDir();
+                                 BufferedWriter travLenStream) throws IOException {
 
         try (Transaction tx = graphDb.beginTx()) {
+            String supportScoreString = supportScoreProperty(graphDb, experiment);
+            writeTraversalReport(order, nodeTraverser, uid, prot, reportStream, experiment, supportScoreString, travLenStream);
+            tx.success();
+        }
+    }
 
-            // get all labels and find one that matches the experiment
-            Boolean experimentLabel = true;
-            String supportScoreString = "";
-            HashSet<String> experiments = new HashSet<>();
-            ResourceIterable<String> allPropertyKeys = graphDb.getAllPropertyKeys();
-            for (String property: allPropertyKeys){
-                if(property.replace("SUPPORT_SCORE_", "").equalsIgnoreCase(experiment)){ // if experiment name is in properties
-                    experimentLabel = false; // dont throw error
-                    supportScoreString = property;
-                }else if (property.contains("SUPPORT_SCORE_")){ // gather experiment names in db
-                    String support_score_ = property.replace("SUPPORT_SCORE_", "");
-                    experiments.add(support_score_);
-                }
-            }
-            // throw exception if experiment name given is not in the database
-            if(experimentLabel){
-                throw new InputException(experiment + " is not currently in this database: " + databaseDir +
-                        "\nExperiments in this database are: " + experiments);
-
+    /**
+     * Finds the support score property of an experiment, must be called inside a transaction
+     * @param graphDb
+     * @param experiment
+     * @return the property name
+     */
+    private String supportScoreProperty(GraphDatabaseService graphDb, String experiment) {
+        // get all labels and find one that matches the experiment
+        Boolean experimentLabel = true;
+        String supportScoreString = "";
+        HashSet<String> experiments = new HashSet<>();
+        ResourceIterable<String> allPropertyKeys = graphDb.getAllPropertyKeys();
+        for (String property: allPropertyKeys){
+            if(property.replace("SUPPORT_SCORE_", "").equalsIgnoreCase(experiment)){ // if experiment name is in properties
+                experimentLabel = false; // dont throw error
+                supportScoreString = property;
+            }else if (property.contains("SUPPORT_SCORE_")){ // gather experiment names in db
+                String support_score_ = property.replace("SUPPORT_SCORE_", "");
+                experiments.add(support_score_);
             }
+        }
+        // throw exception if experiment name given is not in the database
+        if(experimentLabel){
+            throw new InputException(experiment + " is not currently in this database: " + getDatabaseDir() +
+                    "\nExperiments in this database are: " + experiments);
 
+        }
+        return supportScoreString;
+    }
 
-            int depth = 0;
-            Integer phosCounter = 0;
-            Integer phosMappedCounter = 0;
-            Integer proteinCounter = 0;
-            Integer proteinMappedCounter = 0;
-            Integer cplxCounter = 0;
-            Integer cplxMappedCounter = 0;
-            Integer uidCounter = 0;
-            Integer uidMappedCounter = 0;
-            Integer transcriptionFactorCounter = 0;
-            Integer cellSurfaceReceptorCounter = 0;
-            Integer kinaseCounter = 0;
-            Integer kinaseMappedCounter = 0;
-            Integer rxnCounter = 0;
-            HashSet<String> pathwaysTraversed = new HashSet<>();
-
-
-
-            for (Path nodePath : nodeTraverser) {
-                depth++;
-                //phos
-                if (nodePath.endNode().hasLabel(Label.label(LabelTypes.PHOSPHORYLATION.toString()))){
-                    phosCounter ++;
-                    Iterable<Relationship> relationships = nodePath.endNode().getRelationships(RelTypes.PHOSPHORYLATION);
-                    for (Relationship relationship : relationships) {
-                        Node protein = relationship.getEndNode();
-                        if(protein.hasProperty(supportScoreString)){
-                            phosMappedCounter ++;
-                        }
-                    }
-                }
-                //protein
-                else if (nodePath.endNode().hasLabel(Label.label("Protein"))){
-                    proteinCounter ++;
-                    if(nodePath.endNode().hasProperty(supportScoreString)){
-                        proteinMappedCounter++;
-                    }
-                    if(nodePath.endNode().hasProperty(PropertyType.KINASE.toString())){
-                        kinaseCounter++;
-                        if(nodePath.endNode().hasProperty(supportScoreString)){
-                            kinaseMappedCounter++;
-                        }
-                    }
-                    if(nodePath.endNode().hasProperty(PropertyType.TRANSCRIPTION_FACTOR.toString())){
-                        transcriptionFactorCounter++;
-                    }
-                    if(nodePath.endNode().hasProperty(PropertyType.CELL_SURFACE_RECEPTOR.toString())){
-                        cellSurfaceReceptorCounter++;
+    /**
+     * Counts what a traversal found and writes its report and lengths row, must be called inside a transaction
+     */
+    private void writeTraversalReport(Integer order,
+                                      TraversalResult nodeTraverser,
+                                      String uid,
+                                      Node prot,
+                                      BufferedWriter reportStream,
+                                      String experiment,
+                                      String supportScoreString,
+                                      BufferedWriter travLenStream) throws IOException {
+
+        int depth = 0;
+        Integer phosCounter = 0;
+        Integer phosMappedCounter = 0;
+        Integer proteinCounter = 0;
+        Integer proteinMappedCounter = 0;
+        Integer cplxCounter = 0;
+        Integer cplxMappedCounter = 0;
+        Integer uidCounter = 0;
+        Integer uidMappedCounter = 0;
+        Integer transcriptionFactorCounter = 0;
+        Integer cellSurfaceReceptorCounter = 0;
+        Integer kinaseCounter = 0;
+        Integer kinaseMappedCounter = 0;
+        Integer rxnCounter = 0;
+        BitSet pathwaysTraversed = new BitSet();
+        NodeClasses classes = NodeClasses.of(prot.getGraphDatabase());
+        PathwayIndex pathways = PathwayIndex.of(prot.getGraphDatabase());
+
+        for (Node endNode : nodeTraverser.getNodes()) {
+            depth++;
+            //phos
+            if (classes.is(endNode, GraphSnapshot.CLASS_PHOSPHORYLATION)){
+                phosCounter ++;
+                Iterable<Relationship> relationships = endNode.getRelationships(RelTypes.PHOSPHORYLATION);
+                for (Relationship relationship : relationships) {
+                    Node protein = relationship.getEndNode();
+                    if(protein.hasProperty(supportScoreString)){
+                        phosMappedCounter ++;
                     }
                 }
-                //complex
-                else if (nodePath.endNode().hasLabel(Label.label("Complex"))){
-                    cplxCounter ++;
-                    if(nodePath.endNode().hasProperty(supportScoreString)){
-                        cplxMappedCounter++;
-                    }
+            }
+            //protein
+            else if (classes.is(endNode, GraphSnapshot.CLASS_PROTEIN)){
+                proteinCounter ++;
+                if(endNode.hasProperty(supportScoreString)){
+                    proteinMappedCounter++;
                 }
-                //uid
-                else if(nodePath.endNode().hasLabel(Label.label(LabelTypes.UNIPROT_ID.toString()))){
-                    uidCounter++;
-                    Iterable<Relationship> relationships = nodePath.endNode().getRelationships(RelTypes.ID_BELONGS_TO);
-                    Boolean uidMappedTo = false;
-                    for (Relationship relationship : relationships) { // dont want to count all proteins with meausrements attached to this uid
-                        Node protein = relationship.getEndNode();
-                        if(protein.hasProperty(supportScoreString)){
-                            uidMappedTo = true; // so if this UID has at least 1 measured protein count just it\
-                        }
-                    }
-                    if(uidMappedTo){
-                        uidMappedCounter++;
+                if(classes.hasFlag(endNode, GraphSnapshot.FLAG_KINASE)){
+                    kinaseCounter++;
+                    if(endNode.hasProperty(supportScoreString)){
+                        kinaseMappedCounter++;
                     }
                 }
-                //rxn
-                else if (nodePath.endNode().hasLabel(Label.label("BiochemicalReaction"))){
-                    rxnCounter++;
+                if(classes.hasFlag(endNode, GraphSnapshot.FLAG_TRANSCRIPTION_FACTOR)){
+                    transcriptionFactorCounter++;
                 }
-                // pathways traversed
-                Iterable<Relationship> relationships = nodePath.endNode().getRelationships(RelTypes.PATHWAY_COMPONENT);
-                for (Relationship relationship : relationships) {
-                    String property = relationship.getStartNode().getProperty(PropertyType.DISPLAY_NAME.toString()).toString();
-                    pathwaysTraversed.add(property);
+                if(classes.hasFlag(endNode, GraphSnapshot.FLAG_CELL_SURFACE_RECEPTOR)){
+                    cellSurfaceReceptorCounter++;
                 }
-
-
             }
-            String geneName = "";
-            if(prot.hasProperty(PropertyType.UNIPROT_NAME.toString())){
-                geneName = prot.getProperty(PropertyType.UNIPROT_NAME.toString()).toString();
+            //complex
+            else if (classes.is(endNode, GraphSnapshot.CLASS_COMPLEX)){
+                cplxCounter ++;
+                if(endNode.hasProperty(supportScoreString)){
+                    cplxMappedCounter++;
+                }
             }
-            travLenStream.write(prot.getId() +"\t"+
-                    experiment +"\t"+
-                    uid +"\t"+
-                    prot.getProperty(PropertyType.DISPLAY_NAME.toString()) +"\t"+
-                    geneName +"\t"+
-                    prot.getProperty(PropertyType.LOCATION.toString())+"\t"+
-                    depth +"\t"+
-                    proteinCounter+"\t"+
-                    proteinMappedCounter+"\t"+
-                    phosCounter+"\t"+
-                    phosMappedCounter+"\t"+
-                    cplxCounter+"\t"+
-                    cplxMappedCounter+"\t"+
-                    kinaseCounter+"\t"+
-                    kinaseMappedCounter+"\t"+
-                    uidCounter+"\t"+
-                    uidMappedCounter+"\t"+
-                    rxnCounter+"\n");
-
-            try {
-                reportStream.write("Order: "+ order +"\nAll things Downstream of " + uid +
-                        ", gene name:"+geneName+
-                        ", display name: "+ prot.getProperty(PropertyType.DISPLAY_NAME.toString()) +
-                        " (location: "+prot.getProperty(PropertyType.LOCATION.toString())+
-                        ")(node id: "+prot.getId()+
-                        ") in experiment " + experiment);
-                reportStream.write("\nThe number of nodes found were: "+depth);
-                reportStream.write("\nThe number of phosphorylation nodes: " + phosCounter);
-                reportStream.write("\nThe number of phosphorylation nodes with mapped data: " + phosMappedCounter +" ("+proportion(phosCounter, phosMappedCounter)+"%)");
-                reportStream.write("\nThe number of proteoform nodes: " + proteinCounter);
-                reportStream.write("\nThe number of proteoform nodes with mapped data: " + proteinMappedCounter +"("+proportion(proteinCounter, proteinMappedCounter)+"%)");
-                reportStream.write("\nThe number of complex nodes: " + cplxCounter);
-                reportStream.write("\nThe number of complex nodes with mapped data: " + cplxMappedCounter +"("+proportion(cplxCounter, cplxMappedCounter)+"%)");
-                reportStream.write("\nThe number of UniProt id nodes: " + uidCounter);
-                reportStream.write("\nThe number of UniProt id nodes with mapped data: " + uidMappedCounter +"("+proportion(uidCounter, uidMappedCounter)+"%)");
-                reportStream.write("\nThe number of kinase nodes: " + kinaseCounter);
-                reportStream.write("\nThe number of kinase nodes with mapped data: " + kinaseCounter +"("+proportion(kinaseCounter, kinaseMappedCounter)+"%)");
-                reportStream.write("\nThe number of biochemical reaction nodes: " + rxnCounter);
-                reportStream.write("\nThe number of transcription factor nodes: " + transcriptionFactorCounter);
-                reportStream.write("\nThe number of cell surface receptor nodes: " + cellSurfaceReceptorCounter);
-                reportStream.write("\nThe number of pathways traversed: " + pathwaysTraversed.size());
-                /*
-                reportStream.write("\n\nThe pathways traversed: ");
-                for (String path: pathwaysTraversed) {
-                    reportStream.write("\n" + path);
+            //uid
+            else if(classes.is(endNode, GraphSnapshot.CLASS_UNIPROT_ID)){
+                uidCounter++;
+                Iterable<Relationship> relationships = endNode.getRelationships(RelTypes.ID_BELONGS_TO);
+                Boolean uidMappedTo = false;
+                for (Relationship relationship : relationships) { // dont want to count all proteins with meausrements attached to this uid
+                    Node protein = relationship.getEndNode();
+                    if(protein.hasProperty(supportScoreString)){
+                        uidMappedTo = true; // so if this UID has at least 1 measured protein count just it\
+                    }
+                }
+                if(uidMappedTo){
+                    uidMappedCounter++;
                 }
-                 */
-                reportStream.write("\n\n");
-
-            } catch (IOException e) {
-                e.printStackTrace();
-                System.exit(1);
             }
+            //rxn
+            else if (classes.is(endNode, GraphSnapshot.CLASS_BIOCHEMICAL_REACTION)){
+                rxnCounter++;
+            }
+            // pathways traversed
+            pathways.addPathways(endNode, pathwaysTraversed);
 
-            tx.success();
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(1);
         }
-
-
+        String geneName = "";
+        if(prot.hasProperty(PropertyType.UNIPROT_NAME.toString())){
+            geneName = prot.getProperty(PropertyType.UNIPROT_NAME.toString()).toString();
+        }
+        travLenStream.write(prot.getId() +"\t"+
+                experiment +"\t"+
+                uid +"\t"+
+                prot.getProperty(PropertyType.DISPLAY_NAME.toString()) +"\t"+
+                geneName +"\t"+
+                prot.getProperty(PropertyType.LOCATION.toString())+"\t"+
+                depth +"\t"+
+                proteinCounter+"\t"+
+                proteinMappedCounter+"\t"+
+                phosCounter+"\t"+
+                phosMappedCounter+"\t"+
+                cplxCounter+"\t"+
+                cplxMappedCounter+"\t"+
+                kinaseCounter+"\t"+
+                kinaseMappedCounter+"\t"+
+                uidCounter+"\t"+
+                uidMappedCounter+"\t"+
+                rxnCounter+"\n");
+
+        reportStream.write("Order: "+ order +"\nAll things Downstream of " + uid +
+                ", gene name:"+geneName+
+                ", display name: "+ prot.getProperty(PropertyType.DISPLAY_NAME.toString()) +
+                " (location: "+prot.getProperty(PropertyType.LOCATION.toString())+
+                ")(node id: "+prot.getId()+
+                ") in experiment " + experiment);
+        reportStream.write("\nThe number of nodes found were: "+depth);
+        reportStream.write("\nThe number of phosphorylation nodes: " + phosCounter);
+        reportStream.write("\nThe number of phosphorylation nodes with mapped data: " + phosMappedCounter +" ("+proportion(phosCounter, phosMappedCounter)+"%)");
+        reportStream.write("\nThe number of proteoform nodes: " + proteinCounter);
+        reportStream.write("\nThe number of proteoform nodes with mapped data: " + proteinMappedCounter +"("+proportion(proteinCounter, proteinMappedCounter)+"%)");
+        reportStream.write("\nThe number of complex nodes: " + cplxCounter);
+        reportStream.write("\nThe number of complex nodes with mapped data: " + cplxMappedCounter +"("+proportion(cplxCounter, cplxMappedCounter)+"%)");
+        reportStream.write("\nThe number of UniProt id nodes: " + uidCounter);
+        reportStream.write("\nThe number of UniProt id nodes with mapped data: " + uidMappedCounter +"("+proportion(uidCounter, uidMappedCounter)+"%)");
+        reportStream.write("\nThe number of kinase nodes: " + kinaseCounter);
+        reportStream.write("\nThe number of kinase nodes with mapped data: " + kinaseCounter +"("+proportion(kinaseCounter, kinaseMappedCounter)+"%)");
+        reportStream.write("\nThe number of biochemical reaction nodes: " + rxnCounter);
+        reportStream.write("\nThe number of transcription factor nodes: " + transcriptionFactorCounter);
+        reportStream.write("\nThe number of cell surface receptor nodes: " + cellSurfaceReceptorCounter);
+        reportStream.write("\nThe number of pathways traversed: " + pathwaysTraversed.cardinality());
+        if (listPathways) {
+            reportStream.write("\n\nThe pathways traversed: ");
+            for (int path = pathwaysTraversed.nextSetBit(0); path >= 0; path = pathwaysTraversed.nextSetBit(path + 1)) {
+                reportStream.write("\n" + pathways.getName(path));
+            }
+        }
+        reportStream.write("\n\n");
     }
 
     private Double proportion(Integer num, Integer numMapped){
@@ -527,38 +734,31 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
     }
 
     private Traverser getNeighbourhoodBFS(Node node, Integer depth, GraphDatabaseService graphDb) {
-
-        TraversalDescription td = graphDb.traversalDescription().breadthFirst()
-                .evaluator(new Evaluator() {
-                    @Override
-                    public Evaluation evaluate(Path path) {
-                        if(path.endNode().getProperty(PropertyType.TYPE.toString())
-                                .equals("SmallMolecule")){
-                            return Evaluation.INCLUDE_AND_PRUNE;
-                        }
-                        return Evaluation.INCLUDE_AND_CONTINUE;
-                    }
-                })
+        return TraversalProfile.NEIGHBOURHOOD.describe(graphDb)
                 .evaluator(Evaluators.toDepth(depth))
-                .relationships(RelTypes.OUTPUT, Direction.BOTH)
-                .relationships(RelTypes.INPUT, Direction.BOTH)
-                .relationships(RelTypes.CONTROLS, Direction.BOTH)
-                .relationships(RelTypes.CATALYSIS, Direction.BOTH)
-                .relationships(RelTypes.SMALL_MOL_EDGE, Direction.BOTH)
-                .relationships(RelationshipType.withName("ACTIVATION"), Direction.BOTH)
-                .relationships(RelationshipType.withName("INHIBITION"), Direction.BOTH);
-
-        return td.traverse(node);
+                .traverse(node);
     }
 
     /**
-     * actually runs the traversal and returns the list of protein nodes in neighbourhood
+     * actually runs the traversal and returns the list of protein nodes in neighbourhood, read from the neighbourhood
+     * index of the depth instead if BuildNeighbourhoodIndex was run for it
      * @param node
      * @param depth
      * @param graphDb
      * @return
      */
     HashSet<Node> neighbourTraversal(Node node, Integer depth, GraphDatabaseService graphDb){
+        NeighbourhoodIndex index = NeighbourhoodIndex.of(graphDb, depth);
+        long[] ids = index == null ? null : index.get(node.getId());
+        if (ids != null) {
+            // added in the order the traversal found them, so the set iterates the same
+            HashSet<Node> nbhd = new HashSet<>();
+            for (long id : ids) {
+                nbhd.add(graphDb.getNodeById(id));
+            }
+            return nbhd;
+        }
+
         //Integer currdepth = 0;
 
         //String output = "starting at: " + node.getId() + "\n";
@@ -577,237 +777,435 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
         return nbhd;
     }
 
+    /**
+     * runs the neighbourhood traversal once to depth, keeping where each level ends
+     * @param node
+     * @param depth
+     * @param graphDb
+     * @param found filled with the nodes in the order the traversal found them
+     * @return the number of nodes found within each depth up to depth, the neighbourhood of depth d is the first
+     * [d] found
+     */
+    int[] neighbourLevels(Node node, Integer depth, GraphDatabaseService graphDb, List<Node> found){
+        int[] levelEnds = new int[depth + 1];
+        for (Path nodePath : getNeighbourhoodBFS(node, depth, graphDb)) {
+            found.add(nodePath.endNode());
+            levelEnds[nodePath.length()] = found.size();
+        }
+        // a level nothing was found at ends where the one before it did
+        for (int d = 1; d <= depth; d++) {
+            levelEnds[d] = Math.max(levelEnds[d], levelEnds[d - 1]);
+        }
+        return levelEnds;
+    }
+
+    /**
+     * Finds the neighbourhood of every protein and complex at a depth on [threads] workers and keeps them in
+     * [database].nbhd[depth], next to the database, for the neighbourhood analyses to read
+     * @param depth
+     * @throws IOException
+     */
+    public void buildNeighbourhoodIndex(Integer depth) throws IOException {
+        File indexFile = NeighbourhoodIndex.indexFile(getDatabaseDir(), depth);
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
+        try {
+            long start = System.currentTimeMillis();
+            NeighbourhoodIndex index = NeighbourhoodIndex.build(graphDb, depth, threads);
+            index.save(indexFile);
+            System.out.println("Saved " + index.size() + " neighbourhoods of depth " + depth + " to " + indexFile +
+                    " in " + (System.currentTimeMillis() - start) / 1000.0 + "s");
+        } finally {
+            shutdownDatabase(graphDb);
+        }
+    }
+
     /**
      * Performs neighbourhood analysis using the biomial distribution
      * @param depth
      * @throws IOException
      */
     public void binomialNeighbourhood(Integer depth) throws IOException {
+        binomialNeighbourhood(depth, depth);
+    }
+
+    /**
+     * Performs neighbourhood analysis using the biomial distribution at every depth from minDepth to maxDepth. Each
+     * neighbourhood is found once, to maxDepth, and each depth is counted from the levels of that traversal. With
+     * more than one depth each one is written to depth[depth] in the output path as a single depth would be
+     * @param minDepth
+     * @param maxDepth
+     * @throws IOException
+     */
+    public void binomialNeighbourhood(Integer minDepth, Integer maxDepth) throws IOException {
         File databaseDir = getDatabaseDir();
         File outputFile = getOutputFile();
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        int depthCount = maxDepth - minDepth + 1;
+        File[] depthDirs = new File[depthCount];
+        for (int d = 0; d < depthCount; d++) {
+            depthDirs[d] = depthCount == 1 ? outputFile : new File(outputFile, "depth" + (minDepth + d));
+            depthDirs[d].mkdirs();
+        }
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
+
+        // every writer opened is closed on the way out, whether the analysis finished or a worker failed
+        List<Closeable> writers = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (Closeable closeWriters = () -> NeighbourhoodExperiment.closeAll(writers)) {
+            BufferedWriter[] out3 = new BufferedWriter[depthCount];
+            BufferedWriter[] out4 = new BufferedWriter[depthCount];
+            for (int d = 0; d < depthCount; d++) {
+                FileWriter fstream3 = new FileWriter(depthDirs[d] + "/BinomialNeighbourhoodsReport.tsv");
+                out3[d] = new BufferedWriter(fstream3);
+                writers.add(out3[d]);
+
+                FileWriter fstream4 = new FileWriter(depthDirs[d] + "/experiments.tsv");
+                out4[d] = new BufferedWriter(fstream4);
+                writers.add(out4[d]);
+                out4[d].write("Experiments\tdepth");
+            }
 
+            String[] supportScoreStrs;
+            String[] abundScoreStrs;
+            String[] scoredByStrs;
+            // an experiment per depth
+            NeighbourhoodExperiment[][] experiments;
+            List<Long> starts = new ArrayList<>();
+            try(Transaction tx = graphDb.beginTx()){
+                NodeClasses classes = NodeClasses.of(graphDb);
+                ResourceIterable<String> allPropertyKeys = graphDb.getAllPropertyKeys();
+                List<String> scores = new ArrayList<>();
+                for (String property: allPropertyKeys) {
+                    if (property.startsWith("SUPPORT_SCORE_")){
+                        scores.add(property);
+                    }
+                }
 
-        try(Transaction tx = graphDb.beginTx()){
-            ResourceIterable<String> allPropertyKeys = graphDb.getAllPropertyKeys();
-            List<String> scores = new ArrayList<>();
-            for (String property: allPropertyKeys) {
-                if (property.startsWith("SUPPORT_SCORE_")){
-                    scores.add(property);
+                String[] experimentNames = new String[scores.size()];
+                for (int exp = 0; exp < scores.size(); exp++) {
+                    String scoreString = scores.get(exp);
+                    if(scoreString.contains("SUPPORT_SCORE_") | scoreString.contains("ABUNDANCE_SCORE_") ){
+                        scoreString = scoreString.replaceAll("SUPPORT_SCORE_", "");
+                        scoreString = scoreString.replaceAll("ABUNDANCE_SCORE_", "");
+                    }
+                    experimentNames[exp] = scoreString;
+                    for (int d = 0; d < depthCount; d++) {
+                        out4[d].write("\n"+scoreString + "\t" + (minDepth + d));
+                    }
                 }
-            }
-            FileWriter fstream3 = new FileWriter(outputFile + "/BinomialNeighbourhoodsReport.tsv");
-            BufferedWriter out3 = new BufferedWriter(fstream3);
-
-            FileWriter fstream4 = new FileWriter(outputFile + "/experiments.tsv");
-            BufferedWriter out4 = new BufferedWriter(fstream4);
-            out4.write("Experiments\tdepth");
-            // for each experiment type, do a neighbourhood analysis
-            for (String scoreString: scores) {
-
-                if(scoreString.contains("SUPPORT_SCORE_") | scoreString.contains("ABUNDANCE_SCORE_") ){
-                    scoreString = scoreString.replaceAll("SUPPORT_SCORE_", "");
-                    scoreString = scoreString.replaceAll("ABUNDANCE_SCORE_", "");
+                System.out.println("\nCurently analysing: " + String.join(", ", experimentNames));
+                supportScoreStrs = new String[scores.size()];
+                abundScoreStrs = new String[scores.size()];
+                scoredByStrs = new String[scores.size()];
+                for (int exp = 0; exp < scores.size(); exp++) {
+                    supportScoreStrs[exp] = "SUPPORT_SCORE_" + experimentNames[exp];
+                    abundScoreStrs[exp] = "ABUNDANCE_SCORE_" + experimentNames[exp];
+                    scoredByStrs[exp] = "SCORED_BY_" + experimentNames[exp];
                 }
-                out3.write("\n\nExperiment: " + scoreString);
-                out4.write("\n"+scoreString + "\t" + depth);
-                System.out.println("\nCurently analysing: " + scoreString);
-                String supportScoreStr = "SUPPORT_SCORE_" + scoreString;
-                String abundScoreStr = "ABUNDANCE_SCORE_" + scoreString;
-                String scoredByStr = "SCORED_BY_" + scoreString;
-
-                // write new files
-                FileWriter fstream = new FileWriter(outputFile + "/BinomialNeighbourhoods_"+scoreString + ".tsv");
-                BufferedWriter out = new BufferedWriter(fstream);
-                out.write("ID\tDispName\tUID\tPval\tBonfCorrected\tAvgSScore\tAvgAScore\tNumInNbhd\tNumMeasuredNbhd\tNumIntegrated\tNumUIDsInNBHD\tdbMeasured\tprobablility\n");
-
-                FileWriter fstream2 = new FileWriter(outputFile + "/SigNeighbourhoods_"+scoreString+".tsv");
-                BufferedWriter out2 = new BufferedWriter(fstream2);
-                out2.write("ID\tDispName\tUID\tPval\tBonfCorrected\tAvgSScore\tAvgAScore\tNumInNbhd\tNumMeasuredNbhd\tNumIntegrated\tNumUIDsInNBHD\tdbMeasured\tprobablility\n");
 
-
-                // get the number of measured proteins and complexes
-                int dbMeasured = 0;
+                // get the proteins and complexes, and the number measured in every experiment
+                int[] dbMeasured = new int[scores.size()];
                 double numInDb = 0;
                 ResourceIterator<Node> allPEs = graphDb.findNodes(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
                 while (allPEs.hasNext()){
                     Node pe = allPEs.next();
-                    if(pe.hasLabel(Label.label("Protein")) | pe.hasLabel(Label.label("Complex"))){
-                        if (pe.hasProperty(supportScoreStr)){
-                            dbMeasured++;
+                    if(classes.is(pe, GraphSnapshot.CLASS_PROTEIN) | classes.is(pe, GraphSnapshot.CLASS_COMPLEX)){
+                        for (int exp = 0; exp < scores.size(); exp++) {
+                            if (pe.hasProperty(supportScoreStrs[exp])){
+                                dbMeasured[exp]++;
+                            }
                         }
+                        starts.add(pe.getId());
                         numInDb++;
                     }
                 }
 
-
-                Integer count = 0;
-                Integer numBonfSig = 0;
-                Integer numPvalSig = 0;
-                // for each protein and complex generate the neighbourhood and get it's pvalue
-                ResourceIterator<Node> PEs = graphDb.findNodes(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
-                //ResourceIterator<Node> PEs = graphDb.findNodes(Label.label("Protein"));
-                for (ResourceIterator<Node> it = PEs; it.hasNext(); ) {
-                    count ++;
-                    ArrayList<Double> nbhdSScores = new ArrayList<>();
-                    ArrayList<Double> nbhdAScores = new ArrayList<>();
-
-                    if(count % 10000 == 0 ){
-                        System.out.print("\rProgress: "+ (count/numInDb)*100);
+                // the p-values are shared by every depth and experiment
+                BinomialTail tails = new BinomialTail(Arrays.stream(dbMeasured).max().orElse(0));
+                experiments = new NeighbourhoodExperiment[depthCount][scores.size()];
+                for (int d = 0; d < depthCount; d++) {
+                    for (int exp = 0; exp < scores.size(); exp++) {
+                        experiments[d][exp] = new NeighbourhoodExperiment(experimentNames[exp], depthDirs[d], dbMeasured[exp], numInDb, tails);
+                        writers.add(experiments[d][exp]);
                     }
+                }
+                tx.success();
+            }
 
-                    Node pe = it.next();
-                    if(pe.hasLabel(Label.label("Protein")) | pe.hasLabel(Label.label("Complex"))){
-
-                        HashSet<Node> nbhd = neighbourTraversal(pe, depth, graphDb);
-
-                        HashSet<String> nbhdUids = new HashSet<>();
-
-                        // count the total neighbourhood size
-                        // count number of measured things
-                        double nbhdSize = 0;
-                        int nbhdMeasured = 0;
-                        int numIntegrated = 0;
-                        for(Node node:nbhd){
-                            if (node.hasProperty(supportScoreStr)){
-                                if(Double.parseDouble(node.getProperty(supportScoreStr).toString()) > 0){
-                                    nbhdMeasured ++;
-                                }
-                                nbhdSScores.add(Double.parseDouble(node.getProperty(supportScoreStr).toString()));
-                                nbhdAScores.add(Double.parseDouble(node.getProperty(abundScoreStr).toString()));
-                                nbhdSize ++;
-
-                                if(node.hasProperty(PropertyType.INTEGRATED.toString())){
-                                    numIntegrated++;
-                                }
-
-                                // count num unique uids in nbhd
-                                Iterable<Relationship> uidRels = node.getRelationships(RelTypes.ID_BELONGS_TO, Direction.INCOMING);
-                                if (getLength(uidRels) == 1){
-                                    for(Relationship uidRel: uidRels){
-                                        nbhdUids.add(uidRel.getStartNode().getProperty(PropertyType.UNIPROT_ID.toString()).toString());
-                                    }
-                                }else{
-                                    String uids = "";
-                                    for(Relationship uidRel: uidRels){
-                                        uids = uids + uidRel.getStartNode().getProperty(PropertyType.UNIPROT_ID.toString().toString());
-                                    }
-                                    nbhdUids.add(uids);
-                                }
-                            }
+            // the neighbourhoods are found and counted in chunks on [threads] workers, each in its own read
+            // transaction, and written in the order the proteins and complexes were found
+            List<ForkJoinTask<NeighbourhoodExperiment.Neighbourhood[][][]>> tasks = new ArrayList<>();
+            for (int from = 0; from < starts.size(); from += NEIGHBOURHOOD_CHUNK) {
+                List<Long> chunk = starts.subList(from, Math.min(from + NEIGHBOURHOOD_CHUNK, starts.size()));
+                tasks.add(pool.submit(() -> countNeighbourhoods(graphDb, chunk, minDepth, maxDepth, experiments,
+                        supportScoreStrs, abundScoreStrs, scoredByStrs)));
+            }
+            Integer count = 0;
+            for (ForkJoinTask<NeighbourhoodExperiment.Neighbourhood[][][]> task : tasks) {
+                for (NeighbourhoodExperiment.Neighbourhood[][] neighbourhoods : task.get()) {
+                    for (int d = 0; d < depthCount; d++) {
+                        for (int exp = 0; exp < experiments[d].length; exp++) {
+                            experiments[d][exp].write(neighbourhoods[d][exp]);
                         }
+                    }
+                    count++;
+                    if(count % 10000 == 0 ){
+                        System.out.print("\rProgress: "+ (count * 100.0 / starts.size()));
+                    }
+                }
+            }
 
+            for (int d = 0; d < depthCount; d++) {
+                for (NeighbourhoodExperiment experiment : experiments[d]) {
+                    experiment.writeReport(out3[d]);
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException(e.getCause() == null ? e : e.getCause());
+        } finally {
+            pool.shutdown();
+            shutdownDatabase(graphDb);
+        }
+    }
 
-
-                        double probability = nbhdSize/numInDb;
-
-                        Double pval = 0.0;
-
-                        if(nbhdMeasured != 0){
-                            BinomialTest bn = new BinomialTest();
-                            pval = bn.binomialTest(dbMeasured, nbhdMeasured, probability, AlternativeHypothesis.GREATER_THAN);
+    /**
+     * Finds the neighbourhoods of a chunk of proteins and complexes in its own transaction and counts and tests
+     * each one against every experiment at every depth
+     * @return a neighbourhood per depth and experiment for each start, in the order of the chunk
+     */
+    private NeighbourhoodExperiment.Neighbourhood[][][] countNeighbourhoods(GraphDatabaseService graphDb, List<Long> chunk,
+                                                                           Integer minDepth, Integer maxDepth,
+                                                                           NeighbourhoodExperiment[][] experiments,
+                                                                           String[] supportScoreStrs, String[] abundScoreStrs,
+                                                                           String[] scoredByStrs) {
+        NeighbourhoodExperiment.Neighbourhood[][][] counted = new NeighbourhoodExperiment.Neighbourhood[chunk.size()][][];
+        try (Transaction tx = graphDb.beginTx()) {
+            NodeClasses classes = NodeClasses.of(graphDb);
+            for (int i = 0; i < chunk.size(); i++) {
+                Node pe = graphDb.getNodeById(chunk.get(i));
+                String displayName = pe.getProperty(PropertyType.DISPLAY_NAME.toString()).toString();
+                counted[i] = new NeighbourhoodExperiment.Neighbourhood[experiments.length][];
+
+                HashSet<Node> nbhd;
+                List<Node> found = null;
+                int[] levelEnds = null;
+                if (minDepth.equals(maxDepth)) {
+                    nbhd = neighbourTraversal(pe, maxDepth, graphDb);
+                } else {
+                    // the depth d neighbourhood is the first levelEnds[d] nodes found, added in the same order
+                    // so the set iterates as one found to depth d would
+                    nbhd = new HashSet<>();
+                    found = new ArrayList<>();
+                    levelEnds = neighbourLevels(pe, maxDepth, graphDb, found);
+                }
+                int added = 0;
+                for (int d = 0; d < experiments.length; d++) {
+                    if (found != null) {
+                        while (added < levelEnds[minDepth + d]) {
+                            nbhd.add(found.get(added++));
                         }
+                    }
+                    counted[i][d] = countNeighbourhood(nbhd, classes, experiments[d], supportScoreStrs, abundScoreStrs);
+                    for (int exp = 0; exp < experiments[d].length; exp++) {
+                        counted[i][d][exp].finish(pe.getId(), displayName, peUid(pe, scoredByStrs[exp]));
+                    }
+                }
+            }
+            tx.success();
+        }
+        return counted;
+    }
 
-                        Double bonfCorrected= pval * dbMeasured;
-
+    /**
+     * counts the total neighbourhood size, measured things and unique uids in each experiment
+     */
+    private NeighbourhoodExperiment.Neighbourhood[] countNeighbourhood(HashSet<Node> nbhd, NodeClasses classes,
+                                                                      NeighbourhoodExperiment[] experiments,
+                                                                      String[] supportScoreStrs, String[] abundScoreStrs) {
+        NeighbourhoodExperiment.Neighbourhood[] neighbourhoods = new NeighbourhoodExperiment.Neighbourhood[experiments.length];
+        for (int exp = 0; exp < experiments.length; exp++) {
+            neighbourhoods[exp] = experiments[exp].newNeighbourhood();
+        }
+        for(Node node:nbhd){
+            String uids = null;
+            for (int exp = 0; exp < experiments.length; exp++) {
+                if (node.hasProperty(supportScoreStrs[exp])){
+                    if (uids == null){
+                        uids = nodeUids(node);
+                    }
+                    neighbourhoods[exp].addMeasured(
+                            Double.parseDouble(node.getProperty(supportScoreStrs[exp]).toString()),
+                            Double.parseDouble(node.getProperty(abundScoreStrs[exp]).toString()),
+                            classes.hasFlag(node, GraphSnapshot.FLAG_INTEGRATED),
+                            uids);
+                }
+            }
+        }
+        return neighbourhoods;
+    }
 
-                        ////////////// gathering outputs
-                        String uid = "";
-                        if(pe.hasProperty(scoredByStr)){
-                            uid = pe.getProperty(scoredByStr).toString();
-                        } else if (pe.hasProperty(PropertyType.UNIPROT_ID.toString())){
-                            uid = pe.getProperty(PropertyType.UNIPROT_ID.toString()).toString();
-                        }else{
-                            Iterable<Relationship> uidRels = pe.getRelationships(RelTypes.ID_BELONGS_TO, Direction.INCOMING);
-                            if(getLength(uidRels) == 1){
-                                for(Relationship uidRel: uidRels){
-                                    uid = uidRel.getStartNode().getProperty(PropertyType.UNIPROT_ID.toString()).toString();
-                                }
-                            }else{
-                                for(Relationship uidRel: uidRels){
-                                    uid = uid + uidRel.getStartNode().getProperty(PropertyType.UNIPROT_ID.toString()).toString() + ",";
-                                }
-                            }
-                        }
+    /**
+     * @param node
+     * @return the UniProt ids the node belongs to put together, what a neighbourhood counts as one unique uid
+     */
+    private String nodeUids(Node node){
+        Iterable<Relationship> uidRels = node.getRelationships(RelTypes.ID_BELONGS_TO, Direction.INCOMING);
+        String uids = "";
+        for(Relationship uidRel: uidRels){
+            uids = uids + uidRel.getStartNode().getProperty(PropertyType.UNIPROT_ID.toString());
+        }
+        return uids;
+    }
 
-                        Double ssAvg = 0.0;
-                        Double asAvg = 0.0;
+    /**
+     * @param pe
+     * @param scoredByStr
+     * @return the UniProt id that scored the protein or complex in an experiment, else the ones it belongs to
+     */
+    private String peUid(Node pe, String scoredByStr){
+        String uid = "";
+        if(pe.hasProperty(scoredByStr)){
+            uid = pe.getProperty(scoredByStr).toString();
+        } else if (pe.hasProperty(PropertyType.UNIPROT_ID.toString())){
+            uid = pe.getProperty(PropertyType.UNIPROT_ID.toString()).toString();
+        }else{
+            Iterable<Relationship> uidRels = pe.getRelationships(RelTypes.ID_BELONGS_TO, Direction.INCOMING);
+            if(getLength(uidRels) == 1){
+                for(Relationship uidRel: uidRels){
+                    uid = uidRel.getStartNode().getProperty(PropertyType.UNIPROT_ID.toString()).toString();
+                }
+            }else{
+                for(Relationship uidRel: uidRels){
+                    uid = uid + uidRel.getStartNode().getProperty(PropertyType.UNIPROT_ID.toString()).toString() + ",";
+                }
+            }
+        }
+        return uid;
+    }
 
-                        for(Integer i = 0; i < nbhdSScores.size(); i++){
-                            if(nbhdSScores.get(i) >= 0){
-                                ssAvg += nbhdSScores.get(i);
-                                asAvg += nbhdAScores.get(i);
-                            }
-                        }
+    /**
+     * Answers whether each end is downstream of the start, following the same relationships as getDownstream.
+     * Uses the reachability index saved next to the database, building it first if the graph has changed since
+     * @param startString a UniProt id (downstream of any of its proteoforms) or node id
+     * @param endString a UniProt id or node id, several separated by commas, or a file of them
+     * @throws IOException
+     */
+    public void reachable(String startString, String endString) throws IOException {
+        File outputFile = getOutputFile();
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
+
+        List<String> ends = new ArrayList<>();
+        File endFile = new File(endString);
+        if (endFile.isFile()) {
+            BufferedReader BR = new BufferedReader(new FileReader(endFile));
+            String line = "";
+            while ((line = BR.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    ends.add(line.trim());
+                }
+            }
+            BR.close();
+        } else {
+            for (String end : endString.split(",")) {
+                if (!end.trim().isEmpty()) {
+                    ends.add(end.trim());
+                }
+            }
+        }
 
-                        ssAvg = ssAvg/nbhdSScores.size();
-                        asAvg = asAvg/nbhdSScores.size();
+        StringBuilder results = new StringBuilder("start\tend\treachable\n");
+        try (Transaction tx = graphDb.beginTx()) {
+            ReachabilityIndex index = downstreamIndex(graphDb);
+            Pattern p = Pattern.compile(UID_PATTERN);
 
+            List<Long> starts = new ArrayList<>();
+            Matcher m = p.matcher(startString);
+            if (m.find()) {
+                Node uidNode = graphDb.findNode(Label.label(LabelTypes.UNIPROT_ID.toString()),
+                        PropertyType.UNIPROT_ID.toString(), m.group(0));
+                if (uidNode == null) {
+                    throw new NotFoundException(startString + " does not exist in the database " + getDatabaseDir());
+                }
+                for (Relationship relationship : uidNode.getRelationships(RelTypes.ID_BELONGS_TO)) {
+                    starts.add(relationship.getEndNodeId());
+                }
+            } else {
+                starts.add(graphDb.getNodeById(Long.valueOf(startString)).getId());
+            }
 
-                    /*
-                    if(pval == 0){
-                        System.out.println(pe.getProperty(PropertyType.DISPLAY_NAME.toString())
-                                + ", Num in DB: " + dbMeasured
-                                + ", NBHD measured: " + nbhdMeasured
-                                +  ", prob: " + probability
-                                + " = " + nbhdSize +"/"+ numInDb
-                        );
+            for (String end : ends) {
+                Long endId = null;
+                Matcher m1 = p.matcher(end);
+                if (m1.find()) {
+                    Node uidNode = graphDb.findNode(Label.label(LabelTypes.UNIPROT_ID.toString()),
+                            PropertyType.UNIPROT_ID.toString(), m1.group(0));
+                    if (uidNode != null) {
+                        endId = uidNode.getId();
                     }
-                     */
-
-                        out.write( pe.getId() + "\t" +
-                                pe.getProperty(PropertyType.DISPLAY_NAME.toString()) + "\t" +
-                                uid + "\t" +
-                                pval + "\t" +
-                                bonfCorrected + "\t" +
-                                ssAvg+"\t"+
-                                asAvg + "\t"+
-                                nbhdSize + "\t" +
-                                nbhdMeasured  + "\t" +
-                                numIntegrated  + "\t" +
-                                nbhdUids.size() + "\t" +
-                                dbMeasured + "\t" +
-                                probability + "\n"
-                        );
-
-                        if(pval < 0.05){
-                            numPvalSig ++;
-                        }
-
-                        if(bonfCorrected < 0.05 & nbhdSize > 0.0 & ssAvg > 0.0){
-                            numBonfSig ++;
-                            out2.write( pe.getId() + "\t" +
-                                    pe.getProperty(PropertyType.DISPLAY_NAME.toString()) + "\t" +
-                                    uid + "\t" +
-                                    pval + "\t" +
-                                    bonfCorrected + "\t" +
-                                    ssAvg+"\t"+
-                                    asAvg + "\t"+
-                                    nbhdSize + "\t" +
-                                    nbhdMeasured  + "\t" +
-                                    numIntegrated  + "\t" +
-                                    nbhdUids.size() + "\t" +
-                                    dbMeasured + "\t" +
-                                    probability + "\n"
-                            );
-                        }
+                } else {
+                    try {
+                        endId = graphDb.getNodeById(Long.valueOf(end)).getId();
+                    } catch (NumberFormatException | NotFoundException e) {
+                        endId = null;
+                    }
+                }
+                if (endId == null) {
+                    System.out.println(end + " Does not exist in the databse");
+                    results.append(startString).append("\t").append(end).append("\tNA\n");
+                    continue;
+                }
+                boolean reachable = false;
+                for (Long start : starts) {
+                    if (index.reaches(start, endId)) {
+                        reachable = true;
+                        break;
                     }
                 }
+                results.append(startString).append("\t").append(end).append("\t").append(reachable).append("\n");
+            }
+            tx.success();
+        }
+        shutdownDatabase(graphDb);
 
-                out3.write("\nThe number of neighbourhoods tested: " + numInDb);
-                out3.write("\nThe number of neighbourhoods with a p-value < 0.05: " + numPvalSig);
-                out3.write("\nThe number of neighbourhoods with a Bonferroni corrected p-value < 0.05: " + numBonfSig);
+        if (outputFile != null) {
+            FileWriter fstream = new FileWriter(outputFile + "/Reachable_" + startString + ".tsv");
+            BufferedWriter out = new BufferedWriter(fstream);
+            out.write(results.toString());
+            out.close();
+        } else {
+            System.out.print(results);
+        }
+    }
 
-                tx.success();
-                out.close();
-                out2.close();
+    /**
+     * Gets the downstream reachability index of the database, from memory if it was used last, otherwise from the
+     * file next to the database. Builds and saves it if neither matches the topology of the graph. Must be called
+     * inside a transaction
+     * @param graphDb
+     * @return
+     * @throws IOException
+     */
+    private ReachabilityIndex downstreamIndex(GraphDatabaseService graphDb) throws IOException {
+        File databaseDir = getDatabaseDir().getAbsoluteFile().toPath().normalize().toFile();
+        long topology = topology(graphDb);
+        if (reachabilityIndex != null && databaseDir.equals(reachabilityIndexDir) && topology == reachabilityIndexTopology) {
+            return reachabilityIndex;
+        }
 
+        File indexFile = new File(databaseDir.getParentFile(), databaseDir.getName() + ".reach");
+        ReachabilityIndex index = ReachabilityIndex.load(indexFile, topology);
+        if (index == null) {
+            index = ReachabilityIndex.build(graphDb, TraversalProfile.DOWNSTREAM);
+            try {
+                index.save(indexFile, topology);
+                System.out.println("Saved the reachability index to " + indexFile);
+            } catch (IOException e) {
+                System.out.println("Could not save the reachability index to " + indexFile + ": " + e.getMessage());
             }
-            out3.close();
-            out4.close();
-
         }
-        graphDb.shutdown();
+        reachabilityIndex = index;
+        reachabilityIndexDir = databaseDir;
+        reachabilityIndexTopology = topology;
+        return index;
     }
 
     /**
@@ -819,7 +1217,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
     public void shortestPath(String startString, String endString, String weightType) throws IOException {
         File databaseDir = getDatabaseDir();
         File outputFile = getOutputFile();
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
 
         FileWriter fstream = new FileWriter(outputFile + "/ShortestPathReport_"+startString+"_to_"+endString+".tsv");
         BufferedWriter out = new BufferedWriter(fstream);
@@ -827,6 +1225,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
 
 
         try (Transaction tx = graphDb.beginTx()) {
+            NodeClasses classes = NodeClasses.of(graphDb);
             // get all labels and find one that matches the experiment
             ResourceIterable<String> allPropertyKeys = graphDb.getAllPropertyKeys();
             for (String property: allPropertyKeys){
@@ -917,7 +1316,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
                     Iterator<WeightedPath> iteratorUS = allPathsUS.iterator();
                     Integer lengthUS = getLength(iteratorUS);
                     if(lengthDS == 0 & lengthUS == 0){
-                        throw new Exception("No path between nodes "+startString+" and "+endString +" either upstream or downstream");
+                        throw new InputException("No path between nodes "+startString+" and "+endString +" either upstream or downstream");
                     } if (lengthDS > 0){
 
                         FileWriter fstream1 = new FileWriter(outputFile + "/"+startString+"_to_"+endString+"_downstream_cytoscape.tsv");
@@ -944,30 +1343,30 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
                                     // break
 
 
-                                if(node.hasLabel(Label.label("Protein"))){
+                                if(classes.is(node, GraphSnapshot.CLASS_PROTEIN)){
                                     numMolecules++;
                                     numProteins++;
                                     out1.write(node.getId()+"\t"+startString+"_to_"+endString+"\n");
                                     if(node.hasProperty(supportScoreStr)){
                                         numMeasuredProteins++;
                                     }
-                                    if(node.hasRelationship(RelTypes.PHOSPHORYLATION)){
+                                    if(classes.hasFlag(node, GraphSnapshot.FLAG_PHOSPHORYLATED)){
                                         numPhosdProteins++;
                                         if (node.hasProperty(supportScoreStr)){
                                             numMeasuredPhosdProteins++;
                                         }
                                     }
-                                }else if(node.hasLabel(Label.label("Complex"))){
+                                }else if(classes.is(node, GraphSnapshot.CLASS_COMPLEX)){
                                     numMolecules++;
                                     numComplexes++;
                                     out1.write(node.getId()+"\t"+startString+"_to_"+endString+"\n");
                                     if (node.hasProperty(supportScoreStr)){
                                         numMeasuredComplexes++;
                                     }
-                                }else if(node.hasLabel(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()))){
+                                }else if(classes.hasFlag(node, GraphSnapshot.FLAG_PHYSICAL_ENTITY)){
                                     numMolecules++;
                                     out1.write(node.getId()+"\t"+startString+"_to_"+endString+"\n");
-                                }else if(node.hasLabel(Label.label(LabelTypes.INTERACTION.toString()))){
+                                }else if(classes.hasFlag(node, GraphSnapshot.FLAG_INTERACTION)){
                                     numRelationships++;
                                     out1.write(node.getId()+"\t"+startString+"_to_"+endString+"\n");
                                 }
@@ -1029,30 +1428,30 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
                             Iterator<Node> iterator = nodes.iterator();
                             while (iterator.hasNext()){
                                 Node node = iterator.next();
-                                if(node.hasLabel(Label.label("Protein"))){
+                                if(classes.is(node, GraphSnapshot.CLASS_PROTEIN)){
                                     numMolecules++;
                                     numProteins++;
                                     out1.write(node.getId()+"\t"+startString+"_to_"+endString+"\n");
                                     if(node.hasProperty(supportScoreStr)){
                                         numMeasuredProteins++;
                                     }
-                                    if(node.hasRelationship(RelTypes.PHOSPHORYLATION)){
+                                    if(classes.hasFlag(node, GraphSnapshot.FLAG_PHOSPHORYLATED)){
                                         numPhosdProteins++;
                                         if (node.hasProperty(supportScoreStr)){
                                             numMeasuredPhosdProteins++;
                                         }
                                     }
-                                }else if(node.hasLabel(Label.label("Complex"))){
+                                }else if(classes.is(node, GraphSnapshot.CLASS_COMPLEX)){
                                     numMolecules++;
                                     numComplexes++;
                                     out1.write(node.getId()+"\t"+startString+"_to_"+endString+"\n");
                                     if (node.hasProperty(supportScoreStr)){
                                         numMeasuredComplexes++;
                                     }
-                                }else if(node.hasLabel(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()))){
+                                }else if(classes.hasFlag(node, GraphSnapshot.FLAG_PHYSICAL_ENTITY)){
                                     numMolecules++;
                                     out1.write(node.getId()+"\t"+startString+"_to_"+endString+"\n");
-                                }else if(node.hasLabel(Label.label(LabelTypes.INTERACTION.toString()))){
+                                }else if(classes.hasFlag(node, GraphSnapshot.FLAG_INTERACTION)){
                                     numRelationships++;
                                     out1.write(node.getId()+"\t"+startString+"_to_"+endString+"\n");
                                 }
@@ -1100,20 +1499,19 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
 
             tx.success();
             out.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(1);
+        } finally {
+            shutdownDatabase(graphDb);
         }
-        graphDb.shutdown();
 
     }
 
     public void minimalConnectionNetwork(String experiment) throws IOException {
         File databaseDir = getDatabaseDir();
         File outputFile = getOutputFile();
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
 
         try (Transaction tx = graphDb.beginTx()) {
+            NodeClasses classes = NodeClasses.of(graphDb);
             // get all labels and find one that matches the experiment
             ResourceIterable<String> allPropertyKeys = graphDb.getAllPropertyKeys();
             HashSet<String> experimentStrs = new HashSet<>();
@@ -1232,21 +1630,21 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
 
             for (Node node: mcnNodes){
                 out1.write(node.getId() + "\tMCN_"+experiment+"\n");
-                if(node.hasLabel(Label.label("Protein"))){
+                if(classes.is(node, GraphSnapshot.CLASS_PROTEIN)){
                     numProteins++;
                     if(node.hasProperty(supportScoreStr)){
                         numMappedProteins++;
                     }
-                    if(node.hasProperty(PropertyType.INTEGRATED.toString())){
+                    if(classes.hasFlag(node, GraphSnapshot.FLAG_INTEGRATED)){
                         numIntegrated++;
                     }
-                    if (node.hasRelationship(RelTypes.PHOSPHORYLATION)){
+                    if (classes.hasFlag(node, GraphSnapshot.FLAG_PHOSPHORYLATED)){
                         numPhosdProteins++;
                         if(node.hasProperty(supportScoreStr)){
                             numMappedPhosdProteins++;
                         }
                     }
-                    if(node.hasProperty(PropertyType.KINASE.toString())) {
+                    if(classes.hasFlag(node, GraphSnapshot.FLAG_KINASE)) {
                         numKinases++;
                         if (node.hasProperty(supportScoreStr)) {
                             numMappedKinases++;
@@ -1259,15 +1657,15 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
                         out1.write(uidNode.getId() + "\tMCN_"+experiment+"\n");
                     }
 
-                }else if(node.hasLabel(Label.label("Complex"))){
+                }else if(classes.is(node, GraphSnapshot.CLASS_COMPLEX)){
                     numComplexes++;
                     if(node.hasProperty(supportScoreStr)){
                         numMappedComplexes++;
                     }
-                    if(node.hasProperty(PropertyType.INTEGRATED.toString())){
+                    if(classes.hasFlag(node, GraphSnapshot.FLAG_INTEGRATED)){
                         numIntegrated++;
                     }
-                }else if (node.hasLabel(Label.label("BiochemicalReaction"))){
+                }else if (classes.is(node, GraphSnapshot.CLASS_BIOCHEMICAL_REACTION)){
                     numRXNs++;
                 }
             }
@@ -1295,7 +1693,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
         } catch (Exception e) {
             e.printStackTrace();
         }
-        graphDb.shutdown();
+        shutdownDatabase(graphDb);
         System.out.println();
     }
 
@@ -1304,7 +1702,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
      */
     void resetScores( String experiment){
         File databaseDir = getDatabaseDir();
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openDatabase();
 
         try (Transaction tx = graphDb.beginTx()) {
 
@@ -1334,7 +1732,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
             }
             // throw exception if experiment name given is not in the database
             if(experimentLabel){
-                throw new Exception(experiment + " is not currently in this database: " + databaseDir +
+                throw new InputException(experiment + " is not currently in this database: " + databaseDir +
                         "\nExperiments in this database are: " + experiments);
             }
 
@@ -1374,9 +1772,8 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
 
 
             tx.success();
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(1);
+        } finally {
+            shutdownDatabase(graphDb);
         }
     }
 
@@ -1414,7 +1811,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
             }
             // throw exception if experiment name given is not in the database
             if(experimentLabel){
-                throw new Exception(experiment + " is not currently in this database: " + databaseDir +
+                throw new InputException(experiment + " is not currently in this database: " + databaseDir +
                         "\nExperiments in this database are: " + experiments);
             }
 
@@ -1447,9 +1844,6 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
             }
 
             tx.success();
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(1);
         }
     }
 
@@ -1473,7 +1867,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
     void empiricalNullDistribution(File qPhosFile, Integer depth, Integer subsetSize, Integer repetitionNumber ) throws IOException {
         File databaseDir = getDatabaseDir();
         File outputFile = getOutputFile();
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openDatabase();
 
         // reset scores
         try (Transaction tx = graphDb.beginTx()) {
@@ -1733,12 +2127,15 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
         Integer largestNumUIDsMeasured = 0;
         Integer nbhdCount = -1;
         HashMap<Long, HashSet<Node>> allNbhds = new HashMap<>();
+        // mapping a subset only writes scores, so the classes are read once for every replicate
+        NodeClasses classes;
         try (Transaction tx = graphDb.beginTx()) {
+            classes = NodeClasses.of(graphDb);
             //gen nbhds once
             ResourceIterator<Node> allPeNodes1 = graphDb.findNodes(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
             for (ResourceIterator<Node> it = allPeNodes1; it.hasNext(); ) {
                 Node physicalEntity = it.next();
-                if (physicalEntity.hasLabel(Label.label("Protein")) | physicalEntity.hasLabel(Label.label("Complex"))) {
+                if (classes.is(physicalEntity, GraphSnapshot.CLASS_PROTEIN) | classes.is(physicalEntity, GraphSnapshot.CLASS_COMPLEX)) {
                     HashSet<Node> nbhd = neighbourTraversal(physicalEntity, depth, graphDb);
                     if (nbhd.size() > 1) {
                         allNbhds.put(physicalEntity.getId(), nbhd);
@@ -1749,13 +2146,13 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
                         HashSet<String> nbhdUids = new HashSet<>();
                         for (Node node : nbhd) {
                             // get UID's from proteins and complexes in the network & count the # measured
-                            if (node.hasLabel(Label.label("Protein"))) {
+                            if (classes.is(node, GraphSnapshot.CLASS_PROTEIN)) {
                                 Iterable<Relationship> uidRels = node.getRelationships(RelTypes.ID_BELONGS_TO, Direction.INCOMING);
                                 for (Relationship uidRel : uidRels) {
                                     nbhdUids.add(uidRel.getStartNode().getProperty(PropertyType.UNIPROT_ID.toString()).toString());
                                 }
                             }
-                            if (node.hasLabel(Label.label("Complex"))) {
+                            if (classes.is(node, GraphSnapshot.CLASS_COMPLEX)) {
                                 String cplxUIDs = node.getProperty(PropertyType.UNIPROT_ID.toString()).toString();
                                 String[] split = cplxUIDs.split(",\\s");
                                 for (String uid : split) {
@@ -1921,7 +2318,6 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
 
 
             try (Transaction tx = graphDb.beginTx()) {
-
                 //System.out.println("\tCounting nbhd stats");
 
                 for (long id: allNbhds.keySet()) {
@@ -1938,16 +2334,16 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
                     // count number of measured things
                     for (Node node : nbhd) {
                         //System.out.println(node.getAllProperties());
-                        if (node.hasLabel(Label.label("Protein")) | node.hasLabel(Label.label("Complex"))) {
+                        if (classes.is(node, GraphSnapshot.CLASS_PROTEIN) | classes.is(node, GraphSnapshot.CLASS_COMPLEX)) {
                             nbhdSizeInt++;
                             //count integrated
-                            if (node.hasProperty(PropertyType.INTEGRATED.toString())) {
+                            if (classes.hasFlag(node, GraphSnapshot.FLAG_INTEGRATED)) {
                                 numIntegrated++;
                             }
                         }
 
                         // get UID's from proteins and complexes in the network & count the # measured
-                        if (node.hasLabel(Label.label("Protein"))) {
+                        if (classes.is(node, GraphSnapshot.CLASS_PROTEIN)) {
                             Iterable<Relationship> uidRels = node.getRelationships(RelTypes.ID_BELONGS_TO, Direction.INCOMING);
                             for (Relationship uidRel : uidRels) {
                                 nbhdUids.add(uidRel.getStartNode().getProperty(PropertyType.UNIPROT_ID.toString()).toString());
@@ -1956,7 +2352,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
                                 }
                             }
                         }
-                        if (node.hasLabel(Label.label("Complex"))) {
+                        if (classes.is(node, GraphSnapshot.CLASS_COMPLEX)) {
                             String cplxUIDs = node.getProperty(PropertyType.UNIPROT_ID.toString()).toString();
                             String[] split = cplxUIDs.split(",\\s");
                             for (String uid : split) {
@@ -2165,13 +2561,13 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
         out2.close();
 
 
-        graphDb.shutdown();
+        shutdownDatabase(graphDb);
     }
 
     void mouseEmpiricalNullDistribution(File mouseDBFile, Integer depth, Integer subsetSize, Integer repetitionNumber ) throws IOException {
         File databaseDir = getDatabaseDir();
         File outputFile = getOutputFile();
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openDatabase();
 
         // reset scores
         try (Transaction tx = graphDb.beginTx()) {
@@ -2320,6 +2716,13 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
         HashMap<Long, String> nbhd2UID = new HashMap<>();
         HashMap<Long, String> nbhd2DispName = new HashMap<>();
 
+        // mapping a subset only writes scores, so the classes are read once for every replicate
+        NodeClasses classes;
+        try (Transaction tx = graphDb.beginTx()) {
+            classes = NodeClasses.of(graphDb);
+            tx.success();
+        }
+
         for (int j = 1; j < (repetitionNumber+1); j ++){
             System.out.println("\rCurrently performing replicate: " + j);
 
@@ -2433,7 +2836,6 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
 
             try (Transaction tx = graphDb.beginTx()) {
 
-
                 // get the number of measured proteins and complexes
                 int dbMeasured = 0;
                 double numInDb = 0;
@@ -2458,22 +2860,22 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
                     HashSet<String> nbhdUids = new HashSet<>();
                     HashSet<String> numUIDsMeasured = new HashSet<>();
 
-                    if(physicalEntity.hasLabel(Label.label("Protein")) | physicalEntity.hasLabel(Label.label("Complex"))) {
+                    if(classes.is(physicalEntity, GraphSnapshot.CLASS_PROTEIN) | classes.is(physicalEntity, GraphSnapshot.CLASS_COMPLEX)) {
                         HashSet<Node> nbhd = neighbourTraversal(physicalEntity, depth, graphDb);
 
                         // count the total neighbourhood size
                         // count number of measured things
                         for(Node node:nbhd){
-                            if(node.hasLabel(Label.label("Protein")) | node.hasLabel(Label.label("Complex"))){
+                            if(classes.is(node, GraphSnapshot.CLASS_PROTEIN) | classes.is(node, GraphSnapshot.CLASS_COMPLEX)){
                                 nbhdSizeInt ++;
                                 //count integrated
-                                if(node.hasProperty(PropertyType.INTEGRATED.toString())){
+                                if(classes.hasFlag(node, GraphSnapshot.FLAG_INTEGRATED)){
                                     numIntegrated++;
                                 }
                             }
 
                             // get UID's from proteins and complexes in the network & count the # measured
-                            if(node.hasLabel(Label.label("Protein"))){
+                            if(classes.is(node, GraphSnapshot.CLASS_PROTEIN)){
                                 Iterable<Relationship> uidRels = node.getRelationships(RelTypes.ID_BELONGS_TO, Direction.INCOMING);
                                 for(Relationship uidRel: uidRels){
                                     nbhdUids.add(uidRel.getStartNode().getProperty(PropertyType.UNIPROT_ID.toString()).toString());
@@ -2482,7 +2884,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
                                     }
                                 }
                             }
-                            if( node.hasLabel(Label.label("Complex"))){
+                            if( classes.is(node, GraphSnapshot.CLASS_COMPLEX)){
                                 String cplxUIDs = node.getProperty(PropertyType.UNIPROT_ID.toString()).toString();
                                 String[] split = cplxUIDs.split(",\\s");
                                 for (String uid: split) {
@@ -2654,7 +3056,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
         }
 
         out.close();
-        graphDb.shutdown();
+        shutdownDatabase(graphDb);
 
     }
 
@@ -2897,7 +3299,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
 
         File databaseDir = getDatabaseDir();
         File outputFile = getOutputFile();
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openDatabase();
 
         ////////////////////////////////////////////// Reading in empirical dists //////////////////////////////////////////////
         BufferedReader BR = new BufferedReader(new FileReader(empiricalDistribution));
@@ -3002,6 +3404,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
 
         ////////////////////////////////////////////// Generatign stats for this Mapped data //////////////////////////////////////////////
         try (Transaction tx = graphDb.beginTx()) {
+            NodeClasses classes = NodeClasses.of(graphDb);
 
             // get all labels and find one that matches the experiment
             Boolean experimentLabel = true;
@@ -3052,7 +3455,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
                 Integer numIntegrated = 0;
                 HashSet<String> nbhdUids = new HashSet<>();
                 HashSet<String> numUIDsMeasured = new HashSet<>();
-                if(physicalEntity.hasLabel(Label.label("Protein")) | physicalEntity.hasLabel(Label.label("Complex"))) {
+                if(classes.is(physicalEntity, GraphSnapshot.CLASS_PROTEIN) | classes.is(physicalEntity, GraphSnapshot.CLASS_COMPLEX)) {
                     HashSet<Node> nbhd = neighbourTraversal(physicalEntity, depth, graphDb);
                     countNumNbhds ++;
 
@@ -3060,16 +3463,16 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
                     // count the total neighbourhood size
                     // count number of measured things
                     for (Node node : nbhd) {
-                        if (node.hasLabel(Label.label("Protein")) | node.hasLabel(Label.label("Complex"))) {
+                        if (classes.is(node, GraphSnapshot.CLASS_PROTEIN) | classes.is(node, GraphSnapshot.CLASS_COMPLEX)) {
                             nbhdSizeInt++;
                             //count integrated
-                            if (node.hasProperty(PropertyType.INTEGRATED.toString())) {
+                            if (classes.hasFlag(node, GraphSnapshot.FLAG_INTEGRATED)) {
                                 numIntegrated++;
                             }
                         }
 
                         // get UID's from proteins and complexes in the network & count the # measured
-                        if(node.hasLabel(Label.label("Protein"))){
+                        if(classes.is(node, GraphSnapshot.CLASS_PROTEIN)){
                             Iterable<Relationship> uidRels = node.getRelationships(RelTypes.ID_BELONGS_TO, Direction.INCOMING);
                             for(Relationship uidRel: uidRels){
                                 nbhdUids.add(uidRel.getStartNode().getProperty(PropertyType.UNIPROT_ID.toString()).toString());
@@ -3078,7 +3481,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
                                 }
                             }
                         }
-                        if( node.hasLabel(Label.label("Complex"))){
+                        if( classes.is(node, GraphSnapshot.CLASS_COMPLEX)){
                             String cplxUIDs = node.getProperty(PropertyType.UNIPROT_ID.toString()).toString();
                             String[] split = cplxUIDs.split(",\\s");
                             for (String uid: split) {
@@ -3235,7 +3638,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
 
         File databaseDir = getDatabaseDir();
         File outputFile = getOutputFile();
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openDatabase();
 
         ////////////////////////////////////////////// Reading in empirical dists //////////////////////////////////////////////
         BufferedReader BR1 = new BufferedReader(new FileReader(empiricalDistribution1));
@@ -3457,6 +3860,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
 
         ////////////////////////////////////////////// Generatign stats for this Mapped data //////////////////////////////////////////////
         try (Transaction tx = graphDb.beginTx()) {
+            NodeClasses classes = NodeClasses.of(graphDb);
 
             // get all labels and find one that matches the experiment
             Boolean experimentLabel = true;
@@ -3507,7 +3911,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
                 Integer numIntegrated = 0;
                 HashSet<String> nbhdUids = new HashSet<>();
                 HashSet<String> numUIDsMeasured = new HashSet<>();
-                if(physicalEntity.hasLabel(Label.label("Protein")) | physicalEntity.hasLabel(Label.label("Complex"))) {
+                if(classes.is(physicalEntity, GraphSnapshot.CLASS_PROTEIN) | classes.is(physicalEntity, GraphSnapshot.CLASS_COMPLEX)) {
                     HashSet<Node> nbhd = neighbourTraversal(physicalEntity, depth, graphDb);
                     countNumNbhds ++;
 
@@ -3515,16 +3919,16 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
                     // count the total neighbourhood size
                     // count number of measured things
                     for (Node node : nbhd) {
-                        if (node.hasLabel(Label.label("Protein")) | node.hasLabel(Label.label("Complex"))) {
+                        if (classes.is(node, GraphSnapshot.CLASS_PROTEIN) | classes.is(node, GraphSnapshot.CLASS_COMPLEX)) {
                             nbhdSizeInt++;
                             //count integrated
-                            if (node.hasProperty(PropertyType.INTEGRATED.toString())) {
+                            if (classes.hasFlag(node, GraphSnapshot.FLAG_INTEGRATED)) {
                                 numIntegrated++;
                             }
                         }
 
                         // get UID's from proteins and complexes in the network & count the # measured
-                        if(node.hasLabel(Label.label("Protein"))){
+                        if(classes.is(node, GraphSnapshot.CLASS_PROTEIN)){
                             Iterable<Relationship> uidRels = node.getRelationships(RelTypes.ID_BELONGS_TO, Direction.INCOMING);
                             for(Relationship uidRel: uidRels){
                                 nbhdUids.add(uidRel.getStartNode().getProperty(PropertyType.UNIPROT_ID.toString()).toString());
@@ -3533,7 +3937,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
                                 }
                             }
                         }
-                        if( node.hasLabel(Label.label("Complex"))){
+                        if( classes.is(node, GraphSnapshot.CLASS_COMPLEX)){
                             String cplxUIDs = node.getProperty(PropertyType.UNIPROT_ID.toString()).toString();
                             String[] split = cplxUIDs.split(",\\s");
                             for (String uid: split) {
@@ -3807,9 +4211,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
      * @throws IOException
      */
     public void getNeighbours(File pathToProt, Integer depth) throws IOException {
-        File databaseDir = getDatabaseDir();
         File outputFile = getOutputFile();
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
         File OUTPUT_PATH = outputFile;
         File NEIGHBOURHOOD_PATH = new File(OUTPUT_PATH + "/neighbourhoods");
 
@@ -3824,9 +4226,17 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
         while ((line = BR.readLine()) != null) {
             UIDList.add(line);
         }
-        for (String uid: UIDList){
+        // keep the database open between ids
+        boolean session = openSession(getDatabaseDir());
+        try {
+            for (String uid: UIDList){
 
-            getNeighbours(uid,depth);
+                getNeighbours(uid,depth);
+            }
+        } finally {
+            if (session) {
+                closeSession();
+            }
         }
 
     }
@@ -3840,7 +4250,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
         File databaseDir = getDatabaseDir();
         File outputFile = getOutputFile();
 
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
         File OUTPUT_PATH = outputFile;
 
         try (Transaction tx = graphDb.beginTx()) {
@@ -3870,7 +4280,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
             e.printStackTrace();
             System.exit(1);
         }
-        graphDb.shutdown();
+        shutdownDatabase(graphDb);
     }
 
     ////////////////////////////
@@ -3879,7 +4289,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
     private void getIOs() throws IOException {
         File databaseDir = getDatabaseDir();
         File outputFile = getOutputFile();
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openDatabase();
         File OUTPUT_PATH = outputFile;
 
         try (Transaction tx = graphDb.beginTx()) {
@@ -3920,7 +4330,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
 
             out.close();
         }
-        graphDb.shutdown();
+        shutdownDatabase(graphDb);
 
     }
 
@@ -3947,7 +4357,7 @@ public class MeasuredDatabase extends EmbeddedNeo4jDatabase{
     void getXPuts(String uid, String io_decision_string) throws IOException {
         File databaseDir = getDatabaseDir();
         File outputFile = getOutputFile();
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openDatabase();
         File OUTPUT_PATH = outputFile;
 
 
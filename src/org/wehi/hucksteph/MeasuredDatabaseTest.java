@@ -4,6 +4,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.math3.random.EmpiricalDistribution;
 import org.junit.jupiter.api.Test;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
@@ -17,6 +18,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -994,4 +996,64 @@ class MeasuredDatabaseTest {
         }
 
     }
+
+    @Test
+    void neighbourLevelsTest() {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/NBHDLEVELS/");
+        File graph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/NBHDLEVELS/GRAPH/");
+
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(graph);
+        RelTypes[] types = {RelTypes.INPUT, RelTypes.OUTPUT, RelTypes.CONTROLS, RelTypes.CATALYSIS};
+        Random random = new Random(7);
+        List<Long> proteins = new ArrayList<>();
+        try(Transaction tx = graphDb.beginTx()){
+            List<Node> entities = new ArrayList<>();
+            List<Node> reactions = new ArrayList<>();
+            for (int i = 0; i < 150; i++) {
+                String type = i % 10 == 0 ? "SmallMolecule" : "Protein";
+                Node node = graphDb.createNode(Label.label(type), Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
+                node.setProperty(PropertyType.TYPE.toString(), type);
+                entities.add(node);
+                if (i % 10 != 0) {
+                    proteins.add(node.getId());
+                }
+            }
+            for (int i = 0; i < 80; i++) {
+                reactions.add(graphDb.createNode(Label.label("BiochemicalReaction")));
+            }
+            for (int i = 0; i < 250; i++) {
+                entities.get(random.nextInt(entities.size()))
+                        .createRelationshipTo(reactions.get(random.nextInt(reactions.size())), types[random.nextInt(types.length)]);
+            }
+            tx.success();
+        }
+
+        // each depth's neighbourhood, built from the levels of one traversal, iterates as its own traversal does
+        MeasuredDatabase mdb = new MeasuredDatabase(graph);
+        int mismatches = 0;
+        try(Transaction tx = graphDb.beginTx()){
+            for (long id : proteins) {
+                Node node = graphDb.getNodeById(id);
+                List<Node> found = new ArrayList<>();
+                int[] levelEnds = mdb.neighbourLevels(node, 4, graphDb, found);
+                HashSet<Node> nbhd = new HashSet<>();
+                for (int depth = 0; depth <= 4; depth++) {
+                    nbhd.addAll(found.subList(nbhd.size(), levelEnds[depth]));
+                    if (!new ArrayList<>(nbhd).equals(new ArrayList<>(mdb.neighbourTraversal(node, depth, graphDb)))) {
+                        mismatches++;
+                    }
+                }
+            }
+            tx.success();
+        }
+        graphDb.shutdown();
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        assertEquals(0, mismatches);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,193 @@
+package org.wehi.hucksteph;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The binomial neighbourhood analysis of one experiment, written to BinomialNeighbourhoods_[experiment].tsv and
+ * SigNeighbourhoods_[experiment].tsv. Each neighbourhood is found once and counted against every experiment in turn,
+ * so there is one of these per experiment, all writing at the same time. Neighbourhoods can be counted and tested on
+ * several threads, then written in order on one
+ */
+class NeighbourhoodExperiment implements Closeable {
+
+    static final String HEADER = "ID\tDispName\tUID\tPval\tBonfCorrected\tAvgSScore\tAvgAScore\tNumInNbhd\tNumMeasuredNbhd\tNumIntegrated\tNumUIDsInNBHD\tdbMeasured\tprobablility\n";
+
+    private final String name;
+    private final int dbMeasured;
+    private final double numInDb;
+    private final BinomialTail tails;
+    private final BufferedWriter out;
+    private final BufferedWriter sigOut;
+    private int numPvalSig = 0;
+    private int numBonfSig = 0;
+
+    /**
+     * @param name the experiment, without the score prefix
+     * @param outputFile the directory to write to
+     * @param dbMeasured the number of proteins and complexes measured in the experiment
+     * @param numInDb the number of proteins and complexes
+     * @param tails the p-values, shared between the experiments of a database
+     * @throws IOException
+     */
+    NeighbourhoodExperiment(String name, File outputFile, int dbMeasured, double numInDb, BinomialTail tails) throws IOException {
+        this.name = name;
+        this.dbMeasured = dbMeasured;
+        this.numInDb = numInDb;
+        this.tails = tails;
+        out = new BufferedWriter(new FileWriter(outputFile + "/BinomialNeighbourhoods_" + name + ".tsv"));
+        out.write(HEADER);
+        sigOut = new BufferedWriter(new FileWriter(outputFile + "/SigNeighbourhoods_" + name + ".tsv"));
+        sigOut.write(HEADER);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return a neighbourhood to count in this experiment, each worker counts its own
+     */
+    Neighbourhood newNeighbourhood() {
+        return new Neighbourhood();
+    }
+
+    /**
+     * Writes the row of a counted neighbourhood and counts it as significant or not, called in the order the rows
+     * are to be written
+     * @param neighbourhood
+     * @throws IOException
+     */
+    void write(Neighbourhood neighbourhood) throws IOException {
+        out.write(neighbourhood.row);
+        if (neighbourhood.pvalSig) {
+            numPvalSig++;
+        }
+        if (neighbourhood.bonfSig) {
+            numBonfSig++;
+            sigOut.write(neighbourhood.row);
+        }
+    }
+
+    /**
+     * One neighbourhood of this experiment, counted then tested
+     */
+    class Neighbourhood {
+        private int nbhdSize = 0;
+        private int nbhdMeasured = 0;
+        private int numIntegrated = 0;
+        private double ssSum = 0.0;
+        private double asSum = 0.0;
+        private HashSet<String> nbhdUids = new HashSet<>();
+
+        private String row;
+        private boolean pvalSig;
+        private boolean bonfSig;
+
+        /**
+         * Counts a node of the neighbourhood that has a score in this experiment, in the order the neighbourhood
+         * iterates
+         * @param supportScore
+         * @param abundanceScore
+         * @param integrated
+         * @param uids the UniProt ids of the node put together
+         */
+        void addMeasured(double supportScore, double abundanceScore, boolean integrated, String uids) {
+            if (supportScore > 0) {
+                nbhdMeasured++;
+            }
+            if (supportScore >= 0) {
+                ssSum += supportScore;
+                asSum += abundanceScore;
+            }
+            nbhdSize++;
+            if (integrated) {
+                numIntegrated++;
+            }
+            nbhdUids.add(uids);
+        }
+
+        /**
+         * Tests the neighbourhood counted so far and makes its row, only reads the experiment so is safe to call
+         * from several threads
+         * @param id the node id of the protein or complex the neighbourhood is around
+         * @param displayName
+         * @param uid
+         */
+        void finish(long id, String displayName, String uid) {
+            double size = nbhdSize;
+            double probability = size / numInDb;
+
+            Double pval = 0.0;
+            if (nbhdMeasured != 0) {
+                pval = tails.upperTail(dbMeasured, nbhdMeasured, probability);
+            }
+            Double bonfCorrected = pval * dbMeasured;
+
+            Double ssAvg = ssSum / nbhdSize;
+            Double asAvg = asSum / nbhdSize;
+
+            row = id + "\t" +
+                    displayName + "\t" +
+                    uid + "\t" +
+                    pval + "\t" +
+                    bonfCorrected + "\t" +
+                    ssAvg + "\t" +
+                    asAvg + "\t" +
+                    size + "\t" +
+                    nbhdMeasured + "\t" +
+                    numIntegrated + "\t" +
+                    nbhdUids.size() + "\t" +
+                    dbMeasured + "\t" +
+                    probability + "\n";
+            pvalSig = pval < 0.05;
+            bonfSig = bonfCorrected < 0.05 & size > 0.0 & ssAvg > 0.0;
+            nbhdUids = null;
+        }
+    }
+
+    /**
+     * Writes this experiment's part of BinomialNeighbourhoodsReport.tsv
+     * @param report
+     * @throws IOException
+     */
+    void writeReport(BufferedWriter report) throws IOException {
+        report.write("\n\nExperiment: " + name);
+        report.write("\nThe number of neighbourhoods tested: " + numInDb);
+        report.write("\nThe number of neighbourhoods with a p-value < 0.05: " + numPvalSig);
+        report.write("\nThe number of neighbourhoods with a Bonferroni corrected p-value < 0.05: " + numBonfSig);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+        sigOut.close();
+    }
+
+    /**
+     * Closes every writer of an analysis, carrying on past any that fail to close
+     * @throws IOException the first failure, with the rest suppressed
+     */
+    static void closeAll(List<Closeable> writers) throws IOException {
+        IOException failure = null;
+        for (Closeable writer : writers) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
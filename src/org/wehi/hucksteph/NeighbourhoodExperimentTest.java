@@ -0,0 +1,87 @@
+package org.wehi.hucksteph;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.math3.stat.inference.AlternativeHypothesis;
+import org.apache.commons.math3.stat.inference.BinomialTest;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NeighbourhoodExperimentTest {
+
+    File DATABASE_ACTUAL_PATH = new File("test/actual");
+
+    @Test
+    void testEveryExperimentIsScoredAgainstTheSameNeighbourhood() throws IOException {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/NBHDEXPERIMENT/");
+        tempDir.mkdirs();
+
+        BinomialTail tails = new BinomialTail(20);
+        NeighbourhoodExperiment expA = new NeighbourhoodExperiment("expA", tempDir, 10, 100.0, tails);
+        NeighbourhoodExperiment expB = new NeighbourhoodExperiment("expB", tempDir, 20, 100.0, tails);
+        NeighbourhoodExperiment.Neighbourhood a7 = expA.newNeighbourhood();
+        NeighbourhoodExperiment.Neighbourhood b7 = expB.newNeighbourhood();
+        a7.addMeasured(2.0, 1.0, true, "P1");
+        a7.addMeasured(-1.0, 5.0, false, "P2");
+        a7.addMeasured(4.0, 3.0, false, "P1");
+        b7.addMeasured(0.0, 2.0, false, "P2");
+        // a neighbourhood with nothing measured in it, finished first but written second
+        NeighbourhoodExperiment.Neighbourhood a8 = expA.newNeighbourhood();
+        a8.finish(8, "Protein8", "P8");
+        a7.finish(7, "Protein7", "P7");
+        b7.finish(7, "Protein7", "P7");
+        expA.write(a7);
+        expA.write(a8);
+        expB.write(b7);
+
+        BufferedWriter report = new BufferedWriter(new FileWriter(tempDir + "/report.tsv"));
+        expA.writeReport(report);
+        expB.writeReport(report);
+        report.close();
+        expA.close();
+        expB.close();
+
+        List<String> rowsA = FileUtils.readLines(new File(tempDir, "BinomialNeighbourhoods_expA.tsv"), "UTF-8");
+        List<String> rowsB = FileUtils.readLines(new File(tempDir, "BinomialNeighbourhoods_expB.tsv"), "UTF-8");
+        String reportText = FileUtils.readFileToString(new File(tempDir, "report.tsv"), "UTF-8");
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        double pval = tails.upperTail(10, 2, 0.03);
+        assertEquals(new BinomialTest().binomialTest(10, 2, 0.03, AlternativeHypothesis.GREATER_THAN), pval, BinomialTail.ABSOLUTE_TOLERANCE);
+        assertEquals(3, rowsA.size());
+        assertEquals("7\tProtein7\tP7\t" + pval + "\t" + pval * 10 + "\t" + 2.0 + "\t" + 4.0/3 + "\t3.0\t2\t1\t2\t10\t0.03", rowsA.get(1));
+        assertEquals("8\tProtein8\tP8\t0.0\t0.0\tNaN\tNaN\t0.0\t0\t0\t0\t10\t0.0", rowsA.get(2));
+        assertEquals("7\tProtein7\tP7\t0.0\t0.0\t0.0\t2.0\t1.0\t0\t0\t1\t20\t0.01", rowsB.get(1));
+        assertTrue(reportText.startsWith("\n\nExperiment: expA\nThe number of neighbourhoods tested: 100.0"));
+        assertTrue(reportText.contains("\n\nExperiment: expB"));
+    }
+
+    @Test
+    void testCloseAllClosesPastFailures() {
+        List<String> closed = new ArrayList<>();
+        List<Closeable> writers = Arrays.asList(
+                () -> closed.add("a"),
+                () -> { throw new IOException("b"); },
+                () -> closed.add("c"),
+                () -> { throw new IOException("d"); });
+
+        IOException thrown = assertThrows(IOException.class, () -> NeighbourhoodExperiment.closeAll(writers));
+        assertEquals(Arrays.asList("a", "c"), closed);
+        assertEquals("b", thrown.getMessage());
+        assertEquals("d", thrown.getSuppressed()[0].getMessage());
+    }
+}
@@ -0,0 +1,322 @@
+package org.wehi.hucksteph;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.traversal.Evaluators;
+import org.neo4j.graphdb.traversal.TraversalDescription;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The depth-k neighbourhood of every protein and complex, as found by MeasuredDatabase.neighbourTraversal, kept in
+ * [database].nbhd[k] next to the database. Each neighbourhood is kept in the order the traversal found it, so a set
+ * built from it iterates the same as one built by the traversal, as variable length zig-zag id deltas behind an
+ * offset table. The file holds a fingerprint of the topology it was built from, mapping an experiment doesn't change
+ * it but a new relationship or small molecule does
+ */
+public class NeighbourhoodIndex {
+
+    private static final int MAGIC = 0x4E424844;
+    private static final int VERSION = 1;
+    private static final int CHUNK = 256;
+
+    // the index last asked for of each index file, with the transaction its topology was checked at
+    private static final HashMap<String, NeighbourhoodIndex> loaded = new HashMap<>();
+    private static final HashMap<String, Long> loadedAt = new HashMap<>();
+
+    private final int depth;
+    private final long topology;
+    // sorted start node ids, the neighbourhood of starts[i] is data[offsets[i]] to data[offsets[i + 1]]
+    private final long[] starts;
+    private final int[] offsets;
+    private final byte[] data;
+
+    private NeighbourhoodIndex(int depth, long topology, long[] starts, int[] offsets, byte[] data) {
+        this.depth = depth;
+        this.topology = topology;
+        this.starts = starts;
+        this.offsets = offsets;
+        this.data = data;
+    }
+
+    /**
+     * Finds the neighbourhood of every protein and complex on [threads] workers, each in its own read transaction
+     * @param graphDb
+     * @param depth
+     * @param threads
+     * @return
+     */
+    public static NeighbourhoodIndex build(GraphDatabaseService graphDb, int depth, int threads) {
+        long topology;
+        long[] starts;
+        try (Transaction tx = graphDb.beginTx()) {
+            topology = topologyFingerprint(graphDb);
+            NodeClasses classes = NodeClasses.of(graphDb);
+            List<Long> ids = new ArrayList<>();
+            for (Node node : graphDb.getAllNodes()) {
+                if (classes.is(node, GraphSnapshot.CLASS_PROTEIN) || classes.is(node, GraphSnapshot.CLASS_COMPLEX)) {
+                    ids.add(node.getId());
+                }
+            }
+            starts = new long[ids.size()];
+            for (int i = 0; i < starts.length; i++) {
+                starts[i] = ids.get(i);
+            }
+            Arrays.sort(starts);
+            tx.success();
+        }
+
+        // each chunk of starts is encoded by one task, then they are put together in order
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<ForkJoinTask<ByteArrayOutputStream>> tasks = new ArrayList<>();
+        int[] lengths = new int[starts.length];
+        for (int from = 0; from < starts.length; from += CHUNK) {
+            final int first = from;
+            final int last = Math.min(from + CHUNK, starts.length);
+            tasks.add(pool.submit(() -> encodeChunk(graphDb, depth, starts, first, last, lengths)));
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try {
+            for (ForkJoinTask<ByteArrayOutputStream> task : tasks) {
+                task.get().writeTo(data);
+            }
+        } catch (InterruptedException | ExecutionException | IOException e) {
+            throw new IllegalStateException("Could not build the neighbourhood index", e);
+        } finally {
+            pool.shutdown();
+        }
+        int[] offsets = new int[starts.length + 1];
+        for (int i = 0; i < starts.length; i++) {
+            offsets[i + 1] = offsets[i] + lengths[i];
+        }
+        return new NeighbourhoodIndex(depth, topology, starts, offsets, data.toByteArray());
+    }
+
+    private static ByteArrayOutputStream encodeChunk(GraphDatabaseService graphDb, int depth, long[] starts,
+                                                     int first, int last, int[] lengths) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Transaction tx = graphDb.beginTx()) {
+            TraversalDescription td = TraversalProfile.NEIGHBOURHOOD.describe(graphDb)
+                    .evaluator(Evaluators.toDepth(depth));
+            for (int i = first; i < last; i++) {
+                int before = bytes.size();
+                long lastId = 0;
+                for (Path path : td.traverse(graphDb.getNodeById(starts[i]))) {
+                    long id = path.endNode().getId();
+                    writeVarLong(bytes, zigzag(id - lastId));
+                    lastId = id;
+                }
+                lengths[i] = bytes.size() - before;
+            }
+            tx.success();
+        }
+        return bytes;
+    }
+
+    /**
+     * A fingerprint of what neighbourhoods depend on: the relationships the neighbourhood profile follows and which
+     * nodes are small molecules. Must be called inside a transaction
+     * @param graphDb
+     * @return
+     */
+    static long topologyFingerprint(GraphDatabaseService graphDb) {
+        Set<RelationshipType> types = TraversalProfile.NEIGHBOURHOOD.getRelationships().keySet();
+        HashSet<String> typeNames = new HashSet<>();
+        for (RelationshipType type : types) {
+            typeNames.add(type.name());
+        }
+        long hash = 17;
+        for (Relationship relationship : graphDb.getAllRelationships()) {
+            if (typeNames.contains(relationship.getType().name())) {
+                hash = mix(hash, relationship.getId());
+                hash = mix(hash, relationship.getType().name().hashCode());
+                hash = mix(hash, relationship.getStartNodeId());
+                hash = mix(hash, relationship.getEndNodeId());
+            }
+        }
+        BitSet smallMolecules = TraversalProfile.smallMolecules(graphDb);
+        for (int id = smallMolecules.nextSetBit(0); id >= 0; id = smallMolecules.nextSetBit(id + 1)) {
+            hash = mix(hash, id);
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        long z = hash * 0x9E3779B97F4A7C15L + value;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @param databaseDir
+     * @param depth
+     * @return where the index of a database and depth is kept
+     */
+    static File indexFile(File databaseDir, int depth) {
+        File dir = databaseDir.getAbsoluteFile().toPath().normalize().toFile();
+        return new File(dir.getParentFile(), dir.getName() + ".nbhd" + depth);
+    }
+
+    /**
+     * The index of an open database at a depth, loaded once and checked again only after the database is written to.
+     * Must be called inside a transaction
+     * @param graphDb
+     * @param depth
+     * @return null if no index was built for the depth or the topology has changed since
+     */
+    static synchronized NeighbourhoodIndex of(GraphDatabaseService graphDb, int depth) {
+        File file = indexFile(((GraphDatabaseAPI) graphDb).databaseLayout().databaseDirectory(), depth);
+        String key = key(file);
+        long fingerprint = EmbeddedNeo4jDatabase.fingerprint(graphDb);
+        Long checkedAt = loadedAt.get(key);
+        if (checkedAt != null && checkedAt == fingerprint) {
+            return loaded.get(key);
+        }
+
+        NeighbourhoodIndex index = loaded.get(key);
+        if (index != null || file.exists()) {
+            long topology = topologyFingerprint(graphDb);
+            if (index == null || index.topology != topology) {
+                try {
+                    index = load(file, depth, topology);
+                } catch (IOException e) {
+                    System.out.println("Could not read the neighbourhood index " + file + ": " + e.getMessage());
+                    index = null;
+                }
+                if (index == null) {
+                    System.out.println("The neighbourhood index " + file + " is out of date, run BuildNeighbourhoodIndex again");
+                }
+            }
+        }
+        loaded.put(key, index);
+        loadedAt.put(key, fingerprint);
+        return index;
+    }
+
+    /**
+     * @param nodeId
+     * @return the ids of the node's neighbourhood in the order they were found, starting with the node, or null if
+     * the node is not a protein or complex
+     */
+    public long[] get(long nodeId) {
+        int i = Arrays.binarySearch(starts, nodeId);
+        if (i < 0) {
+            return null;
+        }
+        long[] ids = new long[16];
+        int size = 0;
+        long lastId = 0;
+        int position = offsets[i];
+        while (position < offsets[i + 1]) {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = data[position++] & 0xFF;
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            lastId += unzigzag(value);
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = lastId;
+        }
+        return Arrays.copyOf(ids, size);
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the number of neighbourhoods
+     */
+    public int size() {
+        return starts.length;
+    }
+
+    private static String key(File indexFile) {
+        return indexFile.getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    /**
+     * Writes the index to a file, and keeps it as the index of that file so a database held open by Serve uses it
+     * from the next analysis on
+     * @param indexFile
+     * @throws IOException
+     */
+    public void save(File indexFile) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(topology);
+            out.writeInt(depth);
+            out.writeInt(starts.length);
+            out.writeInt(data.length);
+            for (long start : starts) {
+                out.writeLong(start);
+            }
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+            out.write(data);
+        }
+        // checked against the topology the next time it is asked for, instead of a cached "no index"
+        synchronized (NeighbourhoodIndex.class) {
+            loaded.put(key(indexFile), this);
+            loadedAt.remove(key(indexFile));
+        }
+    }
+
+    /**
+     * Reads an index written by save
+     * @param indexFile
+     * @param depth
+     * @param topology the topology fingerprint of the graph now
+     * @return null if there is no index or it was built at another depth or from a different topology
+     * @throws IOException
+     */
+    public static NeighbourhoodIndex load(File indexFile, int depth, long topology) throws IOException {
+        if (!indexFile.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != topology || in.readInt() != depth) {
+                return null;
+            }
+            long[] starts = new long[in.readInt()];
+            byte[] data = new byte[in.readInt()];
+            int[] offsets = new int[starts.length + 1];
+            for (int i = 0; i < starts.length; i++) {
+                starts[i] = in.readLong();
+            }
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = in.readInt();
+            }
+            in.readFully(data);
+            return new NeighbourhoodIndex(depth, topology, starts, offsets, data);
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
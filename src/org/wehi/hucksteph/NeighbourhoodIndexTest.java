@@ -0,0 +1,152 @@
+package org.wehi.hucksteph;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.traversal.Evaluators;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NeighbourhoodIndexTest {
+
+    File DATABASE_ACTUAL_PATH = new File("test/actual");
+
+    @Test
+    void testIndexMatchesTraversalUntilTopologyChanges() throws IOException {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/NBHDINDEX/");
+        File graph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/NBHDINDEX/GRAPH/");
+
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(graph);
+        RelTypes[] types = {RelTypes.INPUT, RelTypes.OUTPUT, RelTypes.CONTROLS, RelTypes.CATALYSIS};
+        Random random = new Random(3);
+        long someProtein;
+        try(Transaction tx = graphDb.beginTx()){
+            List<Node> entities = new ArrayList<>();
+            List<Node> reactions = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String type = i % 10 == 0 ? "SmallMolecule" : i % 3 == 0 ? "Complex" : "Protein";
+                Node node = graphDb.createNode(Label.label(type), Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
+                node.setProperty(PropertyType.TYPE.toString(), type);
+                entities.add(node);
+            }
+            for (int i = 0; i < 100; i++) {
+                Node reaction = graphDb.createNode(Label.label("BiochemicalReaction"), Label.label(LabelTypes.INTERACTION.toString()));
+                reaction.setProperty(PropertyType.TYPE.toString(), "BiochemicalReaction");
+                reactions.add(reaction);
+            }
+            for (int i = 0; i < 300; i++) {
+                entities.get(random.nextInt(entities.size()))
+                        .createRelationshipTo(reactions.get(random.nextInt(reactions.size())), types[random.nextInt(types.length)]);
+            }
+            someProtein = entities.get(1).getId();
+            tx.success();
+        }
+
+        NeighbourhoodIndex.build(graphDb, 2, 2).save(NeighbourhoodIndex.indexFile(graph, 2));
+
+        int checked = 0;
+        int mismatches = 0;
+        NeighbourhoodIndex afterMapping;
+        NeighbourhoodIndex afterNewRelationship;
+        NeighbourhoodIndex otherDepth;
+        try(Transaction tx = graphDb.beginTx()){
+            NeighbourhoodIndex index = NeighbourhoodIndex.of(graphDb, 2);
+            otherDepth = NeighbourhoodIndex.of(graphDb, 3);
+            for (Node node : graphDb.getAllNodes()) {
+                long[] ids = index.get(node.getId());
+                if (ids == null) {
+                    continue;
+                }
+                List<Long> found = new ArrayList<>();
+                for (Path path : TraversalProfile.NEIGHBOURHOOD.describe(graphDb).evaluator(Evaluators.toDepth(2)).traverse(node)) {
+                    found.add(path.endNode().getId());
+                }
+                List<Long> kept = new ArrayList<>();
+                for (long id : ids) {
+                    kept.add(id);
+                }
+                if (!found.equals(kept)) {
+                    mismatches++;
+                }
+                checked++;
+            }
+            tx.success();
+        }
+        // scores don't change neighbourhoods
+        try(Transaction tx = graphDb.beginTx()){
+            graphDb.getNodeById(someProtein).setProperty("SUPPORT_SCORE_expA", 1.0);
+            tx.success();
+        }
+        try(Transaction tx = graphDb.beginTx()){
+            afterMapping = NeighbourhoodIndex.of(graphDb, 2);
+            tx.success();
+        }
+        try(Transaction tx = graphDb.beginTx()){
+            Node reaction = graphDb.createNode(Label.label("BiochemicalReaction"));
+            graphDb.getNodeById(someProtein).createRelationshipTo(reaction, RelTypes.INPUT);
+            tx.success();
+        }
+        try(Transaction tx = graphDb.beginTx()){
+            afterNewRelationship = NeighbourhoodIndex.of(graphDb, 2);
+            tx.success();
+        }
+        graphDb.shutdown();
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        assertEquals(180, checked);
+        assertEquals(0, mismatches);
+        assertNull(otherDepth);
+        assertNotNull(afterMapping);
+        assertNull(afterNewRelationship);
+    }
+
+    @Test
+    void testSavedIndexIsUsedByAnOpenDatabase() throws IOException {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/NBHDINDEX/");
+        File graph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/NBHDINDEX/GRAPH/");
+
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(graph);
+        try(Transaction tx = graphDb.beginTx()){
+            Node protein = graphDb.createNode(Label.label("Protein"), Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
+            protein.setProperty(PropertyType.TYPE.toString(), "Protein");
+            Node reaction = graphDb.createNode(Label.label("BiochemicalReaction"), Label.label(LabelTypes.INTERACTION.toString()));
+            reaction.setProperty(PropertyType.TYPE.toString(), "BiochemicalReaction");
+            protein.createRelationshipTo(reaction, RelTypes.INPUT);
+            tx.success();
+        }
+
+        // as Serve does, the database stays open while the index is built and used
+        NeighbourhoodIndex before;
+        NeighbourhoodIndex after;
+        try(Transaction tx = graphDb.beginTx()){
+            before = NeighbourhoodIndex.of(graphDb, 1);
+            tx.success();
+        }
+        NeighbourhoodIndex built = NeighbourhoodIndex.build(graphDb, 1, 1);
+        built.save(NeighbourhoodIndex.indexFile(graph, 1));
+        try(Transaction tx = graphDb.beginTx()){
+            after = NeighbourhoodIndex.of(graphDb, 1);
+            tx.success();
+        }
+        graphDb.shutdown();
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        assertNull(before);
+        assertSame(built, after);
+    }
+}
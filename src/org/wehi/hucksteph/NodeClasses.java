@@ -0,0 +1,118 @@
+package org.wehi.hucksteph;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+
+/**
+ * The class code (GraphSnapshot.CLASS_*) and flags (GraphSnapshot.FLAG_*) of every node, read once per topology of
+ * the database so the report counters don't read labels and properties from the store for every node they count
+ */
+public class NodeClasses {
+
+    private static final Label PHYSICAL_ENTITY = Label.label(LabelTypes.PHYSICAL_ENTITY.toString());
+    private static final Label INTERACTION = Label.label(LabelTypes.INTERACTION.toString());
+
+    // the classes of the last database asked for, and the topology they were read at
+    private static GraphDatabaseService cachedDb = null;
+    private static long cachedTopology = -1;
+    private static NodeClasses cached = null;
+
+    private final byte[] classCodes;
+    private final int[] flags;
+
+    private NodeClasses(byte[] classCodes, int[] flags) {
+        this.classCodes = classCodes;
+        this.flags = flags;
+    }
+
+    /**
+     * The classes of every node in the database, read again only once its topology changes, mapping or resetting an
+     * experiment doesn't change them. Must be called inside a transaction
+     * @param graphDb
+     * @return
+     */
+    public static synchronized NodeClasses of(GraphDatabaseService graphDb) {
+        long topology = EmbeddedNeo4jDatabase.topology(graphDb);
+        if (cached == null || cachedDb != graphDb || cachedTopology != topology) {
+            int nodeCount = 0;
+            for (Node node : graphDb.getAllNodes()) {
+                nodeCount = (int) Math.max(nodeCount, node.getId() + 1);
+            }
+            byte[] classCodes = new byte[nodeCount];
+            int[] flags = new int[nodeCount];
+            for (Node node : graphDb.getAllNodes()) {
+                classCodes[(int) node.getId()] = GraphSnapshot.classCode(node);
+                flags[(int) node.getId()] = flagsOf(node);
+            }
+            cached = new NodeClasses(classCodes, flags);
+            cachedDb = graphDb;
+            cachedTopology = topology;
+        }
+        return cached;
+    }
+
+    /**
+     * Reads the flags of a node from the store
+     * @param node
+     * @return a bit for each flag the node has
+     */
+    static int flagsOf(Node node) {
+        int flags = 0;
+        if (node.hasProperty(PropertyType.KINASE.toString())) {
+            flags |= 1 << GraphSnapshot.FLAG_KINASE;
+        }
+        if (node.hasProperty(PropertyType.TRANSCRIPTION_FACTOR.toString())) {
+            flags |= 1 << GraphSnapshot.FLAG_TRANSCRIPTION_FACTOR;
+        }
+        if (node.hasProperty(PropertyType.CELL_SURFACE_RECEPTOR.toString())) {
+            flags |= 1 << GraphSnapshot.FLAG_CELL_SURFACE_RECEPTOR;
+        }
+        if (node.hasProperty(PropertyType.INTEGRATED.toString())) {
+            flags |= 1 << GraphSnapshot.FLAG_INTEGRATED;
+        }
+        if (node.hasLabel(PHYSICAL_ENTITY)) {
+            flags |= 1 << GraphSnapshot.FLAG_PHYSICAL_ENTITY;
+        }
+        if (node.hasLabel(INTERACTION)) {
+            flags |= 1 << GraphSnapshot.FLAG_INTERACTION;
+        }
+        if (node.hasRelationship(RelTypes.PHOSPHORYLATION)) {
+            flags |= 1 << GraphSnapshot.FLAG_PHOSPHORYLATED;
+        }
+        return flags;
+    }
+
+    /**
+     * @param node
+     * @return the node's GraphSnapshot.CLASS_* code
+     */
+    public byte classCode(Node node) {
+        long id = node.getId();
+        if (id < classCodes.length) {
+            return classCodes[(int) id];
+        }
+        // made after the classes were read
+        return GraphSnapshot.classCode(node);
+    }
+
+    /**
+     * @param node
+     * @param classCode a GraphSnapshot.CLASS_* code
+     * @return true if the node is of that class
+     */
+    public boolean is(Node node, byte classCode) {
+        return classCode(node) == classCode;
+    }
+
+    /**
+     * @param node
+     * @param flag a GraphSnapshot.FLAG_*
+     * @return true if the node has the flag
+     */
+    public boolean hasFlag(Node node, int flag) {
+        long id = node.getId();
+        int nodeFlags = id < flags.length ? flags[(int) id] : flagsOf(node);
+        return (nodeFlags & (1 << flag)) != 0;
+    }
+}
@@ -0,0 +1,107 @@
+package org.wehi.hucksteph;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NodeClassesTest {
+
+    File DATABASE_ACTUAL_PATH = new File("test/actual");
+
+    @Test
+    void testClassesMatchLabelsAndProperties() {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/NODECLASSES/");
+        File graph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/NODECLASSES/GRAPH/");
+
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(graph);
+        long protId;
+        long cplxId;
+        long modId;
+        long uidId;
+        long rxnId;
+        try(Transaction tx = graphDb.beginTx()){
+            Node prot = graphDb.createNode(Label.label("Protein"), Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
+            prot.setProperty(PropertyType.TYPE.toString(), "Protein");
+            prot.setProperty(PropertyType.KINASE.toString(), "true");
+            Node cplx = graphDb.createNode(Label.label("Complex"), Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
+            cplx.setProperty(PropertyType.TYPE.toString(), "Complex");
+            Node mod = graphDb.createNode(Label.label(LabelTypes.PHOSPHORYLATION.toString()));
+            mod.createRelationshipTo(prot, RelTypes.PHOSPHORYLATION);
+            Node uid = graphDb.createNode(Label.label(LabelTypes.UNIPROT_ID.toString()));
+            Node rxn = graphDb.createNode(Label.label("BiochemicalReaction"), Label.label(LabelTypes.INTERACTION.toString()));
+            rxn.setProperty(PropertyType.TYPE.toString(), "BiochemicalReaction");
+            protId = prot.getId();
+            cplxId = cplx.getId();
+            modId = mod.getId();
+            uidId = uid.getId();
+            rxnId = rxn.getId();
+            tx.success();
+        }
+
+        NodeClasses before;
+        NodeClasses after;
+        boolean kinase;
+        boolean complexIntegrated;
+        boolean complexIntegratedAfter;
+        byte[] codes = new byte[5];
+        try(Transaction tx = graphDb.beginTx()){
+            before = NodeClasses.of(graphDb);
+            assertSame(before, NodeClasses.of(graphDb));
+            codes[0] = before.classCode(graphDb.getNodeById(protId));
+            codes[1] = before.classCode(graphDb.getNodeById(cplxId));
+            codes[2] = before.classCode(graphDb.getNodeById(modId));
+            codes[3] = before.classCode(graphDb.getNodeById(uidId));
+            codes[4] = before.classCode(graphDb.getNodeById(rxnId));
+            kinase = before.hasFlag(graphDb.getNodeById(protId), GraphSnapshot.FLAG_KINASE)
+                    && before.hasFlag(graphDb.getNodeById(protId), GraphSnapshot.FLAG_PHOSPHORYLATED)
+                    && before.hasFlag(graphDb.getNodeById(protId), GraphSnapshot.FLAG_PHYSICAL_ENTITY)
+                    && before.hasFlag(graphDb.getNodeById(rxnId), GraphSnapshot.FLAG_INTERACTION)
+                    && !before.hasFlag(graphDb.getNodeById(cplxId), GraphSnapshot.FLAG_KINASE);
+            complexIntegrated = before.hasFlag(graphDb.getNodeById(cplxId), GraphSnapshot.FLAG_INTEGRATED);
+            tx.success();
+        }
+        // mapping an experiment only writes scores, the classes are kept
+        boolean keptAfterMapping;
+        try(Transaction tx = graphDb.beginTx()){
+            graphDb.getNodeById(protId).setProperty("SUPPORT_SCORE_0", 1.0);
+            tx.success();
+        }
+        try(Transaction tx = graphDb.beginTx()){
+            keptAfterMapping = NodeClasses.of(graphDb) == before;
+            tx.success();
+        }
+        // the complex is integrated as IntegratePSP does, the classes have to be read again
+        try(Transaction tx = graphDb.beginTx()){
+            graphDb.getNodeById(cplxId).setProperty(PropertyType.INTEGRATED.toString(), "true");
+            tx.success();
+        }
+        EmbeddedNeo4jDatabase.topologyChanged(graph);
+        try(Transaction tx = graphDb.beginTx()){
+            after = NodeClasses.of(graphDb);
+            complexIntegratedAfter = after.hasFlag(graphDb.getNodeById(cplxId), GraphSnapshot.FLAG_INTEGRATED);
+            tx.success();
+        }
+        graphDb.shutdown();
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        assertArrayEquals(new byte[]{GraphSnapshot.CLASS_PROTEIN, GraphSnapshot.CLASS_COMPLEX,
+                GraphSnapshot.CLASS_PHOSPHORYLATION, GraphSnapshot.CLASS_UNIPROT_ID,
+                GraphSnapshot.CLASS_BIOCHEMICAL_REACTION}, codes);
+        assertTrue(kinase);
+        assertTrue(keptAfterMapping);
+        assertFalse(complexIntegrated);
+        assertNotSame(before, after);
+        assertTrue(complexIntegratedAfter);
+    }
+}
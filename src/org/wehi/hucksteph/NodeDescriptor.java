@@ -0,0 +1,74 @@
+package org.wehi.hucksteph;
+
+import org.neo4j.graphdb.Label;
+
+import java.util.*;
+
+/**
+ * An immutable description of a physical entity or interaction node, worked out from the biopax model
+ * before anything is written. Proteins also carry their UniProt id nodes and phosphorylation/modification nodes
+ */
+public class NodeDescriptor {
+
+    private final String id;
+    private final List<String> labels;
+    private final Map<String, Object> properties;
+    private final List<Map<String, Object>> uids;
+    private final List<NodeDescriptor> modifications;
+
+    /**
+     * @param id the biopax RDF id of the entity
+     * @param labels the node labels, the biopax class label first
+     * @param properties the node properties
+     * @param uids the properties of each UniProt id node to attach with ID_BELONGS_TO
+     * @param modifications the PHOSPHORYLATION and MODIFICATION nodes to attach
+     */
+    public NodeDescriptor(String id, List<String> labels, Map<String, Object> properties,
+                          List<Map<String, Object>> uids, List<NodeDescriptor> modifications) {
+        this.id = id;
+        this.labels = Collections.unmodifiableList(new ArrayList<>(labels));
+        this.properties = Collections.unmodifiableMap(new LinkedHashMap<>(properties));
+        this.uids = Collections.unmodifiableList(new ArrayList<>(uids));
+        this.modifications = Collections.unmodifiableList(new ArrayList<>(modifications));
+    }
+
+    public NodeDescriptor(String id, List<String> labels, Map<String, Object> properties) {
+        this(id, labels, properties, Collections.emptyList(), Collections.emptyList());
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public List<String> getLabels() {
+        return labels;
+    }
+
+    public String getClassLabel() {
+        return labels.get(0);
+    }
+
+    public Label[] getNeo4jLabels() {
+        Label[] neo4jLabels = new Label[labels.size()];
+        for (int i = 0; i < labels.size(); i++) {
+            neo4jLabels[i] = Label.label(labels.get(i));
+        }
+        return neo4jLabels;
+    }
+
+    public String getDbId() {
+        return properties.get(PropertyType.DB_ID.toString()).toString();
+    }
+
+    public Map<String, Object> getProperties() {
+        return properties;
+    }
+
+    public List<Map<String, Object>> getUids() {
+        return uids;
+    }
+
+    public List<NodeDescriptor> getModifications() {
+        return modifications;
+    }
+}
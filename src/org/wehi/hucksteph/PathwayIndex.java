@@ -0,0 +1,114 @@
+package org.wehi.hucksteph;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+import java.util.*;
+
+/**
+ * The pathways each node is a component of, read once per topology. Pathways are numbered densely by display name,
+ * in name order, so the pathways a set of nodes touches is the OR of their members into a bitset and the number of
+ * them is its cardinality
+ */
+public class PathwayIndex {
+
+    // the index of the last database asked for, and the topology it was read at
+    private static GraphDatabaseService cachedDb = null;
+    private static long cachedTopology = -1;
+    private static PathwayIndex cached = null;
+
+    private final String[] names;
+    // the pathways of node n are pathways[offsets[n]] to pathways[offsets[n + 1]]
+    private final int[] offsets;
+    private final int[] pathways;
+
+    private PathwayIndex(String[] names, int[] offsets, int[] pathways) {
+        this.names = names;
+        this.offsets = offsets;
+        this.pathways = pathways;
+    }
+
+    /**
+     * The pathway index of the database, read again only once its topology changes, mapping or resetting an
+     * experiment doesn't change it. Must be called inside a transaction
+     * @param graphDb
+     * @return
+     */
+    public static synchronized PathwayIndex of(GraphDatabaseService graphDb) {
+        long topology = EmbeddedNeo4jDatabase.topology(graphDb);
+        if (cached == null || cachedDb != graphDb || cachedTopology != topology) {
+            cached = build(graphDb);
+            cachedDb = graphDb;
+            cachedTopology = topology;
+        }
+        return cached;
+    }
+
+    private static PathwayIndex build(GraphDatabaseService graphDb) {
+        // pathway display names, numbered once they are sorted
+        TreeMap<String, Integer> ids = new TreeMap<>();
+        int nodeCount = 0;
+        for (Relationship relationship : graphDb.getAllRelationships()) {
+            if (relationship.isType(RelTypes.PATHWAY_COMPONENT)) {
+                ids.put(relationship.getStartNode().getProperty(PropertyType.DISPLAY_NAME.toString()).toString(), 0);
+                nodeCount = (int) Math.max(nodeCount, relationship.getEndNodeId() + 1);
+            }
+        }
+        String[] names = ids.keySet().toArray(new String[0]);
+        for (int i = 0; i < names.length; i++) {
+            ids.put(names[i], i);
+        }
+
+        // a sorted, distinct list of pathway ids per component
+        HashMap<Long, TreeSet<Integer>> members = new HashMap<>();
+        for (Relationship relationship : graphDb.getAllRelationships()) {
+            if (relationship.isType(RelTypes.PATHWAY_COMPONENT)) {
+                Integer id = ids.get(relationship.getStartNode().getProperty(PropertyType.DISPLAY_NAME.toString()).toString());
+                members.computeIfAbsent(relationship.getEndNodeId(), k -> new TreeSet<>()).add(id);
+            }
+        }
+        int[] offsets = new int[nodeCount + 1];
+        for (Map.Entry<Long, TreeSet<Integer>> entry : members.entrySet()) {
+            offsets[(int) (long) entry.getKey() + 1] = entry.getValue().size();
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            offsets[n + 1] += offsets[n];
+        }
+        int[] pathways = new int[offsets[nodeCount]];
+        for (Map.Entry<Long, TreeSet<Integer>> entry : members.entrySet()) {
+            int i = offsets[(int) (long) entry.getKey()];
+            for (Integer id : entry.getValue()) {
+                pathways[i++] = id;
+            }
+        }
+        return new PathwayIndex(names, offsets, pathways);
+    }
+
+    /**
+     * Sets the bits of the pathways a node is a component of
+     * @param node
+     * @param touched
+     */
+    public void addPathways(Node node, BitSet touched) {
+        long id = node.getId();
+        if (id + 1 >= offsets.length) {
+            return;
+        }
+        for (int i = offsets[(int) id]; i < offsets[(int) id + 1]; i++) {
+            touched.set(pathways[i]);
+        }
+    }
+
+    /**
+     * @param pathway a bit set by addPathways
+     * @return the pathway's display name
+     */
+    public String getName(int pathway) {
+        return names[pathway];
+    }
+
+    public int getPathwayCount() {
+        return names.length;
+    }
+}
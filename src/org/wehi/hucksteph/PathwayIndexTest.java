@@ -0,0 +1,85 @@
+package org.wehi.hucksteph;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PathwayIndexTest {
+
+    File DATABASE_ACTUAL_PATH = new File("test/actual");
+
+    private Node pathway(GraphDatabaseService graphDb, String name){
+        Node node = graphDb.createNode(Label.label(LabelTypes.PATHWAY.toString()));
+        node.setProperty(PropertyType.DISPLAY_NAME.toString(), name);
+        return node;
+    }
+
+    @Test
+    void testPathwaysAreCountedOncePerName() {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/PATHWAYINDEX/");
+        File graph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/PATHWAYINDEX/GRAPH/");
+
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(graph);
+        long aId;
+        long bId;
+        long cId;
+        try(Transaction tx = graphDb.beginTx()){
+            Node insulin = pathway(graphDb, "Insulin signalling");
+            Node glucose = pathway(graphDb, "Glucose uptake");
+            // two pathway nodes with the same name are one pathway
+            Node insulinAgain = pathway(graphDb, "Insulin signalling");
+            Node a = graphDb.createNode(Label.label("Protein"));
+            Node b = graphDb.createNode(Label.label("Protein"));
+            Node c = graphDb.createNode(Label.label("Protein"));
+            insulin.createRelationshipTo(a, RelTypes.PATHWAY_COMPONENT);
+            glucose.createRelationshipTo(a, RelTypes.PATHWAY_COMPONENT);
+            insulinAgain.createRelationshipTo(b, RelTypes.PATHWAY_COMPONENT);
+            aId = a.getId();
+            bId = b.getId();
+            cId = c.getId();
+            tx.success();
+        }
+
+        BitSet touchedByB = new BitSet();
+        BitSet touchedByC = new BitSet();
+        BitSet touched = new BitSet();
+        List<String> names = new ArrayList<>();
+        int pathwayCount;
+        try(Transaction tx = graphDb.beginTx()){
+            PathwayIndex index = PathwayIndex.of(graphDb);
+            index.addPathways(graphDb.getNodeById(bId), touchedByB);
+            index.addPathways(graphDb.getNodeById(cId), touchedByC);
+            for (long id : new long[]{aId, bId, cId}) {
+                index.addPathways(graphDb.getNodeById(id), touched);
+            }
+            for (int i = touched.nextSetBit(0); i >= 0; i = touched.nextSetBit(i + 1)) {
+                names.add(index.getName(i));
+            }
+            pathwayCount = index.getPathwayCount();
+            tx.success();
+        }
+        graphDb.shutdown();
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        assertEquals(2, pathwayCount);
+        assertEquals(1, touchedByB.cardinality());
+        assertTrue(touchedByC.isEmpty());
+        assertEquals(2, touched.cardinality());
+        assertEquals("Glucose uptake", names.get(0));
+        assertEquals("Insulin signalling", names.get(1));
+    }
+}
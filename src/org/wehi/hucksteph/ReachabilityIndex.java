@@ -0,0 +1,505 @@
+package org.wehi.hucksteph;
+
+import org.neo4j.graphdb.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * Reachability over one direction of the graph. The relationships followed are condensed into strongly connected
+ * components, every node in a component reaches the same nodes, so the reachable set sizes of all nodes come from one
+ * pass over the component DAG instead of a traversal from each node.
+ * Each component also gets two interval labels over the DAG, a component can only reach components whose intervals
+ * sit inside its own, which answers most reaches queries without a search
+ */
+public class ReachabilityIndex {
+
+    private static final int MAGIC = 0x52524958;
+    private static final int VERSION = 1;
+
+    // longs of reachable-node bits kept per component in one pass of countReachable
+    static int maxMaskWords = 8 * 1024 * 1024;
+
+    private final int nodeCount;
+    private final int[] component;
+    private final int[] componentSize;
+    private final int[] dagOffsets;
+    private final int[] dagTargets;
+    private int[] reachableCounts = null;
+
+    // the first labelling ranks components by their number, the second by a depth first post order
+    private final int[] low;
+    private final int[] postOrder;
+    private final int[] postOrderLow;
+
+    // components visited by the current reaches search
+    private int[] visited = null;
+    private int[] searchStack = null;
+    private int search = 0;
+
+    private ReachabilityIndex(int nodeCount, int[] component, int[] componentSize, int[] dagOffsets, int[] dagTargets) {
+        this.nodeCount = nodeCount;
+        this.component = component;
+        this.componentSize = componentSize;
+        this.dagOffsets = dagOffsets;
+        this.dagTargets = dagTargets;
+
+        int components = componentSize.length;
+        low = new int[components];
+        postOrder = new int[components];
+        postOrderLow = new int[components];
+        label();
+    }
+
+    private ReachabilityIndex(int nodeCount, int[] component, int[] componentSize, int[] dagOffsets, int[] dagTargets,
+                              int[] low, int[] postOrder, int[] postOrderLow) {
+        this.nodeCount = nodeCount;
+        this.component = component;
+        this.componentSize = componentSize;
+        this.dagOffsets = dagOffsets;
+        this.dagTargets = dagTargets;
+        this.low = low;
+        this.postOrder = postOrder;
+        this.postOrderLow = postOrderLow;
+    }
+
+    /**
+     * Builds the index over a traversal profile, must be called inside a transaction. For profiles that only prune
+     * at the start, a small molecule start still only reaches itself, which the index doesn't know
+     * @param graphDb
+     * @param profile
+     * @return
+     */
+    public static ReachabilityIndex build(GraphDatabaseService graphDb, TraversalProfile profile) {
+        return build(graphDb, profile.getRelationships(), !profile.prunesAtStart());
+    }
+
+    /**
+     * Builds the index, must be called inside a transaction
+     * @param graphDb
+     * @param relationships the relationships to follow and the direction to follow them in
+     * @param pruneSmallMolecules small molecules are reached but not expanded, as the traversals' Evaluator does
+     * @return
+     */
+    public static ReachabilityIndex build(GraphDatabaseService graphDb,
+                                          Map<RelationshipType, Direction> relationships,
+                                          boolean pruneSmallMolecules) {
+        // node ids are dense so they are used as the index
+        int nodeCount = 0;
+        for (Node node : graphDb.getAllNodes()) {
+            nodeCount = (int) Math.max(nodeCount, node.getId() + 1);
+        }
+        BitSet smallMolecules = pruneSmallMolecules ? TraversalProfile.smallMolecules(graphDb) : new BitSet();
+
+        int[] sources = new int[1024];
+        int[] targets = new int[1024];
+        int edgeCount = 0;
+        for (Relationship relationship : graphDb.getAllRelationships()) {
+            Direction direction = null;
+            for (Map.Entry<RelationshipType, Direction> entry : relationships.entrySet()) {
+                if (relationship.isType(entry.getKey())) {
+                    direction = entry.getValue();
+                    break;
+                }
+            }
+            if (direction == null) {
+                continue;
+            }
+            int start = (int) relationship.getStartNodeId();
+            int end = (int) relationship.getEndNodeId();
+            if (direction != Direction.INCOMING && !smallMolecules.get(start)) {
+                if (edgeCount == sources.length) {
+                    sources = Arrays.copyOf(sources, edgeCount * 2);
+                    targets = Arrays.copyOf(targets, edgeCount * 2);
+                }
+                sources[edgeCount] = start;
+                targets[edgeCount++] = end;
+            }
+            if (direction != Direction.OUTGOING && !smallMolecules.get(end)) {
+                if (edgeCount == sources.length) {
+                    sources = Arrays.copyOf(sources, edgeCount * 2);
+                    targets = Arrays.copyOf(targets, edgeCount * 2);
+                }
+                sources[edgeCount] = end;
+                targets[edgeCount++] = start;
+            }
+        }
+
+        int[] offsets = new int[nodeCount + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            offsets[sources[i] + 1]++;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] adjacency = new int[edgeCount];
+        int[] fill = Arrays.copyOf(offsets, nodeCount);
+        for (int i = 0; i < edgeCount; i++) {
+            adjacency[fill[sources[i]]++] = targets[i];
+        }
+
+        return condense(nodeCount, offsets, adjacency);
+    }
+
+    /**
+     * Tarjan's algorithm without recursion. Components are numbered in the order they finish, so every component
+     * only reaches components with a lower number
+     */
+    private static ReachabilityIndex condense(int nodeCount, int[] offsets, int[] adjacency) {
+        int[] index = new int[nodeCount];
+        int[] lowLink = new int[nodeCount];
+        int[] component = new int[nodeCount];
+        boolean[] onStack = new boolean[nodeCount];
+        Arrays.fill(index, -1);
+        int[] stack = new int[nodeCount];
+        int stackSize = 0;
+        int[] callNode = new int[nodeCount];
+        int[] callEdge = new int[nodeCount];
+        int counter = 0;
+        int components = 0;
+
+        for (int root = 0; root < nodeCount; root++) {
+            if (index[root] != -1) {
+                continue;
+            }
+            int depth = 0;
+            callNode[0] = root;
+            callEdge[0] = offsets[root];
+            index[root] = lowLink[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (depth >= 0) {
+                int node = callNode[depth];
+                if (callEdge[depth] < offsets[node + 1]) {
+                    int next = adjacency[callEdge[depth]++];
+                    if (index[next] == -1) {
+                        index[next] = lowLink[next] = counter++;
+                        stack[stackSize++] = next;
+                        onStack[next] = true;
+                        depth++;
+                        callNode[depth] = next;
+                        callEdge[depth] = offsets[next];
+                    } else if (onStack[next]) {
+                        lowLink[node] = Math.min(lowLink[node], index[next]);
+                    }
+                } else {
+                    if (lowLink[node] == index[node]) {
+                        int member;
+                        do {
+                            member = stack[--stackSize];
+                            onStack[member] = false;
+                            component[member] = components;
+                        } while (member != node);
+                        components++;
+                    }
+                    depth--;
+                    if (depth >= 0) {
+                        int parent = callNode[depth];
+                        lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+                    }
+                }
+            }
+        }
+
+        int[] componentSize = new int[components];
+        for (int node = 0; node < nodeCount; node++) {
+            componentSize[component[node]]++;
+        }
+
+        // the component DAG without repeated edges
+        int[] membersOffsets = new int[components + 1];
+        for (int node = 0; node < nodeCount; node++) {
+            membersOffsets[component[node] + 1]++;
+        }
+        for (int c = 0; c < components; c++) {
+            membersOffsets[c + 1] += membersOffsets[c];
+        }
+        int[] members = new int[nodeCount];
+        int[] fill = Arrays.copyOf(membersOffsets, components);
+        for (int node = 0; node < nodeCount; node++) {
+            members[fill[component[node]]++] = node;
+        }
+        int[] stamp = new int[components];
+        Arrays.fill(stamp, -1);
+        int[] dagOffsets = new int[components + 1];
+        int[] dagTargets = new int[Math.max(16, adjacency.length)];
+        int dagEdges = 0;
+        for (int c = 0; c < components; c++) {
+            stamp[c] = c;
+            for (int m = membersOffsets[c]; m < membersOffsets[c + 1]; m++) {
+                int node = members[m];
+                for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+                    int target = component[adjacency[e]];
+                    if (stamp[target] != c) {
+                        stamp[target] = c;
+                        dagTargets[dagEdges++] = target;
+                    }
+                }
+            }
+            dagOffsets[c + 1] = dagEdges;
+        }
+
+        return new ReachabilityIndex(nodeCount, component, componentSize, dagOffsets,
+                Arrays.copyOf(dagTargets, dagEdges));
+    }
+
+    /**
+     * Works out how many nodes every component reaches. The nodes are split into blocks that fit in memory, and for
+     * each block the bits of the nodes a component reaches are the union of its successors' bits, which are always
+     * done first. Exact, so no sampling is needed
+     */
+    private void countReachable() {
+        int components = componentSize.length;
+        reachableCounts = new int[components];
+
+        // give the nodes bit positions in component order so a block covers a run of components
+        int[] firstBit = new int[components + 1];
+        for (int c = 0; c < components; c++) {
+            firstBit[c + 1] = firstBit[c] + componentSize[c];
+        }
+
+        int words = Math.max(1, Math.min((nodeCount + 63) / 64, maxMaskWords / Math.max(1, components)));
+        int blockBits = words * 64;
+        long[] masks = new long[components * words];
+        boolean[] empty = new boolean[components];
+
+        int low = 0;
+        for (int blockStart = 0; blockStart < nodeCount; blockStart += blockBits) {
+            int blockEnd = Math.min(nodeCount, blockStart + blockBits);
+            // components before the block can only reach components before it
+            while (firstBit[low + 1] <= blockStart) {
+                low++;
+            }
+            Arrays.fill(masks, low * words, masks.length, 0L);
+            for (int c = low; c < components; c++) {
+                int base = c * words;
+                boolean isEmpty = true;
+                // the component's own nodes
+                int from = Math.max(firstBit[c], blockStart);
+                int to = Math.min(firstBit[c + 1], blockEnd);
+                for (int bit = from; bit < to; bit++) {
+                    masks[base + ((bit - blockStart) >>> 6)] |= 1L << (bit - blockStart);
+                    isEmpty = false;
+                }
+                for (int e = dagOffsets[c]; e < dagOffsets[c + 1]; e++) {
+                    int target = dagTargets[e];
+                    if (target < low || empty[target]) {
+                        continue;
+                    }
+                    int targetBase = target * words;
+                    for (int w = 0; w < words; w++) {
+                        masks[base + w] |= masks[targetBase + w];
+                    }
+                    isEmpty = false;
+                }
+                empty[c] = isEmpty;
+                if (!isEmpty) {
+                    int count = 0;
+                    for (int w = 0; w < words; w++) {
+                        count += Long.bitCount(masks[base + w]);
+                    }
+                    reachableCounts[c] += count;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param nodeId
+     * @return the number of nodes reachable from the node, including itself
+     */
+    public int reachableCount(long nodeId) {
+        if (reachableCounts == null) {
+            countReachable();
+        }
+        return reachableCounts[component[(int) nodeId]];
+    }
+
+    /**
+     * Works out the interval labels. Successors always have a lower number, so going up through the numbers every
+     * component's successors are labelled before it
+     */
+    private void label() {
+        int components = componentSize.length;
+
+        // post order of a depth first search started from the highest numbered components, children in reverse
+        int[] childIndex = new int[components];
+        int[] stack = new int[components];
+        boolean[] seen = new boolean[components];
+        int order = 0;
+        for (int root = components - 1; root >= 0; root--) {
+            if (seen[root]) {
+                continue;
+            }
+            int size = 0;
+            stack[size++] = root;
+            seen[root] = true;
+            childIndex[root] = dagOffsets[root + 1];
+            while (size > 0) {
+                int c = stack[size - 1];
+                if (childIndex[c] > dagOffsets[c]) {
+                    int child = dagTargets[--childIndex[c]];
+                    if (!seen[child]) {
+                        seen[child] = true;
+                        childIndex[child] = dagOffsets[child + 1];
+                        stack[size++] = child;
+                    }
+                } else {
+                    postOrder[c] = order++;
+                    size--;
+                }
+            }
+        }
+
+        for (int c = 0; c < components; c++) {
+            low[c] = c;
+            postOrderLow[c] = postOrder[c];
+            for (int e = dagOffsets[c]; e < dagOffsets[c + 1]; e++) {
+                int target = dagTargets[e];
+                low[c] = Math.min(low[c], low[target]);
+                postOrderLow[c] = Math.min(postOrderLow[c], postOrderLow[target]);
+            }
+        }
+    }
+
+    /**
+     * @return false if the labels show the first component can't reach the second
+     */
+    private boolean mayReach(int from, int to) {
+        return to <= from && low[from] <= low[to] &&
+                postOrder[to] <= postOrder[from] && postOrderLow[from] <= postOrderLow[to];
+    }
+
+    /**
+     * @param fromId the node id to start from
+     * @param toId the node id to look for
+     * @return true if toId can be reached from fromId
+     */
+    public synchronized boolean reaches(long fromId, long toId) {
+        if (fromId == toId) {
+            return true;
+        }
+        if (fromId < 0 || toId < 0 || fromId >= nodeCount || toId >= nodeCount) {
+            return false;
+        }
+        int from = component[(int) fromId];
+        int to = component[(int) toId];
+        if (from == to) {
+            return true;
+        }
+        if (!mayReach(from, to)) {
+            return false;
+        }
+
+        // search the DAG, skipping components the labels rule out
+        if (visited == null) {
+            visited = new int[componentSize.length];
+            searchStack = new int[componentSize.length];
+        }
+        search++;
+        if (search == 0) {
+            Arrays.fill(visited, 0);
+            search = 1;
+        }
+        int size = 0;
+        searchStack[size++] = from;
+        visited[from] = search;
+        while (size > 0) {
+            int c = searchStack[--size];
+            for (int e = dagOffsets[c]; e < dagOffsets[c + 1]; e++) {
+                int target = dagTargets[e];
+                if (target == to) {
+                    return true;
+                }
+                if (visited[target] != search && mayReach(target, to)) {
+                    visited[target] = search;
+                    searchStack[size++] = target;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the index to a file
+     * @param indexFile
+     * @param fingerprint identifies the state of the graph the index was built from
+     * @throws IOException
+     */
+    public void save(File indexFile, long fingerprint) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint);
+            out.writeInt(nodeCount);
+            out.writeInt(componentSize.length);
+            out.writeInt(dagTargets.length);
+            for (int[] values : new int[][]{component, componentSize, dagOffsets, dagTargets, low, postOrder, postOrderLow}) {
+                for (int value : values) {
+                    out.writeInt(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads an index written by save
+     * @param indexFile
+     * @param fingerprint the state of the graph now
+     * @return null if there is no index or it was built from a different state of the graph
+     * @throws IOException
+     */
+    public static ReachabilityIndex load(File indexFile, long fingerprint) throws IOException {
+        if (!indexFile.exists()) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+             FileChannel channel = file.getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != fingerprint) {
+                return null;
+            }
+            int nodeCount = buffer.getInt();
+            int components = buffer.getInt();
+            int dagEdges = buffer.getInt();
+            int[] component = readInts(buffer, nodeCount);
+            int[] componentSize = readInts(buffer, components);
+            int[] dagOffsets = readInts(buffer, components + 1);
+            int[] dagTargets = readInts(buffer, dagEdges);
+            int[] low = readInts(buffer, components);
+            int[] postOrder = readInts(buffer, components);
+            int[] postOrderLow = readInts(buffer, components);
+            return new ReachabilityIndex(nodeCount, component, componentSize, dagOffsets, dagTargets,
+                    low, postOrder, postOrderLow);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int length) {
+        int[] values = new int[length];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + length * 4);
+        return values;
+    }
+
+    /**
+     * @return the number of strongly connected components
+     */
+    public int getComponentCount() {
+        return componentSize.length;
+    }
+
+    /**
+     * @return the size of the largest strongly connected component
+     */
+    public int getLargestComponent() {
+        int largest = 0;
+        for (int size : componentSize) {
+            largest = Math.max(largest, size);
+        }
+        return largest;
+    }
+}
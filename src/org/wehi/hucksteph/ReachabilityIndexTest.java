@@ -0,0 +1,191 @@
+package org.wehi.hucksteph;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.traversal.Evaluation;
+import org.neo4j.graphdb.traversal.Evaluator;
+import org.neo4j.graphdb.traversal.TraversalDescription;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReachabilityIndexTest {
+
+    File DATABASE_ACTUAL_PATH = new File("test/actual");
+
+    @Test
+    void testCountsMatchTraversal() {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/REACHABILITY/");
+        File graph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/REACHABILITY/GRAPH/");
+
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(graph);
+        RelTypes[] types = {RelTypes.INPUT, RelTypes.OUTPUT, RelTypes.CONTROLS, RelTypes.PHOSPHORYLATION};
+        Random random = new Random(7);
+        try(Transaction tx = graphDb.beginTx()){
+            List<Node> nodes = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                Node node = graphDb.createNode(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
+                node.setProperty(PropertyType.TYPE.toString(), i % 10 == 0 ? "SmallMolecule" : "Protein");
+                nodes.add(node);
+            }
+            // enough edges for cycles and a few large components
+            for (int i = 0; i < 450; i++) {
+                Node start = nodes.get(random.nextInt(nodes.size()));
+                Node end = nodes.get(random.nextInt(nodes.size()));
+                start.createRelationshipTo(end, types[random.nextInt(types.length)]);
+            }
+            tx.success();
+        }
+
+        LinkedHashMap<RelationshipType, Direction> ds = new LinkedHashMap<>();
+        ds.put(RelTypes.PHOSPHORYLATION, Direction.INCOMING);
+        ds.put(RelTypes.INPUT, Direction.OUTGOING);
+        ds.put(RelTypes.OUTPUT, Direction.OUTGOING);
+        ds.put(RelTypes.CONTROLS, Direction.OUTGOING);
+
+        int mismatches = 0;
+        int mismatchesSmallBlocks = 0;
+        int largest;
+        int maxMaskWords = ReachabilityIndex.maxMaskWords;
+        try(Transaction tx = graphDb.beginTx()){
+            TraversalDescription td = graphDb.traversalDescription().breadthFirst()
+                    .evaluator(new Evaluator() {
+                        @Override
+                        public Evaluation evaluate(Path path) {
+                            if(path.endNode().getProperty(PropertyType.TYPE.toString())
+                                    .equals("SmallMolecule")){
+                                return Evaluation.INCLUDE_AND_PRUNE;
+                            }
+                            return Evaluation.INCLUDE_AND_CONTINUE;
+                        }
+                    })
+                    .relationships(RelTypes.PHOSPHORYLATION, Direction.INCOMING)
+                    .relationships(RelTypes.INPUT, Direction.OUTGOING)
+                    .relationships(RelTypes.OUTPUT, Direction.OUTGOING)
+                    .relationships(RelTypes.CONTROLS, Direction.OUTGOING);
+
+            ReachabilityIndex index = ReachabilityIndex.build(graphDb, ds, true);
+            largest = index.getLargestComponent();
+            // one word per component, so the nodes are counted over several blocks
+            ReachabilityIndex.maxMaskWords = 1;
+            ReachabilityIndex smallBlocks = ReachabilityIndex.build(graphDb, ds, true);
+            for (Node node : graphDb.getAllNodes()) {
+                int count = 0;
+                for (Path path : td.traverse(node)) {
+                    count++;
+                }
+                if (index.reachableCount(node.getId()) != count) {
+                    mismatches++;
+                }
+                if (smallBlocks.reachableCount(node.getId()) != count) {
+                    mismatchesSmallBlocks++;
+                }
+            }
+            tx.success();
+        } finally {
+            ReachabilityIndex.maxMaskWords = maxMaskWords;
+        }
+        graphDb.shutdown();
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        assertTrue(largest > 1);
+        assertEquals(0, mismatches);
+        assertEquals(0, mismatchesSmallBlocks);
+    }
+
+    @Test
+    void testReachesMatchesTraversalAfterLoading() throws IOException {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/REACHES/");
+        File graph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/REACHES/GRAPH/");
+        File indexFile = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/REACHES/GRAPH.reach");
+
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(graph);
+        RelTypes[] types = {RelTypes.INPUT, RelTypes.OUTPUT, RelTypes.CONTROLS, RelTypes.PHOSPHORYLATION};
+        Random random = new Random(11);
+        try(Transaction tx = graphDb.beginTx()){
+            List<Node> nodes = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                Node node = graphDb.createNode(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
+                node.setProperty(PropertyType.TYPE.toString(), i % 10 == 0 ? "SmallMolecule" : "Protein");
+                nodes.add(node);
+            }
+            for (int i = 0; i < 260; i++) {
+                Node start = nodes.get(random.nextInt(nodes.size()));
+                Node end = nodes.get(random.nextInt(nodes.size()));
+                start.createRelationshipTo(end, types[random.nextInt(types.length)]);
+            }
+            tx.success();
+        }
+
+        LinkedHashMap<RelationshipType, Direction> ds = new LinkedHashMap<>();
+        ds.put(RelTypes.PHOSPHORYLATION, Direction.INCOMING);
+        ds.put(RelTypes.INPUT, Direction.OUTGOING);
+        ds.put(RelTypes.OUTPUT, Direction.OUTGOING);
+        ds.put(RelTypes.CONTROLS, Direction.OUTGOING);
+
+        int mismatches = 0;
+        int reachablePairs = 0;
+        ReachabilityIndex stale;
+        try(Transaction tx = graphDb.beginTx()){
+            ReachabilityIndex.build(graphDb, ds, true).save(indexFile, 42L);
+            ReachabilityIndex index = ReachabilityIndex.load(indexFile, 42L);
+            stale = ReachabilityIndex.load(indexFile, 43L);
+
+            TraversalDescription td = graphDb.traversalDescription().breadthFirst()
+                    .evaluator(new Evaluator() {
+                        @Override
+                        public Evaluation evaluate(Path path) {
+                            if(path.endNode().getProperty(PropertyType.TYPE.toString())
+                                    .equals("SmallMolecule")){
+                                return Evaluation.INCLUDE_AND_PRUNE;
+                            }
+                            return Evaluation.INCLUDE_AND_CONTINUE;
+                        }
+                    })
+                    .relationships(RelTypes.PHOSPHORYLATION, Direction.INCOMING)
+                    .relationships(RelTypes.INPUT, Direction.OUTGOING)
+                    .relationships(RelTypes.OUTPUT, Direction.OUTGOING)
+                    .relationships(RelTypes.CONTROLS, Direction.OUTGOING);
+
+            List<Node> all = new ArrayList<>();
+            graphDb.getAllNodes().forEach(all::add);
+            for (Node start : all) {
+                HashSet<Long> found = new HashSet<>();
+                for (Path path : td.traverse(start)) {
+                    found.add(path.endNode().getId());
+                }
+                for (Node end : all) {
+                    boolean reaches = index.reaches(start.getId(), end.getId());
+                    if (reaches != found.contains(end.getId())) {
+                        mismatches++;
+                    }
+                    if (reaches) {
+                        reachablePairs++;
+                    }
+                }
+            }
+            tx.success();
+        }
+        graphDb.shutdown();
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        assertNull(stale);
+        assertTrue(reachablePairs > 200);
+        assertEquals(0, mismatches);
+    }
+}
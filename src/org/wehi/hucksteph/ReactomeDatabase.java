@@ -17,6 +17,8 @@ import java.util.regex.Pattern;
 
 public class ReactomeDatabase extends EmbeddedNeo4jDatabase{
 
+    private Integer batchSize = BatchTransaction.DEFAULT_BATCH_SIZE;
+
 
     public ReactomeDatabase( File databaseDir, File outputFile) {
         super( databaseDir, outputFile);
@@ -26,6 +28,14 @@ public class ReactomeDatabase extends EmbeddedNeo4jDatabase{
         super( databaseDir);
     }
 
+    /**
+     * Sets the number of PhosphoSitePlus UIDs integrated per commit in IntegratePSP
+     * @param batchSize
+     */
+    public void setBatchSize(Integer batchSize) {
+        this.batchSize = batchSize;
+    }
+
     /**
      * Integrates PhosphositePlus with Reactome
      * @param PSPDatabaseDir the built PhosphositePlus K-S biopax database
@@ -51,9 +61,10 @@ public class ReactomeDatabase extends EmbeddedNeo4jDatabase{
         HashMap<String, HashMap<String, HashSet<String>>> pspKS = getPspPhosAndControllers(PSPDatabaseDir, species);
 
         // first pass match phosphosites and
-        GraphDatabaseService rxmGraphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
-
+        GraphDatabaseService rxmGraphDb = openDatabase();
+        BatchTransaction.checkComplete(rxmGraphDb);
 
+        boolean integrated = false;
         try (Transaction tx = rxmGraphDb.beginTx()) {
 
             ResourceIterator<Node> speciesNodes = rxmGraphDb.findNodes(Label.label("SPECIES"));
@@ -85,12 +96,19 @@ public class ReactomeDatabase extends EmbeddedNeo4jDatabase{
             // DONT INTEGRATE IF ALREADY INTEGRATED
             for (String allPropertyKey : rxmGraphDb.getAllPropertyKeys()) {
                 if (allPropertyKey.equalsIgnoreCase(PropertyType.INTEGRATED.toString())){
-                    System.out.println("Database has already been integrated");
-                    System.exit(0);
+                    integrated = true;
                 }
             }
+            tx.success();
+        }
+        if (integrated) {
+            System.out.println("Database has already been integrated");
+            shutdownDatabase(rxmGraphDb);
+            return;
+        }
 
-
+        // commits every batchSize PSP UIDs, a failure part way leaves the store marked as incomplete
+        try (BatchTransaction tx = new BatchTransaction(rxmGraphDb, "IntegratePSP", batchSize)) {
 
             Integer UIDsnotinrxm = 0;
             Integer matchCount = 0;
@@ -352,6 +370,7 @@ public class ReactomeDatabase extends EmbeddedNeo4jDatabase{
 
                     makeRxnNodes(rxmGraphDb, newUIDnode, pspControlledPhosns);
                 }
+                tx.tick();
             }
 
             Integer newNumPhosphositesAdded = 0;
@@ -391,7 +410,8 @@ public class ReactomeDatabase extends EmbeddedNeo4jDatabase{
             tx.success();
             out.close();
         }
-        rxmGraphDb.shutdown();
+        shutdownDatabase(rxmGraphDb);
+        topologyChanged(databaseDir);
 
     }
 
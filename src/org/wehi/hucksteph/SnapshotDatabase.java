@@ -0,0 +1,1279 @@
+package org.wehi.hucksteph;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.unsafe.impl.batchimport.input.InputException;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The traversal, binomial neighbourhood, shortest path and minimal connection network analyses of MeasuredDatabase,
+ * run off a GraphSnapshot instead of a Neo4j database. Output files, their rows and columns are the same, searches
+ * visit nodes in the order Neo4j's traversals do. Shortest paths of the same cost can be listed in another order, and
+ * the neighbourhood averages can differ in their last digits as a neighbourhood may be summed in another order
+ */
+public class SnapshotDatabase {
+
+    private final String UID_PATTERN = "[OPQ][0-9][A-Z0-9]{3}[0-9](\\-[0-9*]{1,2})?|[A-NR-Z][0-9]([A-Z][A-Z0-9]{2}[0-9]){1,2}(\\-[0-9*]{1,2})?";
+    private static final double EPSILON = 1.0E-10;
+    // Neo4j expands the relationships followed outgoing, then incoming, then either way, each in the node's order
+    private static final int EITHER = 4;
+    private static final int[] EXPANSION_ORDER = {GraphSnapshot.OUTGOING, GraphSnapshot.INCOMING, EITHER};
+
+    private final File snapshotFile;
+    private final File outputFile;
+    private final GraphSnapshot snapshot;
+
+    // breadth first search state, reused between searches
+    private final int[] visited;
+    private final int[] depths;
+    private final int[] queue;
+    private int stamp = 0;
+
+    // proteins and complexes given to a worker at a time by the neighbourhood analysis
+    private static final int NEIGHBOURHOOD_CHUNK = 256;
+    private Integer threads = Runtime.getRuntime().availableProcessors();
+
+    public SnapshotDatabase(File snapshotFile, File outputFile) throws IOException {
+        this.snapshotFile = snapshotFile;
+        this.outputFile = outputFile;
+        this.snapshot = GraphSnapshot.open(snapshotFile);
+        this.visited = new int[snapshot.getNodeCount()];
+        this.depths = new int[snapshot.getNodeCount()];
+        this.queue = new int[snapshot.getNodeCount()];
+    }
+
+    /**
+     * A worker over the same snapshot with its own search state, so searches can run on several threads
+     * @param other
+     */
+    private SnapshotDatabase(SnapshotDatabase other) {
+        this.snapshotFile = other.snapshotFile;
+        this.outputFile = other.outputFile;
+        this.snapshot = other.snapshot;
+        this.visited = new int[snapshot.getNodeCount()];
+        this.depths = new int[snapshot.getNodeCount()];
+        this.queue = new int[snapshot.getNodeCount()];
+    }
+
+    /**
+     * Sets the number of threads used to find neighbourhoods
+     * @param threads
+     */
+    public void setThreads(Integer threads) {
+        this.threads = threads;
+    }
+
+    public GraphSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Finds everything up or downstream of a node of interest
+     * @param uid the starting UID or node id to be traversed
+     * @param direction the direction of the traversal ("Upstream" or "Downstream")
+     * @param experiment the name of the experiment the statistics will be reported on
+     * @throws IOException
+     */
+    public void traversal(String uid, String direction, String experiment) throws IOException {
+        File OUTPUT_PATH = outputFile;
+        direction = direction.toLowerCase();
+        if(!direction.equals("downstream") && !direction.equals("upstream")){
+            throw new IllegalArgumentException("direction must equal 'upstream' or 'downstream'");
+        }
+        int exp = getExperiment(experiment);
+
+        FileWriter fstream3 = new FileWriter(OUTPUT_PATH + "/R_input_traversal_lengths_"+uid+"_"+direction+".tsv");
+        BufferedWriter out3 = new BufferedWriter(fstream3);
+        out3.write("NodeID\texperiment\tUID\tdispName\tUniProtName\tlocation\tmoleculesDS\tpf\tpfMapped\tphos\tphosMapped\tcplx\tcplxMapped\tkins\tkinsMapped\tUids\tUidsMapped\tbchmRxns\n");
+
+        Pattern p = Pattern.compile(UID_PATTERN);
+        Matcher m = p.matcher(uid);
+        if (m.find()) { // if its a uniprot id
+            String theGroup = m.group(0);
+            int node = snapshot.findUniProt(theGroup);
+            if (node < 0) {
+                System.out.println(theGroup + " Does not exist in the databse");
+            } else {
+                FileWriter fstream = new FileWriter(OUTPUT_PATH + "/"+uid+"_"+direction+"_traversal_cytoscape.tsv");
+                BufferedWriter out = new BufferedWriter(fstream);
+
+                FileWriter fstream1 = new FileWriter(OUTPUT_PATH + "/TraversalReport_"+direction +"_"+uid+".tsv");
+                BufferedWriter out1 = new BufferedWriter(fstream1);
+
+                // traversals by Neo4j node id of the proteoform they start from
+                HashMap<Long, int[]> traversalMap = new HashMap<>();
+                for (int prot : endNodes(node, RelTypes.ID_BELONGS_TO)) {
+                    traversalMap.put(snapshot.getNodeId(prot), traverse(prot, direction));
+                }
+
+                HashMap<Long, Integer> traversalLen = new HashMap<>();
+                HashSet<Integer> uniqueLens = new HashSet<>();
+                for (Long key : traversalMap.keySet()) {
+                    int len = traversalMap.get(key).length;
+                    traversalLen.put(key, len);
+                    uniqueLens.add(len);
+                }
+
+                // a column per proteoform, a row per node any of them reached
+                List<Long> keys = new ArrayList<>(traversalMap.keySet());
+                long[] sources = new long[keys.size()];
+                for (int k = 0; k < keys.size(); k++) {
+                    sources[k] = keys.get(k);
+                }
+                CytoscapeMembershipWriter membership = new CytoscapeMembershipWriter(sources);
+                for (int k = 0; k < keys.size(); k++) {
+                    for (int n : traversalMap.get(keys.get(k))) {
+                        membership.reached(k, snapshot.getNodeId(n));
+                    }
+                }
+                membership.write(out, "ID_" + snapshot.getNodeId(node));
+
+                // print largest, delete largest from list
+                Collection<Integer> values = traversalLen.values();
+                List<Integer> lens = new ArrayList<>(values);
+                Integer count = 0;
+
+                Integer max = Collections.max(lens);
+                if (values.size() > 1) {
+                    for (int i = 0; i < uniqueLens.size(); i++) {
+                        count++;
+                        for (Long key : traversalLen.keySet()) {
+                            if (traversalLen.get(key).equals(max)) {
+                                traversalReport(count, traversalMap.get(key), uid, snapshot.getNode(key), out1, exp, experiment, out3);
+                            }
+                        }
+                        lens.removeAll(Collections.singleton(max));
+                        if (!lens.isEmpty()) {
+                            max = Collections.max(lens);
+                        }
+                    }
+                } else {
+                    for (Long key : traversalLen.keySet()) {
+                        traversalReport(count, traversalMap.get(key), uid, snapshot.getNode(key), out1, exp, experiment, out3);
+                    }
+                }
+
+                out.close();
+                out1.close();
+            }
+        } else { // its a node id
+            int prot = snapshot.getNode(Long.valueOf(uid));
+            if(prot < 0){
+                throw new NotFoundException(uid + " does not exist in the snapshot " + snapshotFile);
+            }
+            String title = direction.equals("downstream") ? "Downstream" : "Upstream";
+
+            FileWriter fstream = new FileWriter(OUTPUT_PATH + "/"+uid+"_"+title+".tsv");
+            BufferedWriter out = new BufferedWriter(fstream);
+            out.write("ID\t" + uid + "_"+direction+"\n");
+
+            FileWriter fstream1 = new FileWriter(OUTPUT_PATH + "/TraversalReport_"+direction+"_"+uid+".tsv");
+            BufferedWriter out1 = new BufferedWriter(fstream1);
+
+            int[] nodes = traverse(prot, direction);
+            traversalReport(0, nodes, uid, prot, out1, exp, experiment, out3);
+
+            for (int n : nodes) {
+                out.write(snapshot.getNodeId(n) + "\t" + snapshot.getNodeId(prot) + "\n");
+            }
+
+            out.close();
+            out1.close();
+        }
+        out3.close();
+    }
+
+    /**
+     * Overloaded traversal that takes in a file of UniProt ids or node ids. Looks every id up once and runs the
+     * traversals on [threads] workers. Results are written in the order of the file to one set of outputs named after
+     * it, as MeasuredDatabase does: [name]_[direction]_traversal_cytoscape.tsv, TraversalReport_[direction]_[name].tsv
+     * and R_input_traversal_lengths_[name]_[direction].tsv
+     * @param pathToProts
+     * @param direction
+     * @param experiment
+     * @throws IOException
+     */
+    public void traversal(File pathToProts, String direction, String experiment) throws IOException {
+        File OUTPUT_PATH = outputFile;
+        String dir = direction.toLowerCase();
+        if(!dir.equals("downstream") && !dir.equals("upstream")){
+            throw new IllegalArgumentException("direction must equal 'upstream' or 'downstream'");
+        }
+        int exp = getExperiment(experiment);
+
+        // get ids from the file, in order and once each
+        BufferedReader BR = new BufferedReader(new FileReader(pathToProts));
+        String line;
+        LinkedHashSet<String> UIDList = new LinkedHashSet<>();
+        while ((line = BR.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+                UIDList.add(line);
+            }
+        }
+        BR.close();
+
+        String name = pathToProts.getName();
+        if (name.contains(".")) {
+            name = name.substring(0, name.lastIndexOf('.'));
+        }
+
+        // resolve every start node once
+        LinkedHashMap<String, List<Integer>> startNodes = new LinkedHashMap<>();
+        Pattern p = Pattern.compile(UID_PATTERN);
+        for (String uid : UIDList) {
+            Matcher m = p.matcher(uid);
+            if (m.find()) {
+                int node = snapshot.findUniProt(m.group(0));
+                if (node < 0) {
+                    System.out.println(m.group(0) + " Does not exist in the databse");
+                    continue;
+                }
+                startNodes.put(uid, proteoforms(node));
+            } else {
+                int prot;
+                try {
+                    prot = snapshot.getNode(Long.valueOf(uid));
+                } catch (NumberFormatException e) {
+                    prot = -1;
+                }
+                if (prot < 0) {
+                    System.out.println(uid + " Does not exist in the databse");
+                    continue;
+                }
+                startNodes.put(uid, Collections.singletonList(prot));
+            }
+        }
+
+        FileWriter fstream = new FileWriter(OUTPUT_PATH + "/" + name + "_" + dir + "_traversal_cytoscape.tsv");
+        BufferedWriter out = new BufferedWriter(fstream);
+        out.write("NodeID\tUID\tstream\n");
+        FileWriter fstream1 = new FileWriter(OUTPUT_PATH + "/TraversalReport_" + dir + "_" + name + ".tsv");
+        BufferedWriter out1 = new BufferedWriter(fstream1);
+        FileWriter fstream3 = new FileWriter(OUTPUT_PATH + "/R_input_traversal_lengths_" + name + "_" + dir + ".tsv");
+        BufferedWriter out3 = new BufferedWriter(fstream3);
+        out3.write("NodeID\texperiment\tUID\tdispName\tUniProtName\tlocation\tmoleculesDS\tpf\tpfMapped\tphos\tphosMapped\tcplx\tcplxMapped\tkins\tkinsMapped\tUids\tUidsMapped\tbchmRxns\n");
+
+        // each worker has its own search state over the shared snapshot
+        ThreadLocal<SnapshotDatabase> workers = ThreadLocal.withInitial(() -> new SnapshotDatabase(this));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<ForkJoinTask<String[]>> tasks = new ArrayList<>();
+            for (Map.Entry<String, List<Integer>> entry : startNodes.entrySet()) {
+                tasks.add(pool.submit(() -> workers.get().batchTraversal(entry.getKey(), entry.getValue(), dir, exp,
+                        experiment)));
+            }
+            // write each id as soon as it and every id before it are done
+            for (ForkJoinTask<String[]> task : tasks) {
+                String[] result = task.get();
+                out.write(result[0]);
+                out1.write(result[1]);
+                out3.write(result[2]);
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException(e.getCause() == null ? e : e.getCause());
+        } finally {
+            pool.shutdown();
+            out.close();
+            out1.close();
+            out3.close();
+        }
+        System.out.println("Traversed " + startNodes.size() + " of " + UIDList.size() + " ids from " + snapshotFile +
+                " on " + threads + " threads");
+    }
+
+    /**
+     * Runs the traversals of one id of a batch
+     * @param uid the id as it was given
+     * @param prots the proteoforms (or node) it resolved to
+     * @param direction "upstream" or "downstream"
+     * @param exp
+     * @param experiment
+     * @return the cytoscape rows, the report and the lengths rows
+     * @throws IOException
+     */
+    private String[] batchTraversal(String uid, List<Integer> prots, String direction, int exp, String experiment)
+            throws IOException {
+        StringWriter cytoscape = new StringWriter();
+        StringWriter report = new StringWriter();
+        StringWriter lengths = new StringWriter();
+        BufferedWriter reportStream = new BufferedWriter(report);
+        BufferedWriter travLenStream = new BufferedWriter(lengths);
+
+        HashMap<Integer, int[]> traversalMap = new HashMap<>();
+        for (int prot : prots) {
+            traversalMap.put(prot, traverse(prot, direction));
+        }
+
+        for (int prot : prots) {
+            for (int n : traversalMap.get(prot)) {
+                cytoscape.write(snapshot.getNodeId(n) + "\t" + uid + "\t" + snapshot.getNodeId(prot) + "\n");
+            }
+        }
+
+        // largest first, proteoforms with the same number of nodes share an order
+        List<Integer> keys = new ArrayList<>(prots);
+        keys.sort((a, b) -> traversalMap.get(b).length - traversalMap.get(a).length);
+        Integer count = 0;
+        int last = -1;
+        for (int key : keys) {
+            if (keys.size() > 1 && traversalMap.get(key).length != last) {
+                count++;
+                last = traversalMap.get(key).length;
+            }
+            traversalReport(count, traversalMap.get(key), uid, key, reportStream, exp, experiment, travLenStream);
+        }
+        reportStream.flush();
+        travLenStream.flush();
+        return new String[]{cytoscape.toString(), report.toString(), lengths.toString()};
+    }
+
+    private void traversalReport(Integer order,
+                                 int[] nodes,
+                                 String uid,
+                                 int prot,
+                                 BufferedWriter reportStream,
+                                 int exp,
+                                 String experiment,
+                                 BufferedWriter travLenStream) throws IOException {
+        int depth = 0;
+        Integer phosCounter = 0;
+        Integer phosMappedCounter = 0;
+        Integer proteinCounter = 0;
+        Integer proteinMappedCounter = 0;
+        Integer cplxCounter = 0;
+        Integer cplxMappedCounter = 0;
+        Integer uidCounter = 0;
+        Integer uidMappedCounter = 0;
+        Integer transcriptionFactorCounter = 0;
+        Integer cellSurfaceReceptorCounter = 0;
+        Integer kinaseCounter = 0;
+        Integer kinaseMappedCounter = 0;
+        Integer rxnCounter = 0;
+        HashSet<String> pathwaysTraversed = new HashSet<>();
+
+        for (int node : nodes) {
+            depth++;
+            byte classCode = snapshot.getClassCode(node);
+            if (classCode == GraphSnapshot.CLASS_PHOSPHORYLATION) {
+                phosCounter++;
+                for (int protein : endNodes(node, RelTypes.PHOSPHORYLATION)) {
+                    if (snapshot.hasSupportScore(exp, protein)) {
+                        phosMappedCounter++;
+                    }
+                }
+            } else if (classCode == GraphSnapshot.CLASS_PROTEIN) {
+                proteinCounter++;
+                if (snapshot.hasSupportScore(exp, node)) {
+                    proteinMappedCounter++;
+                }
+                if (snapshot.hasFlag(GraphSnapshot.FLAG_KINASE, node)) {
+                    kinaseCounter++;
+                    if (snapshot.hasSupportScore(exp, node)) {
+                        kinaseMappedCounter++;
+                    }
+                }
+                if (snapshot.hasFlag(GraphSnapshot.FLAG_TRANSCRIPTION_FACTOR, node)) {
+                    transcriptionFactorCounter++;
+                }
+                if (snapshot.hasFlag(GraphSnapshot.FLAG_CELL_SURFACE_RECEPTOR, node)) {
+                    cellSurfaceReceptorCounter++;
+                }
+            } else if (classCode == GraphSnapshot.CLASS_COMPLEX) {
+                cplxCounter++;
+                if (snapshot.hasSupportScore(exp, node)) {
+                    cplxMappedCounter++;
+                }
+            } else if (classCode == GraphSnapshot.CLASS_UNIPROT_ID) {
+                uidCounter++;
+                // only count the uid once however many of its proteins are measured
+                for (int protein : endNodes(node, RelTypes.ID_BELONGS_TO)) {
+                    if (snapshot.hasSupportScore(exp, protein)) {
+                        uidMappedCounter++;
+                        break;
+                    }
+                }
+            } else if (classCode == GraphSnapshot.CLASS_BIOCHEMICAL_REACTION) {
+                rxnCounter++;
+            }
+            // pathways traversed
+            for (int pathway : startNodes(node, RelTypes.PATHWAY_COMPONENT)) {
+                pathwaysTraversed.add(snapshot.getString(PropertyType.DISPLAY_NAME, pathway));
+            }
+        }
+
+        String geneName = "";
+        if (snapshot.getString(PropertyType.UNIPROT_NAME, prot) != null) {
+            geneName = snapshot.getString(PropertyType.UNIPROT_NAME, prot);
+        }
+        String displayName = snapshot.getString(PropertyType.DISPLAY_NAME, prot);
+        String location = snapshot.getString(PropertyType.LOCATION, prot);
+        travLenStream.write(snapshot.getNodeId(prot) + "\t" +
+                experiment + "\t" +
+                uid + "\t" +
+                displayName + "\t" +
+                geneName + "\t" +
+                location + "\t" +
+                depth + "\t" +
+                proteinCounter + "\t" +
+                proteinMappedCounter + "\t" +
+                phosCounter + "\t" +
+                phosMappedCounter + "\t" +
+                cplxCounter + "\t" +
+                cplxMappedCounter + "\t" +
+                kinaseCounter + "\t" +
+                kinaseMappedCounter + "\t" +
+                uidCounter + "\t" +
+                uidMappedCounter + "\t" +
+                rxnCounter + "\n");
+
+        reportStream.write("Order: " + order + "\nAll things Downstream of " + uid +
+                ", gene name:" + geneName +
+                ", display name: " + displayName +
+                " (location: " + location +
+                ")(node id: " + snapshot.getNodeId(prot) +
+                ") in experiment " + experiment);
+        reportStream.write("\nThe number of nodes found were: " + depth);
+        reportStream.write("\nThe number of phosphorylation nodes: " + phosCounter);
+        reportStream.write("\nThe number of phosphorylation nodes with mapped data: " + phosMappedCounter + " (" + proportion(phosCounter, phosMappedCounter) + "%)");
+        reportStream.write("\nThe number of proteoform nodes: " + proteinCounter);
+        reportStream.write("\nThe number of proteoform nodes with mapped data: " + proteinMappedCounter + "(" + proportion(proteinCounter, proteinMappedCounter) + "%)");
+        reportStream.write("\nThe number of complex nodes: " + cplxCounter);
+        reportStream.write("\nThe number of complex nodes with mapped data: " + cplxMappedCounter + "(" + proportion(cplxCounter, cplxMappedCounter) + "%)");
+        reportStream.write("\nThe number of UniProt id nodes: " + uidCounter);
+        reportStream.write("\nThe number of UniProt id nodes with mapped data: " + uidMappedCounter + "(" + proportion(uidCounter, uidMappedCounter) + "%)");
+        reportStream.write("\nThe number of kinase nodes: " + kinaseCounter);
+        reportStream.write("\nThe number of kinase nodes with mapped data: " + kinaseCounter + "(" + proportion(kinaseCounter, kinaseMappedCounter) + "%)");
+        reportStream.write("\nThe number of biochemical reaction nodes: " + rxnCounter);
+        reportStream.write("\nThe number of transcription factor nodes: " + transcriptionFactorCounter);
+        reportStream.write("\nThe number of cell surface receptor nodes: " + cellSurfaceReceptorCounter);
+        reportStream.write("\nThe number of pathways traversed: " + pathwaysTraversed.size());
+        reportStream.write("\n\n");
+    }
+
+    /**
+     * Performs neighbourhood analysis using the binomial distribution
+     * @param depth
+     * @throws IOException
+     */
+    public void binomialNeighbourhood(Integer depth) throws IOException {
+        binomialNeighbourhood(depth, depth);
+    }
+
+    /**
+     * Performs neighbourhood analysis using the binomial distribution at every depth from minDepth to maxDepth, as
+     * MeasuredDatabase does, from one search per neighbourhood
+     * @param minDepth
+     * @param maxDepth
+     * @throws IOException
+     */
+    public void binomialNeighbourhood(Integer minDepth, Integer maxDepth) throws IOException {
+        int depthCount = maxDepth - minDepth + 1;
+        File[] depthDirs = new File[depthCount];
+
+        // every writer opened is closed on the way out, whether the analysis finished or a worker failed
+        List<Closeable> writers = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (Closeable closeWriters = () -> NeighbourhoodExperiment.closeAll(writers)) {
+            BufferedWriter[] out3 = new BufferedWriter[depthCount];
+            BufferedWriter[] out4 = new BufferedWriter[depthCount];
+            for (int d = 0; d < depthCount; d++) {
+                depthDirs[d] = depthCount == 1 ? outputFile : new File(outputFile, "depth" + (minDepth + d));
+                depthDirs[d].mkdirs();
+
+                FileWriter fstream3 = new FileWriter(depthDirs[d] + "/BinomialNeighbourhoodsReport.tsv");
+                out3[d] = new BufferedWriter(fstream3);
+                writers.add(out3[d]);
+
+                FileWriter fstream4 = new FileWriter(depthDirs[d] + "/experiments.tsv");
+                out4[d] = new BufferedWriter(fstream4);
+                writers.add(out4[d]);
+                out4[d].write("Experiments\tdepth");
+            }
+
+            int experimentCount = snapshot.getExperiments().size();
+            for (String scoreString : snapshot.getExperiments()) {
+                for (int d = 0; d < depthCount; d++) {
+                    out4[d].write("\n" + scoreString + "\t" + (minDepth + d));
+                }
+            }
+            System.out.println("\nCurently analysing: " + String.join(", ", snapshot.getExperiments()));
+
+            // get the physical entity proteins and complexes, and the number measured in every experiment
+            int[] dbMeasured = new int[experimentCount];
+            double numInDb = 0;
+            List<Integer> starts = new ArrayList<>();
+            for (int pe = 0; pe < snapshot.getNodeCount(); pe++) {
+                if (isProteinOrComplex(pe) && snapshot.hasFlag(GraphSnapshot.FLAG_PHYSICAL_ENTITY, pe)) {
+                    for (int exp = 0; exp < experimentCount; exp++) {
+                        if (snapshot.hasSupportScore(exp, pe)) {
+                            dbMeasured[exp]++;
+                        }
+                    }
+                    starts.add(pe);
+                    numInDb++;
+                }
+            }
+
+            // an experiment per depth, sharing their p-values
+            BinomialTail tails = new BinomialTail(Arrays.stream(dbMeasured).max().orElse(0));
+            NeighbourhoodExperiment[][] experiments = new NeighbourhoodExperiment[depthCount][experimentCount];
+            for (int d = 0; d < depthCount; d++) {
+                for (int exp = 0; exp < experimentCount; exp++) {
+                    experiments[d][exp] = new NeighbourhoodExperiment(snapshot.getExperiments().get(exp), depthDirs[d], dbMeasured[exp], numInDb, tails);
+                    writers.add(experiments[d][exp]);
+                }
+            }
+
+            // the neighbourhoods are found and counted in chunks on [threads] workers, each with its own search state
+            // over the shared snapshot, and written in node order
+            ThreadLocal<SnapshotDatabase> workers = ThreadLocal.withInitial(() -> new SnapshotDatabase(this));
+            List<ForkJoinTask<NeighbourhoodExperiment.Neighbourhood[][][]>> tasks = new ArrayList<>();
+            for (int from = 0; from < starts.size(); from += NEIGHBOURHOOD_CHUNK) {
+                List<Integer> chunk = starts.subList(from, Math.min(from + NEIGHBOURHOOD_CHUNK, starts.size()));
+                tasks.add(pool.submit(() -> workers.get().countNeighbourhoods(chunk, minDepth, maxDepth, experiments)));
+            }
+            Integer count = 0;
+            for (ForkJoinTask<NeighbourhoodExperiment.Neighbourhood[][][]> task : tasks) {
+                for (NeighbourhoodExperiment.Neighbourhood[][] neighbourhoods : task.get()) {
+                    for (int d = 0; d < depthCount; d++) {
+                        for (int exp = 0; exp < experimentCount; exp++) {
+                            experiments[d][exp].write(neighbourhoods[d][exp]);
+                        }
+                    }
+                    count++;
+                    if (count % 10000 == 0) {
+                        System.out.print("\rProgress: " + (count * 100.0 / starts.size()));
+                    }
+                }
+            }
+
+            for (int d = 0; d < depthCount; d++) {
+                for (NeighbourhoodExperiment experiment : experiments[d]) {
+                    experiment.writeReport(out3[d]);
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException(e.getCause() == null ? e : e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Finds the neighbourhoods of a chunk of proteins and complexes to maxDepth and counts and tests each one against
+     * every experiment at every depth
+     * @return a neighbourhood per depth and experiment for each start, in the order of the chunk
+     */
+    private NeighbourhoodExperiment.Neighbourhood[][][] countNeighbourhoods(List<Integer> chunk, Integer minDepth, Integer maxDepth,
+                                                                           NeighbourhoodExperiment[][] experiments) {
+        int[] types = relTypes(RelTypes.OUTPUT, RelTypes.INPUT, RelTypes.CONTROLS, RelTypes.CATALYSIS, RelTypes.SMALL_MOL_EDGE,
+                RelationshipType.withName("ACTIVATION"), RelationshipType.withName("INHIBITION"));
+        Direction[] directions = new Direction[types.length];
+        Arrays.fill(directions, Direction.BOTH);
+
+        NeighbourhoodExperiment.Neighbourhood[][][] counted = new NeighbourhoodExperiment.Neighbourhood[chunk.size()][experiments.length][];
+        for (int i = 0; i < chunk.size(); i++) {
+            int pe = chunk.get(i);
+            String displayName = snapshot.getString(PropertyType.DISPLAY_NAME, pe);
+            // iterated by Neo4j node id hash, like the database analysis, each depth adds the next level to the same set
+            // in the order the search found it
+            HashSet<Long> nbhd = new HashSet<>();
+            int[] found = bfs(pe, types, directions, maxDepth);
+            int added = 0;
+            for (int d = 0; d < experiments.length; d++) {
+                while (added < found.length && depths[found[added]] <= minDepth + d) {
+                    nbhd.add(snapshot.getNodeId(found[added++]));
+                }
+                counted[i][d] = countNeighbourhood(nbhd, experiments[d]);
+                for (int exp = 0; exp < experiments[d].length; exp++) {
+                    counted[i][d][exp].finish(snapshot.getNodeId(pe), displayName, peUid(exp, pe, ","));
+                }
+            }
+        }
+        return counted;
+    }
+
+    /**
+     * counts the total neighbourhood size, measured things and unique uids in each experiment
+     */
+    private NeighbourhoodExperiment.Neighbourhood[] countNeighbourhood(HashSet<Long> nbhd, NeighbourhoodExperiment[] experiments) {
+        NeighbourhoodExperiment.Neighbourhood[] neighbourhoods = new NeighbourhoodExperiment.Neighbourhood[experiments.length];
+        for (int exp = 0; exp < experiments.length; exp++) {
+            neighbourhoods[exp] = experiments[exp].newNeighbourhood();
+        }
+        for (Long nodeId : nbhd) {
+            int node = snapshot.getNode(nodeId);
+            String uids = null;
+            for (int exp = 0; exp < experiments.length; exp++) {
+                if (snapshot.hasSupportScore(exp, node)) {
+                    // count num unique uids in nbhd
+                    if (uids == null) {
+                        StringBuilder uidNames = new StringBuilder();
+                        for (int uidNode : incomingStartNodes(node, RelTypes.ID_BELONGS_TO)) {
+                            uidNames.append(snapshot.getString(PropertyType.UNIPROT_ID, uidNode));
+                        }
+                        uids = uidNames.toString();
+                    }
+                    neighbourhoods[exp].addMeasured(snapshot.getSupportScore(exp, node), snapshot.getAbundanceScore(exp, node),
+                            snapshot.hasFlag(GraphSnapshot.FLAG_INTEGRATED, node), uids);
+                }
+            }
+        }
+        return neighbourhoods;
+    }
+
+    /**
+     * Uses dijkstra to find the cheapest paths between 2 nodes, can be Uniprot ID's or node ids and path can be upstream or downstream
+     * @param startString
+     * @param endString
+     * @param weightType "Abundance" (a) or "Support" (s)
+     * @throws IOException
+     */
+    public void shortestPath(String startString, String endString, String weightType) throws IOException {
+        boolean abundance;
+        if (weightType.equalsIgnoreCase("Abundance") | weightType.equalsIgnoreCase("a")) {
+            abundance = true;
+        } else if (weightType.equalsIgnoreCase("Support") | weightType.equalsIgnoreCase("s")) {
+            abundance = false;
+        } else {
+            throw new InputException("Weight type must be either \"Abundance\" (a) or \"Support\" (s)");
+        }
+
+        FileWriter fstream = new FileWriter(outputFile + "/ShortestPathReport_" + startString + "_to_" + endString + ".tsv");
+        BufferedWriter out = new BufferedWriter(fstream);
+        out.write("Shortest Paths Report: ");
+
+        int start = findNode(startString);
+        int end = findNode(endString);
+
+        int[] dsTypes = relTypes(RelTypes.INPUT, RelTypes.OUTPUT, RelTypes.CONTROLS, RelTypes.CATALYSIS,
+                RelTypes.ID_BELONGS_TO, RelTypes.ID_BELONGS_TO, RelTypes.COMPONENT,
+                RelationshipType.withName("ACTIVATION"), RelationshipType.withName("INHIBITION"));
+        Direction[] dsDirections = {Direction.OUTGOING, Direction.OUTGOING, Direction.OUTGOING, Direction.OUTGOING,
+                Direction.OUTGOING, Direction.INCOMING, Direction.OUTGOING, Direction.OUTGOING, Direction.OUTGOING};
+        Direction[] usDirections = {Direction.INCOMING, Direction.INCOMING, Direction.INCOMING, Direction.INCOMING,
+                Direction.OUTGOING, Direction.INCOMING, Direction.INCOMING, Direction.INCOMING, Direction.INCOMING};
+
+        // find and report the shortest path stats for each experiment mapped
+        for (int exp = 0; exp < snapshot.getExperiments().size(); exp++) {
+            String experimentStr = snapshot.getExperiments().get(exp);
+
+            List<PathStep> allPathsDS = cheapestPaths(start, end, dsTypes, dsDirections, exp, abundance, 50);
+            List<PathStep> allPathsUS = cheapestPaths(start, end, dsTypes, usDirections, exp, abundance, 50);
+            if (allPathsDS.isEmpty() & allPathsUS.isEmpty()) {
+                throw new InputException("No path between nodes " + startString + " and " + endString + " either upstream or downstream");
+            }
+            boolean downstream = !allPathsDS.isEmpty();
+            List<PathStep> allPaths = downstream ? allPathsDS : allPathsUS;
+            String streamName = downstream ? "downstream" : "upstream";
+
+            FileWriter fstream1 = new FileWriter(outputFile + "/" + startString + "_to_" + endString + "_" + streamName + "_cytoscape.tsv");
+            BufferedWriter out1 = new BufferedWriter(fstream1);
+            out1.write("nodeID\t" + startString + "_to_" + endString + "\n");
+
+            for (PathStep path : allPaths) {
+                List<PathStep> steps = path.steps();
+                Integer numMolecules = 0;
+                Integer numProteins = 0;
+                Integer numMeasuredProteins = 0;
+                Integer numPhosdProteins = 0;
+                Integer numMeasuredPhosdProteins = 0;
+                Integer numComplexes = 0;
+                Integer numMeasuredComplexes = 0;
+                Integer numRelationships = 0;
+                List<Integer> nodes = new ArrayList<>();
+                nodes.add(start);
+                for (PathStep step : steps) {
+                    nodes.add(step.node);
+                }
+                for (int node : nodes) {
+                    byte classCode = snapshot.getClassCode(node);
+                    if (classCode == GraphSnapshot.CLASS_PROTEIN) {
+                        numMolecules++;
+                        numProteins++;
+                        out1.write(snapshot.getNodeId(node) + "\t" + startString + "_to_" + endString + "\n");
+                        if (snapshot.hasSupportScore(exp, node)) {
+                            numMeasuredProteins++;
+                        }
+                        if (snapshot.degree(snapshot.getRelType(RelTypes.PHOSPHORYLATION), node) > 0) {
+                            numPhosdProteins++;
+                            if (snapshot.hasSupportScore(exp, node)) {
+                                numMeasuredPhosdProteins++;
+                            }
+                        }
+                    } else if (classCode == GraphSnapshot.CLASS_COMPLEX) {
+                        numMolecules++;
+                        numComplexes++;
+                        out1.write(snapshot.getNodeId(node) + "\t" + startString + "_to_" + endString + "\n");
+                        if (snapshot.hasSupportScore(exp, node)) {
+                            numMeasuredComplexes++;
+                        }
+                    } else if (snapshot.hasFlag(GraphSnapshot.FLAG_PHYSICAL_ENTITY, node)) {
+                        numMolecules++;
+                        out1.write(snapshot.getNodeId(node) + "\t" + startString + "_to_" + endString + "\n");
+                    } else if (snapshot.hasFlag(GraphSnapshot.FLAG_INTERACTION, node)) {
+                        numRelationships++;
+                        out1.write(snapshot.getNodeId(node) + "\t" + startString + "_to_" + endString + "\n");
+                    }
+                }
+
+                out.write("\n\nPath between " + startString + " and " + endString + " in experiment " + experimentStr);
+                if (downstream) {
+                    out.write("\n" + startString + " (" + snapshot.getNodeId(start) + ") is upstream of " + endString + " (" + snapshot.getNodeId(end) + ")");
+                } else {
+                    out.write("\n" + startString + " (" + snapshot.getNodeId(start) + ") is downstream of " + endString + " (" + snapshot.getNodeId(end) + ")");
+                }
+                out.write("\nLength of path: " + steps.size());
+                out.write("\nNumber of molecules: " + numMolecules);
+                out.write("\nNumber of reactions: " + numRelationships);
+                out.write("\nNumber of proteins: " + numProteins);
+                out.write("\nNumber of measured proteins: " + numMeasuredProteins);
+                out.write("\nNumber of phosphorylated proteins: " + numPhosdProteins);
+                out.write("\nNumber of measured phosphorylated proteins: " + numMeasuredPhosdProteins);
+                out.write("\nNumber of complexes: " + numComplexes);
+                out.write("\nNumber of measured complexes: " + numMeasuredComplexes);
+                out.write("\nPath with id's:\n" + pathToString(start, path));
+                out.write("\nPath with names:\n");
+                for (int i = 0; i < nodes.size(); i++) {
+                    int node = nodes.get(i);
+                    String name = snapshot.getString(PropertyType.DISPLAY_NAME, node);
+                    String nodeString = name != null ? name : "(" + snapshot.getNodeId(node) + ")";
+                    out.write(downstream ? nodeString + "->" : "<-" + nodeString);
+                    if (i < steps.size()) {
+                        PathStep step = steps.get(i);
+                        double weight = abundance ? snapshot.getAbundanceWeight(exp, step.edge) : snapshot.getSupportWeight(exp, step.edge);
+                        String relString = "[" + snapshot.getRelTypeName(step.type) + "]" + (Double.isNaN(weight) ? "" : "(" + weight + ")");
+                        out.write(downstream ? relString + "->" : "<-" + relString);
+                    }
+                }
+            }
+            out1.close();
+        }
+        out.close();
+    }
+
+    /**
+     * Finds the minimal connection network of every measured proteoform in an experiment,
+     * the union of all shortest paths (up to 10 relationships) between measured proteoforms that don't share a UniProt id
+     * @param experiment
+     * @throws IOException
+     */
+    public void minimalConnectionNetwork(String experiment) throws IOException {
+        int exp = getExperiment(experiment);
+
+        System.out.println("\nMCN FOR " + experiment);
+        FileWriter fstream = new FileWriter(outputFile + "/MinimalConnectionNetworkReport_" + experiment + ".tsv");
+        BufferedWriter out = new BufferedWriter(fstream);
+        out.write("Minimal Connection Network (MCN) Report: ");
+        out.write("\nExperiment: " + experiment);
+
+        List<Integer> mapped = new ArrayList<>();
+        for (int node = 0; node < snapshot.getNodeCount(); node++) {
+            if (snapshot.getClassCode(node) == GraphSnapshot.CLASS_PROTEIN && snapshot.hasSupportScore(exp, node)) {
+                mapped.add(node);
+            }
+        }
+        System.out.println("Mapped Proteoforms: " + mapped.size());
+
+        // every relationship type but small molecule edges, pathway components and uniprot ids, outgoing
+        List<Integer> typeList = new ArrayList<>();
+        for (int t = 0; t < snapshot.getRelTypeCount(); t++) {
+            String name = snapshot.getRelTypeName(t);
+            if (!name.equals(PropertyType.SMALL_MOL_EDGE.toString()) && !name.equals(RelTypes.PATHWAY_COMPONENT.name())
+                    && !name.equals(RelTypes.ID_BELONGS_TO.name())) {
+                typeList.add(t);
+            }
+        }
+        int[] types = typeList.stream().mapToInt(Integer::intValue).toArray();
+        Direction[] directions = new Direction[types.length];
+        Arrays.fill(directions, Direction.OUTGOING);
+
+        HashMap<Integer, HashSet<Integer>> uids = new HashMap<>();
+        for (int node : mapped) {
+            HashSet<Integer> nodeUids = new HashSet<>();
+            for (int uid : startNodes(node, RelTypes.ID_BELONGS_TO)) {
+                nodeUids.add(uid);
+            }
+            uids.put(node, nodeUids);
+        }
+
+        HashSet<Long> mcnNodes = new HashSet<>();
+        int[] onPath = new int[snapshot.getNodeCount()];
+        Integer count = 0;
+        int mappedSize = mapped.size();
+        for (int start : mapped) {
+            count++;
+            System.out.print("\rProgress: " + (count / mappedSize) * 100);
+            mcnNodes.add(snapshot.getNodeId(start));
+
+            bfs(start, types, directions, 10, false);
+            int search = stamp;
+            for (int end : mapped) {
+                if (start != end && visited[end] == search && Collections.disjoint(uids.get(start), uids.get(end))) {
+                    // walk back over every shortest path to the end
+                    Deque<Integer> back = new ArrayDeque<>();
+                    if (onPath[end] != search) {
+                        onPath[end] = search;
+                        back.push(end);
+                    }
+                    while (!back.isEmpty()) {
+                        int node = back.pop();
+                        mcnNodes.add(snapshot.getNodeId(node));
+                        for (int t : types) {
+                            for (int i = snapshot.inBegin(t, node); i < snapshot.inEnd(t, node); i++) {
+                                int previous = snapshot.inSource(t, i);
+                                if (visited[previous] == search && depths[previous] == depths[node] - 1 && onPath[previous] != search) {
+                                    onPath[previous] = search;
+                                    back.push(previous);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        FileWriter fstream1 = new FileWriter(outputFile + "/MinimalConnectionNetwork_" + experiment + "_cytoscape.tsv");
+        BufferedWriter out1 = new BufferedWriter(fstream1);
+        out1.write("NodeID\tMCN_" + experiment + "\n");
+
+        Integer numProteins = 0;
+        Integer numMappedProteins = 0;
+        Integer numPhosdProteins = 0;
+        Integer numMappedPhosdProteins = 0;
+        Integer numComplexes = 0;
+        Integer numMappedComplexes = 0;
+        HashSet<String> numUIDs = new HashSet<>();
+        Integer numRXNs = 0;
+        Integer numKinases = 0;
+        Integer numMappedKinases = 0;
+        Integer numIntegrated = 0;
+
+        int phosphorylation = snapshot.getRelType(RelTypes.PHOSPHORYLATION);
+        for (Long nodeId : mcnNodes) {
+            int node = snapshot.getNode(nodeId);
+            out1.write(nodeId + "\tMCN_" + experiment + "\n");
+            byte classCode = snapshot.getClassCode(node);
+            if (classCode == GraphSnapshot.CLASS_PROTEIN) {
+                numProteins++;
+                if (snapshot.hasSupportScore(exp, node)) {
+                    numMappedProteins++;
+                }
+                if (snapshot.hasFlag(GraphSnapshot.FLAG_INTEGRATED, node)) {
+                    numIntegrated++;
+                }
+                if (snapshot.degree(phosphorylation, node) > 0) {
+                    numPhosdProteins++;
+                    if (snapshot.hasSupportScore(exp, node)) {
+                        numMappedPhosdProteins++;
+                    }
+                }
+                if (snapshot.hasFlag(GraphSnapshot.FLAG_KINASE, node)) {
+                    numKinases++;
+                    if (snapshot.hasSupportScore(exp, node)) {
+                        numMappedKinases++;
+                    }
+                }
+                for (int uidNode : incomingStartNodes(node, RelTypes.ID_BELONGS_TO)) {
+                    numUIDs.add(snapshot.getString(PropertyType.UNIPROT_ID, uidNode));
+                    out1.write(snapshot.getNodeId(uidNode) + "\tMCN_" + experiment + "\n");
+                }
+            } else if (classCode == GraphSnapshot.CLASS_COMPLEX) {
+                numComplexes++;
+                if (snapshot.hasSupportScore(exp, node)) {
+                    numMappedComplexes++;
+                }
+                if (snapshot.hasFlag(GraphSnapshot.FLAG_INTEGRATED, node)) {
+                    numIntegrated++;
+                }
+            } else if (classCode == GraphSnapshot.CLASS_BIOCHEMICAL_REACTION) {
+                numRXNs++;
+            }
+        }
+
+        for (String uid : numUIDs) {
+            out1.write(uid + "\tMCN_" + experiment + "\n");
+        }
+        out1.close();
+
+        out.write("\nThe number of proteoforms in the MCN: " + numProteins);
+        out.write("\nThe number of mapped proteofroms in the MCN: " + numMappedProteins);
+        out.write("\nThe number of phosphorylated proteoforms in the MCN: " + numPhosdProteins);
+        out.write("\nThe number of mapped phosphorylated proteoforms in the MCN: " + numMappedPhosdProteins);
+        out.write("\nThe number of complexes in the MCN: " + numComplexes);
+        out.write("\nThe number of mapped complexes in the MCN: " + numMappedComplexes);
+        out.write("\nThe number of UniProt ids in the MCN: " + numUIDs.size());
+        out.write("\nThe number of mapped biochemical reactions in the MCN: " + numRXNs);
+        out.write("\nThe number of kinases in the MCN: " + numKinases);
+        out.write("\nThe number of mapped kinases in the MCN: " + numMappedKinases);
+        out.write("\nThe number of integrated nodes in the MCN: " + numIntegrated);
+        out.write("\n");
+        out.close();
+        System.out.println();
+    }
+
+    /**
+     * The up or downstream traversal of MeasuredDatabase, small molecules are included but not traversed through
+     * @param node dense id of the start
+     * @param direction "upstream" or "downstream"
+     * @return the nodes found, starting with node
+     */
+    int[] traverse(int node, String direction) {
+        if (direction.equals("downstream")) {
+            int[] types = relTypes(RelTypes.PHOSPHORYLATION, RelTypes.ID_BELONGS_TO, RelTypes.INPUT, RelTypes.OUTPUT,
+                    RelTypes.CONTROLS, RelTypes.CATALYSIS, RelTypes.COMPONENT, RelTypes.SMALL_MOL_EDGE,
+                    RelationshipType.withName("ACTIVATION"), RelationshipType.withName("INHIBITION"));
+            Direction[] directions = {Direction.INCOMING, Direction.INCOMING, Direction.OUTGOING, Direction.OUTGOING,
+                    Direction.OUTGOING, Direction.OUTGOING, Direction.OUTGOING, Direction.OUTGOING,
+                    Direction.OUTGOING, Direction.OUTGOING};
+            return bfs(node, types, directions, Integer.MAX_VALUE);
+        } else {
+            // the upstream traversal only stops at a small molecule it starts from
+            if (snapshot.getClassCode(node) == GraphSnapshot.CLASS_SMALL_MOLECULE) {
+                return new int[]{node};
+            }
+            int[] types = relTypes(RelTypes.INPUT, RelTypes.OUTPUT, RelTypes.CONTROLS, RelTypes.PHOSPHORYLATION,
+                    RelTypes.ID_BELONGS_TO, RelTypes.COMPONENT, RelTypes.SMALL_MOL_EDGE,
+                    RelationshipType.withName("ACTIVATION"), RelationshipType.withName("INHIBITION"));
+            Direction[] directions = new Direction[types.length];
+            Arrays.fill(directions, Direction.INCOMING);
+            return bfs(node, types, directions, Integer.MAX_VALUE, false);
+        }
+    }
+
+    /**
+     * The neighbourhood traversal of MeasuredDatabase
+     * @param node dense id
+     * @param depth
+     * @return the nodes within depth of the node, small molecules are included but not traversed through
+     */
+    int[] neighbourTraversal(int node, Integer depth) {
+        int[] types = relTypes(RelTypes.OUTPUT, RelTypes.INPUT, RelTypes.CONTROLS, RelTypes.CATALYSIS, RelTypes.SMALL_MOL_EDGE,
+                RelationshipType.withName("ACTIVATION"), RelationshipType.withName("INHIBITION"));
+        Direction[] directions = new Direction[types.length];
+        Arrays.fill(directions, Direction.BOTH);
+        return bfs(node, types, directions, depth);
+    }
+
+    private int[] bfs(int start, int[] types, Direction[] directions, int maxDepth) {
+        return bfs(start, types, directions, maxDepth, true);
+    }
+
+    /**
+     * Breadth first search visiting every node once, leaves visited and depths set for the search
+     * @param pruneSmallMolecules don't expand from small molecules
+     * @return the nodes found in the order they were found
+     */
+    private int[] bfs(int start, int[] types, Direction[] directions, int maxDepth, boolean pruneSmallMolecules) {
+        int[] followed = followed(types, directions);
+        stamp++;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        visited[start] = stamp;
+        depths[start] = 0;
+        while (head < tail) {
+            int node = queue[head++];
+            if (depths[node] >= maxDepth ||
+                    (pruneSmallMolecules && snapshot.getClassCode(node) == GraphSnapshot.CLASS_SMALL_MOLECULE)) {
+                continue;
+            }
+            for (int group : EXPANSION_ORDER) {
+                for (int i = snapshot.relBegin(node); i < snapshot.relEnd(node); i++) {
+                    if (!follows(followed, group, i)) {
+                        continue;
+                    }
+                    int next = snapshot.relOther(i);
+                    if (visited[next] != stamp) {
+                        visited[next] = stamp;
+                        depths[next] = depths[node] + 1;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(queue, tail);
+    }
+
+    /**
+     * @return the groups each relationship type is expanded in, a type followed both ways is only expanded either way
+     */
+    private int[] followed(int[] types, Direction[] directions) {
+        int[] followed = new int[snapshot.getRelTypeCount()];
+        for (int j = 0; j < types.length; j++) {
+            if (types[j] < 0) {
+                continue;
+            }
+            if (directions[j] == Direction.OUTGOING) {
+                followed[types[j]] |= GraphSnapshot.OUTGOING;
+            } else if (directions[j] == Direction.INCOMING) {
+                followed[types[j]] |= GraphSnapshot.INCOMING;
+            } else {
+                followed[types[j]] |= EITHER;
+            }
+        }
+        for (int t = 0; t < followed.length; t++) {
+            if ((followed[t] & EITHER) != 0) {
+                followed[t] = EITHER;
+            }
+        }
+        return followed;
+    }
+
+    /**
+     * @return true if the i-th relationship in a node's relationship order is followed when its group is expanded
+     */
+    private boolean follows(int[] followed, int group, int i) {
+        if ((followed[snapshot.relType(i)] & group) == 0) {
+            return false;
+        }
+        return group == EITHER || (snapshot.relDirections(i) & group) != 0;
+    }
+
+    /**
+     * Best first search over paths, ordered by the experiment's relationship weights, as Neo4j's dijkstra does when
+     * asked for more than one path. Paths don't revisit nodes and a node is expanded at most maxPaths times.
+     * Relationships without a weight aren't followed
+     * @return up to maxPaths paths in order of cost, each a list of steps {node, type, edge, forward}
+     */
+    private List<PathStep> cheapestPaths(int start, int end, int[] types, Direction[] directions, int exp, boolean abundance, int maxPaths) {
+        List<PathStep> paths = new ArrayList<>();
+        if (start == end) {
+            return paths;
+        }
+        int[] followed = followed(types, directions);
+        HashMap<Integer, Integer> visits = new HashMap<>();
+        PriorityQueue<PathStep> heap = new PriorityQueue<>();
+        heap.add(new PathStep(null, start, -1, -1, true, 0.0, 0));
+        long order = 1;
+        while (!heap.isEmpty() && paths.size() < maxPaths) {
+            PathStep path = heap.poll();
+            int numVisits = visits.merge(path.node, 1, Integer::sum);
+            if (numVisits > maxPaths) {
+                continue;
+            }
+            if (path.node == end) {
+                paths.add(path);
+                continue;
+            }
+            for (int group : EXPANSION_ORDER) {
+                for (int i = snapshot.relBegin(path.node); i < snapshot.relEnd(path.node); i++) {
+                    if (!follows(followed, group, i)) {
+                        continue;
+                    }
+                    int next = snapshot.relOther(i);
+                    int edge = snapshot.relEdge(i);
+                    double weight = abundance ? snapshot.getAbundanceWeight(exp, edge) : snapshot.getSupportWeight(exp, edge);
+                    if (!Double.isNaN(weight) && !path.contains(next)) {
+                        boolean forward = (snapshot.relDirections(i) & GraphSnapshot.OUTGOING) != 0;
+                        heap.add(new PathStep(path, next, snapshot.relType(i), edge, forward, path.cost + weight, order++));
+                    }
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * the last step of a path, linked back to the start
+     */
+    private static class PathStep implements Comparable<PathStep> {
+        final PathStep previous;
+        final int node;
+        final int type;
+        final int edge;
+        final boolean forward;
+        final double cost;
+        final long order;
+
+        PathStep(PathStep previous, int node, int type, int edge, boolean forward, double cost, long order) {
+            this.previous = previous;
+            this.node = node;
+            this.type = type;
+            this.edge = edge;
+            this.forward = forward;
+            this.cost = cost;
+            this.order = order;
+        }
+
+        boolean contains(int other) {
+            for (PathStep step = this; step != null; step = step.previous) {
+                if (step.node == other) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return the steps after the start, in order
+         */
+        List<PathStep> steps() {
+            LinkedList<PathStep> steps = new LinkedList<>();
+            for (PathStep step = this; step.previous != null; step = step.previous) {
+                steps.addFirst(step);
+            }
+            return steps;
+        }
+
+        @Override
+        public int compareTo(PathStep other) {
+            if (Math.abs(cost - other.cost) > EPSILON) {
+                return Double.compare(cost, other.cost);
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+
+    /**
+     * writes a path the way Neo4j does, (1)-[INPUT,4]->(2)<-[OUTPUT,7]-(3) weight:2.0
+     */
+    private String pathToString(int start, PathStep path) {
+        StringBuilder s = new StringBuilder("(" + snapshot.getNodeId(start) + ")");
+        for (PathStep step : path.steps()) {
+            String rel = "[" + snapshot.getRelTypeName(step.type) + "," + snapshot.getRelationshipId(step.edge) + "]";
+            if (step.forward) {
+                s.append("-").append(rel).append("->");
+            } else {
+                s.append("<-").append(rel).append("-");
+            }
+            s.append("(").append(snapshot.getNodeId(step.node)).append(")");
+        }
+        s.append(" weight:").append(path.cost);
+        return s.toString();
+    }
+
+    /**
+     * the other end of every relationship of this type on the node, in either direction
+     */
+    private List<Integer> endNodes(int node, RelationshipType type) {
+        List<Integer> ends = new ArrayList<>();
+        int t = snapshot.getRelType(type);
+        if (t >= 0) {
+            for (int i = snapshot.outBegin(t, node); i < snapshot.outEnd(t, node); i++) {
+                ends.add(snapshot.outTarget(t, i));
+            }
+            // an incoming relationship ends at the node itself
+            for (int i = snapshot.inBegin(t, node); i < snapshot.inEnd(t, node); i++) {
+                ends.add(node);
+            }
+        }
+        return ends;
+    }
+
+    /**
+     * the proteoforms of a UniProt id node, in the order Neo4j lists its relationships
+     */
+    private List<Integer> proteoforms(int node) {
+        List<Integer> prots = new ArrayList<>();
+        int t = snapshot.getRelType(RelTypes.ID_BELONGS_TO);
+        for (int i = snapshot.relBegin(node); i < snapshot.relEnd(node); i++) {
+            if (snapshot.relType(i) == t) {
+                prots.add((snapshot.relDirections(i) & GraphSnapshot.OUTGOING) != 0 ? snapshot.relOther(i) : node);
+            }
+        }
+        return prots;
+    }
+
+    /**
+     * the start node of every relationship of this type on the node, in either direction
+     */
+    private List<Integer> startNodes(int node, RelationshipType type) {
+        List<Integer> starts = new ArrayList<>();
+        int t = snapshot.getRelType(type);
+        if (t >= 0) {
+            for (int i = snapshot.outBegin(t, node); i < snapshot.outEnd(t, node); i++) {
+                starts.add(node);
+            }
+            starts.addAll(incomingStartNodes(node, type));
+        }
+        return starts;
+    }
+
+    private List<Integer> incomingStartNodes(int node, RelationshipType type) {
+        List<Integer> starts = new ArrayList<>();
+        int t = snapshot.getRelType(type);
+        if (t >= 0) {
+            for (int i = snapshot.inBegin(t, node); i < snapshot.inEnd(t, node); i++) {
+                starts.add(snapshot.inSource(t, i));
+            }
+        }
+        return starts;
+    }
+
+    private int[] relTypes(RelationshipType... types) {
+        int[] indexes = new int[types.length];
+        for (int i = 0; i < types.length; i++) {
+            indexes[i] = snapshot.getRelType(types[i]);
+        }
+        return indexes;
+    }
+
+    private boolean isProteinOrComplex(int node) {
+        byte classCode = snapshot.getClassCode(node);
+        return classCode == GraphSnapshot.CLASS_PROTEIN | classCode == GraphSnapshot.CLASS_COMPLEX;
+    }
+
+    /**
+     * the uid a physical entity is reported under, the one it was scored by if it's measured
+     */
+    private String peUid(int exp, int pe, String separator) {
+        if (snapshot.getScoredBy(exp, pe) != null) {
+            return snapshot.getScoredBy(exp, pe);
+        } else if (snapshot.getString(PropertyType.UNIPROT_ID, pe) != null) {
+            return snapshot.getString(PropertyType.UNIPROT_ID, pe);
+        }
+        List<Integer> uidNodes = incomingStartNodes(pe, RelTypes.ID_BELONGS_TO);
+        if (uidNodes.size() == 1) {
+            return snapshot.getString(PropertyType.UNIPROT_ID, uidNodes.get(0));
+        }
+        StringBuilder uid = new StringBuilder();
+        for (int uidNode : uidNodes) {
+            uid.append(snapshot.getString(PropertyType.UNIPROT_ID, uidNode)).append(separator);
+        }
+        return uid.toString();
+    }
+
+    private int findNode(String nodeString) {
+        Pattern p = Pattern.compile(UID_PATTERN);
+        Matcher m = p.matcher(nodeString);
+        int node;
+        if (m.find()) { // if its a uniprot id
+            node = snapshot.findUniProt(m.group(0));
+        } else { // its a node id
+            node = snapshot.getNode(Long.valueOf(nodeString));
+        }
+        if (node < 0) {
+            throw new NotFoundException(nodeString + " does not exist in the snapshot " + snapshotFile);
+        }
+        return node;
+    }
+
+    private int getExperiment(String experiment) {
+        int exp = snapshot.getExperiment(experiment);
+        if (exp < 0) {
+            throw new InputException(experiment + " is not currently in this snapshot: " + snapshotFile +
+                    "\nExperiments in this snapshot are: " + snapshot.getExperiments());
+        }
+        return exp;
+    }
+
+    private Double proportion(Integer num, Integer numMapped) {
+        Double total = Double.valueOf(num);
+        Double mapped = Double.valueOf(numMapped);
+
+        Double prop = mapped / total;
+        prop = (Math.round(prop * 100.00)) / 1.00;
+
+        return prop;
+    }
+}
@@ -0,0 +1,287 @@
+package org.wehi.hucksteph;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotDatabaseTest {
+
+    private final File TEST_OWL_FILE = new File("test/InsulinTestNtwk.owl");
+    private final File TEST_DATA_FILE = new File("test/mapTestData.txt");
+    private final File DATABASE_ACTUAL_PATH = new File("test/actual/");
+
+    /**
+     * Makes the test database, maps the test data to it and exports it to a snapshot
+     */
+    private void makeDatabaseAndSnapshot(File tempGraphDir, File tempOutputDir, File snapshotFile) throws IOException {
+        // in case graph wasn't already deleted
+        InputStream sysInBackup = System.in; // backup System.in to restore it later
+        ByteArrayInputStream in = new ByteArrayInputStream("y".getBytes());
+        System.setIn(in);
+        // Make a new graph
+        DatabaseFactory dbf = new DatabaseFactory(TEST_OWL_FILE, tempGraphDir, false, "human");
+        dbf.createDBfromOWL();
+        System.setIn(sysInBackup);// reset System.in to its original
+
+        EmbeddedNeo4jDatabase edb = new EmbeddedNeo4jDatabase(tempGraphDir, tempOutputDir);
+        ByteArrayInputStream in2 = new ByteArrayInputStream("UniProtID mod_Seq pVal expr".getBytes());
+        System.setIn(in2);
+        edb.mapMQPhosphopeps(TEST_DATA_FILE, "HighestSupport");
+        System.setIn(sysInBackup);// reset System.in to its original
+
+        new EmbeddedNeo4jDatabase(tempGraphDir, snapshotFile).exportSnapshot();
+    }
+
+    /**
+     * Every file the database analysis wrote, the snapshot analysis wrote the same
+     */
+    private void assertSameFiles(File databaseOutput, File snapshotOutput) throws IOException {
+        String[] names = databaseOutput.list();
+        String[] snapshotNames = snapshotOutput.list();
+        assertNotNull(names);
+        assertNotNull(snapshotNames);
+        Arrays.sort(names);
+        Arrays.sort(snapshotNames);
+        assertTrue(names.length > 0);
+        assertArrayEquals(names, snapshotNames);
+        for (String name : names) {
+            File expected = new File(databaseOutput, name);
+            File actual = new File(snapshotOutput, name);
+            if (expected.isDirectory()) {
+                assertSameFiles(expected, actual);
+            } else {
+                assertEquals(FileUtils.readFileToString(expected, "UTF-8"), FileUtils.readFileToString(actual, "UTF-8"), name);
+            }
+        }
+    }
+
+    @Test
+    void traversalNodeIdMatchesDatabaseAndExpected() throws IOException {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/");
+        File tempGraphDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/GRAPH/");
+        File snapshotFile = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/graph.snap");
+        File databaseOutput = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/db/");
+        File snapshotOutput = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/snap/");
+        databaseOutput.mkdirs();
+        snapshotOutput.mkdirs();
+        makeDatabaseAndSnapshot(tempGraphDir, tempDir, snapshotFile);
+
+        new MeasuredDatabase(tempGraphDir, databaseOutput).traversal("17", "downstream", "0");
+        new MeasuredDatabase(tempGraphDir, databaseOutput).traversal("1", "upstream", "0");
+        SnapshotDatabase sdb = new SnapshotDatabase(snapshotFile, snapshotOutput);
+        sdb.traversal("17", "downstream", "0");
+        sdb.traversal("1", "upstream", "0");
+
+        try {
+            assertSameFiles(databaseOutput, snapshotOutput);
+            assertTrue(FileUtils.contentEquals(new File(snapshotOutput, "17_Downstream.tsv"),
+                    new File("test/expected/traversal/17_Downstream.tsv")));
+            assertTrue(FileUtils.contentEquals(new File(snapshotOutput, "TraversalReport_downstream_17.tsv"),
+                    new File("test/expected/traversal/TraversalReport_downstream_17.tsv")));
+            assertTrue(FileUtils.contentEquals(new File(snapshotOutput, "1_Upstream.tsv"),
+                    new File("test/expected/traversal/1_Upstream.tsv")));
+            assertTrue(FileUtils.contentEquals(new File(snapshotOutput, "TraversalReport_upstream_1.tsv"),
+                    new File("test/expected/traversal/TraversalReport_upstream_1.tsv")));
+        } finally {
+            FileUtils.deleteDirectory(tempDir);
+        }
+    }
+
+    @Test
+    void traversalUidMatchesDatabase() throws IOException {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/");
+        File tempGraphDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/GRAPH/");
+        File snapshotFile = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/graph.snap");
+        File databaseOutput = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/db/");
+        File snapshotOutput = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/snap/");
+        databaseOutput.mkdirs();
+        snapshotOutput.mkdirs();
+        makeDatabaseAndSnapshot(tempGraphDir, tempDir, snapshotFile);
+
+        new MeasuredDatabase(tempGraphDir, databaseOutput).traversal("P06213", "downstream", "0");
+        new MeasuredDatabase(tempGraphDir, databaseOutput).traversal("Q99943", "upstream", "0");
+        SnapshotDatabase sdb = new SnapshotDatabase(snapshotFile, snapshotOutput);
+        sdb.traversal("P06213", "downstream", "0");
+        sdb.traversal("Q99943", "upstream", "0");
+
+        try {
+            assertSameFiles(databaseOutput, snapshotOutput);
+        } finally {
+            FileUtils.deleteDirectory(tempDir);
+        }
+    }
+
+    @Test
+    void traversalFileMatchesDatabaseOnAnyThreads() throws IOException {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/");
+        File tempGraphDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/GRAPH/");
+        File snapshotFile = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/graph.snap");
+        File idFile = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/ids.txt");
+        File databaseOutput = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/db/");
+        File snapshotOutput = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/snap/");
+        File threadedOutput = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/threaded/");
+        databaseOutput.mkdirs();
+        snapshotOutput.mkdirs();
+        threadedOutput.mkdirs();
+        makeDatabaseAndSnapshot(tempGraphDir, tempDir, snapshotFile);
+        // repeated, unknown and blank ids are skipped
+        FileUtils.writeStringToFile(idFile, "Q99943\n17\nP06213\nQ99943\n\nP00000\n1\n", "UTF-8");
+
+        MeasuredDatabase mdb = new MeasuredDatabase(tempGraphDir, databaseOutput);
+        mdb.setThreads(1);
+        mdb.traversal(idFile, "downstream", "0");
+        mdb.traversal(idFile, "upstream", "0");
+        SnapshotDatabase sdb = new SnapshotDatabase(snapshotFile, snapshotOutput);
+        sdb.setThreads(1);
+        sdb.traversal(idFile, "downstream", "0");
+        sdb.traversal(idFile, "upstream", "0");
+        SnapshotDatabase threaded = new SnapshotDatabase(snapshotFile, threadedOutput);
+        threaded.setThreads(3);
+        threaded.traversal(idFile, "downstream", "0");
+        threaded.traversal(idFile, "upstream", "0");
+
+        try {
+            assertEquals(6, snapshotOutput.list().length);
+            assertSameFiles(databaseOutput, snapshotOutput);
+            assertSameFiles(snapshotOutput, threadedOutput);
+
+            // rows are in the order of the file
+            List<String> order = new ArrayList<>();
+            for (String row : FileUtils.readLines(new File(snapshotOutput, "ids_downstream_traversal_cytoscape.tsv"), "UTF-8")) {
+                String uid = row.split("\t")[1];
+                if (!order.contains(uid)) {
+                    order.add(uid);
+                }
+            }
+            assertEquals(Arrays.asList("UID", "Q99943", "17", "P06213", "1"), order);
+        } finally {
+            FileUtils.deleteDirectory(tempDir);
+        }
+    }
+
+    @Test
+    void shortestPathAndMinimalConnectionNetworkMatchDatabase() throws IOException {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/");
+        File tempGraphDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/GRAPH/");
+        File snapshotFile = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/graph.snap");
+        File databaseOutput = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/db/");
+        File snapshotOutput = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/snap/");
+        databaseOutput.mkdirs();
+        snapshotOutput.mkdirs();
+        makeDatabaseAndSnapshot(tempGraphDir, tempDir, snapshotFile);
+
+        MeasuredDatabase mdb = new MeasuredDatabase(tempGraphDir, databaseOutput);
+        mdb.shortestPath("Q9UH92-2", "Q99943", "Support");
+        mdb.shortestPath("13", "26", "Support");
+        mdb.shortestPath("P06213", "22", "Abundance");
+        mdb.minimalConnectionNetwork("0");
+        SnapshotDatabase sdb = new SnapshotDatabase(snapshotFile, snapshotOutput);
+        sdb.shortestPath("Q9UH92-2", "Q99943", "Support");
+        sdb.shortestPath("13", "26", "Support");
+        sdb.shortestPath("P06213", "22", "Abundance");
+        sdb.minimalConnectionNetwork("0");
+
+        try {
+            String[] names = databaseOutput.list();
+            String[] snapshotNames = snapshotOutput.list();
+            assertNotNull(names);
+            assertNotNull(snapshotNames);
+            Arrays.sort(names);
+            Arrays.sort(snapshotNames);
+            assertArrayEquals(names, snapshotNames);
+            for (String name : names) {
+                String expected = FileUtils.readFileToString(new File(databaseOutput, name), "UTF-8");
+                String actual = FileUtils.readFileToString(new File(snapshotOutput, name), "UTF-8");
+                if (name.startsWith("MinimalConnectionNetwork")) {
+                    assertEquals(expected, actual, name);
+                } else if (name.startsWith("ShortestPathReport")) {
+                    // paths of the same cost can be found in another order
+                    assertEquals(weights(expected), weights(actual), name);
+                    assertEquals(sorted(expected.split("\n\n")), sorted(actual.split("\n\n")), name);
+                } else {
+                    assertEquals(sorted(expected.split("\n")), sorted(actual.split("\n")), name);
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(tempDir);
+        }
+    }
+
+    private List<String> weights(String report) {
+        List<String> weights = new ArrayList<>();
+        Matcher m = Pattern.compile("weight:(\\S+)").matcher(report);
+        while (m.find()) {
+            weights.add(m.group(1));
+        }
+        return weights;
+    }
+
+    private List<String> sorted(String[] lines) {
+        List<String> sorted = new ArrayList<>(Arrays.asList(lines));
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    @Test
+    void binomialNeighbourhoodMatchesDatabase() throws IOException {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/");
+        File tempGraphDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/GRAPH/");
+        File snapshotFile = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/graph.snap");
+        File databaseOutput = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/db/");
+        File snapshotOutput = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/SNAPSHOTPARITY/snap/");
+        databaseOutput.mkdirs();
+        snapshotOutput.mkdirs();
+        makeDatabaseAndSnapshot(tempGraphDir, tempDir, snapshotFile);
+
+        new MeasuredDatabase(tempGraphDir, databaseOutput).binomialNeighbourhood(1, 3);
+        new SnapshotDatabase(snapshotFile, snapshotOutput).binomialNeighbourhood(1, 3);
+
+        try {
+            for (int depth = 1; depth <= 3; depth++) {
+                File databaseDepth = new File(databaseOutput, "depth" + depth);
+                File snapshotDepth = new File(snapshotOutput, "depth" + depth);
+                String[] names = databaseDepth.list();
+                assertNotNull(names);
+                for (String name : names) {
+                    List<String> expected = FileUtils.readLines(new File(databaseDepth, name), "UTF-8");
+                    List<String> actual = FileUtils.readLines(new File(snapshotDepth, name), "UTF-8");
+                    assertEquals(expected.size(), actual.size(), name);
+                    for (int row = 0; row < expected.size(); row++) {
+                        assertSameRow(expected.get(row), actual.get(row), name);
+                    }
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(tempDir);
+        }
+    }
+
+    /**
+     * The same row, but the averages may differ in their last digits as a neighbourhood can be summed in another order
+     */
+    private void assertSameRow(String expected, String actual, String file) {
+        String[] expectedColumns = expected.split("\t", -1);
+        String[] actualColumns = actual.split("\t", -1);
+        assertEquals(expectedColumns.length, actualColumns.length, file + ": " + actual);
+        for (int i = 0; i < expectedColumns.length; i++) {
+            if (expectedColumns[i].equals(actualColumns[i])) {
+                continue;
+            }
+            double expectedValue = Double.parseDouble(expectedColumns[i]);
+            double actualValue = Double.parseDouble(actualColumns[i]);
+            assertEquals(expectedValue, actualValue, Math.abs(expectedValue) * 1e-12, file + ": " + actual);
+        }
+    }
+}
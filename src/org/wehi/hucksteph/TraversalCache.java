@@ -0,0 +1,192 @@
+package org.wehi.hucksteph;
+
+import org.apache.commons.io.FileUtils;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Traversals kept on disk next to the database, a file per start node and profile in [database].trav.
+ * A traversal doesn't depend on the experiment, so reports of the same node against other experiments read it back
+ * instead of searching again. Each file holds the topology version of the graph it was found at and is run again once
+ * the topology changes, mapping or resetting an experiment keeps it. Nodes are kept in the order they were found, as
+ * deflated variable length deltas
+ */
+class TraversalCache {
+
+    private static final int MAGIC = 0x54525643;
+    private static final int VERSION = 1;
+
+    private final File cacheDir;
+    private final long topology;
+    private boolean warned = false;
+
+    /**
+     * @param databaseDir
+     * @param topology the topology version of the graph now
+     */
+    TraversalCache(File databaseDir, long topology) {
+        this.cacheDir = cacheDir(databaseDir);
+        this.topology = topology;
+    }
+
+    private static File cacheDir(File databaseDir) {
+        File dir = databaseDir.getAbsoluteFile().toPath().normalize().toFile();
+        return new File(dir.getParentFile(), dir.getName() + ".trav");
+    }
+
+    /**
+     * Deletes the traversals kept for a database, for when its topology changes
+     * @param databaseDir
+     */
+    static void clear(File databaseDir) {
+        File dir = cacheDir(databaseDir);
+        if (dir.exists()) {
+            try {
+                FileUtils.deleteDirectory(dir);
+            } catch (IOException e) {
+                System.out.println("Could not delete the traversal cache " + dir + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The traversal of a profile from a node, read from disk if it was kept at this topology, otherwise
+     * run and kept. Must be called inside a transaction and the result used inside the same one
+     * @param node
+     * @param profile
+     * @param graphDb
+     * @return
+     */
+    TraversalResult get(Node node, TraversalProfile profile, GraphDatabaseService graphDb) {
+        File file = new File(cacheDir, node.getId() + "_" + profile.getName() + ".trav");
+        try {
+            TraversalResult result = load(file, graphDb);
+            if (result != null) {
+                return result;
+            }
+        } catch (IOException e) {
+            System.out.println("Could not read the kept traversal " + file + ": " + e.getMessage());
+        }
+
+        TraversalResult result = TraversalResult.of(profile.describe(graphDb).traverse(node));
+        try {
+            save(file, result);
+        } catch (IOException e) {
+            synchronized (this) {
+                if (!warned) {
+                    System.out.println("Could not keep traversals in " + cacheDir + ": " + e.getMessage());
+                    warned = true;
+                }
+            }
+        }
+        return result;
+    }
+
+    private TraversalResult load(File file, GraphDatabaseService graphDb) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != topology) {
+                return null;
+            }
+            int size = in.readInt();
+            long[] nodeIds = new long[size];
+            int[] depths = new int[size];
+            long[] predecessors = new long[size];
+            DataInputStream values = new DataInputStream(new BufferedInputStream(new InflaterInputStream(in)));
+            long lastId = 0;
+            int lastDepth = 0;
+            for (int i = 0; i < size; i++) {
+                lastId += unzigzag(readVarLong(values));
+                lastDepth += (int) readVarLong(values);
+                int from = (int) readVarLong(values);
+                nodeIds[i] = lastId;
+                depths[i] = lastDepth;
+                predecessors[i] = from == 0 ? -1 : nodeIds[from - 1];
+            }
+            return TraversalResult.of(graphDb, nodeIds, depths, predecessors);
+        }
+    }
+
+    private void save(File file, TraversalResult result) throws IOException {
+        // predecessors are kept as the position they were found at, every one is found before the nodes it leads to
+        HashMap<Long, Integer> positions = new HashMap<>();
+        for (int i = 0; i < result.size(); i++) {
+            positions.putIfAbsent(result.getNodes().get(i).getId(), i);
+        }
+        for (int i = 0; i < result.size(); i++) {
+            long predecessor = result.getPredecessor(i);
+            if (predecessor != -1 && !(positions.containsKey(predecessor) && positions.get(predecessor) < i)) {
+                return;
+            }
+        }
+
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            throw new IOException("could not make the directory");
+        }
+        // written aside and moved in, so a file being read is never half written
+        File temp = File.createTempFile(file.getName(), ".tmp", cacheDir);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(topology);
+            out.writeInt(result.size());
+            out.flush();
+            DeflaterOutputStream deflater = new DeflaterOutputStream(out);
+            DataOutputStream values = new DataOutputStream(new BufferedOutputStream(deflater));
+            long lastId = 0;
+            int lastDepth = 0;
+            for (int i = 0; i < result.size(); i++) {
+                long id = result.getNodes().get(i).getId();
+                long predecessor = result.getPredecessor(i);
+                writeVarLong(values, zigzag(id - lastId));
+                writeVarLong(values, result.getDepth(i) - lastDepth);
+                writeVarLong(values, predecessor == -1 ? 0 : positions.get(predecessor) + 1);
+                lastId = id;
+                lastDepth = result.getDepth(i);
+            }
+            values.flush();
+            deflater.finish();
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,171 @@
+package org.wehi.hucksteph;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TraversalCacheTest {
+
+    File DATABASE_ACTUAL_PATH = new File("test/actual");
+
+    private List<String> describe(TraversalResult result){
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < result.size(); i++) {
+            rows.add(result.getNodes().get(i).getId() + " " + result.getDepth(i) + " " + result.getPredecessor(i));
+        }
+        return rows;
+    }
+
+    @Test
+    void testKeptTraversalsAreReadUntilTheGraphChanges() {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/TRAVERSALCACHE/");
+        File graph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/TRAVERSALCACHE/GRAPH/");
+        File cacheDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/TRAVERSALCACHE/GRAPH.trav/");
+
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(graph);
+        long startId;
+        long lastId;
+        try(Transaction tx = graphDb.beginTx()){
+            // a chain with a branch, the last node is found through a node far from the start
+            Node previous = graphDb.createNode(Label.label("Protein"));
+            startId = previous.getId();
+            for (int i = 0; i < 40; i++) {
+                Node next = graphDb.createNode(Label.label("Protein"));
+                previous.createRelationshipTo(next, i % 2 == 0 ? RelTypes.INPUT : RelTypes.CONTROLS);
+                if (i % 7 == 0) {
+                    previous.createRelationshipTo(graphDb.createNode(Label.label("Protein")), RelTypes.CATALYSIS);
+                }
+                previous = next;
+            }
+            lastId = previous.getId();
+            tx.success();
+        }
+
+        List<String> ran;
+        List<String> kept;
+        List<String> keptAfterChange;
+        List<String> ranAfterChange;
+        long fingerprint;
+        try(Transaction tx = graphDb.beginTx()){
+            fingerprint = EmbeddedNeo4jDatabase.fingerprint(graphDb);
+            Node start = graphDb.getNodeById(startId);
+            ran = describe(new TraversalCache(graph, fingerprint).get(start, TraversalProfile.DOWNSTREAM, graphDb));
+            kept = describe(new TraversalCache(graph, fingerprint).get(start, TraversalProfile.DOWNSTREAM, graphDb));
+            tx.success();
+        }
+        try(Transaction tx = graphDb.beginTx()){
+            graphDb.getNodeById(lastId).createRelationshipTo(graphDb.createNode(Label.label("Protein")), RelTypes.OUTPUT);
+            tx.success();
+        }
+        try(Transaction tx = graphDb.beginTx()){
+            Node start = graphDb.getNodeById(startId);
+            // read from disk at the old fingerprint, so the new node is not there
+            keptAfterChange = describe(new TraversalCache(graph, fingerprint).get(start, TraversalProfile.DOWNSTREAM, graphDb));
+            ranAfterChange = describe(new TraversalCache(graph, EmbeddedNeo4jDatabase.fingerprint(graphDb))
+                    .get(start, TraversalProfile.DOWNSTREAM, graphDb));
+            tx.success();
+        }
+        graphDb.shutdown();
+        boolean keptOnDisk = new File(cacheDir, startId + "_downstream.trav").exists();
+        TraversalCache.clear(graph);
+        boolean cleared = !cacheDir.exists();
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        assertTrue(keptOnDisk);
+        assertTrue(cleared);
+        assertEquals(47, ran.size());
+        assertEquals(ran, kept);
+        assertEquals(ran, keptAfterChange);
+        assertEquals(ran.size() + 1, ranAfterChange.size());
+        assertEquals(ran, ranAfterChange.subList(0, ran.size()));
+    }
+
+    @Test
+    void testKeptTraversalsOutliveMappingAnExperiment() {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/TRAVERSALCACHE/");
+        File graph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/TRAVERSALCACHE/GRAPH/");
+        File kept = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/TRAVERSALCACHE/GRAPH.trav/");
+
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(graph);
+        long startId;
+        try(Transaction tx = graphDb.beginTx()){
+            Node previous = graphDb.createNode(Label.label("Protein"));
+            startId = previous.getId();
+            for (int i = 0; i < 10; i++) {
+                Node next = graphDb.createNode(Label.label("Protein"));
+                previous.createRelationshipTo(next, RelTypes.INPUT);
+                previous = next;
+            }
+            tx.success();
+        }
+
+        long topology;
+        long fingerprint;
+        List<String> ran;
+        try(Transaction tx = graphDb.beginTx()){
+            topology = EmbeddedNeo4jDatabase.topology(graphDb);
+            fingerprint = EmbeddedNeo4jDatabase.fingerprint(graphDb);
+            ran = describe(new TraversalCache(graph, topology).get(graphDb.getNodeById(startId), TraversalProfile.DOWNSTREAM, graphDb));
+            tx.success();
+        }
+        File file = new File(kept, startId + "_downstream.trav");
+        // a traversal run again would be written again
+        boolean marked = file.setLastModified(1000);
+
+        // an experiment is mapped and reset as MapPeptides and ResetScores do
+        try(Transaction tx = graphDb.beginTx()){
+            Node start = graphDb.getNodeById(startId);
+            start.setProperty("SUPPORT_SCORE_0", 1.0);
+            start.getRelationships().iterator().next().setProperty("WEIGHT_SUPPORT_0", 1.0);
+            tx.success();
+        }
+        try(Transaction tx = graphDb.beginTx()){
+            Node start = graphDb.getNodeById(startId);
+            start.removeProperty("SUPPORT_SCORE_0");
+            start.getRelationships().iterator().next().removeProperty("WEIGHT_SUPPORT_0");
+            tx.success();
+        }
+
+        long topologyAfter;
+        long fingerprintAfter;
+        List<String> keptAfter;
+        try(Transaction tx = graphDb.beginTx()){
+            topologyAfter = EmbeddedNeo4jDatabase.topology(graphDb);
+            fingerprintAfter = EmbeddedNeo4jDatabase.fingerprint(graphDb);
+            keptAfter = describe(new TraversalCache(graph, topologyAfter).get(graphDb.getNodeById(startId), TraversalProfile.DOWNSTREAM, graphDb));
+            tx.success();
+        }
+        long lastModified = file.lastModified();
+        graphDb.shutdown();
+
+        // a new topology, as CreateDB, UpdateDB and IntegratePSP give, drops the kept traversals
+        EmbeddedNeo4jDatabase.topologyChanged(graph);
+        boolean cleared = !kept.exists();
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        assertTrue(marked);
+        assertNotEquals(fingerprint, fingerprintAfter);
+        assertEquals(topology, topologyAfter);
+        assertEquals(ran, keptAfter);
+        assertEquals(1000, lastModified);
+        assertTrue(cleared);
+    }
+}
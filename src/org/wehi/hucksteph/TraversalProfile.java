@@ -0,0 +1,188 @@
+package org.wehi.hucksteph;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.traversal.Evaluation;
+import org.neo4j.graphdb.traversal.Evaluator;
+import org.neo4j.graphdb.traversal.TraversalDescription;
+
+import java.util.*;
+
+/**
+ * A named set of relationships and the direction each is followed in, with where small molecules stop the traversal.
+ * Small molecules are looked up in a bitset of node ids loaded once per database rather than read from every node
+ * the traversal expands
+ */
+public final class TraversalProfile {
+
+    /**
+     * Everything a node acts on, small molecules are reached but not expanded
+     */
+    public static final TraversalProfile DOWNSTREAM = new TraversalProfile("downstream", false)
+            .with(RelTypes.PHOSPHORYLATION, Direction.INCOMING)
+            .with(RelTypes.ID_BELONGS_TO, Direction.INCOMING)
+            .with(RelTypes.INPUT, Direction.OUTGOING)
+            .with(RelTypes.OUTPUT, Direction.OUTGOING)
+            .with(RelTypes.CONTROLS, Direction.OUTGOING)
+            .with(RelTypes.CATALYSIS, Direction.OUTGOING)
+            .with(RelTypes.COMPONENT, Direction.OUTGOING)
+            .with(RelTypes.SMALL_MOL_EDGE, Direction.OUTGOING)
+            .with(RelationshipType.withName("ACTIVATION"), Direction.OUTGOING)
+            .with(RelationshipType.withName("INHIBITION"), Direction.OUTGOING);
+
+    /**
+     * Everything that acts on a node, only stops if it starts at a small molecule
+     */
+    public static final TraversalProfile UPSTREAM = new TraversalProfile("upstream", true)
+            .with(RelTypes.INPUT, Direction.INCOMING)
+            .with(RelTypes.OUTPUT, Direction.INCOMING)
+            .with(RelTypes.CONTROLS, Direction.INCOMING)
+            .with(RelTypes.PHOSPHORYLATION, Direction.INCOMING)
+            .with(RelTypes.ID_BELONGS_TO, Direction.INCOMING)
+            .with(RelTypes.COMPONENT, Direction.INCOMING)
+            .with(RelTypes.SMALL_MOL_EDGE, Direction.INCOMING)
+            .with(RelationshipType.withName("ACTIVATION"), Direction.INCOMING)
+            .with(RelationshipType.withName("INHIBITION"), Direction.INCOMING);
+
+    /**
+     * The reactions around a node in both directions, small molecules are reached but not expanded
+     */
+    public static final TraversalProfile NEIGHBOURHOOD = new TraversalProfile("neighbourhood", false)
+            .with(RelTypes.OUTPUT, Direction.BOTH)
+            .with(RelTypes.INPUT, Direction.BOTH)
+            .with(RelTypes.CONTROLS, Direction.BOTH)
+            .with(RelTypes.CATALYSIS, Direction.BOTH)
+            .with(RelTypes.SMALL_MOL_EDGE, Direction.BOTH)
+            .with(RelationshipType.withName("ACTIVATION"), Direction.BOTH)
+            .with(RelationshipType.withName("INHIBITION"), Direction.BOTH);
+
+    /**
+     * Downstream as counted for every proteoform by qPhosDs, without UniProt ids or small molecule edges
+     */
+    public static final TraversalProfile PROTEOFORM_DOWNSTREAM = new TraversalProfile("proteoformDownstream", false)
+            .with(RelTypes.PHOSPHORYLATION, Direction.INCOMING)
+            .with(RelTypes.INPUT, Direction.OUTGOING)
+            .with(RelTypes.OUTPUT, Direction.OUTGOING)
+            .with(RelTypes.CONTROLS, Direction.OUTGOING)
+            .with(RelTypes.CATALYSIS, Direction.OUTGOING)
+            .with(RelTypes.COMPONENT, Direction.OUTGOING)
+            .with(RelationshipType.withName("ACTIVATION"), Direction.OUTGOING)
+            .with(RelationshipType.withName("INHIBITION"), Direction.OUTGOING);
+
+    /**
+     * Upstream as counted for every proteoform by qPhosDs, without UniProt ids or small molecule edges
+     */
+    public static final TraversalProfile PROTEOFORM_UPSTREAM = new TraversalProfile("proteoformUpstream", true)
+            .with(RelTypes.INPUT, Direction.INCOMING)
+            .with(RelTypes.OUTPUT, Direction.INCOMING)
+            .with(RelTypes.CONTROLS, Direction.INCOMING)
+            .with(RelTypes.PHOSPHORYLATION, Direction.INCOMING)
+            .with(RelTypes.COMPONENT, Direction.INCOMING)
+            .with(RelationshipType.withName("ACTIVATION"), Direction.INCOMING)
+            .with(RelationshipType.withName("INHIBITION"), Direction.INCOMING);
+
+    private static final List<TraversalProfile> PROFILES = Collections.unmodifiableList(Arrays.asList(
+            DOWNSTREAM, UPSTREAM, NEIGHBOURHOOD, PROTEOFORM_DOWNSTREAM, PROTEOFORM_UPSTREAM));
+
+    // the small molecules of the last database asked for, and the topology they were read at
+    private static GraphDatabaseService smallMoleculeDb = null;
+    private static long smallMoleculeTopology = -1;
+    private static BitSet smallMolecules = null;
+
+    private final String name;
+    private final boolean pruneAtStart;
+    private final LinkedHashMap<RelationshipType, Direction> relationships = new LinkedHashMap<>();
+
+    private TraversalProfile(String name, boolean pruneAtStart) {
+        this.name = name;
+        this.pruneAtStart = pruneAtStart;
+    }
+
+    private TraversalProfile with(RelationshipType type, Direction direction) {
+        relationships.put(type, direction);
+        return this;
+    }
+
+    /**
+     * @param name
+     * @return the profile with the name, ignoring case
+     */
+    public static TraversalProfile byName(String name) {
+        for (TraversalProfile profile : PROFILES) {
+            if (profile.name.equalsIgnoreCase(name)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("No traversal profile called " + name + ", profiles are: " + PROFILES);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the relationships followed and the direction each is followed in
+     */
+    public Map<RelationshipType, Direction> getRelationships() {
+        return Collections.unmodifiableMap(relationships);
+    }
+
+    /**
+     * @return true if small molecules only stop the traversal when it starts at one, false if every small molecule
+     * reached is a dead end
+     */
+    public boolean prunesAtStart() {
+        return pruneAtStart;
+    }
+
+    /**
+     * A breadth first traversal following this profile, more evaluators can be added to it.
+     * Must be used inside a transaction
+     * @param graphDb
+     * @return
+     */
+    public TraversalDescription describe(GraphDatabaseService graphDb) {
+        BitSet smallMolecules = smallMolecules(graphDb);
+        TraversalDescription td = graphDb.traversalDescription().breadthFirst()
+                .evaluator(new Evaluator() {
+                    @Override
+                    public Evaluation evaluate(Path path) {
+                        Node node = pruneAtStart ? path.startNode() : path.endNode();
+                        if (smallMolecules.get((int) node.getId())) {
+                            return Evaluation.INCLUDE_AND_PRUNE;
+                        }
+                        return Evaluation.INCLUDE_AND_CONTINUE;
+                    }
+                });
+        for (Map.Entry<RelationshipType, Direction> entry : relationships.entrySet()) {
+            td = td.relationships(entry.getKey(), entry.getValue());
+        }
+        return td;
+    }
+
+    /**
+     * The ids of the small molecules in the database, read once and again only once its topology changes, mapping or
+     * resetting an experiment doesn't change them. Must be called inside a transaction
+     * @param graphDb
+     * @return
+     */
+    public static synchronized BitSet smallMolecules(GraphDatabaseService graphDb) {
+        long topology = EmbeddedNeo4jDatabase.topology(graphDb);
+        if (smallMolecules == null || smallMoleculeDb != graphDb || smallMoleculeTopology != topology) {
+            BitSet bits = new BitSet();
+            for (Node node : graphDb.getAllNodes()) {
+                if ("SmallMolecule".equals(node.getProperty(PropertyType.TYPE.toString(), null))) {
+                    bits.set((int) node.getId());
+                }
+            }
+            smallMolecules = bits;
+            smallMoleculeDb = graphDb;
+            smallMoleculeTopology = topology;
+        }
+        return smallMolecules;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
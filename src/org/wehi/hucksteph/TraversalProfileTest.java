@@ -0,0 +1,107 @@
+package org.wehi.hucksteph;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TraversalProfileTest {
+
+    File DATABASE_ACTUAL_PATH = new File("test/actual");
+
+    private Node entity(GraphDatabaseService graphDb, String type){
+        Node node = graphDb.createNode(Label.label(type), Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
+        node.setProperty(PropertyType.TYPE.toString(), type);
+        return node;
+    }
+
+    @Test
+    void testSmallMoleculesArePruned() {
+        File tempDir = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/PROFILE/");
+        File graph = new File(DATABASE_ACTUAL_PATH+ "/toBeDeleted/PROFILE/GRAPH/");
+
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(graph);
+        long aId;
+        long bId;
+        long cId;
+        try(Transaction tx = graphDb.beginTx()){
+            // a -> r1 -> b -> r2 -> c
+            Node a = entity(graphDb, "Protein");
+            Node b = entity(graphDb, "Protein");
+            Node c = entity(graphDb, "Protein");
+            Node r1 = graphDb.createNode(Label.label("BiochemicalReaction"));
+            r1.setProperty(PropertyType.TYPE.toString(), "BiochemicalReaction");
+            Node r2 = graphDb.createNode(Label.label("BiochemicalReaction"));
+            r2.setProperty(PropertyType.TYPE.toString(), "BiochemicalReaction");
+            a.createRelationshipTo(r1, RelTypes.INPUT);
+            r1.createRelationshipTo(b, RelTypes.OUTPUT);
+            b.createRelationshipTo(r2, RelTypes.INPUT);
+            r2.createRelationshipTo(c, RelTypes.OUTPUT);
+            aId = a.getId();
+            bId = b.getId();
+            cId = c.getId();
+            tx.success();
+        }
+
+        HashSet<Long> before = new HashSet<>();
+        HashSet<Long> after = new HashSet<>();
+        HashSet<Long> upstream = new HashSet<>();
+        try(Transaction tx = graphDb.beginTx()){
+            for (Path path : TraversalProfile.DOWNSTREAM.describe(graphDb).traverse(graphDb.getNodeById(aId))) {
+                before.add(path.endNode().getId());
+            }
+            tx.success();
+        }
+        // mapping an experiment keeps the bitset
+        BitSet bits;
+        boolean keptAfterMapping;
+        try(Transaction tx = graphDb.beginTx()){
+            bits = TraversalProfile.smallMolecules(graphDb);
+            graphDb.getNodeById(bId).setProperty("SUPPORT_SCORE_0", 1.0);
+            tx.success();
+        }
+        try(Transaction tx = graphDb.beginTx()){
+            keptAfterMapping = TraversalProfile.smallMolecules(graphDb) == bits;
+            tx.success();
+        }
+        // b becomes a small molecule as an UpdateDB could make it, the bitset has to be read again
+        try(Transaction tx = graphDb.beginTx()){
+            graphDb.getNodeById(bId).setProperty(PropertyType.TYPE.toString(), "SmallMolecule");
+            tx.success();
+        }
+        EmbeddedNeo4jDatabase.topologyChanged(graph);
+        try(Transaction tx = graphDb.beginTx()){
+            for (Path path : TraversalProfile.byName("Downstream").describe(graphDb).traverse(graphDb.getNodeById(aId))) {
+                after.add(path.endNode().getId());
+            }
+            // upstream only stops at a small molecule start
+            for (Path path : TraversalProfile.UPSTREAM.describe(graphDb).traverse(graphDb.getNodeById(cId))) {
+                upstream.add(path.endNode().getId());
+            }
+            tx.success();
+        }
+        graphDb.shutdown();
+
+        try{
+            FileUtils.deleteDirectory(tempDir);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        assertEquals(5, before.size());
+        assertTrue(keptAfterMapping);
+        assertTrue(before.contains(cId));
+        assertEquals(3, after.size());
+        assertTrue(after.contains(bId));
+        assertFalse(after.contains(cId));
+        assertEquals(5, upstream.size());
+        assertThrows(IllegalArgumentException.class, () -> TraversalProfile.byName("sideways"));
+    }
+}
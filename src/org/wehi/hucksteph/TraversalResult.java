@@ -0,0 +1,110 @@
+package org.wehi.hucksteph;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.traversal.Traverser;
+
+import java.util.*;
+
+/**
+ * The nodes a traversal found, in the order it found them, with the depth each was found at and the node it was
+ * reached from. A Traverser runs the whole search again every time it's iterated, this is run once and kept
+ */
+public class TraversalResult {
+
+    private final List<Node> nodes;
+    private final int[] depths;
+    private final long[] predecessors;
+    private HashSet<Long> nodeIds = null;
+
+    private TraversalResult(List<Node> nodes, int[] depths, long[] predecessors) {
+        this.nodes = Collections.unmodifiableList(nodes);
+        this.depths = depths;
+        this.predecessors = predecessors;
+    }
+
+    /**
+     * Runs the traversal, must be called inside a transaction and the result used inside the same one
+     * @param traverser
+     * @return
+     */
+    public static TraversalResult of(Traverser traverser) {
+        List<Node> nodes = new ArrayList<>();
+        List<Integer> depths = new ArrayList<>();
+        List<Long> predecessors = new ArrayList<>();
+        for (Path path : traverser) {
+            Node node = path.endNode();
+            nodes.add(node);
+            depths.add(path.length());
+            if (path.lastRelationship() == null) {
+                predecessors.add(-1L);
+            } else {
+                predecessors.add(path.lastRelationship().getOtherNodeId(node.getId()));
+            }
+        }
+        int[] depthArray = new int[depths.size()];
+        long[] predecessorArray = new long[predecessors.size()];
+        for (int i = 0; i < depthArray.length; i++) {
+            depthArray[i] = depths.get(i);
+            predecessorArray[i] = predecessors.get(i);
+        }
+        return new TraversalResult(nodes, depthArray, predecessorArray);
+    }
+
+    /**
+     * Rebuilds a traversal that was kept, must be called inside a transaction and the result used inside the same one
+     * @param graphDb
+     * @param nodeIds the ids of the nodes in the order they were found
+     * @param depths
+     * @param predecessors
+     * @return
+     */
+    static TraversalResult of(GraphDatabaseService graphDb, long[] nodeIds, int[] depths, long[] predecessors) {
+        List<Node> nodes = new ArrayList<>(nodeIds.length);
+        for (long id : nodeIds) {
+            nodes.add(graphDb.getNodeById(id));
+        }
+        return new TraversalResult(nodes, depths, predecessors);
+    }
+
+    /**
+     * @return the number of nodes found, including the start
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @return the nodes in the order they were found, starting with the start node
+     */
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @param i position in getNodes
+     * @return the number of relationships between the start and the node
+     */
+    public int getDepth(int i) {
+        return depths[i];
+    }
+
+    /**
+     * @param i position in getNodes
+     * @return the id of the node it was reached from, -1 for the start
+     */
+    public long getPredecessor(int i) {
+        return predecessors[i];
+    }
+
+    public boolean contains(Node node) {
+        if (nodeIds == null) {
+            nodeIds = new HashSet<>();
+            for (Node n : nodes) {
+                nodeIds.add(n.getId());
+            }
+        }
+        return nodeIds.contains(node.getId());
+    }
+}
@@ -1,7 +1,5 @@
 package org.wehi.hucksteph;
 
-import org.apache.commons.math3.stat.inference.AlternativeHypothesis;
-import org.apache.commons.math3.stat.inference.BinomialTest;
 import org.biopax.paxtools.model.level2.protein;
 import org.neo4j.graphalgo.GraphAlgoFactory;
 import org.neo4j.graphalgo.PathFinder;
@@ -16,6 +14,9 @@ import org.neo4j.unsafe.impl.batchimport.input.InputException;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -40,7 +41,7 @@ public class qPhosDatabase extends MeasuredDatabase{
 
         File databaseDir = getDatabaseDir();
         File outputFile = getOutputFile();
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
 
         FileWriter fstream = new FileWriter(outputFile + "/TraversalReport_upstream.tsv");
         BufferedWriter out = new BufferedWriter(fstream);
@@ -52,75 +53,28 @@ public class qPhosDatabase extends MeasuredDatabase{
 
         try (Transaction tx = graphDb.beginTx()) {
             ResourceIterator<Node> uids = graphDb.findNodes(Label.label(LabelTypes.UNIPROT_ID.toString()));
-            ResourceIterator<Node> uids4len = graphDb.findNodes(Label.label(LabelTypes.UNIPROT_ID.toString()));
-
-            TraversalDescription ds = graphDb.traversalDescription().breadthFirst()
-                    .evaluator(new Evaluator() {
-                        @Override
-                        public Evaluation evaluate(Path path) {
-                            if(path.endNode().getProperty(PropertyType.TYPE.toString())
-                                    .equals("SmallMolecule")){
-                                return Evaluation.INCLUDE_AND_PRUNE;
-                            }
-                            return Evaluation.INCLUDE_AND_CONTINUE;
-                        }
-                    })
-                    .relationships(RelTypes.PHOSPHORYLATION, Direction.INCOMING)
-                    .relationships(RelTypes.INPUT, Direction.OUTGOING)
-                    .relationships(RelTypes.OUTPUT, Direction.OUTGOING)
-                    .relationships(RelTypes.CONTROLS, Direction.OUTGOING)
-                    .relationships(RelTypes.CATALYSIS, Direction.OUTGOING)
-                    .relationships(RelTypes.COMPONENT, Direction.OUTGOING)
-                    .relationships(RelationshipType.withName("ACTIVATION"), Direction.OUTGOING)
-                    .relationships(RelationshipType.withName("INHIBITION"), Direction.OUTGOING);
-
-            TraversalDescription us = graphDb.traversalDescription().breadthFirst()
-                    .evaluator(new Evaluator() {
-                        @Override
-                        public Evaluation evaluate(Path path) {
-                            if(path.startNode().getProperty(PropertyType.TYPE.toString())
-                                    .equals("SmallMolecule")){
-                                return Evaluation.INCLUDE_AND_PRUNE;
-                            }
-                            return Evaluation.INCLUDE_AND_CONTINUE;
-                        }
-                    })
-                    .relationships(RelTypes.INPUT, Direction.INCOMING)
-                    .relationships(RelTypes.OUTPUT, Direction.INCOMING)
-                    .relationships(RelTypes.CONTROLS, Direction.INCOMING)
-                    .relationships(RelTypes.PHOSPHORYLATION, Direction.INCOMING)
-                    .relationships(RelTypes.COMPONENT, Direction.INCOMING)
-                    .relationships(RelationshipType.withName("ACTIVATION"), Direction.INCOMING)
-                    .relationships(RelationshipType.withName("INHIBITION"), Direction.INCOMING);
-
-            Integer count = 0;
-            Integer i = getLength(uids4len);
-            int onePercent = round(i/ 100);
+
+            // downstream stops at small molecules, upstream only stops if it starts at one
+            ReachabilityIndex dsIndex = ReachabilityIndex.build(graphDb, TraversalProfile.PROTEOFORM_DOWNSTREAM);
+            ReachabilityIndex usIndex = ReachabilityIndex.build(graphDb, TraversalProfile.PROTEOFORM_UPSTREAM);
+            System.out.println("Downstream: " + dsIndex.getComponentCount() + " components, largest " +
+                    dsIndex.getLargestComponent() + ". Upstream: " + usIndex.getComponentCount() +
+                    " components, largest " + usIndex.getLargestComponent());
+
             for (ResourceIterator<Node> it = uids; it.hasNext(); ) {
                 Node uidNode = it.next();
-                count ++;
-//                if((count%onePercent) == 0){
-//                    System.out.print("\rProgress: "+ (count/i)*100);
-//                }
 
                 Iterable<Relationship> relationships = uidNode.getRelationships(RelTypes.ID_BELONGS_TO);
 
                 for (Relationship relationship : relationships) {
                     Node prot = relationship.getEndNode();
 
-                    Traverser dsNodeTraverser = ds.traverse(prot);
-                    Traverser usNodeTraverser = us.traverse(prot);
-
-                    Integer dsDepth = 0;
-                    for (Path nodePath : dsNodeTraverser) {
-
-                        dsDepth++;
+                    Integer dsDepth = dsIndex.reachableCount(prot.getId());
+                    Integer usDepth = usIndex.reachableCount(prot.getId());
+                    if (TraversalProfile.smallMolecules(graphDb).get((int) prot.getId())) {
+                        usDepth = 1;
                     }
 
-                    Integer usDepth = 0;
-                    for (Path nodePath : usNodeTraverser) {
-                        usDepth++;
-                    }
                     //out.write("\tUniProtID\tUniProtNodeID\tProteoformName\tProeofromID\tDisplayName\ttraversalDepth\n");
                     out.write(uidNode.getProperty(PropertyType.DISPLAY_NAME.toString()) +"\t"+
                             uidNode.getId()  +"\t"+
@@ -141,7 +95,7 @@ public class qPhosDatabase extends MeasuredDatabase{
         }
         out.close();
         out1.close();
-        graphDb.shutdown();
+        shutdownDatabase(graphDb);
 
     }
 
@@ -158,7 +112,7 @@ public class qPhosDatabase extends MeasuredDatabase{
     public void allMappings(File path2phosPeps) throws IOException {
         File databaseDir = getDatabaseDir();
         File outputFile = getOutputFile();
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openDatabase();
 
         FileWriter fstream = new FileWriter(outputFile + "/qPhosAllMappings.tsv");
         BufferedWriter out = new BufferedWriter(fstream);
@@ -571,14 +525,14 @@ public class qPhosDatabase extends MeasuredDatabase{
             resetScores(graphDb, exprName);
         }// expr for loop
         out.close();
-        graphDb.shutdown();
+        shutdownDatabase(graphDb);
     }
 
     //this one maps a single qphos experiment to a database
     public void allMappings(File path2phosPeps, String expr) throws IOException {
         File databaseDir = getDatabaseDir();
         File outputFile = getOutputFile();
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openDatabase();
 
 
 
@@ -976,12 +930,13 @@ public class qPhosDatabase extends MeasuredDatabase{
 
         }// expr for loop
         System.out.println("Done Mapping" + expr);
-        graphDb.shutdown();
+        shutdownDatabase(graphDb);
     }
 
     private void mappingReport(BufferedWriter out2, GraphDatabaseService graphDb, String supportScoreString, double minAbundance, double maxAbundance) throws IOException {
 
         try (Transaction tx = graphDb.beginTx()) {
+            NodeClasses classes = NodeClasses.of(graphDb);
 
             // Phosn stats
             Integer phosnsMappedTo = 0;
@@ -1052,7 +1007,7 @@ public class qPhosDatabase extends MeasuredDatabase{
             ResourceIterator<Node> integrateds = graphDb.findNodes(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()), PropertyType.INTEGRATED.toString(), "true");
             while (integrateds.hasNext()){
                 Node integrated = integrateds.next();
-                if (integrated.hasLabel(Label.label("Protein"))){
+                if (classes.is(integrated, GraphSnapshot.CLASS_PROTEIN)){
                     if (integrated.hasProperty(supportScoreString)){
                         intsMappedTo++;
                     }else{
@@ -1153,127 +1108,174 @@ public class qPhosDatabase extends MeasuredDatabase{
     public void allNbhds( Integer depth) throws IOException {
         File databaseDir = getDatabaseDir();
         File outputFile = getOutputFile();
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
 
         // write new files
         FileWriter fstream = new FileWriter(outputFile + "/BinomialNeighbourhoods.tsv");
         BufferedWriter out = new BufferedWriter(fstream);
         out.write("Experiment\tnumSig\tNumBonfSig\n");
 
-
-
-        try(Transaction tx = graphDb.beginTx()){
-            //get all experiments in db
-            ResourceIterable<String> allPropertyKeys = graphDb.getAllPropertyKeys();
+        // the report is closed and the database shut down whether the analysis finished or a worker failed
+        try {
             List<String> scores = new ArrayList<>();
-            for (String property: allPropertyKeys) {
-                if (property.startsWith("SUPPORT_SCORE_")){
-                    scores.add(property);
-                }
-            }
-
-            // get number of things measured in db (per experiment)
             HashMap<String, Integer> numMeasured = new HashMap<>();
             double numInDb = 0;
-            for (String scoreString: scores) {
-                String supportScoreStr = scoreString;
-                numMeasured.put(scoreString,0);
-
-                ResourceIterator<Node> allPEs = graphDb.findNodes(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
-                while (allPEs.hasNext()) {
-                    Node innerPE = allPEs.next();
-                    if (innerPE.hasLabel(Label.label("Protein")) | innerPE.hasLabel(Label.label("Complex"))) {
-                        if (innerPE.hasProperty(supportScoreStr)) {
-                            Integer numMeasuredCount = numMeasured.get(supportScoreStr);
-                            numMeasuredCount++;
-                            numMeasured.put(supportScoreStr, numMeasuredCount);
+            // the proteins and complexes, and where each is among the physical entities
+            List<Long> starts = new ArrayList<>();
+            List<Integer> positions = new ArrayList<>();
+            try(Transaction tx = graphDb.beginTx()){
+                NodeClasses classes = NodeClasses.of(graphDb);
+                //get all experiments in db
+                ResourceIterable<String> allPropertyKeys = graphDb.getAllPropertyKeys();
+                for (String property: allPropertyKeys) {
+                    if (property.startsWith("SUPPORT_SCORE_")){
+                        scores.add(property);
+                    }
+                }
+
+                // get number of things measured in db (per experiment)
+                for (String scoreString: scores) {
+                    String supportScoreStr = scoreString;
+                    numMeasured.put(scoreString,0);
+
+                    ResourceIterator<Node> allPEs = graphDb.findNodes(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
+                    while (allPEs.hasNext()) {
+                        Node innerPE = allPEs.next();
+                        if (classes.is(innerPE, GraphSnapshot.CLASS_PROTEIN) | classes.is(innerPE, GraphSnapshot.CLASS_COMPLEX)) {
+                            if (innerPE.hasProperty(supportScoreStr)) {
+                                Integer numMeasuredCount = numMeasured.get(supportScoreStr);
+                                numMeasuredCount++;
+                                numMeasured.put(supportScoreStr, numMeasuredCount);
+                            }
+                            numInDb++;
                         }
-                        numInDb++;
                     }
                 }
-            }
 
-                // Find all neighbourhoods
-            ResourceIterator<Node> PEs = graphDb.findNodes(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
+                Integer count = 0;
+                ResourceIterator<Node> PEs = graphDb.findNodes(Label.label(LabelTypes.PHYSICAL_ENTITY.toString()));
+                for (ResourceIterator<Node> it = PEs; it.hasNext(); ) {
+                    count ++;
+                    Node pe = it.next();
+                    if(classes.is(pe, GraphSnapshot.CLASS_PROTEIN) | classes.is(pe, GraphSnapshot.CLASS_COMPLEX)) {
+                        starts.add(pe.getId());
+                        positions.add(count);
+                    }
+                }
+                tx.success();
+            }
 
             //record the num sig in here
             HashMap<String, Integer> bonfSig = new HashMap<>();
             HashMap<String, Integer> pvalSig = new HashMap<>();
 
-            Integer count = 0;
-            for (ResourceIterator<Node> it = PEs; it.hasNext(); ) {
-                count ++;
-
-                Node pe = it.next();
-                if(pe.hasLabel(Label.label("Protein")) | pe.hasLabel(Label.label("Complex"))) {
-
-                    HashSet<Node> nbhd = neighbourTraversal(pe, depth, graphDb);
-                    System.out.println("Neighbouthood Number:" + count);
-
-                    // now get the # things measured and calc binom pval for that nbhd
-                    Integer scoreCount = 0;
-                    for (String scoreString: scores) {
-                        scoreCount ++;
-                        String experiment = scoreString.replaceAll("SUPPORT_SCORE_", "");
-                        String supportScoreStr = scoreString;
-                        bonfSig.put(experiment, 0);
-                        pvalSig.put(experiment, 0);
-                        Integer dbMeasured = numMeasured.get(supportScoreStr);
-
-
-                        double nbhdSize = 0;
-                        int nbhdMeasured = 0;
-                        for(Node node:nbhd){
-                            if (node.hasProperty(supportScoreStr)){
-                                if(Double.parseDouble(node.getProperty(supportScoreStr).toString()) > 0){
-                                    nbhdMeasured ++;
-                                }
-                                nbhdSize ++;
+            // Find all neighbourhoods in chunks on [threads] workers, each in its own read transaction, and count them in
+            // the order the proteins and complexes were found
+            double dbSize = numInDb;
+            BinomialTail tails = new BinomialTail(numMeasured.values().stream().mapToInt(Integer::intValue).max().orElse(0));
+            ForkJoinPool pool = new ForkJoinPool(getThreads());
+            try {
+                List<ForkJoinTask<boolean[][]>> tasks = new ArrayList<>();
+                for (int from = 0; from < starts.size(); from += NEIGHBOURHOOD_CHUNK) {
+                    List<Long> chunk = starts.subList(from, Math.min(from + NEIGHBOURHOOD_CHUNK, starts.size()));
+                    tasks.add(pool.submit(() -> testNeighbourhoods(graphDb, chunk, depth, scores, numMeasured, dbSize, tails)));
+                }
+                int position = 0;
+                for (ForkJoinTask<boolean[][]> task : tasks) {
+                    for (boolean[] significant : task.get()) {
+                        System.out.println("Neighbouthood Number:" + positions.get(position++));
+
+                        for (int exp = 0; exp < scores.size(); exp++) {
+                            String experiment = scores.get(exp).replaceAll("SUPPORT_SCORE_", "");
+                            bonfSig.put(experiment, 0);
+                            pvalSig.put(experiment, 0);
+
+                            if(significant[2 * exp]){
+                                Integer countSig = pvalSig.get(experiment);
+                                countSig ++;
+                                pvalSig.put(experiment, countSig);
                             }
-                        }
-
-                        double probability = nbhdSize/numInDb;
-                        Double pval = 0.0;
-                        if(nbhdMeasured != 0){
-                            BinomialTest bn = new BinomialTest();
-                            pval = bn.binomialTest(dbMeasured, nbhdMeasured, probability, AlternativeHypothesis.GREATER_THAN);
-                        }
-
-                        Double bonfCorrected= pval * dbMeasured;
 
-                        if(pval < 0.05){
-                            Integer countSig = pvalSig.get(experiment);
-                            countSig ++;
-                            pvalSig.put(experiment, countSig);
-                        }
-
-                        if(bonfCorrected < 0.05 & nbhdSize > 0.0 ){
-                            Integer countSig = pvalSig.get(experiment);
-                            countSig ++;
-                            bonfSig.put(experiment, countSig);
+                            if(significant[2 * exp + 1]){
+                                Integer countSig = pvalSig.get(experiment);
+                                countSig ++;
+                                bonfSig.put(experiment, countSig);
+                            }
                         }
                     }
                 }
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException(e.getCause() == null ? e : e.getCause());
+            } finally {
+                pool.shutdown();
             }
+
             Set<String> experiments = pvalSig.keySet();
             for(String experiment: experiments){
                 Integer numPvalSig = pvalSig.get(experiment);
                 Integer numBonfSig = bonfSig.get(experiment);
                 out.write(experiment+"\t"+numPvalSig + "\t" + numBonfSig+ "\n");
             }
+        } finally {
+            out.close();
+            shutdownDatabase(graphDb);
+        }
+    }
 
+    /**
+     * Finds the neighbourhoods of a chunk of proteins and complexes in its own transaction and calculates the binom
+     * pval of each in every experiment
+     * @return for each start, whether the pval and whether the bonferroni corrected pval is significant, in pairs
+     * per experiment
+     */
+    private boolean[][] testNeighbourhoods(GraphDatabaseService graphDb, List<Long> chunk, Integer depth,
+                                           List<String> scores, HashMap<String, Integer> numMeasured, double numInDb,
+                                           BinomialTail tails) {
+        boolean[][] significant = new boolean[chunk.size()][2 * scores.size()];
+        try(Transaction tx = graphDb.beginTx()){
+            for (int i = 0; i < chunk.size(); i++) {
+                HashSet<Node> nbhd = neighbourTraversal(graphDb.getNodeById(chunk.get(i)), depth, graphDb);
+
+                // now get the # things measured and calc binom pval for that nbhd
+                for (int exp = 0; exp < scores.size(); exp++) {
+                    String supportScoreStr = scores.get(exp);
+                    Integer dbMeasured = numMeasured.get(supportScoreStr);
+
+                    double nbhdSize = 0;
+                    int nbhdMeasured = 0;
+                    for(Node node:nbhd){
+                        if (node.hasProperty(supportScoreStr)){
+                            if(Double.parseDouble(node.getProperty(supportScoreStr).toString()) > 0){
+                                nbhdMeasured ++;
+                            }
+                            nbhdSize ++;
+                        }
+                    }
+
+                    double probability = nbhdSize/numInDb;
+                    Double pval = 0.0;
+                    if(nbhdMeasured != 0){
+                        pval = tails.upperTail(dbMeasured, nbhdMeasured, probability);
+                    }
+
+                    Double bonfCorrected= pval * dbMeasured;
+
+                    significant[i][2 * exp] = pval < 0.05;
+                    significant[i][2 * exp + 1] = bonfCorrected < 0.05 & nbhdSize > 0.0;
+                }
+            }
             tx.success();
         }
-        out.close();
-        graphDb.shutdown();
+        return significant;
     }
 
     public void qPhosMinimalConnectionNetwork(String experiment) throws IOException {
         File databaseDir = getDatabaseDir();
         File outputFile = getOutputFile();
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(databaseDir);
+        GraphDatabaseService graphDb = openReadOnlyDatabase();
 
         try (Transaction tx = graphDb.beginTx()) {
+            NodeClasses classes = NodeClasses.of(graphDb);
 
             //for(String experiment: experimentStrs){
                 System.out.println("\nMCN FOR "+ experiment);
@@ -1376,24 +1378,24 @@ public class qPhosDatabase extends MeasuredDatabase{
                 Integer numMappedIntegrated = 0;
                 HashSet<String> UIDs = new HashSet<>();
                 for (Node node: mcnNodes){
-                    if(node.hasLabel(Label.label("Protein"))){
+                    if(classes.is(node, GraphSnapshot.CLASS_PROTEIN)){
                         numProteins++;
                         if(node.hasProperty(supportScoreStr)){
                             numMappedProteins++;
                         }
-                        if (node.hasProperty(PropertyType.KINASE.toString())){
+                        if (classes.hasFlag(node, GraphSnapshot.FLAG_KINASE)){
                             numKinases++;
                             if(node.hasProperty(supportScoreStr)){
                                 numMappedKinases++;
                             }
                         }
-                        if(node.hasProperty(PropertyType.INTEGRATED.toString())){
+                        if(classes.hasFlag(node, GraphSnapshot.FLAG_INTEGRATED)){
                             numIntegrated++;
                             if(node.hasProperty(supportScoreStr)){
                                 numMappedIntegrated++;
                             }
                         }
-                        if (node.hasRelationship(RelTypes.PHOSPHORYLATION)){
+                        if (classes.hasFlag(node, GraphSnapshot.FLAG_PHOSPHORYLATED)){
                             numPhosdProteins++;
                             if(node.hasProperty(supportScoreStr)){
                                 numMappedPhosdProteins++;
@@ -1407,18 +1409,18 @@ public class qPhosDatabase extends MeasuredDatabase{
                         }
 
 
-                    }else if(node.hasLabel(Label.label("Complex"))){
+                    }else if(classes.is(node, GraphSnapshot.CLASS_COMPLEX)){
                         numComplexes++;
                         if(node.hasProperty(supportScoreStr)){
                             numMappedComplexes++;
                         }
-                        if(node.hasProperty(PropertyType.INTEGRATED.toString())){
+                        if(classes.hasFlag(node, GraphSnapshot.FLAG_INTEGRATED)){
                             numIntegrated++;
                             if(node.hasProperty(supportScoreStr)){
                                 numMappedIntegrated++;
                             }
                         }
-                    }else if (node.hasLabel(Label.label("BiochemicalReaction"))){
+                    }else if (classes.is(node, GraphSnapshot.CLASS_BIOCHEMICAL_REACTION)){
                         numRXNs++;
                     }
                 }
@@ -1435,7 +1437,7 @@ public class qPhosDatabase extends MeasuredDatabase{
             tx.success();
         }
         System.out.println("MCN Done");
-        graphDb.shutdown();
+        shutdownDatabase(graphDb);
     }
 
 }